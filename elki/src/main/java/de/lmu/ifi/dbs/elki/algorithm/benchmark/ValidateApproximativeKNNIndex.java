@@ -175,12 +175,17 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mv = new MeanVariance(), mvrec = new MeanVariance();
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(), mvdrerr = new MeanVariance();
       int misses = 0;
+      long approxtime = 0L, exacttime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         if(pattern == null || pattern.matcher(lrel.get(iditer)).find()) {
           // Query index:
+          final long start = System.nanoTime();
           KNNList knns = knnQuery.getKNNForDBID(iditer, k);
+          final long mid = System.nanoTime();
           // Query reference:
           KNNList trueknns = truekNNQuery.getKNNForDBID(iditer, k);
+          exacttime += System.nanoTime() - mid;
+          approxtime += mid - start;
 
           // Put adjusted knn size:
           mv.put(knns.size() * k / (double) trueknns.size());
@@ -216,6 +221,7 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
+        logTiming(approxtime, exacttime);
       }
     }
     else {
@@ -252,6 +258,7 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
       MeanVariance mv = new MeanVariance(), mvrec = new MeanVariance();
       MeanVariance mvdist = new MeanVariance(), mvdaerr = new MeanVariance(), mvdrerr = new MeanVariance();
       int misses = 0;
+      long approxtime = 0L, exacttime = 0L;
       for(DBIDIter iditer = sample.iter(); iditer.valid(); iditer.advance()) {
         int off = sids.binarySearch(iditer);
         assert (off >= 0);
@@ -259,9 +266,13 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         O o = (O) bundle.data(off, col);
 
         // Query index:
+        final long start = System.nanoTime();
         KNNList knns = knnQuery.getKNNForObject(o, k);
+        final long mid = System.nanoTime();
         // Query reference:
         KNNList trueknns = truekNNQuery.getKNNForObject(o, k);
+        exacttime += System.nanoTime() - mid;
+        approxtime += mid - start;
 
         // Put adjusted knn size:
         mv.put(knns.size() * k / (double) trueknns.size());
@@ -295,11 +306,26 @@ public class ValidateApproximativeKNNIndex<O> extends AbstractDistanceBasedAlgor
         if(misses > 0) {
           LOG.statistics(String.format("Number of queries that returned less than k=%d objects: %d (%.2f%%)", k, misses, misses * 100. / mv.getCount()));
         }
+        logTiming(approxtime, exacttime);
       }
     }
     return null;
   }
 
+  /**
+   * Log the query times, and the speedup over the exact queries.
+   * 
+   * @param approxtime Time spent in approximate queries (nanoseconds)
+   * @param exacttime Time spent in exact queries (nanoseconds)
+   */
+  private static void logTiming(long approxtime, long exacttime) {
+    LOG.statistics(String.format("Time for approximate queries: %.3f ms", approxtime * 1e-6));
+    LOG.statistics(String.format("Time for exact queries: %.3f ms", exacttime * 1e-6));
+    if(approxtime > 0) {
+      LOG.statistics(String.format("Speedup of approximate queries: %.2f", exacttime / (double) approxtime));
+    }
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
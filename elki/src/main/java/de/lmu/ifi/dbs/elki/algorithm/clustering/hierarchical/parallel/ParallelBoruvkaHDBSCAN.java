@@ -0,0 +1,592 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.AbstractHDBSCAN;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.HDBSCANLinearMemory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.HierarchicalClusteringAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.PointerDensityHierarchyRepresentationResult;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.ExtractFlatClusteringFromHierarchy;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.IntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KDistanceProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * HDBSCAN* clustering, computing the minimum spanning tree of the mutual
+ * reachability graph with Boruvka's algorithm.
+ * 
+ * Core distances are computed in parallel with the kNN query of the database,
+ * so any {@link de.lmu.ifi.dbs.elki.index.KNNIndex} is used automatically. In
+ * each Boruvka round, the cheapest edge leaving the component of each object is
+ * searched in parallel, in the kNN list of the object: because the mutual
+ * reachability distance is never smaller than the distance, the search can
+ * stop as soon as the k-distance reaches the best edge found. The cheapest
+ * edge of each component is then added to the spanning tree. Each round at
+ * least halves the number of components.
+ * 
+ * The kNN lists are kept across rounds, and neighbors that joined the same
+ * component are dropped from them. Only when a list is exhausted, it is
+ * queried again with twice the k. Once k would exceed a small fraction of the
+ * data set size, the remaining components are connected with Prim's algorithm
+ * instead, which computes the remaining distances once (at most quadratic).
+ * If only a linear scan is available for kNN queries, Prim's algorithm is used
+ * right away.
+ * 
+ * Unlike {@link HDBSCANLinearMemory}, this usually does not evaluate the
+ * distance for every pair of objects. The result is the same pointer
+ * representation, for use with {@link ExtractFlatClusteringFromHierarchy}.
+ * 
+ * Reference:
+ * <p>
+ * R. J. G. B. Campello, D. Moulavi, and J. Sander<br />
+ * Density-Based Clustering Based on Hierarchical Density Estimates<br />
+ * Pacific-Asia Conference on Advances in Knowledge Discovery and Data Mining,
+ * PAKDD
+ * </p>
+ * 
+ * Boruvka's algorithm on the kNN graph follows:
+ * <p>
+ * L. McInnes and J. Healy<br />
+ * Accelerated Hierarchical Density Based Clustering<br />
+ * IEEE International Conference on Data Mining Workshops (ICDMW), 2017
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf EdgeProcessor
+ * 
+ * @param <O> Object type
+ */
+@Reference(authors = "L. McInnes and J. Healy", //
+title = "Accelerated Hierarchical Density Based Clustering", //
+booktitle = "IEEE International Conference on Data Mining Workshops (ICDMW), 2017", //
+url = "http://dx.doi.org/10.1109/ICDMW.2017.12")
+public class ParallelBoruvkaHDBSCAN<O> extends AbstractHDBSCAN<O, PointerDensityHierarchyRepresentationResult> implements HierarchicalClusteringAlgorithm {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelBoruvkaHDBSCAN.class);
+
+  /**
+   * Largest number of neighbors to query, before falling back to Prim's
+   * algorithm.
+   */
+  private static final int MAX_K = 256;
+
+  /**
+   * Largest number of neighbors to query, 0 for automatic.
+   */
+  private int maxk;
+
+  /**
+   * Constructor.
+   * 
+   * @param distanceFunction Distance function
+   * @param minPts Minimum number of points for density
+   */
+  public ParallelBoruvkaHDBSCAN(DistanceFunction<? super O> distanceFunction, int minPts) {
+    this(distanceFunction, minPts, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param distanceFunction Distance function
+   * @param minPts Minimum number of points for density
+   * @param maxk Largest number of neighbors to query, 0 for automatic
+   */
+  ParallelBoruvkaHDBSCAN(DistanceFunction<? super O> distanceFunction, int minPts, int maxk) {
+    super(distanceFunction, minPts);
+    this.maxk = maxk;
+  }
+
+  /**
+   * Run the algorithm
+   * 
+   * @param db Database
+   * @param relation Relation
+   * @return Clustering hierarchy
+   */
+  public PointerDensityHierarchyRepresentationResult run(Database db, Relation<O> relation) {
+    final DistanceQuery<O> distQ = db.getDistanceQuery(relation, getDistanceFunction());
+    final KNNQuery<O> knnQ = db.getKNNQuery(distQ, minPts);
+    // We need array addressing later.
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    // The edge search queries more than minPts neighbors. Request the largest
+    // k we will use, so that we do not get a query that truncates the lists
+    // (e.g. of a kNN preprocessor).
+    final int maxk = this.maxk > 0 ? Math.min(this.maxk, size) : //
+    Math.min(size, Math.max(minPts << 1, Math.min(size >>> 3, MAX_K)));
+    final KNNQuery<O> edgeQ = db.getKNNQuery(distQ, maxk, DatabaseQuery.HINT_EXACT);
+
+    // 1. Compute the core distances, in parallel.
+    final WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_DB);
+    {
+      KNNProcessor<O> knnm = new KNNProcessor<>(minPts, knnQ);
+      SharedObject<KNNList> knnv = new SharedObject<>();
+      knnm.connectKNNOutput(knnv);
+      KDistanceProcessor kdistm = new KDistanceProcessor(minPts);
+      SharedDouble kdistv = new SharedDouble();
+      kdistm.connectKNNInput(knnv);
+      kdistm.connectOutput(kdistv);
+      WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(coredists);
+      storem.connectInput(kdistv);
+      ParallelExecutor.run(ids, knnm, kdistm, storem);
+    }
+
+    // Array addressing of objects and core distances.
+    WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+    final double[] core = new double[size];
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      offsets.putInt(iter, iter.getOffset());
+      core[iter.getOffset()] = coredists.doubleValue(iter);
+    }
+
+    // 2. Build spanning tree, using Boruvka's algorithm.
+    final int numedges = size - 1;
+    DoubleLongHeap heap = new DoubleLongMinHeap(numedges);
+    FiniteProgress mprog = LOG.isVerbose() ? new FiniteProgress("Computing minimum spanning tree (n-1 edges).", numedges, LOG) : null;
+    HeapMSTCollector collector = new HeapMSTCollector(heap, mprog, LOG);
+    // Union-find forest.
+    final int[] parent = new int[size];
+    for(int i = 0; i < size; i++) {
+      parent[i] = i;
+    }
+    // A linear scan computes all distances anyway, then only use Prim's.
+    final boolean linear = edgeQ instanceof LinearScanQuery;
+    EdgeProcessor proc = new EdgeProcessor(edgeQ, offsets, core, new int[size], Math.min(minPts << 1, maxk), maxk);
+    double[] cw = new double[size];
+    int[] cfrom = new int[size], cto = new int[size];
+    int rounds = 0, fallback = 0;
+    for(int added = 0; added < numedges; rounds++) {
+      // Snapshot of the component of each object.
+      for(int i = 0; i < size; i++) {
+        proc.comp[i] = find(parent, i);
+      }
+      proc.incomplete = linear;
+      if(!linear) {
+        ParallelExecutor.run(ids, proc);
+      }
+      if(proc.incomplete) {
+        // The kNN lists became too long, connect the rest with Prim's.
+        fallback = numedges - added;
+        added += primComponents(ids, distQ, core, proc.comp, collector);
+        break;
+      }
+      // Cheapest outgoing edge of each component.
+      Arrays.fill(cw, Double.POSITIVE_INFINITY);
+      Arrays.fill(cto, -1);
+      for(int i = 0; i < size; i++) {
+        final int j = proc.bestto[i], r = proc.comp[i];
+        if(j >= 0 && isBetter(proc.bestw[i], i, j, cw[r], cfrom[r], cto[r])) {
+          cw[r] = proc.bestw[i];
+          cfrom[r] = i;
+          cto[r] = j;
+        }
+      }
+      int merged = 0;
+      for(int r = 0; r < size; r++) {
+        if(cto[r] >= 0 && union(parent, cfrom[r], cto[r])) {
+          collector.addEdge(cw[r], cfrom[r], cto[r]);
+          ++merged;
+        }
+      }
+      if(merged == 0) {
+        throw new IllegalStateException("Boruvka's algorithm did not find an edge - this should not happen.");
+      }
+      added += merged;
+    }
+    LOG.ensureCompleted(mprog);
+    offsets.destroy();
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ParallelBoruvkaHDBSCAN.class.getName() + ".rounds", rounds));
+      LOG.statistics(new LongStatistic(ParallelBoruvkaHDBSCAN.class.getName() + ".prim-edges", fallback));
+    }
+
+    // Storage for pointer representation:
+    WritableDBIDDataStore pi = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore lambda = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_STATIC, Double.POSITIVE_INFINITY);
+    convertToPointerRepresentation(ids, heap, pi, lambda);
+
+    return new PointerDensityHierarchyRepresentationResult(ids, pi, lambda, coredists);
+  }
+
+  /**
+   * Connect the remaining components with Prim's algorithm, treating each
+   * component as a single node. Each pair of objects in different components
+   * is compared at most once.
+   * 
+   * @param ids Object ids
+   * @param distQ Distance query
+   * @param core Core distances
+   * @param comp Component of each object
+   * @param collector Edge collector
+   * @return Number of edges added
+   */
+  private static <O> int primComponents(ArrayDBIDs ids, DistanceQuery<O> distQ, double[] core, int[] comp, HeapMSTCollector collector) {
+    final int size = core.length;
+    // Linked lists of the members of each component.
+    final int[] head = new int[size], next = new int[size];
+    Arrays.fill(head, -1);
+    for(int i = size - 1; i >= 0; i--) {
+      next[i] = head[comp[i]];
+      head[comp[i]] = i;
+    }
+    final double[] best = new double[size];
+    Arrays.fill(best, Double.POSITIVE_INFINITY);
+    final int[] src = new int[size];
+    final boolean[] done = new boolean[size];
+    DBIDArrayIter a = ids.iter(), b = ids.iter();
+    int added = 0;
+    for(int c = comp[0];;) {
+      for(int m = head[c]; m >= 0; m = next[m]) {
+        done[m] = true;
+      }
+      for(int m = head[c]; m >= 0; m = next[m]) {
+        final double corem = core[m];
+        a.seek(m);
+        for(int j = 0; j < size; j++) {
+          if(done[j]) {
+            continue;
+          }
+          final double lb = Math.max(corem, core[j]);
+          if(lb >= best[j]) {
+            continue; // Cannot improve.
+          }
+          final double w = Math.max(lb, distQ.distance(a, b.seek(j)));
+          if(w < best[j]) {
+            best[j] = w;
+            src[j] = m;
+          }
+        }
+      }
+      // Cheapest edge to a new component.
+      int nj = -1;
+      for(int j = 0; j < size; j++) {
+        if(!done[j] && (nj < 0 || best[j] < best[nj])) {
+          nj = j;
+        }
+      }
+      if(nj < 0) {
+        return added;
+      }
+      collector.addEdge(best[nj], src[nj], nj);
+      ++added;
+      c = comp[nj];
+    }
+  }
+
+  /**
+   * Total order of edges: by weight, then by the smaller and larger endpoint.
+   * Consistent tie breaking is required to avoid cycles in Boruvka's
+   * algorithm.
+   * 
+   * @param w1 First edge weight
+   * @param a1 First edge endpoint
+   * @param b1 First edge endpoint
+   * @param w2 Second edge weight
+   * @param a2 Second edge endpoint
+   * @param b2 Second edge endpoint
+   * @return {@code true} if the first edge is cheaper
+   */
+  private static boolean isBetter(double w1, int a1, int b1, double w2, int a2, int b2) {
+    if(w1 != w2) {
+      return w1 < w2;
+    }
+    final int min1 = Math.min(a1, b1), min2 = Math.min(a2, b2);
+    return min1 != min2 ? min1 < min2 : Math.max(a1, b1) < Math.max(a2, b2);
+  }
+
+  /**
+   * Find the root of an element in the union-find forest, with path halving.
+   * 
+   * @param parent Parent array
+   * @param i Element
+   * @return Root
+   */
+  private static int find(int[] parent, int i) {
+    while(parent[i] != i) {
+      i = parent[i] = parent[parent[i]];
+    }
+    return i;
+  }
+
+  /**
+   * Merge the components of two elements.
+   * 
+   * @param parent Parent array
+   * @param i First element
+   * @param j Second element
+   * @return {@code false} if the elements were already in the same component
+   */
+  private static boolean union(int[] parent, int i, int j) {
+    i = find(parent, i);
+    j = find(parent, j);
+    if(i == j) {
+      return false;
+    }
+    parent[i] = j;
+    return true;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Processor to find the cheapest edge from each object to a different
+   * component.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class EdgeProcessor implements Processor {
+    /**
+     * kNN query, must support any k.
+     */
+    final KNNQuery<?> knnQ;
+
+    /**
+     * Map from ids to offsets.
+     */
+    final IntegerDataStore offsets;
+
+    /**
+     * Core distances.
+     */
+    final double[] core;
+
+    /**
+     * Component of each object (read only during a round).
+     */
+    final int[] comp;
+
+    /**
+     * Output: cheapest edge of each object.
+     */
+    final double[] bestw;
+
+    /**
+     * Output: other endpoint of the cheapest edge, or -1.
+     */
+    final int[] bestto;
+
+    /**
+     * Number of neighbors queried for each object. Increasing, as the
+     * components grow.
+     */
+    final int[] kcur;
+
+    /**
+     * Largest number of neighbors to query.
+     */
+    final int maxk;
+
+    /**
+     * Cached neighbors of each object not yet in the same component.
+     */
+    final int[][] nbrs;
+
+    /**
+     * Distances of the cached neighbors.
+     */
+    final double[][] nbrd;
+
+    /**
+     * Number of cached neighbors.
+     */
+    final int[] nlen;
+
+    /**
+     * k-distance of the cached neighbors.
+     */
+    final double[] kdist;
+
+    /**
+     * Flag, set when an object needs more than maxk neighbors.
+     */
+    volatile boolean incomplete;
+
+    /**
+     * Constructor.
+     * 
+     * @param knnQ kNN query, must support k up to maxk
+     * @param offsets Map from ids to offsets
+     * @param core Core distances
+     * @param comp Component array
+     * @param k0 Initial number of neighbors
+     * @param maxk Largest number of neighbors to query
+     */
+    EdgeProcessor(KNNQuery<?> knnQ, IntegerDataStore offsets, double[] core, int[] comp, int k0, int maxk) {
+      super();
+      this.knnQ = knnQ;
+      this.offsets = offsets;
+      this.core = core;
+      this.comp = comp;
+      final int size = core.length;
+      this.bestw = new double[size];
+      this.bestto = new int[size];
+      this.kcur = new int[size];
+      Arrays.fill(kcur, k0);
+      this.maxk = maxk;
+      this.nbrs = new int[size][];
+      this.nbrd = new double[size][];
+      this.nlen = new int[size];
+      this.kdist = new double[size];
+    }
+
+    @Override
+    public Processor.Instance instantiate(Executor executor) {
+      return new Instance();
+    }
+
+    @Override
+    public void cleanup(Processor.Instance inst) {
+      // Nothing to do.
+    }
+
+    /**
+     * Instance for a single thread.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class Instance implements Processor.Instance {
+      @Override
+      public void map(DBIDRef id) {
+        if(incomplete) {
+          return; // Prim's algorithm will be used.
+        }
+        final int u = offsets.intValue(id), cu = comp[u], size = core.length;
+        final double coreu = core[u];
+        double best = Double.POSITIVE_INFINITY;
+        int to = -1;
+        while(true) {
+          int[] nv = nbrs[u];
+          double[] nd = nbrd[u];
+          if(nv == null) {
+            final KNNList knn = knnQ.getKNNForDBID(id, kcur[u]);
+            nv = nbrs[u] = new int[knn.size()];
+            nd = nbrd[u] = new double[knn.size()];
+            int len = 0;
+            for(DoubleDBIDListIter n = knn.iter(); n.valid(); n.advance()) {
+              nv[len] = offsets.intValue(n);
+              nd[len++] = n.doubleValue();
+            }
+            nlen[u] = len;
+            kdist[u] = knn.getKNNDistance();
+          }
+          // Scan the cached neighbors, dropping those in the same component.
+          int len = 0;
+          for(int i = 0, end = nlen[u]; i < end; i++) {
+            final int v = nv[i];
+            if(comp[v] == cu) {
+              continue;
+            }
+            final double w = Math.max(Math.max(coreu, core[v]), nd[i]);
+            if(w < best || (w == best && v < to)) {
+              best = w;
+              to = v;
+            }
+            nv[len] = v;
+            nd[len++] = nd[i];
+          }
+          nlen[u] = len;
+          // Remaining objects are at least at the k-distance.
+          if(kcur[u] >= size || best <= Math.max(coreu, kdist[u])) {
+            break;
+          }
+          if(kcur[u] >= maxk) {
+            incomplete = true;
+            return;
+          }
+          kcur[u] = Math.min(kcur[u] << 1, maxk);
+          nbrs[u] = null;
+          nbrd[u] = null;
+        }
+        bestw[u] = best;
+        bestto[u] = to;
+      }
+    }
+  }
+
+  /**
+   * Parameterization class
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractHDBSCAN.Parameterizer<O> {
+    @Override
+    protected ParallelBoruvkaHDBSCAN<O> makeInstance() {
+      return new ParallelBoruvkaHDBSCAN<>(distanceFunction, minPts);
+    }
+  }
+}
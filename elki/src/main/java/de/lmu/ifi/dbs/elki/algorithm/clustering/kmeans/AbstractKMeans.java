@@ -45,6 +45,9 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -111,9 +114,15 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
    */
   protected boolean assignToNearestCluster(Relation<? extends V> relation, List<? extends NumberVector> means, List<? extends ModifiableDBIDs> clusters, WritableIntegerDataStore assignment, double[] varsum) {
     assert(k == means.size());
+    final PrimitiveDistanceFunction<? super NumberVector> df = getDistanceFunction();
+    if(df instanceof BlockDistanceFunction) {
+      final int dim = RelationUtil.dimensionality(relation);
+      if(dim > 0 && BlockDistances.dimensionality(means) == dim) {
+        return assignToNearestCluster(relation, (BlockDistanceFunction) df, BlockDistances.pack(means, dim), dim, clusters, assignment, varsum);
+      }
+    }
     boolean changed = false;
     Arrays.fill(varsum, 0.);
-    final PrimitiveDistanceFunction<? super NumberVector> df = getDistanceFunction();
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
       double mindist = Double.POSITIVE_INFINITY;
       V fv = relation.get(iditer);
@@ -131,6 +140,39 @@ public abstract class AbstractKMeans<V extends NumberVector, M extends Model> ex
     return changed;
   }
 
+  /**
+   * Assign each object to the nearest mean, using a packed block of means.
+   * 
+   * @param relation the database to cluster
+   * @param df Distance function
+   * @param block Means, packed into a row-major block
+   * @param dim Dimensionality
+   * @param clusters cluster assignment
+   * @param assignment Current cluster assignment
+   * @param varsum Variance sum output
+   * @return true when the object was reassigned
+   */
+  private boolean assignToNearestCluster(Relation<? extends V> relation, BlockDistanceFunction df, double[] block, int dim, List<? extends ModifiableDBIDs> clusters, WritableIntegerDataStore assignment, double[] varsum) {
+    boolean changed = false;
+    Arrays.fill(varsum, 0.);
+    final double[] row = new double[dim];
+    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+      BlockDistances.pack(relation.get(iditer), row, 0, dim);
+      double mindist = Double.POSITIVE_INFINITY;
+      int minIndex = 0;
+      for(int i = 0, off = 0; i < k; i++, off += dim) {
+        double dist = df.distance(row, 0, block, off, dim);
+        if(dist < mindist) {
+          minIndex = i;
+          mindist = dist;
+        }
+      }
+      varsum[minIndex] += mindist;
+      changed |= updateAssignment(iditer, clusters, assignment, minIndex);
+    }
+    return changed;
+  }
+
   protected boolean updateAssignment(DBIDIter iditer, List<? extends ModifiableDBIDs> clusters, WritableIntegerDataStore assignment, int newA) {
     final int oldA = assignment.intValue(iditer);
     if(oldA == newA) {
@@ -155,7 +155,9 @@ public class PROCLUS<V extends NumberVector> extends AbstractProjectedClustering
       LOG.verbose("1. Initialization phase...");
     }
     int sampleSize = Math.min(relation.size(), k_i * k);
-    DBIDs sampleSet = DBIDUtil.randomSample(relation.getDBIDs(), sampleSize, random.nextLong());
+    // Sort the sample, so the result does not depend on the hash order.
+    ArrayModifiableDBIDs sampleSet = DBIDUtil.newArray(DBIDUtil.randomSample(relation.getDBIDs(), sampleSize, random.nextLong()));
+    sampleSet.sort();
 
     int medoidSize = Math.min(relation.size(), m_i * k);
     ArrayDBIDs medoids = greedy(distFunc, sampleSet, medoidSize, random);
@@ -0,0 +1,566 @@
+package de.lmu.ifi.dbs.elki.algorithm.outlier.distance.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNOutlier;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.EnumParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+
+/**
+ * Top-n distance based outlier detection with randomized nested loops and a
+ * simple pruning rule (ORCA).
+ * 
+ * Only the top-n outliers are computed exactly, using the score of
+ * {@link KNNOutlier} (distance to the k nearest neighbor) or of
+ * {@link de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNWeightOutlier} (sum
+ * of the k nearest neighbor distances). The data is processed in randomized
+ * order, in blocks. For each object of a block, the database is scanned while
+ * maintaining its k nearest neighbors. The running score can only decrease
+ * during the scan; once it falls below the score of the current n-th outlier
+ * (the cutoff), the object cannot be a top-n outlier anymore, and its scan is
+ * abandoned. Blocks are processed in parallel, sharing the cutoff.
+ * 
+ * The score of an abandoned object is the running score at the time of
+ * pruning, i.e. an <em>upper bound</em> of the exact score, but below the
+ * final cutoff. Objects with exact scores are flagged in a separate child
+ * relation.
+ * 
+ * Reference:
+ * <p>
+ * S. D. Bay and M. Schwabacher<br />
+ * Mining distance-based outliers in near linear time with randomization and a
+ * simple pruning rule<br />
+ * In: Proc. 9th ACM SIGKDD International Conference on Knowledge Discovery and
+ * Data Mining (KDD '03)
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf Block
+ * @apiviz.composedOf TopN
+ * @apiviz.uses BoundedTaskExecutor
+ * 
+ * @param <O> Object type
+ */
+@Reference(authors = "S. D. Bay and M. Schwabacher", //
+title = "Mining distance-based outliers in near linear time with randomization and a simple pruning rule", //
+booktitle = "Proc. 9th ACM SIGKDD International Conference on Knowledge Discovery and Data Mining (KDD '03)", //
+url = "http://dx.doi.org/10.1145/956750.956758")
+public class ParallelORCA<O> extends AbstractDistanceBasedAlgorithm<O, OutlierResult> implements OutlierAlgorithm {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelORCA.class);
+
+  /**
+   * Score to use.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static enum ScoreType {
+    /** Distance to the k nearest neighbor, as in {@link KNNOutlier} */
+    KNN_DISTANCE,
+    /** Sum of the k nearest neighbor distances, as in KNNWeightOutlier */
+    KNN_WEIGHT
+  }
+
+  /**
+   * Number of neighbors, excluding the query point.
+   */
+  private int k;
+
+  /**
+   * Number of outliers to find.
+   */
+  private int n;
+
+  /**
+   * Score type.
+   */
+  private ScoreType scoreType;
+
+  /**
+   * Number of objects per block.
+   */
+  private int blocksize;
+
+  /**
+   * Random generator for the processing order.
+   */
+  private RandomFactory rnd;
+
+  /**
+   * Number of blocks to process concurrently.
+   */
+  private int threads;
+
+  /**
+   * Constructor.
+   * 
+   * @param distanceFunction Distance function
+   * @param k Number of neighbors, excluding the query point
+   * @param n Number of outliers to find
+   * @param scoreType Score type
+   * @param blocksize Number of objects per block
+   * @param rnd Random generator
+   * @param threads Number of blocks to process concurrently
+   */
+  public ParallelORCA(DistanceFunction<? super O> distanceFunction, int k, int n, ScoreType scoreType, int blocksize, RandomFactory rnd, int threads) {
+    super(distanceFunction);
+    this.k = k;
+    this.n = n;
+    this.scoreType = scoreType;
+    this.blocksize = blocksize;
+    this.rnd = rnd;
+    this.threads = threads;
+  }
+
+  /**
+   * Run the algorithm.
+   * 
+   * @param database Database context
+   * @param relation Data relation
+   * @return Outlier result
+   */
+  public OutlierResult run(Database database, Relation<O> relation) {
+    final DistanceQuery<O> distq = database.getDistanceQuery(relation, getDistanceFunction());
+    ArrayModifiableDBIDs order = DBIDUtil.newArray(relation.getDBIDs());
+    DBIDUtil.randomShuffle(order, rnd);
+    final int size = order.size();
+
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    WritableDataStore<Boolean> exact = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC, Boolean.class);
+    final int numblocks = (size + blocksize - 1) / blocksize;
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("ORCA blocks", numblocks, LOG) : null;
+    TopN topn = new TopN(order, scores, exact, prog);
+    List<Block> blocks = new ArrayList<>(numblocks);
+    for(int start = 0; start < size; start += blocksize) {
+      blocks.add(new Block(distq, order, start, Math.min(start + blocksize, size), topn));
+    }
+    BoundedTaskExecutor.run(blocks, threads, topn);
+    LOG.ensureCompleted(prog);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ParallelORCA.class.getName() + ".distance-computations", topn.distcalc));
+      LOG.statistics(new LongStatistic(ParallelORCA.class.getName() + ".pruned", topn.pruned));
+    }
+
+    DoubleRelation scoreres = new MaterializedDoubleRelation("ORCA kNN Outlier Score", "orca-outlier", scores, relation.getDBIDs());
+    OutlierScoreMeta meta = new BasicOutlierScoreMeta(topn.minmax.getMin(), topn.minmax.getMax(), 0.0, Double.POSITIVE_INFINITY, 0.0);
+    OutlierResult result = new OutlierResult(meta, scoreres);
+    result.addChildResult(new MaterializedRelation<>("ORCA exact score", "orca-exact", new SimpleTypeInformation<>(Boolean.class), exact, relation.getDBIDs()));
+    return result;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(getDistanceFunction().getInputTypeRestriction());
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Collects the block results, and maintains the top-n cutoff. Results are
+   * processed in the calling thread, only the cutoff is shared.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class TopN implements BoundedTaskExecutor.ResultHandler<Block> {
+    /**
+     * Objects, in processing order.
+     */
+    final ArrayDBIDs order;
+
+    /**
+     * Score output.
+     */
+    final WritableDoubleDataStore scores;
+
+    /**
+     * Exact score flags.
+     */
+    final WritableDataStore<Boolean> exact;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    final FiniteProgress prog;
+
+    /**
+     * Heap of the n largest exact scores.
+     */
+    final DoubleMinHeap heap = new DoubleMinHeap(n + 1);
+
+    /**
+     * Score range.
+     */
+    final DoubleMinMax minmax = new DoubleMinMax();
+
+    /**
+     * Current cutoff, the score of the n-th outlier.
+     */
+    volatile double cutoff = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Statistics.
+     */
+    long distcalc = 0L, pruned = 0L;
+
+    /**
+     * Constructor.
+     * 
+     * @param order Objects, in processing order
+     * @param scores Score output
+     * @param exact Exact score flags
+     * @param prog Progress
+     */
+    TopN(ArrayDBIDs order, WritableDoubleDataStore scores, WritableDataStore<Boolean> exact, FiniteProgress prog) {
+      super();
+      this.order = order;
+      this.scores = scores;
+      this.exact = exact;
+      this.prog = prog;
+    }
+
+    @Override
+    public void handleResult(int i, Block block) {
+      DBIDArrayIter iter = order.iter().seek(block.start);
+      for(int j = 0; j < block.scores.length; j++, iter.advance()) {
+        final double score = block.scores[j];
+        scores.putDouble(iter, score);
+        exact.put(iter, block.exact[j]);
+        minmax.put(score);
+        if(block.exact[j]) {
+          heap.add(score, n);
+        }
+        else {
+          ++pruned;
+        }
+      }
+      if(heap.size() >= n) {
+        cutoff = heap.peek();
+      }
+      distcalc += block.distcalc;
+      block.scores = null;
+      block.exact = null;
+      LOG.incrementProcessed(prog);
+    }
+  }
+
+  /**
+   * Nested loop for one block of objects.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class Block implements Callable<Block> {
+    /**
+     * Distance query.
+     */
+    final DistanceQuery<O> distq;
+
+    /**
+     * Objects, in processing order.
+     */
+    final ArrayDBIDs order;
+
+    /**
+     * Block range.
+     */
+    final int start, end;
+
+    /**
+     * Result collector, for the shared cutoff.
+     */
+    final TopN topn;
+
+    /**
+     * Output: scores.
+     */
+    double[] scores;
+
+    /**
+     * Output: exact score flags.
+     */
+    boolean[] exact;
+
+    /**
+     * Number of distance computations.
+     */
+    long distcalc = 0L;
+
+    /**
+     * Constructor.
+     * 
+     * @param distq Distance query
+     * @param order Objects, in processing order
+     * @param start Block start
+     * @param end Block end
+     * @param topn Result collector
+     */
+    Block(DistanceQuery<O> distq, ArrayDBIDs order, int start, int end, TopN topn) {
+      super();
+      this.distq = distq;
+      this.order = order;
+      this.start = start;
+      this.end = end;
+      this.topn = topn;
+    }
+
+    @Override
+    public Block call() {
+      final int bs = end - start;
+      final boolean weight = (scoreType == ScoreType.KNN_WEIGHT);
+      // Sorted k nearest neighbor distances of each object.
+      double[] knn = new double[bs * k];
+      int[] cnt = new int[bs];
+      double[] sum = weight ? new double[bs] : null;
+      scores = new double[bs];
+      exact = new boolean[bs];
+      // Active objects of the block.
+      int[] active = new int[bs];
+      for(int j = 0; j < bs; j++) {
+        active[j] = j;
+        exact[j] = true;
+      }
+      int numactive = bs;
+      DBIDArrayIter qiter = order.iter(), siter = order.iter();
+      for(; siter.valid() && numactive > 0; siter.advance()) {
+        final int s = siter.getOffset();
+        final double cut = topn.cutoff;
+        for(int a = 0; a < numactive; a++) {
+          final int j = active[a];
+          if(s == start + j) {
+            continue; // Query point itself.
+          }
+          final double d = distq.distance(qiter.seek(start + j), siter);
+          ++distcalc;
+          final int base = j * k;
+          int c = cnt[j];
+          if(c == k) {
+            if(!(d < knn[base + k - 1])) {
+              continue;
+            }
+            if(weight) {
+              sum[j] -= knn[base + k - 1];
+            }
+            --c;
+          }
+          else {
+            cnt[j] = c + 1;
+          }
+          int i = base + c;
+          for(; i > base && knn[i - 1] > d; i--) {
+            knn[i] = knn[i - 1];
+          }
+          knn[i] = d;
+          if(weight) {
+            sum[j] += d;
+          }
+          // Prune, once the running score falls below the cutoff.
+          if(cnt[j] == k) {
+            final double score = weight ? sum[j] : knn[base + k - 1];
+            if(score < cut) {
+              scores[j] = score;
+              exact[j] = false;
+              active[a--] = active[--numactive];
+            }
+          }
+        }
+      }
+      for(int a = 0; a < numactive; a++) {
+        final int j = active[a];
+        scores[j] = cnt[j] < k ? Double.POSITIVE_INFINITY : weight ? sumOf(knn, j * k, k) : knn[j * k + k - 1];
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Sum of an array range, in ascending order of the distances.
+   * 
+   * @param knn Distances
+   * @param start Start
+   * @param len Length
+   * @return Sum
+   */
+  private static double sumOf(double[] knn, int start, int len) {
+    double sum = 0.;
+    for(int i = start, end = start + len; i < end; i++) {
+      sum += knn[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Parameterization class
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractDistanceBasedAlgorithm.Parameterizer<O> {
+    /**
+     * Number of outliers to find.
+     */
+    public static final OptionID N_ID = new OptionID("orca.n", "Number of top outliers to compute exactly.");
+
+    /**
+     * Score type.
+     */
+    public static final OptionID TYPE_ID = new OptionID("orca.score", "Score to use: distance to the k nearest neighbor, or the sum of the kNN distances.");
+
+    /**
+     * Block size.
+     */
+    public static final OptionID BLOCKSIZE_ID = new OptionID("orca.blocksize", "Number of objects processed together in one scan.");
+
+    /**
+     * Random generator seed.
+     */
+    public static final OptionID SEED_ID = new OptionID("orca.seed", "Random generator seed for the processing order.");
+
+    /**
+     * Number of blocks to process concurrently.
+     */
+    public static final OptionID THREADS_ID = new OptionID("orca.threads", "Number of blocks to process concurrently.");
+
+    /**
+     * Number of neighbors.
+     */
+    protected int k;
+
+    /**
+     * Number of outliers.
+     */
+    protected int n;
+
+    /**
+     * Score type.
+     */
+    protected ScoreType scoreType;
+
+    /**
+     * Block size.
+     */
+    protected int blocksize;
+
+    /**
+     * Random generator.
+     */
+    protected RandomFactory rnd;
+
+    /**
+     * Number of blocks to process concurrently.
+     */
+    protected int threads = ParallelCore.ALL_PROCESSORS;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      IntParameter kP = new IntParameter(KNNOutlier.Parameterizer.K_ID);
+      kP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(kP)) {
+        k = kP.getValue();
+      }
+      IntParameter nP = new IntParameter(N_ID, 10);
+      nP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(nP)) {
+        n = nP.getValue();
+      }
+      EnumParameter<ScoreType> typeP = new EnumParameter<>(TYPE_ID, ScoreType.class, ScoreType.KNN_DISTANCE);
+      if(config.grab(typeP)) {
+        scoreType = typeP.getValue();
+      }
+      IntParameter blocksizeP = new IntParameter(BLOCKSIZE_ID, 1000);
+      blocksizeP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(blocksizeP)) {
+        blocksize = blocksizeP.getValue();
+      }
+      RandomParameter rndP = new RandomParameter(SEED_ID);
+      if(config.grab(rndP)) {
+        rnd = rndP.getValue();
+      }
+      IntParameter threadsP = new IntParameter(THREADS_ID, ParallelCore.ALL_PROCESSORS);
+      threadsP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(threadsP)) {
+        threads = threadsP.getValue();
+      }
+    }
+
+    @Override
+    protected ParallelORCA<O> makeInstance() {
+      return new ParallelORCA<>(distanceFunction, k, n, scoreType, blocksize, rnd, threads);
+    }
+  }
+}
@@ -24,7 +24,9 @@ package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
  */
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
@@ -36,7 +38,10 @@ import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
@@ -46,6 +51,7 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
 import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
@@ -59,7 +65,6 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameteriz
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
-import de.lmu.ifi.dbs.elki.utilities.pairs.Pair;
 
 /**
  * A simple ensemble method called "Feature bagging" for outlier detection.
@@ -71,6 +76,15 @@ import de.lmu.ifi.dbs.elki.utilities.pairs.Pair;
  * </p>
  * 
  * <p>
+ * The ensemble members can optionally be run concurrently; their results are
+ * merged as soon as they become available, and only the merged scores (or,
+ * for the breadth-first combination, the member rankings) are kept. As the
+ * members share the database, whose query and index creation is not
+ * thread-safe, this is only safe if the LOF queries do not create indexes or
+ * preprocessors on the database. By default, the members run one at a time.
+ * </p>
+ * 
+ * <p>
  * Reference: <br>
  * A. Lazarevic, V. Kumar: Feature Bagging for Outlier Detection<br />
  * In: Proc. of the 11th ACM SIGKDD international conference on Knowledge
@@ -108,6 +122,11 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
    */
   private int k;
 
+  /**
+   * Number of ensemble members to run concurrently.
+   */
+  private int threads;
+
   /**
    * Constructor.
    * 
@@ -117,11 +136,25 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
    * @param rnd Random generator
    */
   public FeatureBagging(int k, int num, boolean breadth, RandomFactory rnd) {
+    this(k, num, breadth, rnd, 1);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param k k Parameter for LOF
+   * @param num Number of subspaces to use
+   * @param breadth Flag for breadth-first merging
+   * @param rnd Random generator
+   * @param threads Number of ensemble members to run concurrently
+   */
+  public FeatureBagging(int k, int num, boolean breadth, RandomFactory rnd, int threads) {
     super();
     this.k = k;
     this.num = num;
     this.breadth = breadth;
     this.rnd = rnd;
+    this.threads = threads;
   }
 
   /**
@@ -131,53 +164,65 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
    * @param relation Relation to use
    * @return Outlier detection result
    */
-  public OutlierResult run(Database database, Relation<NumberVector> relation) {
+  public OutlierResult run(final Database database, final Relation<NumberVector> relation) {
     final int dbdim = RelationUtil.dimensionality(relation);
     final int mindim = dbdim >> 1;
     final int maxdim = dbdim - 1;
     final Random rand = rnd.getSingleThreadedRandom();
+    final DBIDs ids = relation.getDBIDs();
 
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
-    {
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("LOF iterations", num, LOG) : null;
-      for(int i = 0; i < num; i++) {
-        long[] dimset = randomSubspace(dbdim, mindim, maxdim, rand);
-        SubspaceEuclideanDistanceFunction df = new SubspaceEuclideanDistanceFunction(dimset);
-        LOF<NumberVector> lof = new LOF<>(k, df);
-
-        // run LOF and collect the result
-        OutlierResult result = lof.run(database, relation);
-        results.add(result);
-        LOG.incrementProcessed(prog);
-      }
-      LOG.ensureCompleted(prog);
+    // Choose all subspaces in advance, so the result is independent of the
+    // execution order of the ensemble members.
+    ArrayList<Callable<OutlierResult>> members = new ArrayList<>(num);
+    for(int i = 0; i < num; i++) {
+      long[] dimset = randomSubspace(dbdim, mindim, maxdim, rand);
+      SubspaceEuclideanDistanceFunction df = new SubspaceEuclideanDistanceFunction(dimset);
+      final LOF<NumberVector> lof = new LOF<>(k, df);
+      members.add(new Callable<OutlierResult>() {
+        @Override
+        public OutlierResult call() {
+          return lof.run(database, relation);
+        }
+      });
     }
 
-    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
     DoubleMinMax minmax = new DoubleMinMax();
     if(breadth) {
-      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", relation.size(), LOG) : null;
-      Pair<DBIDIter, DoubleRelation>[] IDVectorOntoScoreVector = Pair.newPairArray(results.size());
-
-      // Mapping score-sorted DBID-Iterators onto their corresponding scores.
-      // We need to initialize them now be able to iterate them "in parallel".
-      {
-        int i = 0;
-        for(OutlierResult r : results) {
-          IDVectorOntoScoreVector[i] = new Pair<DBIDIter, DoubleRelation>(r.getOrdering().order(relation.getDBIDs()).iter(), r.getScores());
-          i++;
+      // Keep only the ranking and the ranked scores of each member.
+      final ArrayDBIDs[] rankings = new ArrayDBIDs[num];
+      final double[][] rankscores = new double[num][];
+      runMembers(members, new BoundedTaskExecutor.ResultHandler<OutlierResult>() {
+        @Override
+        public void handleResult(int i, OutlierResult result) {
+          ArrayDBIDs order = result.getOrdering().order(ids);
+          DoubleRelation rscores = result.getScores();
+          double[] ranked = new double[order.size()];
+          int j = 0;
+          for(DBIDIter iter = order.iter(); iter.valid(); iter.advance(), j++) {
+            ranked[j] = rscores.doubleValue(iter);
+          }
+          rankings[i] = order;
+          rankscores[i] = ranked;
         }
+      });
+
+      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", relation.size(), LOG) : null;
+      // Score-sorted DBID-Iterators, to iterate them "in parallel".
+      DBIDArrayIter[] iters = new DBIDArrayIter[num];
+      for(int j = 0; j < num; j++) {
+        iters[j] = rankings[j].iter();
       }
 
       // Iterating over the *lines* of the AS_t(i)-matrix.
       for(int i = 0; i < relation.size(); i++) {
         // Iterating over the elements of a line (breadth-first).
-        for(Pair<DBIDIter, DoubleRelation> pair : IDVectorOntoScoreVector) {
-          DBIDIter iter = pair.first;
+        for(int j = 0; j < num; j++) {
+          DBIDArrayIter iter = iters[j];
           // Always true if every algorithm returns a complete result (one score
           // for every DBID).
           if(iter.valid()) {
-            double score = pair.second.doubleValue(iter);
+            double score = rankscores[j][iter.getOffset()];
             if(Double.isNaN(scores.doubleValue(iter))) {
               scores.putDouble(iter, score);
               minmax.put(score);
@@ -194,26 +239,50 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
       LOG.ensureCompleted(cprog);
     }
     else {
-      FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", relation.size(), LOG) : null;
-      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-        double sum = 0.0;
-        for(OutlierResult r : results) {
-          final double s = r.getScores().doubleValue(iter);
-          if(!Double.isNaN(s)) {
-            sum += s;
+      // Cumulative sum: add each member result as soon as it is available.
+      final WritableDoubleDataStore sums = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, 0.);
+      runMembers(members, new BoundedTaskExecutor.ResultHandler<OutlierResult>() {
+        @Override
+        public void handleResult(int i, OutlierResult result) {
+          DoubleRelation rscores = result.getScores();
+          for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+            final double s = rscores.doubleValue(iter);
+            if(!Double.isNaN(s)) {
+              sums.increment(iter, s);
+            }
           }
         }
+      });
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final double sum = sums.doubleValue(iter);
         scores.putDouble(iter, sum);
         minmax.put(sum);
-        LOG.incrementProcessed(cprog);
       }
-      LOG.ensureCompleted(cprog);
+      sums.destroy();
     }
     OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax());
-    DoubleRelation scoreres = new MaterializedDoubleRelation("Feature bagging", "fb-outlier", scores, relation.getDBIDs());
+    DoubleRelation scoreres = new MaterializedDoubleRelation("Feature bagging", "fb-outlier", scores, ids);
     return new OutlierResult(meta, scoreres);
   }
 
+  /**
+   * Run the ensemble members, using up to {@link #threads} threads.
+   * 
+   * @param members Ensemble members
+   * @param handler Result handler
+   */
+  private void runMembers(List<Callable<OutlierResult>> members, final BoundedTaskExecutor.ResultHandler<OutlierResult> handler) {
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("LOF iterations", members.size(), LOG) : null;
+    BoundedTaskExecutor.run(members, threads, new BoundedTaskExecutor.ResultHandler<OutlierResult>() {
+      @Override
+      public void handleResult(int i, OutlierResult result) {
+        handler.handleResult(i, result);
+        LOG.incrementProcessed(prog);
+      }
+    });
+    LOG.ensureCompleted(prog);
+  }
+
   /**
    * Choose a random subspace.
    * 
@@ -282,6 +351,16 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
      */
     public static final OptionID SEED_ID = new OptionID("fbagging.seed", "Specify a particular random seed.");
 
+    /**
+     * The number of ensemble members to run concurrently. This also bounds the
+     * number of member results held in memory at the same time. Only safe if
+     * the members do not add indexes or preprocessors to the database.
+     * <p>
+     * Key: {@code -fbagging.threads}
+     * </p>
+     */
+    public static final OptionID THREADS_ID = new OptionID("fbagging.threads", "Number of ensemble members to run concurrently. Only use if the queries do not create indexes or preprocessors on the database, as these are not thread-safe.");
+
     /**
      * The neighborhood size to use.
      */
@@ -302,6 +381,11 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
      */
     protected RandomFactory rnd;
 
+    /**
+     * Number of ensemble members to run concurrently.
+     */
+    protected int threads = 1;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -323,12 +407,17 @@ public class FeatureBagging extends AbstractAlgorithm<OutlierResult> implements
       if(config.grab(rndP)) {
         rnd = rndP.getValue();
       }
+      IntParameter threadsP = new IntParameter(THREADS_ID, 1);
+      threadsP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(threadsP)) {
+        threads = threadsP.getValue();
+      }
     }
 
     @Override
     protected FeatureBagging makeInstance() {
       // Default is to re-use the same distance
-      return new FeatureBagging(k, num, breadth, rnd);
+      return new FeatureBagging(k, num, breadth, rnd, threads);
     }
   }
 }
@@ -26,6 +26,7 @@ package de.lmu.ifi.dbs.elki.algorithm.outlier.meta;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.Algorithm;
@@ -36,26 +37,34 @@ import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DoubleRelation;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
 import de.lmu.ifi.dbs.elki.result.Result;
 import de.lmu.ifi.dbs.elki.result.ResultUtil;
 import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
 import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
 import de.lmu.ifi.dbs.elki.utilities.ensemble.EnsembleVoting;
+import de.lmu.ifi.dbs.elki.utilities.ensemble.IncrementalEnsembleVoting;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ChainedParameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 import de.lmu.ifi.dbs.elki.workflow.AlgorithmStep;
@@ -63,6 +72,14 @@ import de.lmu.ifi.dbs.elki.workflow.AlgorithmStep;
 /**
  * Simple outlier ensemble method.
  * 
+ * The ensemble members can optionally be run concurrently. Their scores are
+ * combined as soon as each result becomes available, so the individual
+ * results need not be kept in memory. All members share the same database,
+ * and query and index creation of the database are not thread-safe, so
+ * members must only be run concurrently if they do not add indexes or
+ * preprocessors to the database (e.g. if all queries are served by indexes
+ * created when loading the data). By default, the members run one at a time.
+ * 
  * @author Erich Schubert
  * 
  * @apiviz.composedOf EnsembleVoting
@@ -85,6 +102,11 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
    */
   private EnsembleVoting voting;
 
+  /**
+   * Number of ensemble members to run concurrently.
+   */
+  private int threads;
+
   /**
    * Constructor.
    * 
@@ -92,66 +114,204 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
    * @param voting Voting method
    */
   public SimpleOutlierEnsemble(List<OutlierAlgorithm> algorithms, EnsembleVoting voting) {
+    this(algorithms, voting, 1);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param algorithms Algorithms to run
+   * @param voting Voting method
+   * @param threads Number of ensemble members to run concurrently
+   */
+  public SimpleOutlierEnsemble(List<OutlierAlgorithm> algorithms, EnsembleVoting voting, int threads) {
     this.algorithms = algorithms;
     this.voting = voting;
+    this.threads = threads;
   }
 
   @Override
-  public OutlierResult run(Database database) throws IllegalStateException {
-    int num = algorithms.size();
-    // Run inner outlier algorithms
-    ModifiableDBIDs ids = DBIDUtil.newHashSet();
-    ArrayList<OutlierResult> results = new ArrayList<>(num);
+  public OutlierResult run(final Database database) throws IllegalStateException {
+    final int num = algorithms.size();
+    List<Callable<Result>> members = new ArrayList<>(num);
+    for(final Algorithm alg : algorithms) {
+      members.add(new Callable<Result>() {
+        @Override
+        public Result call() {
+          return alg.run(database);
+        }
+      });
+    }
+    // Run inner outlier algorithms, and combine their scores on the fly.
+    final ScoreAccumulator acc = new ScoreAccumulator(num);
     {
-      FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
-      for (Algorithm alg : algorithms) {
-        Result res = alg.run(database);
-        List<OutlierResult> ors = ResultUtil.getOutlierResults(res);
-        for (OutlierResult or : ors) {
-          results.add(or);
-          ids.addDBIDs(or.getScores().getDBIDs());
+      final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Inner outlier algorithms", num, LOG) : null;
+      BoundedTaskExecutor.run(members, threads, new BoundedTaskExecutor.ResultHandler<Result>() {
+        @Override
+        public void handleResult(int i, Result res) {
+          for(OutlierResult or : ResultUtil.getOutlierResults(res)) {
+            acc.add(or);
+          }
+          LOG.incrementProcessed(prog);
         }
-        LOG.incrementProcessed(prog);
-      }
+      });
       LOG.ensureCompleted(prog);
     }
     // Combine
+    final DBIDs ids = acc.ids;
     WritableDoubleDataStore sumscore = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
     DoubleMinMax minmax = new DoubleMinMax();
     {
       FiniteProgress cprog = LOG.isVerbose() ? new FiniteProgress("Combining results", ids.size(), LOG) : null;
-      for (DBIDIter id = ids.iter(); id.valid(); id.advance()) {
-        double[] scores = new double[num];
-        int i = 0;
-        for (OutlierResult r : results) {
-          double score = r.getScores().doubleValue(id);
-          if (!Double.isNaN(score)) {
-            scores[i] = score;
-            i++;
-          } else {
-            LOG.warning("DBID " + id + " was not given a score by result " + r);
-          }
+      for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
+        final int count = acc.counts.intValue(id);
+        if(count < acc.numresults) {
+          LOG.warning("DBID " + id + " was not given a score by " + (acc.numresults - count) + " results.");
         }
-        if (i > 0) {
-          // Shrink array if necessary.
-          if (i < scores.length) {
-            scores = Arrays.copyOf(scores, i);
-          }
-          double combined = voting.combine(scores);
+        if(count > 0) {
+          double combined = acc.combine(id, count);
           sumscore.putDouble(id, combined);
           minmax.put(combined);
-        } else {
+        }
+        else {
           LOG.warning("DBID " + id + " was not given any score at all.");
         }
         LOG.incrementProcessed(cprog);
       }
       LOG.ensureCompleted(cprog);
     }
+    acc.destroy();
     OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax());
     DoubleRelation scores = new MaterializedDoubleRelation("Simple Outlier Ensemble", "ensemble-outlier", sumscore, ids);
     return new OutlierResult(meta, scores);
   }
 
+  /**
+   * Accumulate the member scores as the results become available.
+   * 
+   * For {@link IncrementalEnsembleVoting} rules, a single value per object is
+   * kept; otherwise, the scores of each object are collected in a compact
+   * array. In either case, the member results can be discarded immediately.
+   * 
+   * Since the objects scored by the members are not known in advance, the
+   * storage is keyed by a hash set of DBIDs.
+   * 
+   * @author Erich Schubert
+   */
+  private class ScoreAccumulator {
+    /**
+     * Maximum number of scores per object (initial capacity).
+     */
+    int capacity;
+
+    /**
+     * Number of results seen.
+     */
+    int numresults = 0;
+
+    /**
+     * Objects seen so far.
+     */
+    ModifiableDBIDs ids = DBIDUtil.newHashSet();
+
+    /**
+     * Number of scores per object.
+     */
+    WritableIntegerDataStore counts;
+
+    /**
+     * Accumulated values, for incremental voting.
+     */
+    WritableDoubleDataStore accum;
+
+    /**
+     * Collected scores, for other voting rules.
+     */
+    WritableDataStore<double[]> buffer;
+
+    /**
+     * Incremental voting rule, or {@code null}.
+     */
+    IncrementalEnsembleVoting incremental;
+
+    /**
+     * Constructor.
+     * 
+     * @param capacity Expected number of scores per object
+     */
+    ScoreAccumulator(int capacity) {
+      this.capacity = capacity;
+      this.counts = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, 0);
+      if(voting instanceof IncrementalEnsembleVoting) {
+        incremental = (IncrementalEnsembleVoting) voting;
+        accum = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, incremental.initial());
+      }
+      else {
+        buffer = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, double[].class);
+      }
+    }
+
+    /**
+     * Add the scores of a result.
+     * 
+     * @param or Outlier result
+     */
+    void add(OutlierResult or) {
+      numresults++;
+      DoubleRelation scores = or.getScores();
+      for(DBIDIter id = scores.iterDBIDs(); id.valid(); id.advance()) {
+        ids.add(id);
+        double score = scores.doubleValue(id);
+        if(Double.isNaN(score)) {
+          continue;
+        }
+        final int c = counts.intValue(id);
+        counts.putInt(id, c + 1);
+        if(incremental != null) {
+          accum.putDouble(id, incremental.update(accum.doubleValue(id), score));
+          continue;
+        }
+        double[] buf = buffer.get(id);
+        if(buf == null) {
+          buf = new double[capacity];
+          buffer.put(id, buf);
+        }
+        else if(c == buf.length) {
+          buf = Arrays.copyOf(buf, buf.length << 1);
+          buffer.put(id, buf);
+        }
+        buf[c] = score;
+      }
+    }
+
+    /**
+     * Compute the combined score of an object.
+     * 
+     * @param id Object
+     * @param count Number of scores
+     * @return Combined score
+     */
+    double combine(DBIDRef id, int count) {
+      if(incremental != null) {
+        return incremental.finish(accum.doubleValue(id), count);
+      }
+      return voting.combine(buffer.get(id), count);
+    }
+
+    /**
+     * Free the memory.
+     */
+    void destroy() {
+      counts.destroy();
+      if(accum != null) {
+        accum.destroy();
+      }
+      if(buffer != null) {
+        buffer.destroy();
+      }
+    }
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -180,6 +340,13 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
      */
     public static final OptionID VOTING_ID = new OptionID("ensemble.voting", "Voting strategy to use in the ensemble.");
 
+    /**
+     * Number of ensemble members to run concurrently. This also bounds the
+     * number of member results held in memory at the same time. Only safe if
+     * the members do not add indexes or preprocessors to the database.
+     */
+    public static final OptionID THREADS_ID = new OptionID("ensemble.threads", "Number of ensemble members to run concurrently. Only use with members that do not create indexes or preprocessors on the database, as these are not thread-safe.");
+
     /**
      * The algorithms to run.
      */
@@ -190,6 +357,11 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
      */
     private EnsembleVoting voting;
 
+    /**
+     * Number of ensemble members to run concurrently.
+     */
+    private int threads = 1;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -205,11 +377,16 @@ public class SimpleOutlierEnsemble extends AbstractAlgorithm<OutlierResult> impl
       if (config.grab(votingP)) {
         voting = votingP.instantiateClass(config);
       }
+      IntParameter threadsP = new IntParameter(THREADS_ID, 1);
+      threadsP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if (config.grab(threadsP)) {
+        threads = threadsP.getValue();
+      }
     }
 
     @Override
     protected SimpleOutlierEnsemble makeInstance() {
-      return new SimpleOutlierEnsemble(algorithms, voting);
+      return new SimpleOutlierEnsemble(algorithms, voting, threads);
     }
   }
 }
@@ -24,6 +24,8 @@ package de.lmu.ifi.dbs.elki.algorithm.outlier.subspace;
  */
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
@@ -34,6 +36,8 @@ import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -62,8 +66,10 @@ import de.lmu.ifi.dbs.elki.utilities.BitsUtil;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 
 /**
  * Adaptive outlierness for subspace outlier ranking (OUTRES).
@@ -73,6 +79,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
  * subspace will need to know the mean and standard deviation of the density of
  * the neighbors, which in turn needs another range query.
  * 
+ * Since the density of an object in a subspace does not depend on the query
+ * object, these densities can be cached for a bounded number of subspaces, and
+ * reused when the same object is encountered as neighbor again. The cache is
+ * disabled by default, as each cached subspace needs one double per object.
+ * 
  * Reference:
  * <p>
  * E. Müller, M. Schiffer, T. Seidl<br />
@@ -85,6 +96,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
  * @author Erich Schubert
  * 
  * @apiviz.composedOf KernelDensityEstimator
+ * @apiviz.composedOf DensityCache
  * 
  * @param <V> vector type
  */
@@ -100,6 +112,11 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
    */
   private final double eps;
 
+  /**
+   * Number of subspaces to cache the densities for.
+   */
+  protected final int cachesize;
+
   /**
    * Constant for Kolmogorov-Smirnov at alpha=0.01 (table value)
    */
@@ -111,8 +128,19 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
    * @param eps Epsilon
    */
   public OUTRES(double eps) {
+    this(eps, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param eps Epsilon
+   * @param cachesize Number of subspaces to cache the densities for
+   */
+  public OUTRES(double eps, int cachesize) {
     super();
     this.eps = eps;
+    this.cachesize = cachesize;
   }
 
   /**
@@ -177,11 +205,23 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
         // Relevance test
         if(relevantSubspace(subspace, neigh, kernel)) {
           final double density = kernel.subspaceDensity(subspace, neigh);
+          final double[] cached = kernel.cache != null ? kernel.cache.get(subspace) : null;
+          if(cached != null) {
+            cached[kernel.cache.offset(id)] = density;
+          }
           // Compute mean and standard deviation for densities of neighbors.
           meanv.reset();
           for(DoubleDBIDListIter neighbor = neigh.iter(); neighbor.valid(); neighbor.advance()) {
-            DoubleDBIDList n2 = subsetNeighborhoodQuery(neighc, neighbor, df, adjustedEps, kernel);
-            meanv.put(kernel.subspaceDensity(subspace, n2));
+            final int off = cached != null ? kernel.cache.offset(neighbor) : -1;
+            double d = off >= 0 ? cached[off] : Double.NaN;
+            if(d != d) { // NaN: not cached
+              DoubleDBIDList n2 = subsetNeighborhoodQuery(neighc, neighbor, df, adjustedEps, kernel);
+              d = kernel.subspaceDensity(subspace, n2);
+              if(off >= 0) {
+                cached[off] = d;
+              }
+            }
+            meanv.put(d);
           }
           final double deviation = (meanv.getMean() - density) / (2. * meanv.getSampleStddev());
           // High deviation:
@@ -311,6 +351,11 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
      */
     final int dim;
 
+    /**
+     * Cache for subspace densities, may be {@code null}.
+     */
+    final DensityCache cache;
+
     /**
      * Constructor.
      * 
@@ -319,6 +364,7 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
     public KernelDensityEstimator(Relation<V> relation) {
       super();
       this.relation = relation;
+      this.cache = cachesize > 0 ? new DensityCache(relation, cachesize) : null;
       dim = RelationUtil.dimensionality(relation);
       hopttwo = optimalBandwidth(2);
       epsilons = new double[dim + 1];
@@ -326,6 +372,15 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
       epsilons[2] = OUTRES.this.eps;
     }
 
+    /**
+     * Get the dimensionality of the data set.
+     * 
+     * @return Dimensionality
+     */
+    public int getDimensionality() {
+      return dim;
+    }
+
     /**
      * Compute density in the given subspace.
      * 
@@ -376,6 +431,119 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
     }
   }
 
+  /**
+   * Bounded LRU cache of the object densities in recently used subspaces.
+   * 
+   * The densities are stored in plain arrays indexed by the object offset; as
+   * the density of an object in a subspace is deterministic, concurrent
+   * writes of the same value are harmless, and the cache may be shared by
+   * multiple threads.
+   * 
+   * @author Erich Schubert
+   */
+  protected static class DensityCache {
+    /**
+     * Map from DBIDs to array offsets.
+     */
+    private final WritableIntegerDataStore offsets;
+
+    /**
+     * Number of objects.
+     */
+    private final int size;
+
+    /**
+     * Cached densities, in LRU order.
+     */
+    private final LinkedHashMap<SubspaceKey, double[]> cache;
+
+    /**
+     * Constructor.
+     * 
+     * @param relation Data relation
+     * @param capacity Maximum number of subspaces to cache
+     */
+    public DensityCache(Relation<?> relation, final int capacity) {
+      super();
+      this.size = relation.size();
+      this.offsets = DataStoreUtil.makeIntegerStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+      DBIDArrayIter iter = DBIDUtil.ensureArray(relation.getDBIDs()).iter();
+      for(; iter.valid(); iter.advance()) {
+        offsets.putInt(iter, iter.getOffset());
+      }
+      this.cache = new LinkedHashMap<SubspaceKey, double[]>(capacity + 1, 1.f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<SubspaceKey, double[]> eldest) {
+          return size() > capacity;
+        }
+      };
+    }
+
+    /**
+     * Get the offset of an object.
+     * 
+     * @param id Object
+     * @return Offset
+     */
+    public int offset(DBIDRef id) {
+      return offsets.intValue(id);
+    }
+
+    /**
+     * Get the densities for a subspace, allocating a new (empty) array if
+     * necessary. Unknown values are NaN.
+     * 
+     * @param subspace Subspace
+     * @return Density array
+     */
+    public synchronized double[] get(long[] subspace) {
+      SubspaceKey key = new SubspaceKey(subspace);
+      double[] densities = cache.get(key);
+      if(densities == null) {
+        densities = new double[size];
+        Arrays.fill(densities, Double.NaN);
+        key.subspace = subspace.clone();
+        cache.put(key, densities);
+      }
+      return densities;
+    }
+  }
+
+  /**
+   * Hash key for a subspace bitmask.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class SubspaceKey {
+    /**
+     * Subspace bits.
+     */
+    long[] subspace;
+
+    /**
+     * Constructor.
+     * 
+     * @param subspace Subspace bits
+     */
+    SubspaceKey(long[] subspace) {
+      this.subspace = subspace;
+    }
+
+    @Override
+    public int hashCode() {
+      return Arrays.hashCode(subspace);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof SubspaceKey && Arrays.equals(subspace, ((SubspaceKey) obj).subspace);
+    }
+  }
+
   @Override
   protected Logging getLogger() {
     return LOG;
@@ -399,11 +567,21 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
      */
     public static final OptionID D_ID = new OptionID("outres.epsilon", "Range value for OUTRES in 2 dimensions.");
 
+    /**
+     * Option ID for the number of subspaces to cache densities for.
+     */
+    public static final OptionID CACHE_ID = new OptionID("outres.cache", "Number of subspaces to cache the object densities for (0 to disable). Each cached subspace needs one double per object.");
+
     /**
      * Query radius
      */
     protected double eps;
 
+    /**
+     * Cache size
+     */
+    protected int cachesize = 0;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -411,11 +589,16 @@ public class OUTRES<V extends NumberVector> extends AbstractAlgorithm<OutlierRes
       if(config.grab(param)) {
         eps = param.getValue();
       }
+      final IntParameter cacheP = new IntParameter(CACHE_ID, 0);
+      cacheP.addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(cacheP)) {
+        cachesize = cacheP.getValue();
+      }
     }
 
     @Override
     protected OUTRES<O> makeInstance() {
-      return new OUTRES<>(eps);
+      return new OUTRES<>(eps, cachesize);
     }
   }
 }
\ No newline at end of file
@@ -235,7 +235,7 @@ public class SOD<V extends NumberVector> extends AbstractAlgorithm<OutlierResult
    * @param neighborhood Neighbors
    * @return Per-dimension variances.
    */
-  private static double[] computePerDimensionVariances(Relation<? extends NumberVector> relation, Vector center, DBIDs neighborhood) {
+  public static double[] computePerDimensionVariances(Relation<? extends NumberVector> relation, Vector center, DBIDs neighborhood) {
     double[] c = center.getArrayRef();
     double[] variances = new double[c.length];
     for(DBIDIter iter = neighborhood.iter(); iter.valid(); iter.advance()) {
@@ -259,7 +259,7 @@ public class SOD<V extends NumberVector> extends AbstractAlgorithm<OutlierResult
    * @param weightVector Weight vector
    * @return sod score
    */
-  private double subspaceOutlierDegree(V queryObject, Vector center, long[] weightVector) {
+  public static double subspaceOutlierDegree(NumberVector queryObject, Vector center, long[] weightVector) {
     final int card = BitsUtil.cardinality(weightVector);
     if(card == 0) {
       return 0;
@@ -0,0 +1,184 @@
+package de.lmu.ifi.dbs.elki.algorithm.outlier.subspace.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.outlier.subspace.OUTRES;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.AbstractDoubleProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.result.outlier.InvertedOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.BitsUtil;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Parallel implementation of OUTRES.
+ * 
+ * The objects are scored in parallel; the cache of subspace densities is
+ * shared by all threads, so densities computed for one object are reused when
+ * the same object shows up in the neighborhood of other objects.
+ * 
+ * Reference:
+ * <p>
+ * E. Müller, M. Schiffer, T. Seidl<br />
+ * Adaptive outlierness for subspace outlier ranking<br />
+ * in: Proc. 19th ACM International Conference on Information and knowledge
+ * management
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf OUTRESProcessor
+ * 
+ * @param <V> vector type
+ */
+@Reference(authors = "E. Müller, M. Schiffer, T. Seidl", title = "Adaptive outlierness for subspace outlier ranking", booktitle = "Proc. 19th ACM International Conference on Information and knowledge management")
+public class ParallelOUTRES<V extends NumberVector> extends OUTRES<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelOUTRES.class);
+
+  /**
+   * Constructor.
+   * 
+   * @param eps Epsilon
+   * @param cachesize Number of subspaces to cache the densities for
+   */
+  public ParallelOUTRES(double eps, int cachesize) {
+    super(eps, cachesize);
+  }
+
+  @Override
+  public OutlierResult run(Relation<V> relation) {
+    WritableDoubleDataStore ranks = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_STATIC);
+    KernelDensityEstimator kernel = new KernelDensityEstimator(relation);
+
+    OUTRESProcessor outresm = new OUTRESProcessor(kernel);
+    SharedDouble scorev = new SharedDouble();
+    outresm.connectOutput(scorev);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(ranks);
+    storem.connectInput(scorev);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(scorev);
+
+    ParallelExecutor.run(relation.getDBIDs(), outresm, storem, mmm);
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    OutlierScoreMeta meta = new InvertedOutlierScoreMeta(minmax.getMin(), minmax.getMax(), 0., 1., 1.);
+    return new OutlierResult(meta, new MaterializedDoubleRelation("OUTRES", "outres-score", ranks, relation.getDBIDs()));
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Processor computing the OUTRES score of each object.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class OUTRESProcessor extends AbstractDoubleProcessor {
+    /**
+     * Shared kernel density estimator.
+     */
+    KernelDensityEstimator kernel;
+
+    /**
+     * Constructor.
+     * 
+     * @param kernel Kernel density estimator
+     */
+    OUTRESProcessor(KernelDensityEstimator kernel) {
+      super();
+      this.kernel = kernel;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Subspace buffer of this thread.
+       */
+      long[] subspace = BitsUtil.zero(kernel.getDimensionality());
+
+      /**
+       * Constructor.
+       * 
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        BitsUtil.zeroI(subspace);
+        output.set(outresScore(0, subspace, id, kernel));
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <O> Vector type
+   */
+  public static class Parameterizer<O extends NumberVector> extends OUTRES.Parameterizer<O> {
+    @Override
+    protected ParallelOUTRES<O> makeInstance() {
+      return new ParallelOUTRES<>(eps, cachesize);
+    }
+  }
+}
@@ -0,0 +1,462 @@
+package de.lmu.ifi.dbs.elki.algorithm.outlier.subspace.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.OutlierAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.subspace.SOD;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.subspace.SOD.SODModel;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.IntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDPair;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.similarityfunction.SharedNearestNeighborSimilarityFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.snn.SharedNearestNeighborIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.math.DoubleMinMax;
+import de.lmu.ifi.dbs.elki.math.Mean;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.Centroid;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.Vector;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.AbstractDoubleProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.DoubleMinMaxProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.result.outlier.BasicOutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierScoreMeta;
+import de.lmu.ifi.dbs.elki.utilities.BitsUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.Heap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.TiedTopBoundedHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Parallel implementation of the Subspace Outlier Degree (SOD).
+ * 
+ * Instead of computing the shared nearest neighbor similarity to every object,
+ * this implementation inverts the nearest neighbor sets: two objects can only
+ * have a positive SNN similarity if one of the neighbors of the query object
+ * also has the other object in its neighbor set. Both the neighbor sets and
+ * their inversion are stored in compact arrays of integer offsets. Counting
+ * the shared neighbors using the inverted lists then yields the exact SNN
+ * similarity of all candidates at once.
+ * 
+ * Reference:
+ * <p>
+ * H.-P. Kriegel, P. Kröger, E. Schubert, A. Zimek:<br />
+ * Outlier Detection in Axis-Parallel Subspaces of High Dimensional Data<br />
+ * In: Proceedings of the 13th Pacific-Asia Conference on Knowledge Discovery
+ * and Data Mining (PAKDD), Bangkok, Thailand, 2009
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf SODProcessor
+ * @apiviz.has SharedNearestNeighborIndex
+ * 
+ * @param <V> the type of NumberVector handled by this Algorithm
+ */
+@Reference(authors = "H.-P. Kriegel, P. Kröger, E. Schubert, A. Zimek", title = "Outlier Detection in Axis-Parallel Subspaces of High Dimensional Data", booktitle = "Proceedings of the 13th Pacific-Asia Conference on Knowledge Discovery and Data Mining (PAKDD), Bangkok, Thailand, 2009", url = "http://dx.doi.org/10.1007/978-3-642-01307-2")
+public class ParallelSOD<V extends NumberVector> extends AbstractAlgorithm<OutlierResult> implements OutlierAlgorithm {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelSOD.class);
+
+  /**
+   * Neighborhood size.
+   */
+  private int knn;
+
+  /**
+   * Alpha (discriminance value).
+   */
+  private double alpha;
+
+  /**
+   * Shared nearest neighbor similarity function to use.
+   */
+  private SharedNearestNeighborSimilarityFunction<V> similarityFunction;
+
+  /**
+   * Report models.
+   */
+  private boolean models;
+
+  /**
+   * Constructor with parameters.
+   * 
+   * @param knn knn value
+   * @param alpha Alpha parameter
+   * @param similarityFunction Shared nearest neighbor similarity function
+   * @param models Report generated models
+   */
+  public ParallelSOD(int knn, double alpha, SharedNearestNeighborSimilarityFunction<V> similarityFunction, boolean models) {
+    super();
+    this.knn = knn;
+    this.alpha = alpha;
+    this.similarityFunction = similarityFunction;
+    this.models = models;
+  }
+
+  /**
+   * Performs the SOD algorithm on the given database.
+   * 
+   * @param relation Data relation to process
+   * @return Outlier result
+   */
+  public OutlierResult run(Relation<V> relation) {
+    SharedNearestNeighborIndex<V> snn = similarityFunction.instantiate(relation).getIndex();
+    snn.initialize();
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+
+    // Map object ids to array offsets.
+    WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      offsets.putInt(iter, iter.getOffset());
+    }
+    // Neighbor sets, as offsets in a compact (CSR) layout.
+    int[] nnstart = new int[size + 1];
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      nnstart[iter.getOffset() + 1] = nnstart[iter.getOffset()] + snn.getNearestNeighborSet(iter).size();
+    }
+    int[] nn = new int[nnstart[size]];
+    // Count the occurrences of each object in the neighbor sets.
+    int[] revstart = new int[size + 1];
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      int p = nnstart[iter.getOffset()];
+      for(DBIDIter n = snn.getNearestNeighborSet(iter).iter(); n.valid(); n.advance(), p++) {
+        final int o = offsets.intValue(n);
+        nn[p] = o;
+        revstart[o + 1]++;
+      }
+    }
+    // Inverted lists: which objects have o in their neighbor set.
+    for(int i = 0; i < size; i++) {
+      revstart[i + 1] += revstart[i];
+    }
+    int[] rev = new int[revstart[size]];
+    {
+      int[] fill = new int[size];
+      for(int q = 0; q < size; q++) {
+        for(int p = nnstart[q]; p < nnstart[q + 1]; p++) {
+          final int o = nn[p];
+          rev[revstart[o] + fill[o]++] = q;
+        }
+      }
+    }
+
+    WritableDoubleDataStore sod_scores = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_STATIC);
+    WritableDataStore<SODModel> sod_models = null;
+    if(models) { // Models requested
+      sod_models = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_STATIC, SODModel.class);
+    }
+
+    SODProcessor sodm = new SODProcessor(relation, ids, offsets, nnstart, nn, revstart, rev, sod_models);
+    SharedDouble sodv = new SharedDouble();
+    sodm.connectOutput(sodv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(sod_scores);
+    storem.connectInput(sodv);
+    DoubleMinMaxProcessor mmm = new DoubleMinMaxProcessor();
+    mmm.connectInput(sodv);
+
+    ParallelExecutor.run(ids, sodm, storem, mmm);
+    offsets.destroy();
+
+    DoubleMinMax minmax = mmm.getMinMax();
+    OutlierScoreMeta meta = new BasicOutlierScoreMeta(minmax.getMin(), minmax.getMax());
+    OutlierResult sodResult = new OutlierResult(meta, new MaterializedDoubleRelation("Subspace Outlier Degree", "sod-outlier", sod_scores, ids));
+    if(sod_models != null) {
+      Relation<SODModel> models = new MaterializedRelation<>("Subspace Outlier Model", "sod-outlier", new SimpleTypeInformation<>(SODModel.class), sod_models, ids);
+      sodResult.addChildResult(models);
+    }
+    return sodResult;
+  }
+
+  @Override
+  public TypeInformation[] getInputTypeRestriction() {
+    return TypeUtil.array(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Processor computing the SOD score of each object.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class SODProcessor extends AbstractDoubleProcessor {
+    /**
+     * Data relation.
+     */
+    Relation<V> relation;
+
+    /**
+     * Object ids, in offset order.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Map from ids to offsets.
+     */
+    IntegerDataStore offsets;
+
+    /**
+     * Neighbor sets (CSR layout).
+     */
+    int[] nnstart, nn;
+
+    /**
+     * Inverted neighbor sets (CSR layout).
+     */
+    int[] revstart, rev;
+
+    /**
+     * Model storage, may be {@code null}.
+     */
+    WritableDataStore<SODModel> sod_models;
+
+    /**
+     * Constructor.
+     * 
+     * @param relation Data relation
+     * @param ids Object ids
+     * @param offsets Map from ids to offsets
+     * @param nnstart Start of each neighbor set
+     * @param nn Neighbor sets
+     * @param revstart Start of each inverted set
+     * @param rev Inverted neighbor sets
+     * @param sod_models Model storage, may be {@code null}
+     */
+    SODProcessor(Relation<V> relation, ArrayDBIDs ids, IntegerDataStore offsets, int[] nnstart, int[] nn, int[] revstart, int[] rev, WritableDataStore<SODModel> sod_models) {
+      super();
+      this.relation = relation;
+      this.ids = ids;
+      this.offsets = offsets;
+      this.nnstart = nnstart;
+      this.nn = nn;
+      this.revstart = revstart;
+      this.rev = rev;
+      this.sod_models = sod_models;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(output));
+    }
+
+    /**
+     * Instance for a single thread.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class Instance extends AbstractDoubleProcessor.Instance {
+      /**
+       * Shared neighbor counts, indexed by offset.
+       */
+      int[] counts = new int[ids.size()];
+
+      /**
+       * Objects with non-zero counts.
+       */
+      int[] touched = new int[ids.size()];
+
+      /**
+       * Iterator, for converting offsets to DBIDs.
+       */
+      DBIDArrayIter iter = ids.iter();
+
+      /**
+       * Constructor.
+       * 
+       * @param output Output variable
+       */
+      Instance(SharedDouble.Instance output) {
+        super(output);
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        final ArrayDBIDs neighborhood = getNearestNeighbors(offsets.intValue(id));
+        Vector center;
+        long[] weightVector;
+        double sod;
+        if(neighborhood.size() > 0) {
+          center = Centroid.make(relation, neighborhood);
+          // Note: per-dimension variances; no covariances.
+          double[] variances = SOD.computePerDimensionVariances(relation, center, neighborhood);
+          double expectationOfVariance = Mean.of(variances);
+          weightVector = BitsUtil.zero(variances.length);
+          for(int d = 0; d < variances.length; d++) {
+            if(variances[d] < alpha * expectationOfVariance) {
+              BitsUtil.setI(weightVector, d);
+            }
+          }
+          sod = SOD.subspaceOutlierDegree(relation.get(id), center, weightVector);
+        }
+        else {
+          center = relation.get(id).getColumnVector();
+          weightVector = null;
+          sod = 0.;
+        }
+        if(sod_models != null) {
+          // The storage may be hash based, and is then not thread safe.
+          synchronized(sod_models) {
+            sod_models.put(id, new SODModel(center, weightVector));
+          }
+        }
+        output.set(sod);
+      }
+
+      /**
+       * Get the k nearest neighbors in terms of the shared nearest neighbor
+       * similarity, excluding the query object itself.
+       * 
+       * @param q Query object offset
+       * @return Neighbors
+       */
+      private ArrayDBIDs getNearestNeighbors(int q) {
+        // Count the shared neighbors, via the inverted lists.
+        int numtouched = 0;
+        for(int i = nnstart[q]; i < nnstart[q + 1]; i++) {
+          final int o = nn[i];
+          for(int j = revstart[o]; j < revstart[o + 1]; j++) {
+            final int p = rev[j];
+            if(counts[p]++ == 0) {
+              touched[numtouched++] = p;
+            }
+          }
+        }
+        Heap<DoubleDBIDPair> nearestNeighbors = new TiedTopBoundedHeap<>(knn);
+        for(int i = 0; i < numtouched; i++) {
+          final int p = touched[i];
+          if(p != q) {
+            nearestNeighbors.add(DBIDUtil.newPair(counts[p], iter.seek(p)));
+          }
+          counts[p] = 0;
+        }
+        // Collect DBIDs
+        ArrayModifiableDBIDs dbids = DBIDUtil.newArray(nearestNeighbors.size());
+        while(nearestNeighbors.size() > 0) {
+          dbids.add(nearestNeighbors.poll());
+        }
+        return dbids;
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <V> Vector type
+   */
+  public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
+    /**
+     * Neighborhood size
+     */
+    private int knn = 1;
+
+    /**
+     * Alpha (discriminance value).
+     */
+    private double alpha = 1.1;
+
+    /**
+     * The similarity function.
+     */
+    private SharedNearestNeighborSimilarityFunction<V> similarityFunction;
+
+    /**
+     * Track models.
+     */
+    private boolean models = false;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      final ObjectParameter<SharedNearestNeighborSimilarityFunction<V>> simP = new ObjectParameter<>(SOD.Parameterizer.SIM_ID, SharedNearestNeighborSimilarityFunction.class, SharedNearestNeighborSimilarityFunction.class);
+      if(config.grab(simP)) {
+        similarityFunction = simP.instantiateClass(config);
+      }
+
+      final IntParameter knnP = new IntParameter(SOD.Parameterizer.KNN_ID);
+      knnP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(knnP)) {
+        knn = knnP.getValue();
+      }
+
+      final DoubleParameter alphaP = new DoubleParameter(SOD.Parameterizer.ALPHA_ID, 1.1);
+      alphaP.addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE);
+      if(config.grab(alphaP)) {
+        alpha = alphaP.doubleValue();
+      }
+
+      final Flag modelsF = new Flag(SOD.Parameterizer.MODELS_ID);
+      if(config.grab(modelsF)) {
+        models = modelsF.isTrue();
+      }
+    }
+
+    @Override
+    protected ParallelSOD<V> makeInstance() {
+      return new ParallelSOD<>(knn, alpha, similarityFunction, models);
+    }
+  }
+}
@@ -76,6 +76,23 @@ public class FloatVector extends AbstractNumberVector {
     this.values = nocopy ? values : values.clone();
   }
 
+  /**
+   * Create a vector that is a view on a row of a larger array, without copying
+   * the data.
+   * 
+   * The caller must ensure that the row is not modified while the vector is in
+   * use.
+   * 
+   * @param data Data array
+   * @param offset Offset of the first value
+   * @param dim Dimensionality
+   * @return Vector view
+   */
+  public static FloatVector view(float[] data, int offset, int dim) {
+    assert (offset >= 0 && offset + dim <= data.length);
+    return new View(data, offset, dim);
+  }
+
   /**
    * Create a FloatVector consisting of the given float values.
    * 
@@ -114,6 +131,11 @@ public class FloatVector extends AbstractNumberVector {
     return values[dimension];
   }
 
+  @Override
+  public float floatValue(int dimension) {
+    return values[dimension];
+  }
+
   @Override
   public long longValue(int dimension) {
     return (long) values[dimension];
@@ -136,6 +158,78 @@ public class FloatVector extends AbstractNumberVector {
     return featureLine.toString();
   }
 
+  /**
+   * View on a row of a larger array, see {@link FloatVector#view}.
+   * 
+   * @author Erich Schubert
+   */
+  private static final class View extends FloatVector {
+    /**
+     * Offset of the first value in the array, and dimensionality.
+     */
+    private final int offset, dim;
+
+    /**
+     * Constructor.
+     * 
+     * @param data Data array
+     * @param offset Offset of the first value
+     * @param dim Dimensionality
+     */
+    private View(float[] data, int offset, int dim) {
+      super(data, true);
+      this.offset = offset;
+      this.dim = dim;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return dim;
+    }
+
+    @Deprecated
+    @Override
+    public Float getValue(int dimension) {
+      return super.floatValue(offset + dimension);
+    }
+
+    @Override
+    public double doubleValue(int dimension) {
+      return super.floatValue(offset + dimension);
+    }
+
+    @Override
+    public float floatValue(int dimension) {
+      return super.floatValue(offset + dimension);
+    }
+
+    @Override
+    public long longValue(int dimension) {
+      return (long) super.floatValue(offset + dimension);
+    }
+
+    @Override
+    public Vector getColumnVector() {
+      final double[] data = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        data[i] = super.floatValue(offset + i);
+      }
+      return new Vector(data);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder featureLine = new StringBuilder();
+      for(int i = 0; i < dim; i++) {
+        featureLine.append(super.floatValue(offset + i));
+        if(i + 1 < dim) {
+          featureLine.append(ATTRIBUTE_SEPARATOR);
+        }
+      }
+      return featureLine.toString();
+    }
+  }
+
   /**
    * Factory for float vectors.
    * 
@@ -211,17 +305,17 @@ public class FloatVector extends AbstractNumberVector {
 
     @Override
     public void toByteBuffer(ByteBuffer buffer, FloatVector vec) throws IOException {
-      assert (vec.values.length < Byte.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Byte.MAX_VALUE + "!";
-      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.values.length);
-      buffer.put((byte) vec.values.length);
-      for(int i = 0; i < vec.values.length; i++) {
-        buffer.putFloat(vec.values[i]);
+      assert (vec.getDimensionality() < Byte.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Byte.MAX_VALUE + "!";
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality());
+      buffer.put((byte) vec.getDimensionality());
+      for(int i = 0; i < vec.getDimensionality(); i++) {
+        buffer.putFloat(vec.floatValue(i));
       }
     }
 
     @Override
     public int getByteSize(FloatVector vec) {
-      assert (vec.values.length < Byte.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Byte.MAX_VALUE + "!";
+      assert (vec.getDimensionality() < Byte.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Byte.MAX_VALUE + "!";
       return ByteArrayUtil.SIZE_BYTE + ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality();
     }
   }
@@ -249,17 +343,17 @@ public class FloatVector extends AbstractNumberVector {
 
     @Override
     public void toByteBuffer(ByteBuffer buffer, FloatVector vec) throws IOException {
-      assert (vec.values.length < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
-      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.values.length);
-      buffer.putShort((short) vec.values.length);
-      for(int i = 0; i < vec.values.length; i++) {
-        buffer.putFloat(vec.values[i]);
+      assert (vec.getDimensionality() < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality());
+      buffer.putShort((short) vec.getDimensionality());
+      for(int i = 0; i < vec.getDimensionality(); i++) {
+        buffer.putFloat(vec.floatValue(i));
       }
     }
 
     @Override
     public int getByteSize(FloatVector vec) {
-      assert (vec.values.length < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
+      assert (vec.getDimensionality() < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
       return ByteArrayUtil.SIZE_SHORT + ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality();
     }
   }
@@ -285,18 +379,18 @@ public class FloatVector extends AbstractNumberVector {
 
     @Override
     public void toByteBuffer(ByteBuffer buffer, FloatVector vec) throws IOException {
-      assert (vec.values.length < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
-      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.values.length);
-      ByteArrayUtil.writeUnsignedVarint(buffer, vec.values.length);
-      for(int i = 0; i < vec.values.length; i++) {
-        buffer.putFloat(vec.values[i]);
+      assert (vec.getDimensionality() < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality());
+      ByteArrayUtil.writeUnsignedVarint(buffer, vec.getDimensionality());
+      for(int i = 0; i < vec.getDimensionality(); i++) {
+        buffer.putFloat(vec.floatValue(i));
       }
     }
 
     @Override
     public int getByteSize(FloatVector vec) {
-      assert (vec.values.length < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
-      return ByteArrayUtil.getUnsignedVarintSize(vec.values.length) + ByteArrayUtil.SIZE_FLOAT * vec.values.length;
+      assert (vec.getDimensionality() < Short.MAX_VALUE) : "This serializer only supports a maximum dimensionality of " + Short.MAX_VALUE + "!";
+      return ByteArrayUtil.getUnsignedVarintSize(vec.getDimensionality()) + ByteArrayUtil.SIZE_FLOAT * vec.getDimensionality();
     }
   }
 }
@@ -24,6 +24,7 @@ package de.lmu.ifi.dbs.elki.database;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -34,8 +35,12 @@ import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreListener;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.QueryPlanner;
+import de.lmu.ifi.dbs.elki.database.query.QueryResultCache;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.PlannedKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.PlannedRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.rknn.LinearScanRKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.rknn.RKNNQuery;
@@ -70,6 +75,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
  * @apiviz.has IndexFactory
  */
 public abstract class AbstractDatabase extends AbstractHierarchicalResult implements Database {
+  /**
+   * Plan name of the linear scan, for logging.
+   */
+  private static final String LINEAR_SCAN = "linear scan";
+
   /**
    * The event manager, collects events and fires them on demand.
    */
@@ -90,6 +100,17 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
    */
   protected final Collection<IndexFactory<?, ?>> indexFactories = new ArrayList<>();
 
+  /**
+   * Choose among the indexes and the linear scan by measured cost, instead of
+   * using the most recently added index.
+   */
+  protected boolean planQueries = false;
+
+  /**
+   * Cache for query results, may be {@code null}.
+   */
+  protected QueryResultCache cache = null;
+
   /**
    * Constructor.
    */
@@ -189,11 +210,40 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
     return similarityFunction.instantiate(objQuery);
   }
 
+  /**
+   * Enable the query result cache. Results are invalidated on every change to
+   * the database content.
+   * 
+   * @param capacity Maximum number of neighbors to keep in the cache
+   */
+  protected void enableCache(long capacity) {
+    cache = new QueryResultCache(capacity);
+    indexes.add(cache);
+    eventManager.addListener(cache);
+  }
+
   @Override
   public <O> KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    KNNQuery<O> q = findKNNQuery(distanceQuery, hints);
+    if(q == null || cache == null || hasHint(hints, DatabaseQuery.HINT_NO_CACHE)) {
+      return q;
+    }
+    return cache.wrap(distanceQuery, q);
+  }
+
+  /**
+   * Find the best kNN query, without the result cache.
+   * 
+   * @param distanceQuery Distance query
+   * @param hints Optimizer hints
+   * @return Query, or {@code null}
+   */
+  private <O> KNNQuery<O> findKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     if(distanceQuery == null) {
       throw new AbortException("kNN query requested for 'null' distance!");
     }
+    List<KNNQuery<O>> plans = new ArrayList<>();
+    List<String> names = new ArrayList<>();
     ListIterator<Index> iter = indexes.listIterator(indexes.size());
     while(iter.hasPrevious()) {
       Index idx = iter.previous();
@@ -204,17 +254,27 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
         if(getLogger().isDebuggingFinest()) {
           getLogger().debugFinest((q != null ? "Using" : "Not using") + " index for kNN query: " + idx);
         }
-        if(q != null) {
+        if(q == null) {
+          continue;
+        }
+        if(!planQueries) {
           return q;
         }
+        // Approximate indexes are not compared to exact queries.
+        if(!hasHint(hints, DatabaseQuery.HINT_EXACT) && knnIndex.getKNNQuery(distanceQuery, addHint(hints, DatabaseQuery.HINT_EXACT)) == null) {
+          if(plans.isEmpty()) {
+            return q;
+          }
+          continue;
+        }
+        plans.add(q);
+        names.add(idx.getLongName());
       }
     }
 
     // Default
-    for(Object hint : hints) {
-      if(hint == DatabaseQuery.HINT_OPTIMIZED_ONLY) {
-        return null;
-      }
+    if(hasHint(hints, DatabaseQuery.HINT_OPTIMIZED_ONLY)) {
+      return plans.isEmpty() ? null : plans.size() == 1 ? plans.get(0) : new PlannedKNNQuery<>(new QueryPlanner<>("kNN query for " + distanceQuery.getDistanceFunction(), plans, names));
     }
     if(getLogger().isDebuggingFinest() && indexes.size() > 0) {
       StringBuilder buf = new StringBuilder();
@@ -228,14 +288,37 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
       }
       getLogger().debugFinest(buf.toString());
     }
-    return QueryUtil.getLinearScanKNNQuery(distanceQuery);
+    KNNQuery<O> linear = QueryUtil.getLinearScanKNNQuery(distanceQuery);
+    if(plans.isEmpty()) {
+      return linear;
+    }
+    plans.add(linear);
+    names.add(LINEAR_SCAN);
+    return new PlannedKNNQuery<>(new QueryPlanner<>("kNN query for " + distanceQuery.getDistanceFunction(), plans, names));
   }
 
   @Override
   public <O> RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    RangeQuery<O> q = findRangeQuery(distanceQuery, hints);
+    if(q == null || cache == null || hasHint(hints, DatabaseQuery.HINT_NO_CACHE)) {
+      return q;
+    }
+    return cache.wrap(distanceQuery, q);
+  }
+
+  /**
+   * Find the best range query, without the result cache.
+   * 
+   * @param distanceQuery Distance query
+   * @param hints Optimizer hints
+   * @return Query, or {@code null}
+   */
+  private <O> RangeQuery<O> findRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
     if(distanceQuery == null) {
       throw new AbortException("Range query requested for 'null' distance!");
     }
+    List<RangeQuery<O>> plans = new ArrayList<>();
+    List<String> names = new ArrayList<>();
     ListIterator<Index> iter = indexes.listIterator(indexes.size());
     while(iter.hasPrevious()) {
       Index idx = iter.previous();
@@ -246,17 +329,27 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
         if(getLogger().isDebuggingFinest()) {
           getLogger().debugFinest((q != null ? "Using" : "Not using") + " index for range query: " + idx);
         }
-        if(q != null) {
+        if(q == null) {
+          continue;
+        }
+        if(!planQueries) {
           return q;
         }
+        // Approximate indexes are not compared to exact queries.
+        if(!hasHint(hints, DatabaseQuery.HINT_EXACT) && rangeIndex.getRangeQuery(distanceQuery, addHint(hints, DatabaseQuery.HINT_EXACT)) == null) {
+          if(plans.isEmpty()) {
+            return q;
+          }
+          continue;
+        }
+        plans.add(q);
+        names.add(idx.getLongName());
       }
     }
 
     // Default
-    for(Object hint : hints) {
-      if(hint == DatabaseQuery.HINT_OPTIMIZED_ONLY) {
-        return null;
-      }
+    if(hasHint(hints, DatabaseQuery.HINT_OPTIMIZED_ONLY)) {
+      return plans.isEmpty() ? null : plans.size() == 1 ? plans.get(0) : new PlannedRangeQuery<>(new QueryPlanner<>("Range query for " + distanceQuery.getDistanceFunction(), plans, names));
     }
     if(getLogger().isDebuggingFinest() && indexes.size() > 0) {
       StringBuilder buf = new StringBuilder();
@@ -270,7 +363,42 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
       }
       getLogger().debugFinest(buf.toString());
     }
-    return QueryUtil.getLinearScanRangeQuery(distanceQuery);
+    RangeQuery<O> linear = QueryUtil.getLinearScanRangeQuery(distanceQuery);
+    if(plans.isEmpty()) {
+      return linear;
+    }
+    plans.add(linear);
+    names.add(LINEAR_SCAN);
+    return new PlannedRangeQuery<>(new QueryPlanner<>("Range query for " + distanceQuery.getDistanceFunction(), plans, names));
+  }
+
+  /**
+   * Test whether a hint was given.
+   * 
+   * @param hints Hints
+   * @param hint Hint to look for
+   * @return {@code true} when the hint is present
+   */
+  private static boolean hasHint(Object[] hints, Object hint) {
+    for(Object h : hints) {
+      if(h == hint) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Add a hint.
+   * 
+   * @param hints Hints
+   * @param hint Additional hint
+   * @return New hints array
+   */
+  private static Object[] addHint(Object[] hints, Object hint) {
+    Object[] ret = Arrays.copyOf(hints, hints.length + 1);
+    ret[hints.length] = hint;
+    return ret;
   }
 
   @Override
@@ -386,6 +514,22 @@ public abstract class AbstractDatabase extends AbstractHierarchicalResult implem
      */
     public static final OptionID INDEX_ID = new OptionID("db.index", "Database indexes to add.");
 
+    /**
+     * Flag to choose among indexes by measured query cost.
+     * <p>
+     * Key: {@code -db.planner}
+     * </p>
+     */
+    public static final OptionID PLANNER_ID = new OptionID("db.planner", "Choose among the indexes and the linear scan by measuring the cost of the first queries, instead of always using the most recently added index. Only exact queries are compared.");
+
+    /**
+     * Parameter for the size of the query result cache.
+     * <p>
+     * Key: {@code -db.cache}
+     * </p>
+     */
+    public static final OptionID CACHE_ID = new OptionID("db.cache", "Maximum number of neighbors to keep in the cache for kNN and range query results by object id. 0 disables the cache.");
+
     @Override
     protected abstract Database makeInstance();
   }
@@ -50,7 +50,9 @@ import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -93,7 +95,22 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
    * @param indexFactories Indexes to add
    */
   public HashmapDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories) {
+    this(databaseConnection, indexFactories, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param cacheSize Maximum number of neighbors in the query result cache, 0
+   *        to disable
+   */
+  public HashmapDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories, int cacheSize) {
     super();
+    if(cacheSize > 0) {
+      enableCache(cacheSize);
+    }
     this.databaseConnection = databaseConnection;
     this.ids = DBIDUtil.newHashSet();
     this.idrep = new DBIDView(this, this.ids);
@@ -336,6 +353,11 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
      */
     private Collection<IndexFactory<?, ?>> indexFactories;
 
+    /**
+     * Size of the query result cache.
+     */
+    private int cacheSize = 0;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -349,11 +371,17 @@ public class HashmapDatabase extends AbstractDatabase implements UpdatableDataba
       if(config.grab(indexFactoryP)) {
         indexFactories = indexFactoryP.instantiateClasses(config);
       }
+      final IntParameter cacheP = new IntParameter(CACHE_ID) //
+      .setOptional(true) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(cacheP)) {
+        cacheSize = cacheP.intValue();
+      }
     }
 
     @Override
     protected HashmapDatabase makeInstance() {
-      return new HashmapDatabase(databaseConnection, indexFactories);
+      return new HashmapDatabase(databaseConnection, indexFactories, cacheSize);
     }
   }
 }
@@ -26,13 +26,17 @@ package de.lmu.ifi.dbs.elki.database;
 import java.util.BitSet;
 import java.util.Collection;
 
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayStaticDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DBIDView;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.DatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
@@ -43,7 +47,11 @@ import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -81,6 +89,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Store fixed-dimensional float vectors in a packed array.
+   */
+  private boolean packFloat = false;
+
   /**
    * Constructor.
    * 
@@ -88,7 +101,40 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories) {
+    this(databaseConnection, indexFactories, false, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param planQueries Choose among indexes by measured query cost
+   * @param cacheSize Maximum number of neighbors in the query result cache, 0
+   *        to disable
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories, boolean planQueries, int cacheSize) {
+    this(databaseConnection, indexFactories, planQueries, cacheSize, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param planQueries Choose among indexes by measured query cost
+   * @param cacheSize Maximum number of neighbors in the query result cache, 0
+   *        to disable
+   * @param packFloat Store fixed-dimensional float vectors in a single packed
+   *        array (see {@link PackedFloatVectorRelation})
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?, ?>> indexFactories, boolean planQueries, int cacheSize, boolean packFloat) {
     super();
+    this.packFloat = packFloat;
+    this.planQueries = planQueries;
+    if(cacheSize > 0) {
+      enableCache(cacheSize);
+    }
     this.databaseConnection = databaseConnection;
     this.ids = null;
     this.idrep = null;
@@ -228,7 +274,19 @@ public class StaticArrayDatabase extends AbstractDatabase {
   private Relation<?> addNewRelation(SimpleTypeInformation<?> meta) {
     @SuppressWarnings("unchecked")
     SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-    Relation<?> relation = new MaterializedRelation<>(this, ometa, ids);
+    Relation<?> relation = null;
+    // Store float vector fields in a single packed array, if enabled.
+    if(packFloat && ids instanceof DBIDRange && meta instanceof VectorFieldTypeInformation && FloatVector.class.equals(meta.getRestrictionClass())) {
+      @SuppressWarnings("unchecked")
+      VectorFieldTypeInformation<FloatVector> fmeta = (VectorFieldTypeInformation<FloatVector>) meta;
+      // Arrays are indexed by int, fall back to objects for huge data sets.
+      if(fmeta.mindim() == fmeta.maxdim() && (long) ids.size() * fmeta.getDimensionality() <= PackedFloatVectorRelation.MAX_ARRAY_SIZE) {
+        relation = new PackedFloatVectorRelation(this, fmeta, (DBIDRange) ids, fmeta.getDimensionality());
+      }
+    }
+    if(relation == null) {
+      relation = new MaterializedRelation<>(this, ometa, ids);
+    }
     relations.add(relation);
     getHierarchy().add(this, relation);
     return relation;
@@ -247,6 +305,14 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @apiviz.exclude
    */
   public static class Parameterizer extends AbstractDatabase.Parameterizer {
+    /**
+     * Flag to store fixed-dimensional float vectors in a single packed array.
+     * <p>
+     * Key: {@code -db.packfloat}
+     * </p>
+     */
+    public static final OptionID PACK_FLOAT_ID = new OptionID("db.packfloat", "Store fixed-dimensional float vector relations in a single packed array. Objects returned by the relation are then views on the storage.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -257,6 +323,21 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<IndexFactory<?, ?>> indexFactories;
 
+    /**
+     * Choose among indexes by measured query cost.
+     */
+    private boolean planQueries = false;
+
+    /**
+     * Size of the query result cache.
+     */
+    private int cacheSize = 0;
+
+    /**
+     * Store float vectors in a packed array.
+     */
+    private boolean packFloat = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -270,11 +351,25 @@ public class StaticArrayDatabase extends AbstractDatabase {
       if(config.grab(indexFactoryP)) {
         indexFactories = indexFactoryP.instantiateClasses(config);
       }
+      final Flag plannerF = new Flag(PLANNER_ID);
+      if(config.grab(plannerF)) {
+        planQueries = plannerF.isTrue();
+      }
+      final IntParameter cacheP = new IntParameter(CACHE_ID) //
+      .setOptional(true) //
+      .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(cacheP)) {
+        cacheSize = cacheP.intValue();
+      }
+      final Flag packF = new Flag(PACK_FLOAT_ID);
+      if(config.grab(packF)) {
+        packFloat = packF.isTrue();
+      }
     }
 
     @Override
     protected StaticArrayDatabase makeInstance() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, planQueries, cacheSize, packFloat);
     }
   }
 }
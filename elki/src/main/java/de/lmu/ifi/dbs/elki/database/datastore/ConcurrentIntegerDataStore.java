@@ -0,0 +1,74 @@
+package de.lmu.ifi.dbs.elki.database.datastore;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+
+/**
+ * Integer data store that can be updated by multiple threads concurrently,
+ * e.g. for counting or flagging objects.
+ * 
+ * All operations on a single object are atomic; the set of objects is fixed.
+ * Obtain instances using {@link DataStoreFactory#HINT_CONCURRENT}.
+ * 
+ * @author Erich Schubert
+ */
+public interface ConcurrentIntegerDataStore extends WritableIntegerDataStore {
+  /**
+   * Atomically add to the stored value.
+   * 
+   * @param id Database ID.
+   * @param delta Value to add
+   * @return New value
+   */
+  public int addAndGet(DBIDRef id, int delta);
+
+  /**
+   * Atomically set the value, if the current value is the expected value.
+   * 
+   * @param id Database ID.
+   * @param expect Expected value
+   * @param update New value
+   * @return {@code true} when the value was updated
+   */
+  public boolean compareAndSet(DBIDRef id, int expect, int update);
+
+  /**
+   * Atomically lower the stored value to the given value, if it is smaller.
+   * 
+   * @param id Database ID.
+   * @param value Candidate value
+   * @return {@code true} when the value was updated
+   */
+  public boolean updateMin(DBIDRef id, int value);
+
+  /**
+   * Atomically raise the stored value to the given value, if it is larger.
+   * 
+   * @param id Database ID.
+   * @param value Candidate value
+   * @return {@code true} when the value was updated
+   */
+  public boolean updateMax(DBIDRef id, int value);
+}
@@ -25,6 +25,7 @@ package de.lmu.ifi.dbs.elki.database.datastore;
 
 import de.lmu.ifi.dbs.elki.database.datastore.memory.MemoryDataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 
 /**
  * API for a storage factory used for producing larger storage maps.
@@ -38,6 +39,8 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
  * @apiviz.has WritableIntegerDataStore oneway - - «create»
  * @apiviz.has WritableDoubleDataStore oneway - - «create»
  * @apiviz.has WritableDBIDDataStore oneway - - «create»
+ * @apiviz.has ConcurrentDoubleDataStore oneway - - «create»
+ * @apiviz.has ConcurrentIntegerDataStore oneway - - «create»
  * @apiviz.has WritableRecordStore oneway - - «create»
  */
 public interface DataStoreFactory {
@@ -71,6 +74,13 @@ public interface DataStoreFactory {
    */
   public static final int HINT_DB = 0x1E;
 
+  /**
+   * Data that will be updated by multiple threads concurrently. Double and
+   * integer storages will then support atomic updates, see
+   * {@link ConcurrentDoubleDataStore} and {@link ConcurrentIntegerDataStore}.
+   */
+  public static final int HINT_CONCURRENT = 0x20;
+
   /**
    * Make a new storage, to associate the given ids with an object of class
    * dataclass.
@@ -135,6 +145,37 @@ public interface DataStoreFactory {
    */
   public WritableIntegerDataStore makeIntegerStorage(DBIDs ids, int hints, int def);
 
+  /**
+   * Make a new storage for doubles that supports concurrent updates.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param def Default value
+   * @return new data store
+   */
+  public ConcurrentDoubleDataStore makeConcurrentDoubleStorage(DBIDs ids, int hints, double def);
+
+  /**
+   * Make a new storage for integers that supports concurrent updates.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param def Default value
+   * @return new data store
+   */
+  public ConcurrentIntegerDataStore makeConcurrentIntegerStorage(DBIDs ids, int hints, int def);
+
+  /**
+   * Make a new storage for kNN lists. The lists may be stored in a compact
+   * form, with single precision distances.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param k Expected number of neighbors per object
+   * @return new data store
+   */
+  public WritableDataStore<KNNList> makeKNNStorage(DBIDs ids, int hints, int k);
+
   /**
    * Make a new record storage, to associate the given ids with an object of
    * class dataclass.
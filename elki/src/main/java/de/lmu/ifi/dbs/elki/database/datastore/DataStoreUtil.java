@@ -27,6 +27,7 @@ import java.util.Comparator;
 
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 
 /**
  * Storage utility class. Mostly a shorthand for
@@ -114,6 +115,43 @@ public final class DataStoreUtil {
     return DataStoreFactory.FACTORY.makeIntegerStorage(ids, hints, def);
   }
 
+  /**
+   * Make a new storage for doubles that supports concurrent updates.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param def Default value
+   * @return new data store
+   */
+  public static ConcurrentDoubleDataStore makeConcurrentDoubleStorage(DBIDs ids, int hints, double def) {
+    return DataStoreFactory.FACTORY.makeConcurrentDoubleStorage(ids, hints, def);
+  }
+
+  /**
+   * Make a new storage for integers that supports concurrent updates.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param def Default value
+   * @return new data store
+   */
+  public static ConcurrentIntegerDataStore makeConcurrentIntegerStorage(DBIDs ids, int hints, int def) {
+    return DataStoreFactory.FACTORY.makeConcurrentIntegerStorage(ids, hints, def);
+  }
+
+  /**
+   * Make a new storage for kNN lists. The lists may be stored in a compact
+   * form, with single precision distances.
+   * 
+   * @param ids DBIDs to store data for
+   * @param hints Hints for the storage manager
+   * @param k Expected number of neighbors per object
+   * @return new data store
+   */
+  public static WritableDataStore<KNNList> makeKNNStorage(DBIDs ids, int hints, int k) {
+    return DataStoreFactory.FACTORY.makeKNNStorage(ids, hints, k);
+  }
+
   /**
    * Make a new record storage, to associate the given ids with an object of
    * class dataclass.
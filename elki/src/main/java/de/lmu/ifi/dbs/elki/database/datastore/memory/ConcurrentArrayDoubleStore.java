@@ -0,0 +1,183 @@
+package de.lmu.ifi.dbs.elki.database.datastore.memory;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import de.lmu.ifi.dbs.elki.database.datastore.ConcurrentDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+
+/**
+ * Array storage of doubles that can be updated concurrently, without locks.
+ * 
+ * The values are stored as their bit representation in an
+ * {@link AtomicLongArray}; read-modify-write operations retry a
+ * compare-and-set until they succeed.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap
+ */
+public class ConcurrentArrayDoubleStore implements ConcurrentDoubleDataStore {
+  /**
+   * Data array, as raw long bits.
+   */
+  private AtomicLongArray data;
+
+  /**
+   * Default value.
+   */
+  private double def;
+
+  /**
+   * DBID to index map
+   */
+  private DataStoreIDMap idmap;
+
+  /**
+   * Constructor.
+   * 
+   * @param size Size
+   * @param idmap ID map
+   * @param def Default value
+   */
+  public ConcurrentArrayDoubleStore(int size, DataStoreIDMap idmap, double def) {
+    super();
+    this.data = new AtomicLongArray(size);
+    this.def = def;
+    this.idmap = idmap;
+    if(Double.doubleToRawLongBits(def) != 0L) {
+      clear();
+    }
+  }
+
+  @Override
+  @Deprecated
+  public Double get(DBIDRef id) {
+    return Double.valueOf(doubleValue(id));
+  }
+
+  @Override
+  @Deprecated
+  public Double put(DBIDRef id, Double value) {
+    return Double.valueOf(putDouble(id, value.doubleValue()));
+  }
+
+  @Override
+  public double doubleValue(DBIDRef id) {
+    return Double.longBitsToDouble(data.get(idmap.mapDBIDToOffset(id)));
+  }
+
+  @Override
+  public double putDouble(DBIDRef id, double value) {
+    return Double.longBitsToDouble(data.getAndSet(idmap.mapDBIDToOffset(id), Double.doubleToRawLongBits(value)));
+  }
+
+  @Override
+  public double put(DBIDRef id, double value) {
+    return putDouble(id, value);
+  }
+
+  @Override
+  public void increment(DBIDRef id, double value) {
+    addAndGet(id, value);
+  }
+
+  @Override
+  public double addAndGet(DBIDRef id, double delta) {
+    final int off = idmap.mapDBIDToOffset(id);
+    while(true) {
+      final long cur = data.get(off);
+      final double next = Double.longBitsToDouble(cur) + delta;
+      if(data.compareAndSet(off, cur, Double.doubleToRawLongBits(next))) {
+        return next;
+      }
+    }
+  }
+
+  @Override
+  public boolean compareAndSet(DBIDRef id, double expect, double update) {
+    return data.compareAndSet(idmap.mapDBIDToOffset(id), Double.doubleToRawLongBits(expect), Double.doubleToRawLongBits(update));
+  }
+
+  @Override
+  public boolean updateMin(DBIDRef id, double value) {
+    final int off = idmap.mapDBIDToOffset(id);
+    final long bits = Double.doubleToRawLongBits(value);
+    while(true) {
+      final long cur = data.get(off);
+      if(!(value < Double.longBitsToDouble(cur))) {
+        return false;
+      }
+      if(data.compareAndSet(off, cur, bits)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public boolean updateMax(DBIDRef id, double value) {
+    final int off = idmap.mapDBIDToOffset(id);
+    final long bits = Double.doubleToRawLongBits(value);
+    while(true) {
+      final long cur = data.get(off);
+      if(!(value > Double.longBitsToDouble(cur))) {
+        return false;
+      }
+      if(data.compareAndSet(off, cur, bits)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public void clear() {
+    final long bits = Double.doubleToRawLongBits(def);
+    for(int i = 0, size = data.length(); i < size; i++) {
+      data.set(i, bits);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    data = null;
+    idmap = null;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    throw new UnsupportedOperationException("Can't delete from a static array storage.");
+  }
+
+  @Override
+  public String getLongName() {
+    return "raw";
+  }
+
+  @Override
+  public String getShortName() {
+    return "raw";
+  }
+}
@@ -0,0 +1,158 @@
+package de.lmu.ifi.dbs.elki.database.datastore.memory;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import de.lmu.ifi.dbs.elki.database.datastore.ConcurrentIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+
+/**
+ * Array storage of integers that can be updated concurrently, without locks.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap
+ */
+public class ConcurrentArrayIntegerStore implements ConcurrentIntegerDataStore {
+  /**
+   * Data array
+   */
+  private AtomicIntegerArray data;
+
+  /**
+   * DBID to index map
+   */
+  private DataStoreIDMap idmap;
+
+  /**
+   * Constructor.
+   * 
+   * @param size Size
+   * @param idmap ID map
+   * @param def Default value
+   */
+  public ConcurrentArrayIntegerStore(int size, DataStoreIDMap idmap, int def) {
+    super();
+    this.data = new AtomicIntegerArray(size);
+    if(def != 0) {
+      for(int i = 0; i < size; i++) {
+        data.set(i, def);
+      }
+    }
+    this.idmap = idmap;
+  }
+
+  @Override
+  @Deprecated
+  public Integer get(DBIDRef id) {
+    return Integer.valueOf(intValue(id));
+  }
+
+  @Override
+  @Deprecated
+  public Integer put(DBIDRef id, Integer value) {
+    return Integer.valueOf(putInt(id, value.intValue()));
+  }
+
+  @Override
+  public int intValue(DBIDRef id) {
+    return data.get(idmap.mapDBIDToOffset(id));
+  }
+
+  @Override
+  public int putInt(DBIDRef id, int value) {
+    return data.getAndSet(idmap.mapDBIDToOffset(id), value);
+  }
+
+  @Override
+  public int put(DBIDRef id, int value) {
+    return putInt(id, value);
+  }
+
+  @Override
+  public void increment(DBIDRef id, int adjust) {
+    data.addAndGet(idmap.mapDBIDToOffset(id), adjust);
+  }
+
+  @Override
+  public int addAndGet(DBIDRef id, int delta) {
+    return data.addAndGet(idmap.mapDBIDToOffset(id), delta);
+  }
+
+  @Override
+  public boolean compareAndSet(DBIDRef id, int expect, int update) {
+    return data.compareAndSet(idmap.mapDBIDToOffset(id), expect, update);
+  }
+
+  @Override
+  public boolean updateMin(DBIDRef id, int value) {
+    final int off = idmap.mapDBIDToOffset(id);
+    while(true) {
+      final int cur = data.get(off);
+      if(value >= cur) {
+        return false;
+      }
+      if(data.compareAndSet(off, cur, value)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public boolean updateMax(DBIDRef id, int value) {
+    final int off = idmap.mapDBIDToOffset(id);
+    while(true) {
+      final int cur = data.get(off);
+      if(value <= cur) {
+        return false;
+      }
+      if(data.compareAndSet(off, cur, value)) {
+        return true;
+      }
+    }
+  }
+
+  @Override
+  public void destroy() {
+    data = null;
+    idmap = null;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    throw new UnsupportedOperationException("Can't delete from a static array storage.");
+  }
+
+  @Override
+  public String getLongName() {
+    return "raw";
+  }
+
+  @Override
+  public String getShortName() {
+    return "raw";
+  }
+}
@@ -0,0 +1,79 @@
+package de.lmu.ifi.dbs.elki.database.datastore.memory;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntIntOpenHashMap;
+
+/**
+ * Map a fixed set of DBIDs to consecutive offsets, for array storage of
+ * arbitrary DBIDs. The map is not modified after construction, so it can be
+ * read by multiple threads.
+ * 
+ * @author Erich Schubert
+ */
+public class FixedDBIDMap implements DataStoreIDMap {
+  /**
+   * Offsets of the DBIDs.
+   */
+  private final IntIntOpenHashMap map;
+
+  /**
+   * Constructor.
+   * 
+   * @param ids DBIDs to map
+   */
+  public FixedDBIDMap(DBIDs ids) {
+    super();
+    map = new IntIntOpenHashMap(ids.size(), -1);
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      final int k = DBIDUtil.asInteger(iter);
+      if(!map.containsKey(k)) {
+        map.put(k, map.size());
+      }
+    }
+  }
+
+  /**
+   * Number of distinct DBIDs mapped.
+   * 
+   * @return Size
+   */
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public int mapDBIDToOffset(DBIDRef dbid) {
+    final int off = map.get(DBIDUtil.asInteger(dbid));
+    if(off < 0) {
+      throw new IllegalArgumentException("DBID not in the fixed storage domain: " + DBIDUtil.toString(dbid));
+    }
+    return off;
+  }
+}
@@ -23,14 +23,13 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDFactory;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntIntOpenHashMap;
 
 /**
  * Writable data store for double values.
@@ -41,7 +40,7 @@ public class MapIntegerDBIDDBIDStore implements WritableDBIDDataStore {
   /**
    * Data storage.
    */
-  private TIntIntMap map;
+  private IntIntOpenHashMap map;
 
   /**
    * Constructor.
@@ -50,7 +49,7 @@ public class MapIntegerDBIDDBIDStore implements WritableDBIDDataStore {
    */
   public MapIntegerDBIDDBIDStore(int size) {
     super();
-    map = new TIntIntHashMap(size, 0.5f, Integer.MIN_VALUE, DBIDUtil.asInteger(DBIDUtil.invalid()));
+    map = new IntIntOpenHashMap(size, DBIDUtil.asInteger(DBIDUtil.invalid()));
   }
 
   @Override
@@ -23,11 +23,10 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntDoubleMap;
-import gnu.trove.map.hash.TIntDoubleHashMap;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntDoubleOpenHashMap;
 
 /**
  * Writable data store for double values.
@@ -38,7 +37,7 @@ public class MapIntegerDBIDDoubleStore implements WritableDoubleDataStore {
   /**
    * Data storage.
    */
-  private TIntDoubleMap map;
+  private IntDoubleOpenHashMap map;
 
   /**
    * Constructor.
@@ -57,7 +56,7 @@ public class MapIntegerDBIDDoubleStore implements WritableDoubleDataStore {
    */
   public MapIntegerDBIDDoubleStore(int size, double def) {
     super();
-    map = new TIntDoubleHashMap(size, 0.5f, Integer.MIN_VALUE, def);
+    map = new IntDoubleOpenHashMap(size, def);
   }
 
   @Override
@@ -104,7 +103,7 @@ public class MapIntegerDBIDDoubleStore implements WritableDoubleDataStore {
 
   @Override
   public void increment(DBIDRef id, double value) {
-    map.adjustOrPutValue(DBIDUtil.asInteger(id), value, map.getNoEntryValue() + value);
+    map.add(DBIDUtil.asInteger(id), value);
   }
 
   @Override
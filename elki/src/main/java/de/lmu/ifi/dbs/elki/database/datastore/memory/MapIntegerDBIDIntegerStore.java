@@ -23,11 +23,10 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.hash.TIntIntHashMap;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntIntOpenHashMap;
 
 /**
  * Writable data store for double values.
@@ -38,7 +37,7 @@ public class MapIntegerDBIDIntegerStore implements WritableIntegerDataStore {
   /**
    * Data storage.
    */
-  private TIntIntMap map;
+  private IntIntOpenHashMap map;
 
   /**
    * Constructor.
@@ -57,7 +56,7 @@ public class MapIntegerDBIDIntegerStore implements WritableIntegerDataStore {
    */
   public MapIntegerDBIDIntegerStore(int size, int def) {
     super();
-    map = new TIntIntHashMap(size, 0.5f, Integer.MIN_VALUE, def);
+    map = new IntIntOpenHashMap(size, def);
   }
 
   @Override
@@ -110,6 +109,6 @@ public class MapIntegerDBIDIntegerStore implements WritableIntegerDataStore {
 
   @Override
   public void increment(DBIDRef id, int adjust) {
-    map.adjustOrPutValue(DBIDUtil.asInteger(id), adjust, adjust);
+    map.add(DBIDUtil.asInteger(id), adjust);
   }
 }
@@ -23,12 +23,11 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableRecordStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntObjectOpenHashMap;
 
 /**
  * A class to answer representation queries using a map and an index within the
@@ -47,7 +46,7 @@ public class MapIntegerDBIDRecordStore implements WritableRecordStore {
   /**
    * Storage Map.
    */
-  private final TIntObjectMap<Object[]> data;
+  private final IntObjectOpenHashMap<Object[]> data;
 
   /**
    * Constructor with existing data.
@@ -55,7 +54,7 @@ public class MapIntegerDBIDRecordStore implements WritableRecordStore {
    * @param rlen Number of columns (record length)
    * @param data Existing data map
    */
-  public MapIntegerDBIDRecordStore(int rlen, TIntObjectMap<Object[]> data) {
+  public MapIntegerDBIDRecordStore(int rlen, IntObjectOpenHashMap<Object[]> data) {
     super();
     this.rlen = rlen;
     this.data = data;
@@ -67,7 +66,7 @@ public class MapIntegerDBIDRecordStore implements WritableRecordStore {
    * @param rlen Number of columns (record length)
    */
   public MapIntegerDBIDRecordStore(int rlen) {
-    this(rlen, new TIntObjectHashMap<Object[]>());
+    this(rlen, new IntObjectOpenHashMap<Object[]>(16));
   }
 
   /**
@@ -77,7 +76,7 @@ public class MapIntegerDBIDRecordStore implements WritableRecordStore {
    * @param rlen Number of columns (record length)
    */
   public MapIntegerDBIDRecordStore(int size, int rlen) {
-    this(rlen, new TIntObjectHashMap<Object[]>(size));
+    this(rlen, new IntObjectOpenHashMap<Object[]>(size));
   }
 
   @Override
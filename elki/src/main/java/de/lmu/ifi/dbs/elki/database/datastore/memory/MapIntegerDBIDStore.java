@@ -23,11 +23,10 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntObjectOpenHashMap;
 
 /**
  * A class to answer representation queries using a map. Basically, it is just a
@@ -41,14 +40,14 @@ public class MapIntegerDBIDStore<T> implements WritableDataStore<T> {
   /**
    * Storage Map.
    */
-  private TIntObjectMap<T> data;
+  private IntObjectOpenHashMap<T> data;
 
   /**
    * Constructor.
    * 
    * @param data Existing map
    */
-  public MapIntegerDBIDStore(TIntObjectMap<T> data) {
+  public MapIntegerDBIDStore(IntObjectOpenHashMap<T> data) {
     super();
     this.data = data;
   }
@@ -58,7 +57,7 @@ public class MapIntegerDBIDStore<T> implements WritableDataStore<T> {
    */
   public MapIntegerDBIDStore() {
     super();
-    this.data = new TIntObjectHashMap<>();
+    this.data = new IntObjectOpenHashMap<>(16);
   }
 
   /**
@@ -67,7 +66,7 @@ public class MapIntegerDBIDStore<T> implements WritableDataStore<T> {
    * @param size Expected size
    */
   public MapIntegerDBIDStore(int size) {
-    this.data = new TIntObjectHashMap<>(size);
+    this.data = new IntObjectOpenHashMap<>(size);
   }
 
   @Override
@@ -23,6 +23,8 @@ package de.lmu.ifi.dbs.elki.database.datastore.memory;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import de.lmu.ifi.dbs.elki.database.datastore.ConcurrentDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.ConcurrentIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
@@ -31,19 +33,23 @@ import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableRecordStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 
 /**
  * Simple factory class that will store all data in memory using object arrays
  * or hashmaps.
  * 
  * Hints are currently not used by this implementation, since everything is
- * in-memory.
+ * in-memory, except for {@link DataStoreFactory#HINT_CONCURRENT}.
  * 
  * @author Erich Schubert
  * 
  * @apiviz.stereotype factory
  * @apiviz.has ArrayStore oneway - - «create»
  * @apiviz.has ArrayRecordStore oneway - - «create»
+ * @apiviz.has PackedKNNStore oneway - - «create»
+ * @apiviz.has ConcurrentArrayDoubleStore oneway - - «create»
+ * @apiviz.has ConcurrentArrayIntegerStore oneway - - «create»
  * @apiviz.has MapStore oneway - - «create»
  * @apiviz.has MapRecordStore oneway - - «create»
  */
@@ -80,6 +86,9 @@ public class MemoryDataStoreFactory implements DataStoreFactory {
 
   @Override
   public WritableDoubleDataStore makeDoubleStorage(DBIDs ids, int hints) {
+    if((hints & HINT_CONCURRENT) != 0) {
+      return makeConcurrentDoubleStorage(ids, hints, Double.NaN);
+    }
     if(ids instanceof DBIDRange) {
       DBIDRange range = (DBIDRange) ids;
       return new ArrayDoubleStore(range.size(), range);
@@ -91,6 +100,9 @@ public class MemoryDataStoreFactory implements DataStoreFactory {
 
   @Override
   public WritableDoubleDataStore makeDoubleStorage(DBIDs ids, int hints, double def) {
+    if((hints & HINT_CONCURRENT) != 0) {
+      return makeConcurrentDoubleStorage(ids, hints, def);
+    }
     if(ids instanceof DBIDRange) {
       DBIDRange range = (DBIDRange) ids;
       return new ArrayDoubleStore(range.size(), range, def);
@@ -102,6 +114,9 @@ public class MemoryDataStoreFactory implements DataStoreFactory {
 
   @Override
   public WritableIntegerDataStore makeIntegerStorage(DBIDs ids, int hints) {
+    if((hints & HINT_CONCURRENT) != 0) {
+      return makeConcurrentIntegerStorage(ids, hints, 0);
+    }
     if(ids instanceof DBIDRange) {
       DBIDRange range = (DBIDRange) ids;
       return new ArrayIntegerStore(range.size(), range);
@@ -113,6 +128,9 @@ public class MemoryDataStoreFactory implements DataStoreFactory {
 
   @Override
   public WritableIntegerDataStore makeIntegerStorage(DBIDs ids, int hints, int def) {
+    if((hints & HINT_CONCURRENT) != 0) {
+      return makeConcurrentIntegerStorage(ids, hints, def);
+    }
     if(ids instanceof DBIDRange) {
       DBIDRange range = (DBIDRange) ids;
       return new ArrayIntegerStore(range.size(), range, def);
@@ -122,6 +140,37 @@ public class MemoryDataStoreFactory implements DataStoreFactory {
     }
   }
 
+  @Override
+  public ConcurrentDoubleDataStore makeConcurrentDoubleStorage(DBIDs ids, int hints, double def) {
+    if(ids instanceof DBIDRange) {
+      DBIDRange range = (DBIDRange) ids;
+      return new ConcurrentArrayDoubleStore(range.size(), range, def);
+    }
+    FixedDBIDMap map = new FixedDBIDMap(ids);
+    return new ConcurrentArrayDoubleStore(map.size(), map, def);
+  }
+
+  @Override
+  public ConcurrentIntegerDataStore makeConcurrentIntegerStorage(DBIDs ids, int hints, int def) {
+    if(ids instanceof DBIDRange) {
+      DBIDRange range = (DBIDRange) ids;
+      return new ConcurrentArrayIntegerStore(range.size(), range, def);
+    }
+    FixedDBIDMap map = new FixedDBIDMap(ids);
+    return new ConcurrentArrayIntegerStore(map.size(), map, def);
+  }
+
+  @Override
+  public WritableDataStore<KNNList> makeKNNStorage(DBIDs ids, int hints, int k) {
+    if(ids instanceof DBIDRange) {
+      DBIDRange range = (DBIDRange) ids;
+      return new PackedKNNStore(range.size(), k, range);
+    }
+    else {
+      return new MapIntegerDBIDStore<>(ids.size());
+    }
+  }
+
   @Override
   public WritableRecordStore makeRecordStorage(DBIDs ids, int hints, Class<?>... dataclasses) {
     if(ids instanceof DBIDRange) {
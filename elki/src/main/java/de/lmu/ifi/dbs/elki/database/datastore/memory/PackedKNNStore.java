@@ -0,0 +1,223 @@
+package de.lmu.ifi.dbs.elki.database.datastore.memory;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.integer.FloatIntegerDBIDKNNList;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Packed storage of the kNN lists of a relation ("kNN graph").
+ * 
+ * All neighbor lists are kept in two flat arrays, for the object ids and the
+ * single precision distances, with an offset per object. Compared to storing
+ * one list object per object, this avoids the object overhead, and halves the
+ * memory used for distances.
+ * 
+ * Lists returned by {@link #get} are views on the arrays. Stored lists are
+ * never modified in place: replacing a list appends the new list, and the
+ * arrays are compacted once more than half of their content is unused.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf de.lmu.ifi.dbs.elki.database.datastore.DataStoreIDMap
+ * @apiviz.uses FloatIntegerDBIDKNNList
+ */
+public class PackedKNNStore implements WritableDataStore<KNNList> {
+  /**
+   * Largest array size supported by common JVMs.
+   */
+  private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * DBID to index map.
+   */
+  private DataStoreIDMap idmap;
+
+  /**
+   * Start of each list, -1 for absent lists.
+   */
+  private int[] start;
+
+  /**
+   * Length of each list.
+   */
+  private int[] length;
+
+  /**
+   * k of each list.
+   */
+  private int[] ks;
+
+  /**
+   * Neighbor ids.
+   */
+  private int[] ids;
+
+  /**
+   * Neighbor distances.
+   */
+  private float[] dists;
+
+  /**
+   * Used array positions, including unused gaps.
+   */
+  private int used = 0;
+
+  /**
+   * Array positions of replaced or deleted lists.
+   */
+  private int garbage = 0;
+
+  /**
+   * Constructor.
+   * 
+   * @param size Number of objects
+   * @param k Expected list length, for the initial allocation
+   * @param idmap DBID to offset mapping
+   */
+  public PackedKNNStore(int size, int k, DataStoreIDMap idmap) {
+    super();
+    this.idmap = idmap;
+    this.start = new int[size];
+    Arrays.fill(start, -1);
+    this.length = new int[size];
+    this.ks = new int[size];
+    final int capacity = (int) Math.min(MAX_ARRAY_SIZE, size * (long) k);
+    this.ids = new int[capacity];
+    this.dists = new float[capacity];
+  }
+
+  @Override
+  public KNNList get(DBIDRef id) {
+    final int off = idmap.mapDBIDToOffset(id);
+    final int s = start[off];
+    return s < 0 ? null : new FloatIntegerDBIDKNNList(ks[off], dists, ids, s, length[off]);
+  }
+
+  @Override
+  public KNNList put(DBIDRef id, KNNList value) {
+    final int off = idmap.mapDBIDToOffset(id);
+    if(value != null) {
+      // Positions needed after compaction, the replaced list is freed.
+      final long need = used + (long) value.size() - garbage - (start[off] >= 0 ? length[off] : 0);
+      if(need > MAX_ARRAY_SIZE) {
+        throw new AbortException("kNN lists too large: " + need + " neighbors exceed the maximum array size of " + MAX_ARRAY_SIZE + ".");
+      }
+    }
+    KNNList ret = get(id);
+    if(ret != null) {
+      garbage += length[off];
+      start[off] = -1;
+    }
+    if(value == null) {
+      return ret;
+    }
+    final int len = value.size();
+    if(used + (long) len > ids.length) {
+      // Compact when the arrays cannot grow enough.
+      if(garbage > (used >>> 1) || used + (long) len > MAX_ARRAY_SIZE) {
+        compact(used - garbage + len);
+      }
+      else {
+        final int newsize = (int) Math.min(MAX_ARRAY_SIZE, Math.max(used + (long) len, ids.length + (ids.length >>> 1) + 1L));
+        ids = Arrays.copyOf(ids, newsize);
+        dists = Arrays.copyOf(dists, newsize);
+      }
+    }
+    int p = used;
+    for(DoubleDBIDListIter iter = value.iter(); iter.valid(); iter.advance(), p++) {
+      ids[p] = iter.internalGetIndex();
+      dists[p] = (float) iter.doubleValue();
+    }
+    start[off] = used;
+    length[off] = len;
+    ks[off] = value.getK();
+    used = p;
+    return ret;
+  }
+
+  /**
+   * Compact the arrays, removing unused gaps.
+   * 
+   * New arrays are allocated, as lists returned earlier still refer to the old
+   * arrays.
+   * 
+   * @param minsize Minimum size of the new arrays
+   */
+  private void compact(int minsize) {
+    final int newsize = (int) Math.min(MAX_ARRAY_SIZE, Math.max(minsize, used - garbage + ((used - garbage) >>> 1) + 1L));
+    int[] nids = new int[newsize];
+    float[] ndists = new float[newsize];
+    int p = 0;
+    for(int i = 0; i < start.length; i++) {
+      final int s = start[i];
+      if(s >= 0) {
+        System.arraycopy(ids, s, nids, p, length[i]);
+        System.arraycopy(dists, s, ndists, p, length[i]);
+        start[i] = p;
+        p += length[i];
+      }
+    }
+    ids = nids;
+    dists = ndists;
+    used = p;
+    garbage = 0;
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    final int off = idmap.mapDBIDToOffset(id);
+    if(start[off] >= 0) {
+      garbage += length[off];
+      start[off] = -1;
+    }
+  }
+
+  @Override
+  public void destroy() {
+    idmap = null;
+    start = null;
+    length = null;
+    ks = null;
+    ids = null;
+    dists = null;
+  }
+
+  @Override
+  public String getLongName() {
+    return "packed kNN lists";
+  }
+
+  @Override
+  public String getShortName() {
+    return "packed-knn";
+  }
+}
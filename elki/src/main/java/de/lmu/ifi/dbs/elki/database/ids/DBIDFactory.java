@@ -196,6 +196,15 @@ public interface DBIDFactory {
    */
   KNNHeap newHeap(KNNList exist);
 
+  /**
+   * Copy a kNN list into a compact representation, with single precision
+   * distances.
+   * 
+   * @param list Existing result
+   * @return Compact kNN list
+   */
+  KNNList compactKNNList(KNNList list);
+
   /**
    * Get a serializer for DBIDs.
    * 
@@ -517,7 +517,8 @@ public final class DBIDUtil {
   /**
    * Create an appropriate heap for the distance type.
    * 
-   * This will use a double heap if appropriate.
+   * This will use a double heap if appropriate. The heap is emptied by
+   * {@link KNNHeap#toKNNList()}, and can then be reused.
    * 
    * @param k K value
    * @return New heap of size k, appropriate for this distance type.
@@ -536,6 +537,18 @@ public final class DBIDUtil {
     return DBIDFactory.FACTORY.newHeap(exist);
   }
 
+  /**
+   * Copy a kNN list into a compact representation, with distances stored in
+   * single precision. This halves the memory of the distances, at the cost of
+   * precision.
+   * 
+   * @param list Existing result
+   * @return Compact kNN list
+   */
+  public static KNNList compactKNNList(KNNList list) {
+    return DBIDFactory.FACTORY.compactKNNList(list);
+  }
+
   /**
    * Produce a random shuffling of the given DBID array.
    * 
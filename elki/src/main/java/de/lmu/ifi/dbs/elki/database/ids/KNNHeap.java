@@ -41,6 +41,9 @@ public interface KNNHeap {
   /**
    * Serialize to a {@link KNNList}. This empties the heap!
    * 
+   * Heaps obtained from {@link DBIDUtil#newHeap(int)} can then be reused for
+   * the next query, which avoids allocations in tight loops.
+   * 
    * @return KNNList with the heaps contents.
    */
   KNNList toKNNList();
@@ -94,7 +97,7 @@ public interface KNNHeap {
   boolean isEmpty();
 
   /**
-   * Clear the heap.
+   * Clear the heap, for reuse.
    */
   void clear();
 
@@ -89,7 +89,7 @@ public class KNNSubList implements KNNList {
 
   @Override
   public double getKNNDistance() {
-    return inner.get(k).doubleValue();
+    return inner.get(k - 1).doubleValue();
   }
 
   @Override
@@ -45,7 +45,7 @@ import de.lmu.ifi.dbs.elki.utilities.io.FixedSizeByteBufferSerializer;
  * @apiviz.uses IntegerDBID oneway - - «create»
  * @apiviz.uses IntegerDBIDPair oneway - - «create»
  * @apiviz.uses IntegerDBIDRange oneway - - «create»
- * @apiviz.uses TroveHashSetModifiableDBIDs oneway - - «create»
+ * @apiviz.uses IntOpenHashSetModifiableDBIDs oneway - - «create»
  * @apiviz.uses IntegerArrayDBIDs oneway - - «create»
  */
 abstract class AbstractIntegerDBIDFactory implements DBIDFactory {
@@ -98,7 +98,7 @@ abstract class AbstractIntegerDBIDFactory implements DBIDFactory {
 
   @Override
   public HashSetModifiableDBIDs newHashSet() {
-    return new TroveHashSetModifiableDBIDs();
+    return new IntOpenHashSetModifiableDBIDs();
   }
 
   @Override
@@ -108,7 +108,7 @@ abstract class AbstractIntegerDBIDFactory implements DBIDFactory {
 
   @Override
   public HashSetModifiableDBIDs newHashSet(int size) {
-    return new TroveHashSetModifiableDBIDs(size);
+    return new IntOpenHashSetModifiableDBIDs(size);
   }
 
   @Override
@@ -118,7 +118,7 @@ abstract class AbstractIntegerDBIDFactory implements DBIDFactory {
 
   @Override
   public HashSetModifiableDBIDs newHashSet(DBIDs existing) {
-    return new TroveHashSetModifiableDBIDs(existing);
+    return new IntOpenHashSetModifiableDBIDs(existing);
   }
 
   @Override
@@ -146,6 +146,11 @@ abstract class AbstractIntegerDBIDFactory implements DBIDFactory {
     return heap;
   }
 
+  @Override
+  public KNNList compactKNNList(KNNList list) {
+    return new FloatIntegerDBIDKNNList(list);
+  }
+
   @Override
   public ModifiableDoubleDBIDList newDistanceDBIDList(int size) {
     return new DoubleIntegerDBIDList(size);
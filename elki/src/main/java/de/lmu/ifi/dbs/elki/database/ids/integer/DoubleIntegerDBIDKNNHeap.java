@@ -212,6 +212,7 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
   public void clear() {
     heap.clear();
     numties = 0;
+    kdist = Double.POSITIVE_INFINITY;
   }
 
   @Override
@@ -229,6 +230,9 @@ class DoubleIntegerDBIDKNNHeap implements KNNHeap {
       heap.poll();
     }
     ret.size = hsize + numties;
+    // Reset, for reuse of the heap.
+    numties = 0;
+    kdist = Double.POSITIVE_INFINITY;
     return ret;
   }
 
@@ -136,13 +136,13 @@ class DoubleIntegerDBIDList implements ModifiableDoubleDBIDList, IntegerDBIDs {
    * Grow the data storage.
    */
   protected void grow() {
-    if(dists == EMPTY_DISTS) {
+    if(dists.length == 0) {
       dists = new double[INITIAL_SIZE];
       ids = new int[INITIAL_SIZE];
       return;
     }
     final int len = dists.length;
-    final int newlength = len + (len >> 1);
+    final int newlength = len + (len >> 1) + 1;
     double[] odists = dists;
     dists = new double[newlength];
     System.arraycopy(odists, 0, dists, 0, odists.length);
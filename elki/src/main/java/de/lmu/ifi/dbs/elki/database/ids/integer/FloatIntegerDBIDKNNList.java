@@ -0,0 +1,216 @@
+package de.lmu.ifi.dbs.elki.database.ids.integer;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDPair;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+
+/**
+ * Compact kNN list, storing distances with single precision.
+ * 
+ * The list may be a view on a range of larger arrays, which allows packing
+ * many lists into a single pair of arrays. It is not modifiable.
+ * 
+ * @author Erich Schubert
+ */
+public class FloatIntegerDBIDKNNList implements IntegerDBIDKNNList {
+  /**
+   * The k value this list was generated for.
+   */
+  private final int k;
+
+  /**
+   * Distances.
+   */
+  private final float[] dists;
+
+  /**
+   * Object ids.
+   */
+  private final int[] ids;
+
+  /**
+   * First position in the arrays.
+   */
+  private final int start;
+
+  /**
+   * Number of elements.
+   */
+  private final int size;
+
+  /**
+   * Constructor, for a view on existing arrays.
+   * 
+   * @param k K parameter
+   * @param dists Distances
+   * @param ids Internal object ids
+   * @param start First position in the arrays
+   * @param size Number of elements
+   */
+  public FloatIntegerDBIDKNNList(int k, float[] dists, int[] ids, int start, int size) {
+    super();
+    this.k = k;
+    this.dists = dists;
+    this.ids = ids;
+    this.start = start;
+    this.size = size;
+  }
+
+  /**
+   * Constructor, copying an existing list.
+   * 
+   * @param list Existing kNN list
+   */
+  public FloatIntegerDBIDKNNList(KNNList list) {
+    this(list.getK(), new float[list.size()], new int[list.size()], 0, list.size());
+    int i = 0;
+    for(DoubleDBIDListIter iter = list.iter(); iter.valid(); iter.advance(), i++) {
+      dists[i] = (float) iter.doubleValue();
+      ids[i] = iter.internalGetIndex();
+    }
+  }
+
+  @Override
+  public int getK() {
+    return k;
+  }
+
+  @Override
+  public double getKNNDistance() {
+    return (size >= k) ? dists[start + k - 1] : Double.POSITIVE_INFINITY;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean contains(DBIDRef o) {
+    final int q = o.internalGetIndex();
+    for(int i = start, end = start + size; i < end; i++) {
+      if(q == ids[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public DoubleIntegerDBIDPair get(int index) {
+    assert (index < size) : "Access beyond size of list.";
+    return new DoubleIntegerDBIDPair(dists[start + index], ids[start + index]);
+  }
+
+  @Override
+  public Itr iter() {
+    return new Itr();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder buf = new StringBuilder();
+    buf.append("kNNList[");
+    for(DoubleDBIDListIter iter = this.iter(); iter.valid();) {
+      buf.append(iter.doubleValue()).append(':').append(iter.internalGetIndex());
+      iter.advance();
+      if(iter.valid()) {
+        buf.append(',');
+      }
+    }
+    buf.append(']');
+    return buf.toString();
+  }
+
+  /**
+   * List iterator.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class Itr implements DoubleIntegerDBIDListIter, IntegerDBIDArrayIter {
+    /**
+     * Current offset.
+     */
+    int pos = 0;
+
+    @Override
+    public boolean valid() {
+      return pos < size && pos >= 0;
+    }
+
+    @Override
+    public Itr advance() {
+      ++pos;
+      return this;
+    }
+
+    @Override
+    public int getOffset() {
+      return pos;
+    }
+
+    @Override
+    public Itr advance(int count) {
+      pos += count;
+      return this;
+    }
+
+    @Override
+    public Itr retract() {
+      --pos;
+      return this;
+    }
+
+    @Override
+    public Itr seek(int off) {
+      pos = off;
+      return this;
+    }
+
+    @Override
+    public int internalGetIndex() {
+      return ids[start + pos];
+    }
+
+    @Override
+    public double doubleValue() {
+      return dists[start + pos];
+    }
+
+    @Override
+    public DoubleDBIDPair getPair() {
+      return new DoubleIntegerDBIDPair(dists[start + pos], ids[start + pos]);
+    }
+  }
+}
@@ -23,46 +23,40 @@ package de.lmu.ifi.dbs.elki.database.ids.integer;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.impl.hash.THashPrimitiveIterator;
-import gnu.trove.impl.hash.TIntHash;
-import gnu.trove.set.hash.TIntHashSet;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDMIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
-import de.lmu.ifi.dbs.elki.utilities.datastructures.iterator.Iter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.AbstractIntOpenHash;
 
 /**
- * Implementation using GNU Trove Int Hash Sets.
+ * Hash set of integer DBIDs, using open addressing with linear probing.
  * 
  * @author Erich Schubert
  * 
- * @apiviz.has Itr
+ * @apiviz.has IntegerDBID
  */
-class TroveHashSetModifiableDBIDs implements HashSetModifiableDBIDs, IntegerDBIDs {
+class IntOpenHashSetModifiableDBIDs extends AbstractIntOpenHash implements HashSetModifiableDBIDs, IntegerDBIDs {
   /**
-   * The actual store.
+   * Default expected size.
    */
-  TIntHashSet store;
+  private static final int DEFAULT_SIZE = 16;
 
   /**
    * Constructor.
    * 
    * @param size Initial size
    */
-  protected TroveHashSetModifiableDBIDs(int size) {
-    super();
-    this.store = new TIntHashSet(size);
+  protected IntOpenHashSetModifiableDBIDs(int size) {
+    super(size);
   }
 
   /**
    * Constructor.
    */
-  protected TroveHashSetModifiableDBIDs() {
-    super();
-    this.store = new TIntHashSet();
+  protected IntOpenHashSetModifiableDBIDs() {
+    super(DEFAULT_SIZE);
   }
 
   /**
@@ -70,22 +64,22 @@ class TroveHashSetModifiableDBIDs implements HashSetModifiableDBIDs, IntegerDBID
    * 
    * @param existing Existing IDs
    */
-  protected TroveHashSetModifiableDBIDs(DBIDs existing) {
+  protected IntOpenHashSetModifiableDBIDs(DBIDs existing) {
     this(existing.size());
     this.addDBIDs(existing);
   }
 
   @Override
   public Itr iter() {
-    return new Itr(store);
+    return new Itr();
   }
 
   @Override
   public boolean addDBIDs(DBIDs ids) {
-    store.ensureCapacity(ids.size());
+    ensureCapacity(size + ids.size());
     boolean success = false;
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      success |= store.add(DBIDUtil.asInteger(iter));
+      success |= insert(iter.internalGetIndex()) < 0;
     }
     return success;
   }
@@ -94,19 +88,19 @@ class TroveHashSetModifiableDBIDs implements HashSetModifiableDBIDs, IntegerDBID
   public boolean removeDBIDs(DBIDs ids) {
     boolean success = false;
     for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
-      success |= store.remove(DBIDUtil.asInteger(id));
+      success |= removeKey(id.internalGetIndex());
     }
     return success;
   }
 
   @Override
   public boolean add(DBIDRef e) {
-    return store.add(DBIDUtil.asInteger(e));
+    return insert(e.internalGetIndex()) < 0;
   }
 
   @Override
   public boolean remove(DBIDRef o) {
-    return store.remove(DBIDUtil.asInteger(o));
+    return removeKey(o.internalGetIndex());
   }
 
   @Override
@@ -122,23 +116,28 @@ class TroveHashSetModifiableDBIDs implements HashSetModifiableDBIDs, IntegerDBID
   }
 
   @Override
-  public int size() {
-    return store.size();
+  public boolean contains(DBIDRef o) {
+    return find(o.internalGetIndex()) >= 0;
   }
 
   @Override
-  public boolean isEmpty() {
-    return store.isEmpty();
+  protected void moveValue(int from, int to) {
+    // No values.
   }
 
   @Override
-  public void clear() {
-    store.clear();
+  protected void clearValue(int pos) {
+    // No values.
   }
 
   @Override
-  public boolean contains(DBIDRef o) {
-    return store.contains(DBIDUtil.asInteger(o));
+  protected void clearValues() {
+    // No values.
+  }
+
+  @Override
+  protected void remapValues(int[] newpos, int length) {
+    // No values.
   }
 
   @Override
@@ -156,97 +155,32 @@ class TroveHashSetModifiableDBIDs implements HashSetModifiableDBIDs, IntegerDBID
   }
 
   /**
-   * Iterator over trove hashs.
+   * Iterator over the set.
    * 
    * @author Erich Schubert
    * 
    * @apiviz.exclude
    */
-  protected static class Itr implements IntegerDBIDMIter {
-    /**
-     * The actual iterator. We don't have multi inheritance.
-     */
-    TIntHashItr it;
-
-    /**
-     * Constructor.
-     * 
-     * @param hash Trove hash
-     */
-    public Itr(TIntHash hash) {
-      super();
-      this.it = new TIntHashItr(hash);
-    }
-
-    @Override
-    public boolean valid() {
-      return it.valid();
-    }
-
+  protected class Itr extends AbstractIntOpenHash.Itr implements IntegerDBIDMIter {
     @Override
     public IntegerDBIDMIter advance() {
-      it.advance();
+      step();
       return this;
     }
 
     @Override
     public int internalGetIndex() {
-      return it.getInt();
-    }
-
-    @Override
-    public String toString() {
-      return Integer.toString(internalGetIndex());
+      return getKey();
     }
 
     @Override
     public void remove() {
-      it.remove();
+      removeCurrent();
     }
 
-    /**
-     * Custom iterator over TIntHash.
-     * 
-     * @author Erich Schubert
-     * 
-     * @apiviz.exclude
-     */
-    private static class TIntHashItr extends THashPrimitiveIterator implements Iter {
-      /**
-       * The hash we access.
-       */
-      private TIntHash hash;
-
-      /**
-       * Constructor.
-       * 
-       * @param hash Hash to iterate over.
-       */
-      public TIntHashItr(TIntHash hash) {
-        super(hash);
-        this.hash = hash;
-        this._index = nextIndex(); // Find first element
-      }
-
-      /**
-       * Get the current value.
-       * 
-       * @return Current value
-       */
-      public int getInt() {
-        return hash._set[_index];
-      }
-
-      @Override
-      public Iter advance() {
-        this._index = nextIndex();
-        return this;
-      }
-
-      @Override
-      public boolean valid() {
-        return _index >= 0;
-      }
+    @Override
+    public String toString() {
+      return Integer.toString(internalGetIndex());
     }
   }
 }
@@ -0,0 +1,305 @@
+package de.lmu.ifi.dbs.elki.database.query;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.FormatUtil;
+
+/**
+ * Chooses among equivalent query implementations by their measured cost.
+ * 
+ * Each plan first answers a few queries (after one warm-up query, which
+ * includes class loading and compilation). Then the plan with the lowest mean
+ * time per query is used for all further queries. The cost of the chosen plan
+ * keeps being tracked, in windows of {@link #WINDOW} queries; when the mean of
+ * a window exceeds the measured cost of the runner-up by a factor of
+ * {@link #DRIFT}, for example because the query parameters changed, all plans
+ * are measured again.
+ * 
+ * The planner does not lock: the statistics of each plan are atomic counters,
+ * and {@link #choose} only reads an immutable snapshot of the decision. Under
+ * concurrent use, a measurement may occasionally count towards a neighboring
+ * window, which only blurs the estimates slightly.
+ * 
+ * The plans must return the same results, i.e. only exact queries may be
+ * combined.
+ * 
+ * @author Erich Schubert
+ * 
+ * @param <Q> Query type
+ */
+public class QueryPlanner<Q> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(QueryPlanner.class);
+
+  /**
+   * Number of measured queries per plan.
+   */
+  private static final int SAMPLES = 5;
+
+  /**
+   * Factor by which the chosen plan may exceed the runner-up.
+   */
+  private static final double DRIFT = 1.5;
+
+  /**
+   * Number of queries per window, when tracking the chosen plan.
+   */
+  private static final int WINDOW = 64;
+
+  /**
+   * Query description, for logging.
+   */
+  private final String what;
+
+  /**
+   * Alternative plans.
+   */
+  private final List<Q> plans;
+
+  /**
+   * Plan names, for logging.
+   */
+  private final List<String> names;
+
+  /**
+   * Number of measured queries, per plan; -1 before the warm-up query.
+   */
+  private final AtomicLong[] counts;
+
+  /**
+   * Total time of the measured queries, per plan.
+   */
+  private final AtomicLong[] nanos;
+
+  /**
+   * Current decision, {@code null} while measuring.
+   */
+  private final AtomicReference<Decision> decision = new AtomicReference<>();
+
+  /**
+   * Constructor.
+   * 
+   * @param what Query description, for logging
+   * @param plans Alternative plans, at least two
+   * @param names Names of the plans, for logging
+   */
+  public QueryPlanner(String what, List<Q> plans, List<String> names) {
+    super();
+    assert (plans.size() >= 2 && plans.size() == names.size());
+    this.what = what;
+    this.plans = plans;
+    this.names = names;
+    this.counts = new AtomicLong[plans.size()];
+    this.nanos = new AtomicLong[plans.size()];
+    for(int i = 0; i < counts.length; i++) {
+      counts[i] = new AtomicLong(-1L);
+      nanos[i] = new AtomicLong();
+    }
+  }
+
+  /**
+   * Choose the plan for the next query.
+   * 
+   * @return Plan number, to be passed to {@link #record}
+   */
+  public int choose() {
+    final Decision d = decision.get();
+    if(d != null) {
+      return d.best;
+    }
+    // Measure the plan with the fewest measurements first.
+    int p = 0;
+    long min = counts[0].get();
+    for(int i = 1; i < counts.length; i++) {
+      final long c = counts[i].get();
+      if(c < min) {
+        p = i;
+        min = c;
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Get a plan.
+   * 
+   * @param p Plan number
+   * @return Plan
+   */
+  public Q get(int p) {
+    return plans.get(p);
+  }
+
+  /**
+   * Get the chosen plan.
+   * 
+   * @return Chosen plan, or {@code null} while the plans are being measured
+   */
+  public Q getPlan() {
+    final Decision d = decision.get();
+    return d != null ? plans.get(d.best) : null;
+  }
+
+  /**
+   * Record the cost of a plan.
+   * 
+   * @param p Plan number
+   * @param time Time used, in nanoseconds
+   * @param queries Number of queries answered
+   */
+  public void record(int p, long time, int queries) {
+    if(queries <= 0) {
+      return;
+    }
+    final Decision d = decision.get();
+    if(d != null) {
+      if(p == d.best) {
+        track(d, time, queries);
+      }
+      return;
+    }
+    // Skip the warm-up query.
+    if(counts[p].get() < 0 && counts[p].compareAndSet(-1L, 0L)) {
+      return;
+    }
+    nanos[p].addAndGet(time);
+    counts[p].addAndGet(queries);
+    for(int i = 0; i < counts.length; i++) {
+      if(counts[i].get() < SAMPLES) {
+        return;
+      }
+    }
+    decide();
+  }
+
+  /**
+   * Track the cost of the chosen plan, and re-plan on drift.
+   * 
+   * @param d Current decision
+   * @param time Time used, in nanoseconds
+   * @param queries Number of queries answered
+   */
+  private void track(Decision d, long time, int queries) {
+    final int b = d.best;
+    final long t = nanos[b].addAndGet(time), c = counts[b].addAndGet(queries);
+    // Only the thread that closes the window evaluates it.
+    if(c < WINDOW || !counts[b].compareAndSet(c, 0L)) {
+      return;
+    }
+    nanos[b].addAndGet(-t);
+    final double average = t / (double) c;
+    if(average <= d.runnerUp * DRIFT || !decision.compareAndSet(d, null)) {
+      return;
+    }
+    if(LOG.isVerbose()) {
+      LOG.verbose(what + ": cost of " + names.get(b) + " increased to " + format(average) + ", re-planning.");
+    }
+    for(int i = 0; i < counts.length; i++) {
+      counts[i].set(0L);
+      nanos[i].set(0L);
+    }
+  }
+
+  /**
+   * Choose the plan with the lowest measured cost.
+   */
+  private void decide() {
+    final int n = counts.length;
+    double[] cost = new double[n];
+    int b = 0;
+    for(int i = 0; i < n; i++) {
+      cost[i] = nanos[i].get() / (double) counts[i].get();
+      b = cost[i] < cost[b] ? i : b;
+    }
+    double runnerUp = Double.POSITIVE_INFINITY;
+    for(int i = 0; i < n; i++) {
+      if(i != b) {
+        runnerUp = Math.min(runnerUp, cost[i]);
+      }
+    }
+    if(!decision.compareAndSet(null, new Decision(b, runnerUp))) {
+      return; // Decided concurrently.
+    }
+    // Start tracking the chosen plan.
+    counts[b].set(0L);
+    nanos[b].set(0L);
+    if(LOG.isVerbose()) {
+      StringBuilder buf = new StringBuilder(200);
+      buf.append(what).append(": using ").append(names.get(b)).append(" (").append(format(cost[b])).append(')');
+      for(int i = 0; i < n; i++) {
+        if(i != b) {
+          buf.append(", not ").append(names.get(i)).append(" (").append(format(cost[i])).append(')');
+        }
+      }
+      LOG.verbose(buf.toString());
+    }
+  }
+
+  /**
+   * Format a cost for logging.
+   * 
+   * @param nanos Nanoseconds per query
+   * @return Formatted cost
+   */
+  private static String format(double nanos) {
+    return FormatUtil.NF2.format(nanos * 1e-3) + " us/query";
+  }
+
+  /**
+   * Immutable snapshot of a planning decision.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class Decision {
+    /**
+     * Chosen plan.
+     */
+    final int best;
+
+    /**
+     * Cost of the runner-up plan, in nanoseconds per query.
+     */
+    final double runnerUp;
+
+    /**
+     * Constructor.
+     * 
+     * @param best Chosen plan
+     * @param runnerUp Cost of the runner-up plan
+     */
+    Decision(int best, double runnerUp) {
+      this.best = best;
+      this.runnerUp = runnerUp;
+    }
+  }
+}
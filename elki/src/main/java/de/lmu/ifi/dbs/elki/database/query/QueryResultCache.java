@@ -0,0 +1,616 @@
+package de.lmu.ifi.dbs.elki.database.query;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreEvent;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreListener;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.subspace.DimensionSelectingSubspaceDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+
+/**
+ * Cache for the results of kNN and range queries by object id.
+ * 
+ * Results are stored per relation, distance function and query
+ * implementation, so kNN and range queries use separate entries. A cached kNN
+ * list also answers queries for a smaller k, and a cached range result
+ * answers range queries with a smaller radius. The cache is bounded by the total number of stored
+ * neighbors, and evicts the least recently used results first. Any change to
+ * the database content invalidates all results.
+ * 
+ * Queries by object instead of id are not cached, and neither are queries with
+ * dimension selecting subspace distances, which can be changed after the
+ * query was created.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has CachedKNNQuery
+ * @apiviz.has CachedRangeQuery
+ */
+public class QueryResultCache implements DynamicIndex, DataStoreListener {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(QueryResultCache.class);
+
+  /**
+   * Maximum number of neighbors to store.
+   */
+  private final long capacity;
+
+  /**
+   * Number of neighbors stored.
+   */
+  private long used = 0L;
+
+  /**
+   * Cached results, in access order.
+   */
+  private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<>(1024, .75f, true);
+
+  /**
+   * Query spaces in use.
+   */
+  private final List<Space> spaces = new ArrayList<>();
+
+  /**
+   * Cache statistics.
+   */
+  private long knnHits, knnMisses, rangeHits, rangeMisses, invalidations;
+
+  /**
+   * Constructor.
+   * 
+   * @param capacity Maximum number of neighbors to store
+   */
+  public QueryResultCache(long capacity) {
+    super();
+    this.capacity = capacity;
+  }
+
+  /**
+   * Wrap a kNN query with the cache.
+   * 
+   * @param distanceQuery Distance query
+   * @param inner Query to answer cache misses
+   * @param <O> Object type
+   * @return Cached query
+   */
+  public <O> KNNQuery<O> wrap(DistanceQuery<O> distanceQuery, KNNQuery<O> inner) {
+    if(!isCacheable(distanceQuery.getDistanceFunction())) {
+      return inner;
+    }
+    return new CachedKNNQuery<>(getSpace(distanceQuery, inner), inner);
+  }
+
+  /**
+   * Wrap a range query with the cache.
+   * 
+   * @param distanceQuery Distance query
+   * @param inner Query to answer cache misses
+   * @param <O> Object type
+   * @return Cached query
+   */
+  public <O> RangeQuery<O> wrap(DistanceQuery<O> distanceQuery, RangeQuery<O> inner) {
+    if(!isCacheable(distanceQuery.getDistanceFunction())) {
+      return inner;
+    }
+    return new CachedRangeQuery<>(getSpace(distanceQuery, inner), inner);
+  }
+
+  /**
+   * Test whether query results of a distance function can be cached.
+   * 
+   * Dimension selecting subspace distances are modified in place by their
+   * users (e.g. OUTRES, for each subspace), so the same object would be used
+   * for different distances.
+   * 
+   * @param df Distance function
+   * @return {@code false} for mutable distance functions
+   */
+  public static boolean isCacheable(DistanceFunction<?> df) {
+    return !(df instanceof DimensionSelectingSubspaceDistanceFunction);
+  }
+
+  /**
+   * Find the query space of a relation, distance function and query
+   * implementation.
+   * 
+   * @param distanceQuery Distance query
+   * @param inner Inner query
+   * @return Space
+   */
+  private synchronized Space getSpace(DistanceQuery<?> distanceQuery, Object inner) {
+    Space space = new Space(distanceQuery.getRelation(), distanceQuery.getDistanceFunction(), inner.getClass());
+    for(Space s : spaces) {
+      if(s.equals(space)) {
+        return s;
+      }
+    }
+    spaces.add(space);
+    return space;
+  }
+
+  /**
+   * Get the cached kNN list.
+   * 
+   * @param space Query space
+   * @param id Query object
+   * @param k Number of neighbors
+   * @return kNN list, or {@code null}
+   */
+  private synchronized KNNList getKNN(Space space, DBIDRef id, int k) {
+    Entry e = map.get(new Key(space, DBIDUtil.deref(id)));
+    if(e != null && e.knn != null && e.k >= k) {
+      ++knnHits;
+      return DBIDUtil.subList(e.knn, k);
+    }
+    ++knnMisses;
+    return null;
+  }
+
+  /**
+   * Store a kNN list.
+   * 
+   * @param space Query space
+   * @param id Query object
+   * @param k Number of neighbors
+   * @param knn kNN list
+   */
+  private synchronized void putKNN(Space space, DBIDRef id, int k, KNNList knn) {
+    Entry e = getOrCreate(space, id);
+    if(e.knn != null) {
+      if(e.k >= k) {
+        return;
+      }
+      used -= e.knn.size();
+    }
+    e.knn = knn;
+    e.k = k;
+    used += knn.size();
+    evict();
+  }
+
+  /**
+   * Get a cached range query result.
+   * 
+   * @param space Query space
+   * @param id Query object
+   * @param range Query radius
+   * @return Result, or {@code null}
+   */
+  private synchronized DoubleDBIDList getRange(Space space, DBIDRef id, double range) {
+    Entry e = map.get(new Key(space, DBIDUtil.deref(id)));
+    if(e != null && e.range != null && e.radius >= range) {
+      ++rangeHits;
+      return filter(e.range, range);
+    }
+    ++rangeMisses;
+    return null;
+  }
+
+  /**
+   * Store a range query result.
+   * 
+   * @param space Query space
+   * @param id Query object
+   * @param range Query radius
+   * @param result Query result
+   */
+  private synchronized void putRange(Space space, DBIDRef id, double range, DoubleDBIDList result) {
+    Entry e = getOrCreate(space, id);
+    if(e.range != null) {
+      if(e.radius >= range) {
+        return;
+      }
+      used -= e.range.size();
+    }
+    // Store a sorted, compact copy, as the caller may modify the result.
+    ModifiableDoubleDBIDList copy = DBIDUtil.newDistanceDBIDList(result.size());
+    for(DoubleDBIDListIter iter = result.iter(); iter.valid(); iter.advance()) {
+      copy.add(iter.doubleValue(), iter);
+    }
+    copy.sort();
+    e.range = copy;
+    e.radius = range;
+    used += copy.size();
+    evict();
+  }
+
+  /**
+   * Copy the part of a sorted result within the radius.
+   * 
+   * @param list Sorted list
+   * @param range Radius
+   * @return New list
+   */
+  private static ModifiableDoubleDBIDList filter(DoubleDBIDList list, double range) {
+    ModifiableDoubleDBIDList ret = DBIDUtil.newDistanceDBIDList();
+    for(DoubleDBIDListIter iter = list.iter(); iter.valid() && iter.doubleValue() <= range; iter.advance()) {
+      ret.add(iter.doubleValue(), iter);
+    }
+    return ret;
+  }
+
+  /**
+   * Get or create the cache entry of an object.
+   * 
+   * @param space Query space
+   * @param id Object
+   * @return Entry
+   */
+  private Entry getOrCreate(Space space, DBIDRef id) {
+    Key key = new Key(space, DBIDUtil.deref(id));
+    Entry e = map.get(key);
+    if(e == null) {
+      e = new Entry();
+      map.put(key, e);
+    }
+    return e;
+  }
+
+  /**
+   * Evict the least recently used entries, until the capacity is met.
+   */
+  private void evict() {
+    Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+    while(used > capacity && it.hasNext()) {
+      Entry e = it.next().getValue();
+      used -= (e.knn != null ? e.knn.size() : 0) + (e.range != null ? e.range.size() : 0);
+      it.remove();
+    }
+  }
+
+  /**
+   * Invalidate all cached results.
+   */
+  private synchronized void invalidate() {
+    if(!map.isEmpty()) {
+      map.clear();
+      used = 0L;
+      ++invalidations;
+    }
+  }
+
+  @Override
+  public void contentChanged(DataStoreEvent e) {
+    invalidate();
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    invalidate();
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    invalidate();
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    invalidate();
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    invalidate();
+  }
+
+  @Override
+  public void initialize() {
+    // Nothing to do: the cache is filled by queries.
+  }
+
+  @Override
+  public synchronized void logStatistics() {
+    final String prefix = QueryResultCache.class.getName();
+    LOG.statistics(new LongStatistic(prefix + ".knn.hits", knnHits));
+    LOG.statistics(new LongStatistic(prefix + ".knn.misses", knnMisses));
+    LOG.statistics(new DoubleStatistic(prefix + ".knn.hitrate", knnHits / (double) Math.max(1L, knnHits + knnMisses)));
+    LOG.statistics(new LongStatistic(prefix + ".range.hits", rangeHits));
+    LOG.statistics(new LongStatistic(prefix + ".range.misses", rangeMisses));
+    LOG.statistics(new DoubleStatistic(prefix + ".range.hitrate", rangeHits / (double) Math.max(1L, rangeHits + rangeMisses)));
+    LOG.statistics(new LongStatistic(prefix + ".neighbors", used));
+    LOG.statistics(new LongStatistic(prefix + ".invalidations", invalidations));
+  }
+
+  @Override
+  public String getLongName() {
+    return "Query result cache";
+  }
+
+  @Override
+  public String getShortName() {
+    return "query-cache";
+  }
+
+  /**
+   * Results of a relation, distance function and index.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class Space {
+    /**
+     * Relation.
+     */
+    final Object relation;
+
+    /**
+     * Distance function.
+     */
+    final Object distance;
+
+    /**
+     * Query implementation.
+     */
+    final Object impl;
+
+    /**
+     * Constructor.
+     * 
+     * @param relation Relation
+     * @param distance Distance function
+     * @param impl Query implementation
+     */
+    Space(Object relation, Object distance, Object impl) {
+      this.relation = relation;
+      this.distance = distance;
+      this.impl = impl;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(!(obj instanceof Space)) {
+        return false;
+      }
+      Space other = (Space) obj;
+      return relation == other.relation && impl.equals(other.impl) && distance.equals(other.distance);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(relation) ^ distance.hashCode() ^ impl.hashCode();
+    }
+  }
+
+  /**
+   * Cache key.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class Key {
+    /**
+     * Query space.
+     */
+    final Space space;
+
+    /**
+     * Query object.
+     */
+    final DBID id;
+
+    /**
+     * Constructor.
+     * 
+     * @param space Query space
+     * @param id Query object
+     */
+    Key(Space space, DBID id) {
+      this.space = space;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return space == other.space && DBIDUtil.equal(id, other.id);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(space) * 31 + id.hashCode();
+    }
+  }
+
+  /**
+   * Cached results of one object.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class Entry {
+    /**
+     * kNN list, may be {@code null}.
+     */
+    KNNList knn;
+
+    /**
+     * Number of neighbors requested for the kNN list.
+     */
+    int k;
+
+    /**
+     * Sorted range query result, may be {@code null}.
+     */
+    DoubleDBIDList range;
+
+    /**
+     * Radius of the range query.
+     */
+    double radius;
+  }
+
+  /**
+   * kNN query using the cache.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <O> Object type
+   */
+  public class CachedKNNQuery<O> implements KNNQuery<O> {
+    /**
+     * Query space.
+     */
+    private final Space space;
+
+    /**
+     * Query to answer cache misses.
+     */
+    private final KNNQuery<O> inner;
+
+    /**
+     * Constructor.
+     * 
+     * @param space Query space
+     * @param inner Query to answer cache misses
+     */
+    CachedKNNQuery(Space space, KNNQuery<O> inner) {
+      this.space = space;
+      this.inner = inner;
+    }
+
+    @Override
+    public KNNList getKNNForDBID(DBIDRef id, int k) {
+      KNNList knn = getKNN(space, id, k);
+      if(knn == null) {
+        knn = inner.getKNNForDBID(id, k);
+        putKNN(space, id, k, knn);
+      }
+      return knn;
+    }
+
+    @Override
+    public List<? extends KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
+      List<KNNList> result = new ArrayList<>(ids.size());
+      ArrayModifiableDBIDs missing = DBIDUtil.newArray();
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        KNNList knn = getKNN(space, iter, k);
+        result.add(knn);
+        if(knn == null) {
+          missing.add(iter);
+        }
+      }
+      if(missing.isEmpty()) {
+        return result;
+      }
+      List<? extends KNNList> computed = inner.getKNNForBulkDBIDs(missing, k);
+      int i = 0;
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        if(result.get(iter.getOffset()) == null) {
+          KNNList knn = computed.get(i++);
+          result.set(iter.getOffset(), knn);
+          putKNN(space, iter, k, knn);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      return inner.getKNNForObject(obj, k);
+    }
+  }
+
+  /**
+   * Range query using the cache.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <O> Object type
+   */
+  public class CachedRangeQuery<O> implements RangeQuery<O> {
+    /**
+     * Query space.
+     */
+    private final Space space;
+
+    /**
+     * Query to answer cache misses.
+     */
+    private final RangeQuery<O> inner;
+
+    /**
+     * Constructor.
+     * 
+     * @param space Query space
+     * @param inner Query to answer cache misses
+     */
+    CachedRangeQuery(Space space, RangeQuery<O> inner) {
+      this.space = space;
+      this.inner = inner;
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForDBID(DBIDRef id, double range) {
+      DoubleDBIDList result = getRange(space, id, range);
+      if(result == null) {
+        result = inner.getRangeForDBID(id, range);
+        putRange(space, id, range, result);
+      }
+      return result;
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForObject(O obj, double range) {
+      return inner.getRangeForObject(obj, range);
+    }
+  }
+}
@@ -26,6 +26,7 @@ package de.lmu.ifi.dbs.elki.database.query.knn;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
@@ -36,6 +37,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -88,6 +90,9 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
    * @return Heap
    */
   private KNNHeap linearScan(Relation<? extends O> relation, DBIDIter iter, final O obj, KNNHeap heap) {
+    if(relation instanceof PackedFloatVectorRelation && ((PackedFloatVectorRelation) relation).isCompatible(obj)) {
+      return linearScan(SQUARED, (PackedFloatVectorRelation) relation, (FloatVector) obj, heap);
+    }
     double max = Double.POSITIVE_INFINITY;
     while(iter.valid()) {
       final double dist = SQUARED.distance(obj, relation.get(iter));
@@ -125,17 +130,6 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
    */
   @Override
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
-    final int size = objs.size();
-    // Linear scan style KNN.
-    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-      O candidate = relation.get(iter);
-      for(int index = 0; index < size; index++) {
-        final KNNHeap heap = heaps.get(index);
-        final double dist = SQUARED.distance(objs.get(index), candidate);
-        if(dist <= heap.getKNNDistance()) {
-          heap.insert(dist, iter);
-        }
-      }
-    }
+    linearScanBatchKNN(SQUARED, objs, heaps);
   }
-}
\ No newline at end of file
+}
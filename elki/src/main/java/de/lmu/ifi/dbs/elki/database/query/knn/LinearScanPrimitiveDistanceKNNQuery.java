@@ -26,6 +26,9 @@ package de.lmu.ifi.dbs.elki.database.query.knn;
 import java.util.ArrayList;
 import java.util.List;
 
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -34,7 +37,10 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
 
 /**
@@ -47,8 +53,14 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
  * 
  * @apiviz.uses PrimitiveDistanceQuery
  * @apiviz.uses PrimitiveDistanceFunction
+ * @apiviz.uses BlockDistances
  */
 public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQuery<O> implements LinearScanQuery {
+  /**
+   * Number of query vectors to pack at once in batch queries.
+   */
+  private static final int BATCH_TILE = 256;
+
   /**
    * Unboxed distance function.
    */
@@ -84,6 +96,9 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
    * @return Heap
    */
   private KNNHeap linearScan(Relation<? extends O> relation, DBIDIter iter, final O obj, KNNHeap heap) {
+    if(rawdist instanceof BlockDistanceFunction && relation instanceof PackedFloatVectorRelation && ((PackedFloatVectorRelation) relation).isCompatible(obj)) {
+      return linearScan((BlockDistanceFunction) rawdist, (PackedFloatVectorRelation) relation, (FloatVector) obj, heap);
+    }
     double max = Double.POSITIVE_INFINITY;
     while(iter.valid()) {
       final double dist = rawdist.distance(obj, relation.get(iter));
@@ -95,6 +110,30 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
     return heap;
   }
 
+  /**
+   * Linear scan directly on packed float storage.
+   * 
+   * @param df Block distance function
+   * @param relation Packed relation
+   * @param obj Query object
+   * @param heap Output heap
+   * @return Heap
+   */
+  protected static KNNHeap linearScan(BlockDistanceFunction df, PackedFloatVectorRelation relation, FloatVector obj, KNNHeap heap) {
+    final int dim = relation.getDimensionality();
+    final float[] data = relation.getDataRef(), q = new float[dim];
+    BlockDistances.pack(obj, q, 0, dim);
+    double max = Double.POSITIVE_INFINITY;
+    int off = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), off += dim) {
+      final double dist = df.distance(q, 0, data, off, dim);
+      if(dist <= max) {
+        max = heap.insert(dist, iter);
+      }
+    }
+    return heap;
+  }
+
   @Override
   public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
     final int size = ids.size();
@@ -121,6 +160,12 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
    */
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
     final int size = objs.size();
+    if(rawdist instanceof BlockDistanceFunction && size > 0 && objs.get(0) instanceof NumberVector) {
+      @SuppressWarnings("unchecked")
+      final List<? extends NumberVector> vecs = (List<? extends NumberVector>) objs;
+      linearScanBatchKNN((BlockDistanceFunction) rawdist, vecs, heaps);
+      return;
+    }
     // Linear scan style KNN.
     for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
       O candidate = relation.get(iter);
@@ -133,4 +178,133 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Perform a linear scan batch kNN on packed vectors.
+   * 
+   * The query vectors are packed into blocks of {@link #BATCH_TILE} rows; for
+   * each block, every candidate is copied into a row buffer only once, instead
+   * of being accessed dimension by dimension for every query.
+   * 
+   * @param df Block distance function
+   * @param objs Query vectors
+   * @param heaps Heaps array
+   */
+  protected void linearScanBatchKNN(BlockDistanceFunction df, List<? extends NumberVector> objs, List<KNNHeap> heaps) {
+    if(relation instanceof PackedFloatVectorRelation && isCompatible((PackedFloatVectorRelation) relation, objs)) {
+      linearScanBatchKNN(df, (PackedFloatVectorRelation) relation, objs, heaps);
+      return;
+    }
+    final int size = objs.size(), dim = BlockDistances.dimensionality(objs);
+    if(dim < 0 || !isDense(objs)) {
+      linearScanBatchKNNUnpacked(df, objs, heaps);
+      return;
+    }
+    final double[] block = new double[Math.min(size, BATCH_TILE) * dim];
+    final double[] row = new double[dim];
+    for(int start = 0; start < size; start += BATCH_TILE) {
+      final int end = Math.min(start + BATCH_TILE, size);
+      for(int index = start, off = 0; index < end; index++, off += dim) {
+        BlockDistances.pack(objs.get(index), block, off, dim);
+      }
+      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
+        final NumberVector candidate = (NumberVector) relation.get(iter);
+        // Sparse candidates, or of a different dimensionality, use the
+        // regular distance.
+        final boolean packed = candidate.getDimensionality() == dim && !(candidate instanceof SparseNumberVector);
+        if(packed) {
+          BlockDistances.pack(candidate, row, 0, dim);
+        }
+        for(int index = start, off = 0; index < end; index++, off += dim) {
+          final KNNHeap heap = heaps.get(index);
+          final double dist = packed ? df.distance(row, 0, block, off, dim) : df.distance(objs.get(index), candidate);
+          if(dist <= heap.getKNNDistance()) {
+            heap.insert(dist, iter);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Perform a linear scan batch kNN without packing, for sparse vectors or
+   * queries of different dimensionality.
+   * 
+   * @param df Distance function
+   * @param objs Query vectors
+   * @param heaps Heaps array
+   */
+  private void linearScanBatchKNNUnpacked(BlockDistanceFunction df, List<? extends NumberVector> objs, List<KNNHeap> heaps) {
+    final int size = objs.size();
+    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
+      final NumberVector candidate = (NumberVector) relation.get(iter);
+      for(int index = 0; index < size; index++) {
+        final KNNHeap heap = heaps.get(index);
+        final double dist = df.distance(objs.get(index), candidate);
+        if(dist <= heap.getKNNDistance()) {
+          heap.insert(dist, iter);
+        }
+      }
+    }
+  }
+
+  /**
+   * Perform a linear scan batch kNN directly on packed float storage.
+   * 
+   * @param df Block distance function
+   * @param relation Packed relation
+   * @param objs Query vectors, compatible with the relation
+   * @param heaps Heaps array
+   */
+  private static void linearScanBatchKNN(BlockDistanceFunction df, PackedFloatVectorRelation relation, List<? extends NumberVector> objs, List<KNNHeap> heaps) {
+    final int size = objs.size(), dim = relation.getDimensionality();
+    final float[] data = relation.getDataRef(), block = new float[Math.min(size, BATCH_TILE) * dim];
+    for(int start = 0; start < size; start += BATCH_TILE) {
+      final int end = Math.min(start + BATCH_TILE, size);
+      for(int index = start, qoff = 0; index < end; index++, qoff += dim) {
+        BlockDistances.pack(objs.get(index), block, qoff, dim);
+      }
+      int off = 0;
+      for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), off += dim) {
+        for(int index = start, qoff = 0; index < end; index++, qoff += dim) {
+          final KNNHeap heap = heaps.get(index);
+          final double dist = df.distance(block, qoff, data, off, dim);
+          if(dist <= heap.getKNNDistance()) {
+            heap.insert(dist, iter);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Test whether none of the query vectors is sparse.
+   * 
+   * @param objs Query vectors
+   * @return {@code true} if no vector is a {@link SparseNumberVector}
+   */
+  private static boolean isDense(List<? extends NumberVector> objs) {
+    for(NumberVector obj : objs) {
+      if(obj instanceof SparseNumberVector) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Test whether all query objects are compatible with a packed relation.
+   * 
+   * @param relation Packed relation
+   * @param objs Query objects
+   * @return {@code true} if all objects are compatible
+   */
+  private static boolean isCompatible(PackedFloatVectorRelation relation, List<?> objs) {
+    for(Object obj : objs) {
+      if(!relation.isCompatible(obj)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,94 @@
+package de.lmu.ifi.dbs.elki.database.query.knn;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.QueryPlanner;
+
+/**
+ * kNN query that is answered by the cheapest of several equivalent queries,
+ * as chosen by a {@link QueryPlanner}.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses QueryPlanner
+ * 
+ * @param <O> Object type
+ */
+public class PlannedKNNQuery<O> implements KNNQuery<O> {
+  /**
+   * Query planner.
+   */
+  private final QueryPlanner<KNNQuery<O>> planner;
+
+  /**
+   * Constructor.
+   * 
+   * @param planner Query planner
+   */
+  public PlannedKNNQuery(QueryPlanner<KNNQuery<O>> planner) {
+    super();
+    this.planner = planner;
+  }
+
+  @Override
+  public KNNList getKNNForDBID(DBIDRef id, int k) {
+    final int p = planner.choose();
+    final long start = System.nanoTime();
+    KNNList result = planner.get(p).getKNNForDBID(id, k);
+    planner.record(p, System.nanoTime() - start, 1);
+    return result;
+  }
+
+  @Override
+  public List<? extends KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
+    final int p = planner.choose();
+    final long start = System.nanoTime();
+    List<? extends KNNList> result = planner.get(p).getKNNForBulkDBIDs(ids, k);
+    planner.record(p, System.nanoTime() - start, ids.size());
+    return result;
+  }
+
+  @Override
+  public KNNList getKNNForObject(O obj, int k) {
+    final int p = planner.choose();
+    final long start = System.nanoTime();
+    KNNList result = planner.get(p).getKNNForObject(obj, k);
+    planner.record(p, System.nanoTime() - start, 1);
+    return result;
+  }
+
+  /**
+   * Get the chosen query.
+   * 
+   * @return Chosen query, or {@code null} while the plans are being measured
+   */
+  public KNNQuery<O> getPlan() {
+    return planner.getPlan();
+  }
+}
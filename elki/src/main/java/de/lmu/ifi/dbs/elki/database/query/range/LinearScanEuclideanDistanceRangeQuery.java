@@ -23,6 +23,7 @@ package de.lmu.ifi.dbs.elki.database.query.range;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -30,7 +31,9 @@ import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 
 /**
@@ -90,6 +93,10 @@ public class LinearScanEuclideanDistanceRangeQuery<O extends NumberVector> exten
     // This should be more precise, but slower:
     // upper = MathUtil.floatToDoubleUpper((float)range);
     final double sqrange = upper * upper;
+    if(relation instanceof PackedFloatVectorRelation && ((PackedFloatVectorRelation) relation).isCompatible(obj)) {
+      linearScan((PackedFloatVectorRelation) relation, (FloatVector) obj, range, sqrange, result);
+      return;
+    }
     while(iter.valid()) {
       final double sqdistance = SQUARED.distance(obj, relation.get(iter));
       if(sqdistance <= sqrange) {
@@ -101,4 +108,29 @@ public class LinearScanEuclideanDistanceRangeQuery<O extends NumberVector> exten
       iter.advance();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Linear scan directly on packed float storage.
+   * 
+   * @param relation Packed relation
+   * @param obj Query object
+   * @param range Query radius
+   * @param sqrange Squared (and slightly increased) query radius
+   * @param result Output data structure
+   */
+  private static void linearScan(PackedFloatVectorRelation relation, FloatVector obj, double range, double sqrange, ModifiableDoubleDBIDList result) {
+    final int dim = relation.getDimensionality();
+    final float[] data = relation.getDataRef(), q = new float[dim];
+    BlockDistances.pack(obj, q, 0, dim);
+    int off = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), off += dim) {
+      final double sqdistance = BlockDistances.squaredEuclidean(q, 0, data, off, dim);
+      if(sqdistance <= sqrange) {
+        final double dist = Math.sqrt(sqdistance);
+        if(dist <= range) { // double check, as we increased the radius above
+          result.add(dist, iter);
+        }
+      }
+    }
+  }
+}
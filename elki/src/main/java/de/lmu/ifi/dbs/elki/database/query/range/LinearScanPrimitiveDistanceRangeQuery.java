@@ -23,13 +23,17 @@ package de.lmu.ifi.dbs.elki.database.query.range;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
 
 /**
@@ -88,6 +92,10 @@ public class LinearScanPrimitiveDistanceRangeQuery<O> extends AbstractDistanceRa
    * @param result Output data structure
    */
   private void linearScan(Relation<? extends O> relation, DBIDIter iter, O obj, double range, ModifiableDoubleDBIDList result) {
+    if(rawdist instanceof BlockDistanceFunction && relation instanceof PackedFloatVectorRelation && ((PackedFloatVectorRelation) relation).isCompatible(obj)) {
+      linearScan((BlockDistanceFunction) rawdist, (PackedFloatVectorRelation) relation, (FloatVector) obj, range, result);
+      return;
+    }
     while(iter.valid()) {
       final double distance = rawdist.distance(obj, relation.get(iter));
       if(distance <= range) {
@@ -96,4 +104,26 @@ public class LinearScanPrimitiveDistanceRangeQuery<O> extends AbstractDistanceRa
       iter.advance();
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Linear scan directly on packed float storage.
+   * 
+   * @param df Block distance function
+   * @param relation Packed relation
+   * @param obj Query object
+   * @param range Query radius
+   * @param result Output data structure
+   */
+  private static void linearScan(BlockDistanceFunction df, PackedFloatVectorRelation relation, FloatVector obj, double range, ModifiableDoubleDBIDList result) {
+    final int dim = relation.getDimensionality();
+    final float[] data = relation.getDataRef(), q = new float[dim];
+    BlockDistances.pack(obj, q, 0, dim);
+    int off = 0;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance(), off += dim) {
+      final double distance = df.distance(q, 0, data, off, dim);
+      if(distance <= range) {
+        result.add(distance, iter);
+      }
+    }
+  }
+}
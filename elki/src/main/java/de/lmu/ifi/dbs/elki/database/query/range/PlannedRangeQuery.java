@@ -0,0 +1,82 @@
+package de.lmu.ifi.dbs.elki.database.query.range;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.QueryPlanner;
+
+/**
+ * Range query that is answered by the cheapest of several equivalent queries,
+ * as chosen by a {@link QueryPlanner}.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses QueryPlanner
+ * 
+ * @param <O> Object type
+ */
+public class PlannedRangeQuery<O> implements RangeQuery<O> {
+  /**
+   * Query planner.
+   */
+  private final QueryPlanner<RangeQuery<O>> planner;
+
+  /**
+   * Constructor.
+   * 
+   * @param planner Query planner
+   */
+  public PlannedRangeQuery(QueryPlanner<RangeQuery<O>> planner) {
+    super();
+    this.planner = planner;
+  }
+
+  @Override
+  public DoubleDBIDList getRangeForDBID(DBIDRef id, double range) {
+    final int p = planner.choose();
+    final long start = System.nanoTime();
+    DoubleDBIDList result = planner.get(p).getRangeForDBID(id, range);
+    planner.record(p, System.nanoTime() - start, 1);
+    return result;
+  }
+
+  @Override
+  public DoubleDBIDList getRangeForObject(O obj, double range) {
+    final int p = planner.choose();
+    final long start = System.nanoTime();
+    DoubleDBIDList result = planner.get(p).getRangeForObject(obj, range);
+    planner.record(p, System.nanoTime() - start, 1);
+    return result;
+  }
+
+  /**
+   * Get the chosen query.
+   * 
+   * @return Chosen query, or {@code null} while the plans are being measured
+   */
+  public RangeQuery<O> getPlan() {
+    return planner.getPlan();
+  }
+}
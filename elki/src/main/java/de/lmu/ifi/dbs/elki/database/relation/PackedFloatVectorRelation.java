@@ -0,0 +1,213 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.result.AbstractHierarchicalResult;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Relation of fixed-dimensional float vectors, stored in a single contiguous
+ * row-major {@code float[]} array over a static range of DBIDs.
+ * 
+ * Compared to a {@link MaterializedRelation} of {@link FloatVector} objects,
+ * this avoids the per-object overhead and keeps the data in one block, so that
+ * linear scans can run the block distance kernels directly on the storage.
+ * {@link #get} returns a view on the stored row, which is only valid until the
+ * object is {@link #set} again.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has FloatVector
+ */
+public class PackedFloatVectorRelation extends AbstractHierarchicalResult implements Relation<FloatVector> {
+  /**
+   * Largest array size supported by common JVMs.
+   */
+  public static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+  /**
+   * Our database
+   */
+  private final Database database;
+
+  /**
+   * The class of objects we store.
+   */
+  private final SimpleTypeInformation<FloatVector> type;
+
+  /**
+   * The DBIDs this is defined for.
+   */
+  private final DBIDRange ids;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Row-major data storage.
+   */
+  private final float[] data;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   * 
+   * @param database Database
+   * @param type Type information
+   * @param ids IDs
+   * @param dim Dimensionality
+   */
+  public PackedFloatVectorRelation(Database database, SimpleTypeInformation<FloatVector> type, DBIDRange ids, int dim) {
+    this(database, type, ids, dim, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param database Database
+   * @param type Type information
+   * @param ids IDs
+   * @param dim Dimensionality
+   * @param name Name
+   */
+  public PackedFloatVectorRelation(Database database, SimpleTypeInformation<FloatVector> type, DBIDRange ids, int dim, String name) {
+    super();
+    this.database = database;
+    this.type = type;
+    this.ids = ids;
+    this.dim = dim;
+    this.name = name;
+    final long size = (long) ids.size() * dim;
+    if(size > MAX_ARRAY_SIZE) {
+      throw new AbortException("Packed float storage too large: " + ids.size() + " x " + dim);
+    }
+    this.data = new float[(int) size];
+  }
+
+  @Override
+  public Database getDatabase() {
+    return database;
+  }
+
+  @Override
+  public FloatVector get(DBIDRef id) {
+    return FloatVector.view(data, ids.getOffset(id) * dim, dim);
+  }
+
+  @Override
+  public void set(DBIDRef id, FloatVector val) {
+    if(val.getDimensionality() != dim) {
+      throw new IllegalArgumentException("Vector of dimensionality " + val.getDimensionality() + " does not fit into a relation of dimensionality " + dim);
+    }
+    for(int d = 0, off = ids.getOffset(id) * dim; d < dim; d++, off++) {
+      data[off] = val.floatValue(d);
+    }
+  }
+
+  @Override
+  public void delete(DBIDRef id) {
+    throw new UnsupportedOperationException("Can't delete from a static array storage.");
+  }
+
+  /**
+   * Get the row-major data block. Do not modify!
+   * 
+   * @return Data block
+   */
+  public float[] getDataRef() {
+    return data;
+  }
+
+  /**
+   * Get the offset of an object in the data block.
+   * 
+   * @param id Object ID
+   * @return Offset of the first value
+   */
+  public int getOffset(DBIDRef id) {
+    return ids.getOffset(id) * dim;
+  }
+
+  /**
+   * Test whether an object can be compared directly to the packed rows, i.e.
+   * whether it is a float vector of the same dimensionality.
+   * 
+   * @param obj Object
+   * @return {@code true} when the object is a compatible float vector
+   */
+  public boolean isCompatible(Object obj) {
+    return obj instanceof FloatVector && ((FloatVector) obj).getDimensionality() == dim;
+  }
+
+  /**
+   * Get the dimensionality of the stored vectors.
+   * 
+   * @return Dimensionality
+   */
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public SimpleTypeInformation<FloatVector> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public String getLongName() {
+    return (name != null) ? name : type.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "relation";
+  }
+}
@@ -62,6 +62,10 @@ public interface Relation<O> extends DatabaseQuery, HierarchicalResult {
   /**
    * Set an object representation.
    * 
+   * Note: some relations (e.g. {@link PackedFloatVectorRelation}) return views
+   * on their storage from {@link #get}, which are overwritten in place by this
+   * method. Copy objects that must survive an update.
+   * 
    * @param id Object ID
    * @param val Value
    */
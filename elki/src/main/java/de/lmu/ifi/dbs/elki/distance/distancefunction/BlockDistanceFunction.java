@@ -0,0 +1,74 @@
+package de.lmu.ifi.dbs.elki.distance.distancefunction;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+
+/**
+ * Distance functions that can be evaluated directly on dense rows of
+ * {@code double[]} or {@code float[]} arrays.
+ * 
+ * Evaluating a distance via {@link NumberVector#doubleValue} costs one
+ * interface call per dimension, which also prevents the JIT compiler from
+ * optimizing the inner loop. Algorithms that compare one vector to many (or
+ * many to many) can instead pack the vectors into a flat row-major array once,
+ * and evaluate the distances with the methods of this interface. See
+ * {@link BlockDistances} for the batch operations and packing helpers.
+ * 
+ * Both rows must have the same dimensionality; the result must be the same (up
+ * to floating point rounding) as {@link #distance(NumberVector, NumberVector)}
+ * on the corresponding vectors.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses BlockDistances
+ */
+public interface BlockDistanceFunction extends NumberVectorDistanceFunction<NumberVector> {
+  @Override
+  double distance(NumberVector o1, NumberVector o2);
+
+  /**
+   * Compute the distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Distance
+   */
+  double distance(double[] x, int xoff, double[] y, int yoff, int dim);
+
+  /**
+   * Compute the distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Distance
+   */
+  double distance(float[] x, int xoff, float[] y, int yoff, int dim);
+}
@@ -0,0 +1,724 @@
+package de.lmu.ifi.dbs.elki.distance.distancefunction;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.VectorUtil;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+
+/**
+ * Distance kernels on dense rows of primitive arrays, and batch operations
+ * comparing one row against a block of rows, or a block against a block.
+ * 
+ * A block is a row-major array of {@code count * dim} values, as produced by
+ * {@link #pack}. The kernels are plain scalar loops, manually unrolled with
+ * independent accumulators so that the JIT compiler can overlap the
+ * floating point additions. The {@code float[]} variants compute in double
+ * precision, as {@link NumberVector#doubleValue} would.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses BlockDistanceFunction
+ */
+public final class BlockDistances {
+  /**
+   * Number of values to process per tile in block-versus-block computations,
+   * chosen such that a tile of doubles fits into the L1 cache.
+   */
+  private static final int TILE_SIZE = 4096;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private BlockDistances() {
+    // Static methods only.
+  }
+
+  /**
+   * Compute the distances of one row to every row of a block.
+   * 
+   * @param df Distance function
+   * @param q Query data array
+   * @param qoff Offset of the query row
+   * @param block Row-major block of rows
+   * @param count Number of rows in the block
+   * @param dim Dimensionality
+   * @param out Output array, at least {@code count} long
+   */
+  public static void distances(BlockDistanceFunction df, double[] q, int qoff, double[] block, int count, int dim, double[] out) {
+    for(int i = 0, off = 0; i < count; i++, off += dim) {
+      out[i] = df.distance(q, qoff, block, off, dim);
+    }
+  }
+
+  /**
+   * Compute the distances of one row to every row of a block.
+   * 
+   * @param df Distance function
+   * @param q Query data array
+   * @param qoff Offset of the query row
+   * @param block Row-major block of rows
+   * @param count Number of rows in the block
+   * @param dim Dimensionality
+   * @param out Output array, at least {@code count} long
+   */
+  public static void distances(BlockDistanceFunction df, float[] q, int qoff, float[] block, int count, int dim, double[] out) {
+    for(int i = 0, off = 0; i < count; i++, off += dim) {
+      out[i] = df.distance(q, qoff, block, off, dim);
+    }
+  }
+
+  /**
+   * Compute all pairwise distances between the rows of two blocks.
+   * 
+   * The second block is processed in tiles, so that each tile stays in cache
+   * while it is compared to all rows of the first block.
+   * 
+   * @param df Distance function
+   * @param a First block
+   * @param acount Number of rows in the first block
+   * @param b Second block
+   * @param bcount Number of rows in the second block
+   * @param dim Dimensionality
+   * @param out Output array, row-major {@code acount * bcount}
+   */
+  public static void crossDistances(BlockDistanceFunction df, double[] a, int acount, double[] b, int bcount, int dim, double[] out) {
+    final int tile = Math.max(1, TILE_SIZE / Math.max(dim, 1));
+    for(int start = 0; start < bcount; start += tile) {
+      final int end = Math.min(start + tile, bcount);
+      for(int i = 0, aoff = 0; i < acount; i++, aoff += dim) {
+        for(int j = start, boff = start * dim, o = i * bcount + start; j < end; j++, boff += dim, o++) {
+          out[o] = df.distance(a, aoff, b, boff, dim);
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute all pairwise distances between the rows of two blocks.
+   * 
+   * The second block is processed in tiles, so that each tile stays in cache
+   * while it is compared to all rows of the first block.
+   * 
+   * @param df Distance function
+   * @param a First block
+   * @param acount Number of rows in the first block
+   * @param b Second block
+   * @param bcount Number of rows in the second block
+   * @param dim Dimensionality
+   * @param out Output array, row-major {@code acount * bcount}
+   */
+  public static void crossDistances(BlockDistanceFunction df, float[] a, int acount, float[] b, int bcount, int dim, double[] out) {
+    final int tile = Math.max(1, (TILE_SIZE << 1) / Math.max(dim, 1));
+    for(int start = 0; start < bcount; start += tile) {
+      final int end = Math.min(start + tile, bcount);
+      for(int i = 0, aoff = 0; i < acount; i++, aoff += dim) {
+        for(int j = start, boff = start * dim, o = i * bcount + start; j < end; j++, boff += dim, o++) {
+          out[o] = df.distance(a, aoff, b, boff, dim);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the common dimensionality of a list of vectors.
+   * 
+   * @param vecs Vectors
+   * @return Dimensionality, or -1 if the list is empty or the dimensionalities
+   *         differ
+   */
+  public static int dimensionality(List<? extends NumberVector> vecs) {
+    if(vecs.isEmpty()) {
+      return -1;
+    }
+    final int dim = vecs.get(0).getDimensionality();
+    for(NumberVector v : vecs) {
+      if(v.getDimensionality() != dim) {
+        return -1;
+      }
+    }
+    return dim;
+  }
+
+  /**
+   * Pack a list of vectors into a row-major block.
+   * 
+   * @param vecs Vectors, each of dimensionality {@code dim}
+   * @param dim Dimensionality
+   * @return Block of {@code vecs.size() * dim} values
+   */
+  public static double[] pack(List<? extends NumberVector> vecs, int dim) {
+    final double[] block = new double[vecs.size() * dim];
+    int off = 0;
+    for(NumberVector v : vecs) {
+      pack(v, block, off, dim);
+      off += dim;
+    }
+    return block;
+  }
+
+  /**
+   * Copy a vector into a row of a block.
+   * 
+   * @param v Vector
+   * @param block Output block
+   * @param off Offset of the row
+   * @param dim Dimensionality
+   */
+  public static void pack(NumberVector v, double[] block, int off, int dim) {
+    for(int d = 0; d < dim; d++) {
+      block[off + d] = v.doubleValue(d);
+    }
+  }
+
+  /**
+   * Copy a vector into a row of a block.
+   * 
+   * @param v Vector
+   * @param block Output block
+   * @param off Offset of the row
+   * @param dim Dimensionality
+   */
+  public static void pack(NumberVector v, float[] block, int off, int dim) {
+    for(int d = 0; d < dim; d++) {
+      block[off + d] = v.floatValue(d);
+    }
+  }
+
+  /**
+   * Squared Euclidean distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Squared Euclidean distance
+   */
+  public static double squaredEuclidean(double[] x, int xoff, double[] y, int yoff, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~3); i < end; i += 4, j += 4) {
+      final double d0 = x[i] - y[j], d1 = x[i + 1] - y[j + 1];
+      final double d2 = x[i + 2] - y[j + 2], d3 = x[i + 3] - y[j + 3];
+      s0 += d0 * d0;
+      s1 += d1 * d1;
+      s2 += d2 * d2;
+      s3 += d3 * d3;
+    }
+    for(final int end = xoff + dim; i < end; i++, j++) {
+      final double d = x[i] - y[j];
+      s0 += d * d;
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Manhattan distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Manhattan distance
+   */
+  public static double manhattan(double[] x, int xoff, double[] y, int yoff, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~3); i < end; i += 4, j += 4) {
+      s0 += Math.abs(x[i] - y[j]);
+      s1 += Math.abs(x[i + 1] - y[j + 1]);
+      s2 += Math.abs(x[i + 2] - y[j + 2]);
+      s3 += Math.abs(x[i + 3] - y[j + 3]);
+    }
+    for(final int end = xoff + dim; i < end; i++, j++) {
+      s0 += Math.abs(x[i] - y[j]);
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Maximum distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Maximum distance
+   */
+  public static double maximum(double[] x, int xoff, double[] y, int yoff, int dim) {
+    double m0 = 0., m1 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      final double d0 = Math.abs(x[i] - y[j]), d1 = Math.abs(x[i + 1] - y[j + 1]);
+      m0 = (d0 > m0) ? d0 : m0;
+      m1 = (d1 > m1) ? d1 : m1;
+    }
+    if(i < xoff + dim) {
+      final double d = Math.abs(x[i] - y[j]);
+      m0 = (d > m0) ? d : m0;
+    }
+    return (m0 > m1) ? m0 : m1;
+  }
+
+  /**
+   * Sum of the p-th powers of the absolute differences of two rows, i.e. the
+   * LP-norm distance before taking the p-th root.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled LP distance
+   */
+  public static double powerSum(double[] x, int xoff, double[] y, int yoff, int dim, double p) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      agg += Math.pow(Math.abs(x[xoff + d] - y[yoff + d]), p);
+    }
+    return agg;
+  }
+
+  /**
+   * Sum of the p-th powers of the absolute differences of two rows, for
+   * integer p.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled LP distance
+   */
+  public static double powerSum(double[] x, int xoff, double[] y, int yoff, int dim, int p) {
+    double s0 = 0., s1 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      s0 += MathUtil.powi(Math.abs(x[i] - y[j]), p);
+      s1 += MathUtil.powi(Math.abs(x[i + 1] - y[j + 1]), p);
+    }
+    if(i < xoff + dim) {
+      s0 += MathUtil.powi(Math.abs(x[i] - y[j]), p);
+    }
+    return s0 + s1;
+  }
+
+  /**
+   * Weighted squared Euclidean distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted squared Euclidean distance
+   */
+  public static double weightedSquaredEuclidean(double[] x, int xoff, double[] y, int yoff, double[] weights, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int d = 0;
+    for(final int end = dim & ~3; d < end; d += 4) {
+      final int i = xoff + d, j = yoff + d;
+      final double d0 = x[i] - y[j], d1 = x[i + 1] - y[j + 1];
+      final double d2 = x[i + 2] - y[j + 2], d3 = x[i + 3] - y[j + 3];
+      s0 += d0 * d0 * weights[d];
+      s1 += d1 * d1 * weights[d + 1];
+      s2 += d2 * d2 * weights[d + 2];
+      s3 += d3 * d3 * weights[d + 3];
+    }
+    for(; d < dim; d++) {
+      final double delta = x[xoff + d] - y[yoff + d];
+      s0 += delta * delta * weights[d];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Weighted Manhattan distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted Manhattan distance
+   */
+  public static double weightedManhattan(double[] x, int xoff, double[] y, int yoff, double[] weights, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int d = 0;
+    for(final int end = dim & ~3; d < end; d += 4) {
+      final int i = xoff + d, j = yoff + d;
+      s0 += Math.abs(x[i] - y[j]) * weights[d];
+      s1 += Math.abs(x[i + 1] - y[j + 1]) * weights[d + 1];
+      s2 += Math.abs(x[i + 2] - y[j + 2]) * weights[d + 2];
+      s3 += Math.abs(x[i + 3] - y[j + 3]) * weights[d + 3];
+    }
+    for(; d < dim; d++) {
+      s0 += Math.abs(x[xoff + d] - y[yoff + d]) * weights[d];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Weighted maximum distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted maximum distance
+   */
+  public static double weightedMaximum(double[] x, int xoff, double[] y, int yoff, double[] weights, int dim) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      final double delta = Math.abs(x[xoff + d] - y[yoff + d]) * weights[d];
+      agg = (delta > agg) ? delta : agg;
+    }
+    return agg;
+  }
+
+  /**
+   * Weighted sum of the p-th powers of the absolute differences of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled weighted LP distance
+   */
+  public static double weightedPowerSum(double[] x, int xoff, double[] y, int yoff, double[] weights, int dim, double p) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      agg += Math.pow(Math.abs(x[xoff + d] - y[yoff + d]), p) * weights[d];
+    }
+    return agg;
+  }
+
+  /**
+   * Cosine of the angle between two rows, computed the same way as
+   * {@link VectorUtil#cosAngle(NumberVector, NumberVector)}.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Cosine similarity, clipped to at most 1
+   */
+  public static double cosAngle(double[] x, int xoff, double[] y, int yoff, int dim) {
+    double c0 = 0., c1 = 0., l10 = 0., l11 = 0., l20 = 0., l21 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      final double x0 = x[i], x1 = x[i + 1], y0 = y[j], y1 = y[j + 1];
+      c0 += x0 * y0;
+      c1 += x1 * y1;
+      l10 += x0 * x0;
+      l11 += x1 * x1;
+      l20 += y0 * y0;
+      l21 += y1 * y1;
+    }
+    if(i < xoff + dim) {
+      final double x0 = x[i], y0 = y[j];
+      c0 += x0 * y0;
+      l10 += x0 * x0;
+      l20 += y0 * y0;
+    }
+    final double cross = c0 + c1, l1 = l10 + l11, l2 = l20 + l21;
+    if(cross == 0.) {
+      return 0.;
+    }
+    if(l1 == 0. || l2 == 0.) {
+      return 1.;
+    }
+    final double a = Math.sqrt((cross / l1) * (cross / l2));
+    return (a < 1.) ? a : 1.;
+  }
+
+  /**
+   * Squared Euclidean distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Squared Euclidean distance
+   */
+  public static double squaredEuclidean(float[] x, int xoff, float[] y, int yoff, int dim) {
+    // Not unrolled: for float input, the JIT produces faster code for the
+    // plain loop than for the manually unrolled version.
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      final double delta = (double) x[xoff + d] - y[yoff + d];
+      agg += delta * delta;
+    }
+    return agg;
+  }
+
+
+  /**
+   * Manhattan distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Manhattan distance
+   */
+  public static double manhattan(float[] x, int xoff, float[] y, int yoff, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~3); i < end; i += 4, j += 4) {
+      s0 += Math.abs((double) x[i] - y[j]);
+      s1 += Math.abs((double) x[i + 1] - y[j + 1]);
+      s2 += Math.abs((double) x[i + 2] - y[j + 2]);
+      s3 += Math.abs((double) x[i + 3] - y[j + 3]);
+    }
+    for(final int end = xoff + dim; i < end; i++, j++) {
+      s0 += Math.abs((double) x[i] - y[j]);
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Maximum distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Maximum distance
+   */
+  public static double maximum(float[] x, int xoff, float[] y, int yoff, int dim) {
+    double m0 = 0., m1 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      final double d0 = Math.abs((double) x[i] - y[j]), d1 = Math.abs((double) x[i + 1] - y[j + 1]);
+      m0 = (d0 > m0) ? d0 : m0;
+      m1 = (d1 > m1) ? d1 : m1;
+    }
+    if(i < xoff + dim) {
+      final double d = Math.abs((double) x[i] - y[j]);
+      m0 = (d > m0) ? d : m0;
+    }
+    return (m0 > m1) ? m0 : m1;
+  }
+
+  /**
+   * Sum of the p-th powers of the absolute differences of two rows, i.e. the
+   * LP-norm distance before taking the p-th root.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled LP distance
+   */
+  public static double powerSum(float[] x, int xoff, float[] y, int yoff, int dim, double p) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      agg += Math.pow(Math.abs((double) x[xoff + d] - y[yoff + d]), p);
+    }
+    return agg;
+  }
+
+  /**
+   * Sum of the p-th powers of the absolute differences of two rows, for
+   * integer p.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled LP distance
+   */
+  public static double powerSum(float[] x, int xoff, float[] y, int yoff, int dim, int p) {
+    double s0 = 0., s1 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      s0 += MathUtil.powi(Math.abs((double) x[i] - y[j]), p);
+      s1 += MathUtil.powi(Math.abs((double) x[i + 1] - y[j + 1]), p);
+    }
+    if(i < xoff + dim) {
+      s0 += MathUtil.powi(Math.abs((double) x[i] - y[j]), p);
+    }
+    return s0 + s1;
+  }
+
+  /**
+   * Weighted squared Euclidean distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted squared Euclidean distance
+   */
+  public static double weightedSquaredEuclidean(float[] x, int xoff, float[] y, int yoff, double[] weights, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int d = 0;
+    for(final int end = dim & ~3; d < end; d += 4) {
+      final int i = xoff + d, j = yoff + d;
+      final double d0 = (double) x[i] - y[j], d1 = (double) x[i + 1] - y[j + 1];
+      final double d2 = (double) x[i + 2] - y[j + 2], d3 = (double) x[i + 3] - y[j + 3];
+      s0 += d0 * d0 * weights[d];
+      s1 += d1 * d1 * weights[d + 1];
+      s2 += d2 * d2 * weights[d + 2];
+      s3 += d3 * d3 * weights[d + 3];
+    }
+    for(; d < dim; d++) {
+      final double delta = (double) x[xoff + d] - y[yoff + d];
+      s0 += delta * delta * weights[d];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Weighted Manhattan distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted Manhattan distance
+   */
+  public static double weightedManhattan(float[] x, int xoff, float[] y, int yoff, double[] weights, int dim) {
+    double s0 = 0., s1 = 0., s2 = 0., s3 = 0.;
+    int d = 0;
+    for(final int end = dim & ~3; d < end; d += 4) {
+      final int i = xoff + d, j = yoff + d;
+      s0 += Math.abs((double) x[i] - y[j]) * weights[d];
+      s1 += Math.abs((double) x[i + 1] - y[j + 1]) * weights[d + 1];
+      s2 += Math.abs((double) x[i + 2] - y[j + 2]) * weights[d + 2];
+      s3 += Math.abs((double) x[i + 3] - y[j + 3]) * weights[d + 3];
+    }
+    for(; d < dim; d++) {
+      s0 += Math.abs((double) x[xoff + d] - y[yoff + d]) * weights[d];
+    }
+    return (s0 + s1) + (s2 + s3);
+  }
+
+  /**
+   * Weighted maximum distance of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @return Weighted maximum distance
+   */
+  public static double weightedMaximum(float[] x, int xoff, float[] y, int yoff, double[] weights, int dim) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      final double delta = Math.abs((double) x[xoff + d] - y[yoff + d]) * weights[d];
+      agg = (delta > agg) ? delta : agg;
+    }
+    return agg;
+  }
+
+  /**
+   * Weighted sum of the p-th powers of the absolute differences of two rows.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param weights Weights, indexed by dimension
+   * @param dim Dimensionality
+   * @param p Exponent
+   * @return Unscaled weighted LP distance
+   */
+  public static double weightedPowerSum(float[] x, int xoff, float[] y, int yoff, double[] weights, int dim, double p) {
+    double agg = 0.;
+    for(int d = 0; d < dim; d++) {
+      agg += Math.pow(Math.abs((double) x[xoff + d] - y[yoff + d]), p) * weights[d];
+    }
+    return agg;
+  }
+
+  /**
+   * Cosine of the angle between two rows, computed the same way as
+   * {@link VectorUtil#cosAngle(NumberVector, NumberVector)}.
+   * 
+   * @param x First data array
+   * @param xoff Offset of the first row
+   * @param y Second data array
+   * @param yoff Offset of the second row
+   * @param dim Dimensionality
+   * @return Cosine similarity, clipped to at most 1
+   */
+  public static double cosAngle(float[] x, int xoff, float[] y, int yoff, int dim) {
+    double c0 = 0., c1 = 0., l10 = 0., l11 = 0., l20 = 0., l21 = 0.;
+    int i = xoff, j = yoff;
+    for(final int end = xoff + (dim & ~1); i < end; i += 2, j += 2) {
+      final double x0 = x[i], x1 = x[i + 1], y0 = y[j], y1 = y[j + 1];
+      c0 += x0 * y0;
+      c1 += x1 * y1;
+      l10 += x0 * x0;
+      l11 += x1 * x1;
+      l20 += y0 * y0;
+      l21 += y1 * y1;
+    }
+    if(i < xoff + dim) {
+      final double x0 = x[i], y0 = y[j];
+      c0 += x0 * y0;
+      l10 += x0 * x0;
+      l20 += y0 * y0;
+    }
+    final double cross = c0 + c1, l1 = l10 + l11, l2 = l20 + l21;
+    if(cross == 0.) {
+      return 0.;
+    }
+    if(l1 == 0. || l2 == 0.) {
+      return 1.;
+    }
+    final double a = Math.sqrt((cross / l1) * (cross / l2));
+    return (a < 1.) ? a : 1.;
+  }
+}
@@ -40,7 +40,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
  * @author Arthur Zimek
  */
 @Alias({ "cosine" })
-public class CosineDistanceFunction extends AbstractSpatialDistanceFunction {
+public class CosineDistanceFunction extends AbstractSpatialDistanceFunction implements BlockDistanceFunction {
   /**
    * Static instance
    */
@@ -75,6 +75,24 @@ public class CosineDistanceFunction extends AbstractSpatialDistanceFunction {
     return d;
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    double d = 1 - BlockDistances.cosAngle(x, xoff, y, yoff, dim);
+    if (d < 0) {
+      d = 0;
+    }
+    return d;
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    double d = 1 - BlockDistances.cosAngle(x, xoff, y, yoff, dim);
+    if (d < 0) {
+      d = 0;
+    }
+    return d;
+  }
+
   @Override
   public double minDist(SpatialComparable mbr1, SpatialComparable mbr2) {
     double d = 1 - VectorUtil.minCosAngle(mbr1, mbr2);
@@ -25,6 +25,7 @@ package de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 
@@ -121,6 +122,16 @@ public class EuclideanDistanceFunction extends LPIntegerNormDistanceFunction {
     return Math.sqrt(agg);
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    return Math.sqrt(BlockDistances.squaredEuclidean(x, xoff, y, yoff, dim));
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    return Math.sqrt(BlockDistances.squaredEuclidean(x, xoff, y, yoff, dim));
+  }
+
   @Override
   public double norm(NumberVector v) {
     return Math.sqrt(preNorm(v, 0, v.getDimensionality(), 0.));
@@ -25,6 +25,7 @@ package de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -128,6 +129,16 @@ public class LPIntegerNormDistanceFunction extends LPNormDistanceFunction {
     return Math.pow(agg, invp);
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.powerSum(x, xoff, y, yoff, dim, intp), invp);
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.powerSum(x, xoff, y, yoff, dim, intp), invp);
+  }
+
   @Override
   public double norm(NumberVector v) {
     return Math.pow(preNorm(v, 0, v.getDimensionality(), 0.), invp);
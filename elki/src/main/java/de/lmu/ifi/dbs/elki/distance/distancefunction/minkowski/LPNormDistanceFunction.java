@@ -28,6 +28,8 @@ import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.AbstractSpatialNorm;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
@@ -43,7 +45,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
  * @apiviz.landmark
  */
 @Alias({ "lp", "minkowski", "p", "de.lmu.ifi.dbs.elki.distance.distancefunction.LPNormDistanceFunction" })
-public class LPNormDistanceFunction extends AbstractSpatialNorm {
+public class LPNormDistanceFunction extends AbstractSpatialNorm implements BlockDistanceFunction {
   /**
    * p parameter and its inverse.
    */
@@ -180,6 +182,16 @@ public class LPNormDistanceFunction extends AbstractSpatialNorm {
     return Math.pow(agg, invp);
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.powerSum(x, xoff, y, yoff, dim, p), invp);
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.powerSum(x, xoff, y, yoff, dim, p), invp);
+  }
+
   @Override
   public double norm(NumberVector v) {
     return Math.pow(preNorm(v, 0, v.getDimensionality(), 0.), invp);
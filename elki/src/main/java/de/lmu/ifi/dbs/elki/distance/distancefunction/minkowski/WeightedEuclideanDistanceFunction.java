@@ -27,6 +27,7 @@ import java.util.Arrays;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayLikeUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -118,6 +119,16 @@ public class WeightedEuclideanDistanceFunction extends WeightedLPNormDistanceFun
     return Math.sqrt(agg);
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    return Math.sqrt(BlockDistances.weightedSquaredEuclidean(x, xoff, y, yoff, weights, dim));
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    return Math.sqrt(BlockDistances.weightedSquaredEuclidean(x, xoff, y, yoff, weights, dim));
+  }
+
   @Override
   public double norm(NumberVector v) {
     return Math.sqrt(preNorm(v, 0, v.getDimensionality(), 0.));
@@ -29,6 +29,7 @@ import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.WeightedNumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayLikeUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
@@ -128,6 +129,16 @@ public class WeightedLPNormDistanceFunction extends LPNormDistanceFunction imple
     return Math.pow(agg, invp);
   }
 
+  @Override
+  public double distance(double[] x, int xoff, double[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.weightedPowerSum(x, xoff, y, yoff, weights, dim, p), invp);
+  }
+
+  @Override
+  public double distance(float[] x, int xoff, float[] y, int yoff, int dim) {
+    return Math.pow(BlockDistances.weightedPowerSum(x, xoff, y, yoff, weights, dim, p), invp);
+  }
+
   @Override
   public double norm(NumberVector v) {
     return Math.pow(preNorm(v, 0, v.getDimensionality(), 0.), invp);
@@ -71,6 +71,9 @@ public abstract class AbstractDimensionsSelectingDistanceFunction<V extends Feat
 
   @Override
   public void setSelectedDimensions(long[] dimensions) {
+    if(this.dimensions == dimensions) {
+      return; // Same array, clearing it first would lose the selection.
+    }
     if(this.dimensions == null || this.dimensions.length < dimensions.length) {
       this.dimensions = dimensions.clone();
       return;
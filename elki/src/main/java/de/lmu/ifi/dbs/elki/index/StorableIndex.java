@@ -0,0 +1,64 @@
+package de.lmu.ifi.dbs.elki.index;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.IOException;
+
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
+
+/**
+ * Index that can be saved to an {@link IndexFile}, and restored from it
+ * instead of being rebuilt.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.excludeSubtypes
+ * @apiviz.uses IndexFile
+ */
+public interface StorableIndex extends Index {
+  /**
+   * Version of the stored format. Files written with a different version are
+   * ignored, and the index is rebuilt.
+   * 
+   * @return Format version
+   */
+  public int getStorageVersion();
+
+  /**
+   * Write the index contents.
+   * 
+   * @param out Output
+   * @throws IOException on write errors
+   */
+  public void write(IndexFile.Writer out) throws IOException;
+
+  /**
+   * Restore the index contents, instead of building the index.
+   * 
+   * @param in Input
+   * @return {@code false} if the stored index does not match the index
+   *         configuration, and the index needs to be rebuilt.
+   */
+  public boolean read(IndexFile.Reader in);
+}
@@ -0,0 +1,1125 @@
+package de.lmu.ifi.dbs.elki.index.hnsw;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntIntOpenHashMap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.hash.IntOpenHashSet;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+
+/**
+ * Hierarchical navigable small world (HNSW) graph for approximate kNN queries
+ * with arbitrary distance functions.
+ * 
+ * Every object is a node on layer 0 and, with exponentially decreasing
+ * probability, on the layers above. Queries greedily descend from the entry
+ * point on the top layer, and run a best-first search with {@code efSearch}
+ * candidates on layer 0. Neighbors are chosen with the diversity heuristic of
+ * the original paper.
+ * 
+ * The layer 0 adjacency lists of all nodes are stored in a single flat int
+ * array, each list as a count followed by up to {@code 2m} node numbers; the
+ * lists of the upper layers are stored in one flat int array per node. The
+ * graph is built in parallel, with one lock per node guarding its lists.
+ * Inserts are supported, and deletions remove the node from all lists that
+ * reference it, reconnecting the affected nodes. As no reverse links are
+ * kept, each deletion scans all nodes of its layers, so bulk deletions are
+ * expensive. Updates must not run
+ * concurrently with queries.
+ * 
+ * Reference:
+ * <p>
+ * Y. A. Malkov, D. A. Yashunin<br />
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br />
+ * arXiv preprint arXiv:1603.09320
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has HNSWKNNQuery
+ * 
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov, D. A. Yashunin", //
+title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+booktitle = "arXiv preprint arXiv:1603.09320", //
+url = "http://arxiv.org/abs/1603.09320")
+public class HNSWIndex<O> extends AbstractRefiningIndex<O> implements KNNIndex<O>, DynamicIndex, StorableIndex {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(HNSWIndex.class);
+
+  /**
+   * Minimum number of insertions to build the graph in parallel.
+   */
+  private static final int PARALLEL_THRESHOLD = 1 << 10;
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Maximum number of neighbors on the upper layers.
+   */
+  private int m;
+
+  /**
+   * Maximum number of neighbors on layer 0.
+   */
+  private int m0;
+
+  /**
+   * Size of the candidate list during construction.
+   */
+  private int efConstruction;
+
+  /**
+   * Size of the candidate list during queries.
+   */
+  private int efSearch;
+
+  /**
+   * Normalization of the random levels, 1 / ln(m).
+   */
+  private double levelMult;
+
+  /**
+   * Random generator for the levels.
+   */
+  private Random random;
+
+  /**
+   * File to store the graph in, may be {@code null}.
+   */
+  private File file;
+
+  /**
+   * Objects of the nodes.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Node number of each object (by integer DBID).
+   */
+  private IntIntOpenHashMap nodes;
+
+  /**
+   * Number of node numbers in use, including deleted nodes.
+   */
+  private int size;
+
+  /**
+   * Top layer of each node, -1 for deleted nodes.
+   */
+  private int[] levels;
+
+  /**
+   * Layer 0 adjacency lists, {@code m0 + 1} entries per node.
+   */
+  private int[] links0;
+
+  /**
+   * Adjacency lists of the upper layers, {@code m + 1} entries per layer, or
+   * {@code null} for nodes only on layer 0.
+   */
+  private int[][] upper;
+
+  /**
+   * Lock of each node, guarding its adjacency lists during construction.
+   */
+  private Object[] locks;
+
+  /**
+   * Lock guarding the entry point and top layer.
+   */
+  private final Object entryLock = new Object();
+
+  /**
+   * Entry point of searches, -1 if the graph is empty.
+   */
+  private volatile int entry = -1;
+
+  /**
+   * Top layer of the graph.
+   */
+  private volatile int maxlevel = -1;
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to index
+   * @param distanceQuery Distance query
+   * @param m Maximum number of neighbors on the upper layers (twice on layer
+   *        0)
+   * @param efConstruction Size of the candidate list during construction
+   * @param efSearch Size of the candidate list during queries
+   * @param rnd Random generator for the levels
+   * @param file File to store the graph in, may be {@code null}
+   */
+  public HNSWIndex(Relation<O> relation, DistanceQuery<O> distanceQuery, int m, int efConstruction, int efSearch, RandomFactory rnd, File file) {
+    super(relation);
+    this.distanceQuery = distanceQuery;
+    this.m = m;
+    this.m0 = m << 1;
+    this.efConstruction = Math.max(efConstruction, m0);
+    this.efSearch = efSearch;
+    this.levelMult = 1. / Math.log(Math.max(m, 2));
+    this.random = rnd.getSingleThreadedRandom();
+    this.file = file;
+  }
+
+  @Override
+  public String getLongName() {
+    return "HNSW graph index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "hnsw-index";
+  }
+
+  @Override
+  public void initialize() {
+    final int expected = relation.size();
+    ids = DBIDUtil.newArray(expected);
+    nodes = new IntIntOpenHashMap(expected, -1);
+    size = 0;
+    levels = new int[expected];
+    links0 = new int[layer0Size(expected)];
+    upper = new int[expected][];
+    locks = new Object[expected];
+    entry = maxlevel = -1;
+    if(IndexFile.load(file, relation, this)) {
+      return;
+    }
+    insertAll(relation.getDBIDs());
+    if(LOG.isStatistics()) {
+      long edges = 0;
+      for(int x = 0; x < size; x++) {
+        for(int lc = 0; lc <= levels[x]; lc++) {
+          edges += lc == 0 ? links0[x * (m0 + 1)] : upper[x][(lc - 1) * (m + 1)];
+        }
+      }
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".layers", maxlevel + 1));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".edges", edges));
+    }
+    IndexFile.save(file, relation, this);
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    insertAll(DBIDUtil.deref(id));
+  }
+
+  @Override
+  public void insertAll(DBIDs newids) {
+    if(ids == null) {
+      initialize();
+      return;
+    }
+    final int begin = size;
+    ensureCapacity(size + newids.size());
+    for(DBIDIter iter = newids.iter(); iter.valid(); iter.advance()) {
+      if(nodes.containsKey(DBIDUtil.asInteger(iter))) {
+        continue;
+      }
+      final int x = size++, level = (int) (-Math.log(1. - random.nextDouble()) * levelMult);
+      ids.add(iter);
+      nodes.put(DBIDUtil.asInteger(iter), x);
+      levels[x] = level;
+      links0[x * (m0 + 1)] = 0;
+      upper[x] = level > 0 ? new int[level * (m + 1)] : null;
+      locks[x] = new Object();
+    }
+    final int end = size;
+    if(begin == end) {
+      return;
+    }
+    // The first node of an empty graph has nothing to connect to.
+    final AtomicInteger next = new AtomicInteger(begin);
+    if(entry < 0) {
+      final int first = next.getAndIncrement();
+      entry = first;
+      maxlevel = levels[first];
+    }
+    final int threads = end - begin >= PARALLEL_THRESHOLD ? ParallelCore.ALL_PROCESSORS : 1;
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph.", end - next.get(), LOG) : null;
+    ArrayList<Builder> tasks = new ArrayList<>(threads);
+    for(int i = 0; i < threads; i++) {
+      tasks.add(new Builder(next, end, prog));
+    }
+    BoundedTaskExecutor.run(tasks, threads, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Grow the node arrays.
+   * 
+   * @param capacity Required number of nodes
+   */
+  private void ensureCapacity(int capacity) {
+    if(capacity <= levels.length) {
+      return;
+    }
+    final int newsize = Math.max(capacity, levels.length + (levels.length >>> 1));
+    levels = Arrays.copyOf(levels, newsize);
+    links0 = Arrays.copyOf(links0, layer0Size(newsize));
+    upper = Arrays.copyOf(upper, newsize);
+    locks = Arrays.copyOf(locks, newsize);
+  }
+
+  /**
+   * Size of the layer 0 adjacency array.
+   * 
+   * @param n Number of nodes
+   * @return Array size
+   */
+  private int layer0Size(int n) {
+    final long len = (long) n * (m0 + 1);
+    if(len > Integer.MAX_VALUE) {
+      throw new AbortException("HNSW graph too large: " + n + " nodes with " + m0 + " neighbors each exceed the maximum array size.");
+    }
+    return (int) len;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * There are no reverse links, so this scans the adjacency lists of all nodes
+   * on every layer of the deleted node, i.e. it takes O(n) time per layer, and
+   * deleting many objects with {@link #deleteAll} takes O(n * d) time for d
+   * deletions. For bulk removals, rebuilding the index is usually faster.
+   */
+  @Override
+  public boolean delete(DBIDRef id) {
+    final int x = nodes.remove(DBIDUtil.asInteger(id));
+    if(x < 0) {
+      return false;
+    }
+    final int level = levels[x];
+    levels[x] = -1;
+    final Searcher s = new Searcher(distanceQuery);
+    final IntOpenHashSet cands = new IntOpenHashSet(m0 << 1);
+    for(int lc = 0; lc <= level; lc++) {
+      final int[] xarr = links(x, lc);
+      final int xoff = offset(x, lc), maxm = lc == 0 ? m0 : m;
+      // Find all nodes linking to x, and reconnect them.
+      for(int y = 0; y < size; y++) {
+        if(levels[y] < lc) {
+          continue;
+        }
+        final int[] arr = links(y, lc);
+        final int off = offset(y, lc), cnt = arr[off];
+        int pos = 0;
+        while(pos < cnt && arr[off + 1 + pos] != x) {
+          pos++;
+        }
+        if(pos == cnt) {
+          continue;
+        }
+        cands.clear();
+        for(int i = 0; i < cnt; i++) {
+          cands.add(arr[off + 1 + i]);
+        }
+        for(int i = 0; i < xarr[xoff]; i++) {
+          cands.add(xarr[xoff + 1 + i]);
+        }
+        cands.remove(x);
+        cands.remove(y);
+        s.iter.seek(y);
+        int n = 0;
+        for(IntOpenHashSet.Iter it = cands.iter(); it.valid(); it.advance()) {
+          final int c = it.getKey();
+          s.sn[n] = c;
+          s.sd[n++] = distanceQuery.distance(s.iter, s.iter2.seek(c));
+        }
+        DoubleIntegerArrayQuickSort.sort(s.sd, s.sn, n);
+        setLinks(arr, off, s.sn, s.selectNeighbors(s.sd, s.sn, n, maxm));
+      }
+      xarr[xoff] = 0;
+    }
+    if(entry == x) {
+      int best = -1;
+      for(int y = 0; y < size; y++) {
+        if(levels[y] >= 0 && (best < 0 || levels[y] > levels[best])) {
+          best = y;
+        }
+      }
+      entry = best;
+      maxlevel = best >= 0 ? levels[best] : -1;
+    }
+    return true;
+  }
+
+  /**
+   * {@inheritDoc}
+   * 
+   * Deletes one object at a time, see {@link #delete} for the cost.
+   */
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      delete(iter);
+    }
+  }
+
+  /**
+   * Get the array containing the adjacency list of a node.
+   * 
+   * @param x Node
+   * @param lc Layer
+   * @return Array
+   */
+  private int[] links(int x, int lc) {
+    return lc == 0 ? links0 : upper[x];
+  }
+
+  /**
+   * Get the position of the adjacency list of a node in {@link #links}.
+   * 
+   * @param x Node
+   * @param lc Layer
+   * @return Offset of the neighbor count
+   */
+  private int offset(int x, int lc) {
+    return lc == 0 ? x * (m0 + 1) : (lc - 1) * (m + 1);
+  }
+
+  /**
+   * Replace an adjacency list.
+   * 
+   * @param arr Adjacency array
+   * @param off Offset of the neighbor count
+   * @param neighbors New neighbors
+   * @param cnt Number of neighbors
+   */
+  private static void setLinks(int[] arr, int off, int[] neighbors, int cnt) {
+    System.arraycopy(neighbors, 0, arr, off + 1, cnt);
+    arr[off] = cnt;
+  }
+
+  @Override
+  public int getStorageVersion() {
+    return 1;
+  }
+
+  @Override
+  public void write(IndexFile.Writer out) throws IOException {
+    out.writeString(distanceQuery.getDistanceFunction().getClass().getName());
+    out.writeInt(m);
+    out.writeInt(efConstruction);
+    out.writeDBIDs(ids);
+    out.writeInts(Arrays.copyOf(levels, size));
+    out.writeInts(Arrays.copyOf(links0, size * (m0 + 1)));
+    int total = 0;
+    for(int x = 0; x < size; x++) {
+      total += upper[x] != null ? upper[x].length : 0;
+    }
+    int[] flat = new int[total];
+    for(int x = 0, pos = 0; x < size; x++) {
+      if(upper[x] != null) {
+        System.arraycopy(upper[x], 0, flat, pos, upper[x].length);
+        pos += upper[x].length;
+      }
+    }
+    out.writeInts(flat);
+    out.writeInt(entry);
+  }
+
+  @Override
+  public boolean read(IndexFile.Reader in) {
+    if(!distanceQuery.getDistanceFunction().getClass().getName().equals(in.readString()) || in.readInt() != m || in.readInt() != efConstruction) {
+      return false;
+    }
+    ArrayModifiableDBIDs rids = in.readDBIDs();
+    final int n = rids.size();
+    int[] rlevels = in.readInts(), rlinks0 = in.readInts(), flat = in.readInts();
+    final int rentry = in.readInt();
+    if(rlevels.length != n || rlinks0.length != n * (m0 + 1) || rentry < -1 || rentry >= n) {
+      return false;
+    }
+    int[][] rupper = new int[n][];
+    for(int x = 0, pos = 0; x < n; x++) {
+      if(rlevels[x] > 0) {
+        final int len = rlevels[x] * (m + 1);
+        if(pos + len > flat.length) {
+          return false;
+        }
+        rupper[x] = Arrays.copyOfRange(flat, pos, pos + len);
+        pos += len;
+      }
+    }
+    ids = rids;
+    size = n;
+    levels = rlevels;
+    links0 = rlinks0;
+    upper = rupper;
+    locks = new Object[n];
+    nodes = new IntIntOpenHashMap(n, -1);
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      nodes.put(DBIDUtil.asInteger(iter), iter.getOffset());
+      locks[iter.getOffset()] = new Object();
+    }
+    entry = rentry;
+    maxlevel = rentry >= 0 ? levels[rentry] : -1;
+    return true;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return null;
+      }
+    }
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = distanceQuery.getDistanceFunction();
+    if(!this.distanceQuery.getDistanceFunction().equals(distanceFunction)) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return null;
+    }
+    return new HNSWKNNQuery(distanceQuery);
+  }
+
+  /**
+   * Search state and scratch buffers of a single thread.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class Searcher {
+    /**
+     * Distance query.
+     */
+    final DistanceQuery<O> dq;
+
+    /**
+     * Iterators to address nodes.
+     */
+    final DBIDArrayIter iter = ids.iter(), iter2 = ids.iter();
+
+    /**
+     * Visited nodes.
+     */
+    final IntOpenHashSet visited = new IntOpenHashSet(256);
+
+    /**
+     * Nodes to expand, nearest first.
+     */
+    final DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Nearest nodes found, farthest first.
+     */
+    final DoubleIntegerMaxHeap results = new DoubleIntegerMaxHeap();
+
+    /**
+     * Copy of an adjacency list.
+     */
+    final int[] buf = new int[m0];
+
+    /**
+     * Sorted distances and nodes.
+     */
+    final double[] sd = new double[Math.max(efConstruction, m0 << 1) + 1];
+
+    /**
+     * Nodes for {@link #sd}.
+     */
+    final int[] sn = new int[sd.length];
+
+    /**
+     * Number of distance computations.
+     */
+    int distances = 0;
+
+    /**
+     * Constructor.
+     * 
+     * @param dq Distance query
+     */
+    Searcher(DistanceQuery<O> dq) {
+      this.dq = dq;
+    }
+
+    /**
+     * Distance of the query to a node.
+     * 
+     * @param q Query object
+     * @param x Node
+     * @return Distance
+     */
+    double distance(O q, int x) {
+      ++distances;
+      return dq.distance(q, iter.seek(x));
+    }
+
+    /**
+     * Copy the adjacency list of a node.
+     * 
+     * @param x Node
+     * @param lc Layer
+     * @param lock Lock the node, during construction
+     * @return Number of neighbors in {@link #buf}
+     */
+    int neighbors(int x, int lc, boolean lock) {
+      final int[] arr = links(x, lc);
+      final int off = offset(x, lc);
+      if(!lock) {
+        final int cnt = arr[off];
+        System.arraycopy(arr, off + 1, buf, 0, cnt);
+        return cnt;
+      }
+      synchronized(locks[x]) {
+        final int cnt = arr[off];
+        System.arraycopy(arr, off + 1, buf, 0, cnt);
+        return cnt;
+      }
+    }
+
+    /**
+     * Greedy search for the nearest node on the layers above the target layer.
+     * 
+     * @param q Query object
+     * @param ep Entry point
+     * @param epd Distance of the entry point
+     * @param from Top layer to search
+     * @param to Layer to stop at (exclusive)
+     * @param lock Lock the nodes, during construction
+     * @return Nearest node found, its distance in {@link #sd}[0]
+     */
+    int descend(O q, int ep, double epd, int from, int to, boolean lock) {
+      for(int lc = from; lc > to; lc--) {
+        boolean changed = true;
+        while(changed) {
+          changed = false;
+          final int cnt = neighbors(ep, lc, lock);
+          for(int i = 0; i < cnt; i++) {
+            final int e = buf[i];
+            final double d = distance(q, e);
+            if(d < epd) {
+              epd = d;
+              ep = e;
+              changed = true;
+            }
+          }
+        }
+      }
+      sd[0] = epd;
+      return ep;
+    }
+
+    /**
+     * Best-first search on a single layer, leaving the nearest nodes in
+     * {@link #results}.
+     * 
+     * @param q Query object
+     * @param ep Entry point
+     * @param epd Distance of the entry point
+     * @param ef Number of nodes to find
+     * @param lc Layer
+     * @param lock Lock the nodes, during construction
+     */
+    void searchLayer(O q, int ep, double epd, int ef, int lc, boolean lock) {
+      visited.clear();
+      candidates.clear();
+      results.clear();
+      visited.add(ep);
+      candidates.add(epd, ep);
+      results.add(epd, ep);
+      while(!candidates.isEmpty()) {
+        final double cd = candidates.peekKey();
+        if(cd > results.peekKey()) {
+          break;
+        }
+        final int c = candidates.peekValue();
+        candidates.poll();
+        final int cnt = neighbors(c, lc, lock);
+        for(int i = 0; i < cnt; i++) {
+          final int e = buf[i];
+          if(!visited.add(e)) {
+            continue;
+          }
+          final double d = distance(q, e);
+          if(results.size() < ef || d < results.peekKey()) {
+            candidates.add(d, e);
+            results.add(d, e, ef);
+          }
+        }
+      }
+    }
+
+    /**
+     * Move the results into {@link #sd} and {@link #sn}, nearest first.
+     * 
+     * @return Number of results
+     */
+    int sortedResults() {
+      final int n = results.size();
+      for(int i = n - 1; i >= 0; i--) {
+        sd[i] = results.peekKey();
+        sn[i] = results.peekValue();
+        results.poll();
+      }
+      return n;
+    }
+
+    /**
+     * Choose diverse neighbors: a candidate is skipped if it is closer to an
+     * already chosen neighbor than to the base node.
+     * 
+     * @param dists Distances to the base node, ascending
+     * @param cands Candidate nodes, selected nodes are moved to the front
+     * @param n Number of candidates
+     * @param max Maximum number of neighbors
+     * @return Number of neighbors chosen
+     */
+    int selectNeighbors(double[] dists, int[] cands, int n, int max) {
+      if(n <= max) {
+        return n;
+      }
+      int sel = 0;
+      for(int i = 0; i < n && sel < max; i++) {
+        final double di = dists[i];
+        iter.seek(cands[i]);
+        boolean good = true;
+        for(int j = 0; j < sel; j++) {
+          if(dq.distance(iter, iter2.seek(cands[j])) < di) {
+            good = false;
+            break;
+          }
+        }
+        if(good) {
+          dists[sel] = di;
+          cands[sel++] = cands[i];
+        }
+      }
+      return sel;
+    }
+
+    /**
+     * Connect a new node to the graph.
+     * 
+     * @param x Node
+     */
+    void connect(int x) {
+      final O q = relation.get(iter2.seek(x));
+      final int level = levels[x];
+      int ep, top;
+      synchronized(entryLock) {
+        ep = entry;
+        top = maxlevel;
+      }
+      ep = descend(q, ep, distance(q, ep), top, level, true);
+      double epd = sd[0];
+      for(int lc = Math.min(top, level); lc >= 0; lc--) {
+        searchLayer(q, ep, epd, efConstruction, lc, true);
+        int n = sortedResults();
+        ep = sn[0];
+        epd = sd[0];
+        final int maxm = lc == 0 ? m0 : m;
+        n = selectNeighbors(sd, sn, n, m);
+        synchronized(locks[x]) {
+          setLinks(links(x, lc), offset(x, lc), sn, n);
+        }
+        // Copy, as the scratch buffers are reused below.
+        final int[] chosen = Arrays.copyOf(sn, n);
+        final double[] chosend = Arrays.copyOf(sd, n);
+        for(int i = 0; i < n; i++) {
+          addLink(chosen[i], x, chosend[i], lc, maxm);
+        }
+      }
+      if(level > top) {
+        synchronized(entryLock) {
+          if(level > maxlevel) {
+            maxlevel = level;
+            entry = x;
+          }
+        }
+      }
+    }
+
+    /**
+     * Add a link to a node, pruning its adjacency list when full.
+     * 
+     * @param y Node to add the link to
+     * @param x New neighbor
+     * @param dist Distance of x and y
+     * @param lc Layer
+     * @param maxm Maximum number of neighbors
+     */
+    void addLink(int y, int x, double dist, int lc, int maxm) {
+      synchronized(locks[y]) {
+        final int[] arr = links(y, lc);
+        final int off = offset(y, lc), cnt = arr[off];
+        if(cnt < maxm) {
+          arr[off + 1 + cnt] = x;
+          arr[off] = cnt + 1;
+          return;
+        }
+        iter.seek(y);
+        for(int i = 0; i < cnt; i++) {
+          final int e = arr[off + 1 + i];
+          sn[i] = e;
+          sd[i] = dq.distance(iter, iter2.seek(e));
+        }
+        sn[cnt] = x;
+        sd[cnt] = dist;
+        DoubleIntegerArrayQuickSort.sort(sd, sn, cnt + 1);
+        setLinks(arr, off, sn, selectNeighbors(sd, sn, cnt + 1, maxm));
+      }
+    }
+  }
+
+  /**
+   * Insert nodes into the graph, taking node numbers from a shared counter.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class Builder implements Callable<Void> {
+    /**
+     * Next node to insert.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * End of the nodes to insert.
+     */
+    private final int end;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    private final FiniteProgress prog;
+
+    /**
+     * Constructor.
+     * 
+     * @param next Next node to insert
+     * @param end End of the nodes to insert
+     * @param prog Progress
+     */
+    Builder(AtomicInteger next, int end, FiniteProgress prog) {
+      this.next = next;
+      this.end = end;
+      this.prog = prog;
+    }
+
+    @Override
+    public Void call() {
+      Searcher s = new Searcher(distanceQuery);
+      for(int x = next.getAndIncrement(); x < end; x = next.getAndIncrement()) {
+        s.connect(x);
+        LOG.incrementProcessed(prog);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * kNN query on the HNSW graph.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class HNSWKNNQuery extends AbstractKNNQuery {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public HNSWKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      final int ep = entry;
+      if(ep < 0) {
+        return heap.toKNNList();
+      }
+      Searcher s = new Searcher(distanceQuery);
+      final int nearest = s.descend(obj, ep, s.distance(obj, ep), maxlevel, 0, false);
+      s.searchLayer(obj, nearest, s.sd[0], Math.max(efSearch, k), 0, false);
+      DBIDArrayIter iter = ids.iter();
+      for(DoubleIntegerHeap.UnsortedIter it = s.results.unsortedIter(); it.valid(); it.advance()) {
+        heap.insert(it.getKey(), iter.seek(it.getValue()));
+      }
+      super.incRefinements(s.distances);
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Index factory for HNSW graphs.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.has HNSWIndex
+   * 
+   * @param <V> Object type
+   */
+  public static class Factory<V> implements IndexFactory<V, HNSWIndex<V>> {
+    /**
+     * Distance function to build the graph for.
+     */
+    DistanceFunction<? super V> distance;
+
+    /**
+     * Maximum number of neighbors on the upper layers.
+     */
+    int m;
+
+    /**
+     * Size of the candidate list during construction.
+     */
+    int efConstruction;
+
+    /**
+     * Size of the candidate list during queries.
+     */
+    int efSearch;
+
+    /**
+     * Random generator for the levels.
+     */
+    RandomFactory rnd;
+
+    /**
+     * File to store the graph in, may be {@code null}.
+     */
+    File file;
+
+    /**
+     * Constructor.
+     * 
+     * @param distance Distance function
+     * @param m Maximum number of neighbors on the upper layers
+     * @param efConstruction Size of the candidate list during construction
+     * @param efSearch Size of the candidate list during queries
+     * @param rnd Random generator for the levels
+     * @param file File to store the graph in, may be {@code null}
+     */
+    public Factory(DistanceFunction<? super V> distance, int m, int efConstruction, int efSearch, RandomFactory rnd, File file) {
+      super();
+      this.distance = distance;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.rnd = rnd;
+      this.file = file;
+    }
+
+    @Override
+    public HNSWIndex<V> instantiate(Relation<V> relation) {
+      return new HNSWIndex<>(relation, distance.instantiate(relation), m, efConstruction, efSearch, rnd, file);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    public static class Parameterizer<V> extends AbstractParameterizer {
+      /**
+       * Distance function parameter.
+       */
+      public static final OptionID DISTANCE_ID = new OptionID("hnsw.distance", "Distance function to build the graph for.");
+
+      /**
+       * Number of neighbors parameter.
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Maximum number of neighbors of each node on the upper layers, twice as many on the bottom layer.");
+
+      /**
+       * Construction candidate list size.
+       */
+      public static final OptionID EFCONSTRUCTION_ID = new OptionID("hnsw.efConstruction", "Number of candidate neighbors to search when inserting a node.");
+
+      /**
+       * Query candidate list size.
+       */
+      public static final OptionID EFSEARCH_ID = new OptionID("hnsw.efSearch", "Number of candidates to search for queries (at least k). Larger values increase recall and query time.");
+
+      /**
+       * Random seed.
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator for the node levels.");
+
+      /**
+       * Option to store the graph in a file.
+       */
+      public static final OptionID FILE_ID = new OptionID("hnsw.file", "File to store the graph in. If the file exists and matches the data and parameters, it is loaded instead of building the graph.");
+
+      /**
+       * Distance function.
+       */
+      DistanceFunction<? super V> distance;
+
+      /**
+       * Maximum number of neighbors.
+       */
+      int m;
+
+      /**
+       * Construction candidate list size.
+       */
+      int efConstruction;
+
+      /**
+       * Query candidate list size.
+       */
+      int efSearch;
+
+      /**
+       * Random generator.
+       */
+      RandomFactory rnd;
+
+      /**
+       * File to store the graph in.
+       */
+      File file;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super V>> distanceP = new ObjectParameter<>(DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distance = distanceP.instantiateClass(config);
+        }
+
+        IntParameter mP = new IntParameter(M_ID, 16) //
+        .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+
+        IntParameter efConstructionP = new IntParameter(EFCONSTRUCTION_ID, 200) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efConstructionP)) {
+          efConstruction = efConstructionP.intValue();
+        }
+
+        IntParameter efSearchP = new IntParameter(EFSEARCH_ID, 50) //
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efSearchP)) {
+          efSearch = efSearchP.intValue();
+        }
+
+        RandomParameter rndP = new RandomParameter(SEED_ID);
+        if(config.grab(rndP)) {
+          rnd = rndP.getValue();
+        }
+
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          file = fileP.getValue();
+        }
+      }
+
+      @Override
+      protected HNSWIndex.Factory<V> makeInstance() {
+        return new HNSWIndex.Factory<>(distance, m, efConstruction, efSearch, rnd, file);
+      }
+    }
+  }
+}
@@ -23,16 +23,19 @@ package de.lmu.ifi.dbs.elki.index.idistance;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMedoidsInitialization;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
-import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -45,15 +48,22 @@ import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
 import de.lmu.ifi.dbs.elki.math.MeanVarianceMinMax;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
@@ -62,16 +72,14 @@ import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
  * In-memory iDistance index, a metric indexing method using a reference point
  * embedding.
  * 
- * <b>Important note:</b> we are currently using a different query strategy. The
- * original publication discusses queries based on repeated <em>radius</em>
- * queries. We use a strategy based on shrinking spheres, iteratively refined
- * starting with the closes reference point. We also do not use a B+-tree as
- * data structure, but simple in-memory lists. Therefore, we cannot report page
- * accesses needed.
- * 
- * Feel free to contribute improved query strategies. All the code is
- * essentially here, you only need to query every reference point list, not just
- * the best.
+ * The keys (reference point, distance to reference point) are stored in one
+ * sorted array, i.e. the leaf level of the B+-tree of the original
+ * publication. kNN queries grow the search radius incrementally, scanning
+ * outward from the query key of every partition (in both directions); instead
+ * of increasing the radius in fixed steps, the next candidate is always the
+ * one with the smallest lower bound, and the search stops once this bound
+ * exceeds the current kNN distance. Because we do not use a B+-tree, we cannot
+ * report page accesses needed.
  * 
  * Reference:
  * <p>
@@ -92,7 +100,7 @@ import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
  * @param <O> Object type
  */
 @Reference(authors = "C. Yu, B. C. Ooi, K. L. Tan, H. V. Jagadish", title = "Indexing the distance: An efficient method to knn processing", booktitle = "In Proceedings of the 27th International Conference on Very Large Data Bases", url = "http://www.vldb.org/conf/2001/P421.pdf")
-public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O> {
+public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O>, StorableIndex {
   /**
    * Class logger.
    */
@@ -119,9 +127,30 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
   private ArrayDBIDs referencepoints;
 
   /**
-   * The actual index.
+   * Indexed objects.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Sorted keys: distances to the reference point, sorted within each
+   * partition.
+   */
+  private double[] keys;
+
+  /**
+   * Offsets into {@link #ids}, in key order.
+   */
+  private int[] order;
+
+  /**
+   * Partition boundaries in the key array.
+   */
+  private int[] bounds;
+
+  /**
+   * File to store the index in, may be {@code null}.
    */
-  private ModifiableDoubleDBIDList[] index;
+  private File file;
 
   /**
    * Second reference, for documentation generation.
@@ -138,7 +167,21 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
    * @param numref Number of reference points
    */
   public InMemoryIDistanceIndex(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref) {
+    this(relation, distance, initialization, numref, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Data relation
+   * @param distance Distance
+   * @param initialization Initialization method
+   * @param numref Number of reference points
+   * @param file File to store the index in, may be {@code null}
+   */
+  public InMemoryIDistanceIndex(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numref, File file) {
     super(relation);
+    this.file = file;
     this.distanceQuery = distance;
     this.initialization = initialization;
     this.numref = numref;
@@ -151,32 +194,121 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
 
   @Override
   public void initialize() {
+    if(IndexFile.load(file, relation, this)) {
+      return;
+    }
     referencepoints = DBIDUtil.ensureArray(initialization.chooseInitialMedoids(numref, relation.getDBIDs(), distanceQuery));
     final int k = referencepoints.size(); // should be the same k anyway.
-    index = new ModifiableDoubleDBIDList[k];
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    // Assign objects to their nearest reference point, in parallel blocks.
+    final int[] assignment = new int[size];
+    final double[] dists = new double[size];
+    final int blocks = Math.max(1, Math.min(ParallelCore.ALL_PROCESSORS, size));
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          // TODO: add optimized codepath for primitive distances.
+          DBIDArrayIter oiter = ids.iter(), riter = referencepoints.iter();
+          for(oiter.seek(begin); oiter.getOffset() < end; oiter.advance()) {
+            double bestd = Double.POSITIVE_INFINITY;
+            int besti = -1;
+            for(riter.seek(0); riter.valid(); riter.advance()) {
+              double dist = distanceQuery.distance(oiter, riter);
+              if(dist < bestd) {
+                bestd = dist;
+                besti = riter.getOffset();
+              }
+            }
+            assert (besti >= 0 && besti < k);
+            assignment[oiter.getOffset()] = besti;
+            dists[oiter.getOffset()] = bestd;
+          }
+          return null;
+        }
+      });
+    }
+    runTasks(tasks);
+
+    // Build the key array, partition by partition.
+    bounds = new int[k + 1];
+    for(int i = 0; i < size; i++) {
+      ++bounds[assignment[i] + 1];
+    }
     for(int i = 0; i < k; i++) {
-      index[i] = DBIDUtil.newDistanceDBIDList(relation.size() / (2 * k));
+      bounds[i + 1] += bounds[i];
     }
-    // TODO: add optimized codepath for primitive distances.
-    DBIDArrayIter riter = referencepoints.iter();
-    for(DBIDIter oiter = relation.iterDBIDs(); oiter.valid(); oiter.advance()) {
-      double bestd = Double.POSITIVE_INFINITY;
-      int besti = -1;
-      for(riter.seek(0); riter.valid(); riter.advance()) {
-        double dist = distanceQuery.distance(oiter, riter);
-        if(dist < bestd) {
-          bestd = dist;
-          besti = riter.getOffset();
-        }
-      }
-      assert (besti >= 0 && besti < k);
-      index[besti].add(bestd, oiter);
+    keys = new double[size];
+    order = new int[size];
+    final int[] fill = Arrays.copyOf(bounds, k);
+    for(int i = 0; i < size; i++) {
+      final int j = fill[assignment[i]]++;
+      keys[j] = dists[i];
+      order[j] = i;
     }
 
-    // Sort index.
+    // Sort each partition by key, in parallel.
+    tasks = new ArrayList<>(k);
     for(int i = 0; i < k; i++) {
-      index[i].sort();
+      final int begin = bounds[i], end = bounds[i + 1];
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DoubleIntegerArrayQuickSort.sort(keys, order, begin, end);
+          return null;
+        }
+      });
     }
+    runTasks(tasks);
+    IndexFile.save(file, relation, this);
+  }
+
+  @Override
+  public int getStorageVersion() {
+    return 1;
+  }
+
+  @Override
+  public void write(IndexFile.Writer out) throws IOException {
+    out.writeString(getDistanceFunction().getClass().getName());
+    out.writeString(initialization.getClass().getName());
+    out.writeInt(numref);
+    out.writeDBIDs(referencepoints);
+    out.writeDoubles(keys);
+    out.writeInts(order);
+    out.writeInts(bounds);
+  }
+
+  @Override
+  public boolean read(IndexFile.Reader in) {
+    if(!getDistanceFunction().getClass().getName().equals(in.readString()) //
+        || !initialization.getClass().getName().equals(in.readString()) //
+        || in.readInt() != numref) {
+      return false;
+    }
+    referencepoints = in.readDBIDs();
+    keys = in.readDoubles();
+    order = in.readInts();
+    bounds = in.readInts();
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    return keys.length == ids.size() && order.length == ids.size() && bounds.length == referencepoints.size() + 1;
+  }
+
+  /**
+   * Run tasks on all processors.
+   * 
+   * @param tasks Tasks to run
+   */
+  private static void runTasks(List<Callable<Void>> tasks) {
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
   }
 
   @Override
@@ -239,8 +371,8 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
   public void logStatistics() {
     super.logStatistics();
     MeanVarianceMinMax mm = new MeanVarianceMinMax();
-    for(int i = 0; i < index.length; i++) {
-      mm.put(index[i].size());
+    for(int i = 0; i + 1 < bounds.length; i++) {
+      mm.put(bounds[i + 1] - bounds[i]);
     }
     LOG.statistics(new LongStatistic(InMemoryIDistanceIndex.class.getName() + ".size.min", (int) mm.getMin()));
     LOG.statistics(new DoubleStatistic(InMemoryIDistanceIndex.class.getName() + ".size.mean", mm.getMean()));
@@ -268,33 +400,26 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
   }
 
   /**
-   * Seek an iterator to the desired position, using binary search.
+   * Find the first position with a key of at least the given value, using
+   * binary search.
    * 
-   * @param index Index to search
-   * @param iter Iterator
-   * @param val Distance to search to
+   * @param keys Sorted keys
+   * @param begin First position of the partition
+   * @param end End of the partition (exclusive)
+   * @param val Key to search for
+   * @return Position in [begin, end]
    */
-  protected static void binarySearch(ModifiableDoubleDBIDList index, DoubleDBIDListIter iter, double val) {
-    // Binary search. TODO: move this into the DoubleDBIDList class.
-    int left = 0, right = index.size();
-    while(left < right) {
-      final int mid = (left + right) >>> 1;
-      final double curd = iter.seek(mid).doubleValue();
-      if(val < curd) {
-        right = mid;
-      }
-      else if(val > curd) {
-        left = mid + 1;
+  protected static int binarySearch(double[] keys, int begin, int end, double val) {
+    while(begin < end) {
+      final int mid = (begin + end) >>> 1;
+      if(keys[mid] < val) {
+        begin = mid + 1;
       }
       else {
-        left = mid;
-        break;
+        end = mid;
       }
     }
-    if(left >= index.size()) {
-      --left;
-    }
-    iter.seek(left);
+    return begin;
   }
 
   /**
@@ -316,58 +441,57 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
 
     @Override
     public KNNList getKNNForObject(O obj, int k) {
-      DoubleIntPair[] priority = rankReferencePoints(distanceQuery, obj, referencepoints);
-      // Approximate kNN search. We do not check _every_ list.
-      KNNHeap heap = DBIDUtil.newHeap(k);
-
-      for(DoubleIntPair pair : priority) {
-        final ModifiableDoubleDBIDList nindex = index[pair.second];
-        final double refd = pair.first;
-
-        final DoubleDBIDListIter ifwd = nindex.iter(), ibwd = nindex.iter();
-        binarySearch(nindex, ibwd, refd);
-        ifwd.seek(ibwd.getOffset() + 1);
-
+      // The search order does not depend on the order of reference points.
+      final double[] refds = new double[referencepoints.size()];
+      // Cursors: two per partition, 2i scans forward, 2i+1 backward.
+      final int[] pos = new int[refds.length << 1];
+      // Next candidate of each cursor, by lower bound.
+      DoubleIntegerMinHeap cursors = new DoubleIntegerMinHeap(pos.length);
+      for(DBIDArrayIter riter = referencepoints.iter(); riter.valid(); riter.advance()) {
+        final int i = riter.getOffset(), begin = bounds[i], end = bounds[i + 1];
+        final double refd = refds[i] = distanceQuery.distance(obj, riter);
+        final int p = binarySearch(keys, begin, end, refd);
         // This assumes a metric, as we exploit triangle inequality:
         // Lower bound for candidates further from the reference object:
-        // d(candidate, reference) <= d(candidate, query) + d(query, reference)
         // d(candidate, reference) - d(query, reference) <= d(candidate, query)
-        double lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
+        if(p < end) {
+          pos[i << 1] = p;
+          cursors.add(keys[p] - refd, i << 1);
+        }
         // Lower bound for candidates closer to the reference object:
-        // d(query, reference) <= d(query, candidate) + d(candidate, reference)
         // d(query, reference) - d(candidate, reference) <= d(query, candidate)
-        double lbbwd = ibwd.valid() ? Math.abs(ibwd.doubleValue() - refd) : Double.NaN;
-        // Current query radius.
-        double kdist = heap.getKNNDistance();
-        while(true) {
-          // Handle NaN carefully.
-          if(!(lbfwd <= kdist) && !(lbbwd <= kdist)) {
-            break;
-          }
-          // Careful: NaN handling: not NaN and not worse than fwd (may be NaN).
-          if(lbfwd <= kdist && !(lbfwd > lbbwd)) {
-            final double dist = refine(ifwd, obj);
-            if(dist <= kdist) {
-              heap.insert(dist, ifwd);
-              kdist = heap.getKNNDistance();
-            }
-            // Advance iterator:
-            ifwd.advance();
-            lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
-          }
-          if(lbbwd <= kdist && !(lbbwd > lbfwd)) {
-            final double dist = refine(ibwd, obj);
-            if(dist <= kdist) {
-              heap.insert(dist, ibwd);
-              kdist = heap.getKNNDistance();
-            }
-            // Retract iterator:
-            ibwd.retract();
-            lbbwd = ibwd.valid() ? Math.abs(ibwd.doubleValue() - refd) : Double.NaN;
+        if(p > begin) {
+          pos[(i << 1) + 1] = p - 1;
+          cursors.add(refd - keys[p - 1], (i << 1) + 1);
+        }
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      DBIDArrayIter iter = ids.iter();
+      double kdist = Double.POSITIVE_INFINITY;
+      // Grow the radius to the next smallest lower bound, until it exceeds the
+      // kNN distance.
+      while(!cursors.isEmpty() && cursors.peekKey() <= kdist) {
+        final int c = cursors.peekValue(), i = c >>> 1, j = pos[c];
+        final double dist = refine(iter.seek(order[j]), obj);
+        if(dist <= kdist) {
+          heap.insert(dist, iter);
+          kdist = heap.getKNNDistance();
+        }
+        // Advance the cursor.
+        if((c & 1) == 0) {
+          if(j + 1 < bounds[i + 1]) {
+            pos[c] = j + 1;
+            cursors.replaceTopElement(keys[j + 1] - refds[i], c);
+            continue;
           }
         }
+        else if(j > bounds[i]) {
+          pos[c] = j - 1;
+          cursors.replaceTopElement(refds[i] - keys[j - 1], c);
+          continue;
+        }
+        cursors.poll();
       }
-
       return heap.toKNNList();
     }
   }
@@ -393,46 +517,18 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
     public DoubleDBIDList getRangeForObject(O obj, double range) {
       DoubleIntPair[] priority = rankReferencePoints(distanceQuery, obj, referencepoints);
       ModifiableDoubleDBIDList result = DBIDUtil.newDistanceDBIDList();
+      DBIDArrayIter iter = ids.iter();
       for(DoubleIntPair pair : priority) {
-        final ModifiableDoubleDBIDList nindex = index[pair.second];
+        final int begin = bounds[pair.second], end = bounds[pair.second + 1];
         final double refd = pair.first;
-
-        DoubleDBIDListIter ifwd = nindex.iter(), ibwd = nindex.iter();
-        binarySearch(nindex, ibwd, refd);
-        ifwd.seek(ibwd.getOffset() + 1);
-
         // This assumes a metric, as we exploit triangle inequality:
-        // Lower bound for candidates further from the reference object:
-        // d(candidate, reference) <= d(candidate, query) + d(query, reference)
-        // d(candidate, reference) - d(query, reference) <= d(candidate, query)
-        double lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
-        // Lower bound for candidates closer to the reference object:
-        // d(query, reference) <= d(query, candidate) + d(candidate, reference)
-        // d(query, reference) - d(candidate, reference) <= d(query, candidate)
-        double lbbwd = ibwd.valid() ? Math.abs(ibwd.doubleValue() - refd) : Double.NaN;
-        while(true) {
-          // Handle NaN carefully.
-          if(!(lbfwd <= range) && !(lbbwd <= range)) {
-            break;
-          }
-          // Careful: NaN handling: not NaN and not worse than fwd (may be NaN).
-          if(lbfwd <= range && !(lbfwd > lbbwd)) {
-            final double dist = refine(ifwd, obj);
-            if(dist <= range) {
-              result.add(dist, ifwd);
-            }
-            // Advance iterator:
-            ifwd.advance();
-            lbfwd = ifwd.valid() ? Math.abs(ifwd.doubleValue() - refd) : Double.NaN;
-          }
-          if(lbbwd <= range && !(lbbwd > lbfwd)) {
-            final double dist = refine(ibwd, obj);
-            if(dist <= range) {
-              result.add(dist, ibwd);
-            }
-            // Retract iterator:
-            ibwd.retract();
-            lbbwd = ibwd.valid() ? Math.abs(ibwd.doubleValue() - refd) : Double.NaN;
+        // |d(candidate, reference) - d(query, reference)| <= d(candidate, query)
+        // so all candidates are within [refd - range, refd + range].
+        final double upper = refd + range;
+        for(int j = binarySearch(keys, begin, end, refd - range); j < end && keys[j] <= upper; j++) {
+          final double dist = refine(iter.seek(order[j]), obj);
+          if(dist <= range) {
+            result.add(dist, iter);
           }
         }
       }
@@ -466,6 +562,11 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
      */
     int k;
 
+    /**
+     * File to store the index in, may be {@code null}.
+     */
+    File file;
+
     /**
      * Constructor.
      * 
@@ -474,15 +575,28 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
      * @param k Number of reference points
      */
     public Factory(DistanceFunction<? super V> distance, KMedoidsInitialization<V> initialization, int k) {
+      this(distance, initialization, k, null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param distance Distance function
+     * @param initialization Initialization method
+     * @param k Number of reference points
+     * @param file File to store the index in, may be {@code null}
+     */
+    public Factory(DistanceFunction<? super V> distance, KMedoidsInitialization<V> initialization, int k, File file) {
       super();
       this.distance = distance;
       this.initialization = initialization;
       this.k = k;
+      this.file = file;
     }
 
     @Override
     public InMemoryIDistanceIndex<V> instantiate(Relation<V> relation) {
-      return new InMemoryIDistanceIndex<>(relation, distance.instantiate(relation), initialization, k);
+      return new InMemoryIDistanceIndex<>(relation, distance.instantiate(relation), initialization, k, file);
     }
 
     @Override
@@ -515,6 +629,11 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
        */
       public static final OptionID K_ID = new OptionID("idistance.k", "Number of reference points to use.");
 
+      /**
+       * Option to store the index in a file.
+       */
+      public static final OptionID FILE_ID = new OptionID("idistance.file", "File to store the index in. If the file exists and matches the data, the index is loaded instead of rebuilt.");
+
       /**
        * Distance function to use.
        */
@@ -530,6 +649,11 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
        */
       int k;
 
+      /**
+       * File to store the index in.
+       */
+      File file;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -548,11 +672,16 @@ public class InMemoryIDistanceIndex<O> extends AbstractRefiningIndex<O> implemen
         if(config.grab(kP)) {
           k = kP.intValue();
         }
+
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          file = fileP.getValue();
+        }
       }
 
       @Override
       protected InMemoryIDistanceIndex.Factory<V> makeInstance() {
-        return new InMemoryIDistanceIndex.Factory<>(distance, initialization, k);
+        return new InMemoryIDistanceIndex.Factory<>(distance, initialization, k, file);
       }
     }
   }
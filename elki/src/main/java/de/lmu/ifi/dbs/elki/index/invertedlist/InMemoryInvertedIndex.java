@@ -22,21 +22,23 @@ package de.lmu.ifi.dbs.elki.index.invertedlist;
  You should have received a copy of the GNU Affero General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
-import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
-import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
-import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
-import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -53,32 +55,82 @@ import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 
 /**
  * Simple index using inverted lists.
  * 
+ * Each dimension has a compressed {@link PostingList} of the normalized
+ * object weights, with the largest absolute weight of the list. Queries are
+ * evaluated document-at-a-time with MaxScore pruning: lists whose combined
+ * maximum contribution cannot reach the current k-th similarity are only
+ * probed for the candidates of the remaining lists. Since weights are stored
+ * as floats, the pruning bounds include the rounding error, and candidates are
+ * refined using the exact distance function.
+ * 
+ * Objects that do not share any non-zero dimension with the query are not
+ * reported.
+ * 
+ * Reference:
+ * <p>
+ * H. Turtle, J. Flood<br />
+ * Query evaluation: strategies and optimizations<br />
+ * Information Processing and Management 31(6)
+ * </p>
+ * 
  * @author Erich Schubert
  * 
+ * @apiviz.composedOf PostingList
+ * 
  * @param <V> Vector type
  */
-public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+@Reference(authors = "H. Turtle, J. Flood", //
+title = "Query evaluation: strategies and optimizations", //
+booktitle = "Information Processing and Management 31(6)", //
+url = "http://dx.doi.org/10.1016/0306-4573(95)00020-H")
+public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex<V> implements KNNIndex<V>, RangeIndex<V>, StorableIndex {
   /**
    * Class logger.
    */
   private static final Logging LOG = Logging.getLogger(InMemoryInvertedIndex.class);
 
   /**
-   * Inverted index.
+   * Minimum number of queries per parallel task in bulk queries.
+   */
+  private static final int MIN_BULK_BLOCK = 64;
+
+  /**
+   * Objects, in the order of the document numbers.
    */
-  ArrayList<ModifiableDoubleDBIDList> index;
+  ArrayDBIDs ids;
 
   /**
-   * Length storage.
+   * Posting lists, by dimension. {@code null} for empty dimensions.
    */
-  WritableDoubleDataStore length;
+  PostingList[] lists;
+
+  /**
+   * File to store the index in, may be {@code null}.
+   */
+  File file;
+
+  /**
+   * Number of postings scored, and number of candidates refined.
+   */
+  private final StripedLongCounter scored, refined;
 
   /**
    * Constructor.
@@ -86,173 +138,262 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
    * @param relation Data.
    */
   public InMemoryInvertedIndex(Relation<V> relation) {
+    this(relation, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Data.
+   * @param file File to store the index in, may be {@code null}
+   */
+  public InMemoryInvertedIndex(Relation<V> relation, File file) {
     super(relation);
+    this.file = file;
+    if(LOG.isStatistics()) {
+      final String prefix = InMemoryInvertedIndex.class.getName();
+      scored = new StripedLongCounter(prefix + ".postings-scored");
+      refined = new StripedLongCounter(prefix + ".refined");
+    }
+    else {
+      scored = refined = null;
+    }
   }
 
   @Override
   public void initialize() {
-    if(index != null) {
+    if(lists != null) {
       LOG.warning("Index was already initialized!");
     }
-    index = new ArrayList<>();
-    length = DataStoreUtil.makeDoubleStorage(relation.getDBIDs(), DataStoreFactory.HINT_DB);
-    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
-      V obj = relation.get(iter);
-      if(obj instanceof SparseNumberVector) {
-        indexSparse(iter, (SparseNumberVector) obj);
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    if(IndexFile.load(file, relation, this)) {
+      return;
+    }
+    // Count the postings of each dimension.
+    TermBuffer terms = new TermBuffer();
+    int[] counts = new int[0];
+    int dims = 0;
+    long count = 0L;
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      terms.load(relation.get(iter));
+      for(int i = 0; i < terms.size; i++) {
+        final int dim = terms.dims[i];
+        if(dim >= counts.length) {
+          counts = Arrays.copyOf(counts, Math.max(dim + 1, counts.length << 1));
+        }
+        counts[dim]++;
+        dims = dim >= dims ? dim + 1 : dims;
       }
-      else {
-        indexDense(iter, obj);
+      count += terms.size;
+    }
+    final int[][] docs = new int[dims][];
+    final float[][] weights = new float[dims][];
+    for(int d = 0; d < dims; d++) {
+      if(counts[d] > 0) {
+        docs[d] = new int[counts[d]];
+        weights[d] = new float[counts[d]];
       }
     }
-    // Sort indexes
-    long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      column.sort();
-      count += column.size();
+    // Fill the postings, in the order of the document numbers.
+    Arrays.fill(counts, 0);
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      terms.load(relation.get(iter));
+      final int doc = iter.getOffset();
+      for(int i = 0; i < terms.size; i++) {
+        final int dim = terms.dims[i], p = counts[dim]++;
+        docs[dim][p] = doc;
+        weights[dim][p] = (float) (terms.vals[i] / terms.len);
+      }
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    // Compress the lists in parallel.
+    lists = new PostingList[dims];
+    final int blocks = Math.max(1, Math.min(ParallelCore.ALL_PROCESSORS << 2, dims));
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int start = (int) (b * (long) dims / blocks), end = (int) ((b + 1) * (long) dims / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(int d = start; d < end; d++) {
+            if(docs[d] != null) {
+              lists[d] = new PostingList(docs[d], weights[d], docs[d].length);
+              docs[d] = null;
+              weights[d] = null;
+            }
+          }
+          return null;
+        }
+      });
+    }
+    runTasks(tasks);
+    double sparsity = count / (dims * (double) relation.size());
     if(sparsity > .2) {
       LOG.warning("Inverted list indexes only perform well for very sparse data. Your data set has a sparsity of " + sparsity);
     }
+    IndexFile.save(file, relation, this);
   }
 
   /**
-   * Index a single (sparse) instance.
+   * Run tasks on all available processors.
    * 
-   * @param ref Object reference
-   * @param obj Object to index.
+   * @param tasks Tasks
    */
-  private void indexSparse(DBIDRef ref, SparseNumberVector obj) {
-    double len = 0.;
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
+  private static void runTasks(List<Callable<Void>> tasks) {
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
       }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
-    }
-    length.put(ref, len);
+    });
   }
 
-  /**
-   * Index a single (dense) instance.
-   * 
-   * @param ref Object reference
-   * @param obj Object to index.
-   */
-  private void indexDense(DBIDRef ref, V obj) {
-    double len = 0.;
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
-      }
-      len += val * val;
-      getOrCreateColumn(dim).add(val, ref);
-    }
-    length.put(ref, Math.sqrt(len));
+  @Override
+  public int getStorageVersion() {
+    return 2;
   }
 
-  /**
-   * Get (or create) a column.
-   * 
-   * @param dim Dimension
-   * @return Column
-   */
-  private ModifiableDoubleDBIDList getOrCreateColumn(int dim) {
-    while(dim >= index.size()) {
-      index.add(DBIDUtil.newDistanceDBIDList());
+  @Override
+  public void write(IndexFile.Writer out) throws IOException {
+    out.writeInt(lists.length);
+    for(PostingList list : lists) {
+      out.writeInt(list != null ? list.size : 0);
+      if(list != null) {
+        out.writeDouble(list.maxWeight);
+        out.writeInts(list.lastDoc);
+        out.writeInts(list.offsets);
+        out.writeBytes(list.deltas);
+        out.writeFloats(list.weights);
+      }
     }
-    return index.get(dim);
   }
 
-  /**
-   * Query the most similar objects, sparse version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
-   */
-  private double naiveQuerySparse(SparseNumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int iter = obj.iter(); obj.iterValid(iter); iter = obj.iterAdvance(iter)) {
-      final int dim = obj.iterDim(iter);
-      final double val = obj.iterDoubleValue(iter);
-      if(val == 0. || val != val) {
-        continue;
-      }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
+  @Override
+  public boolean read(IndexFile.Reader in) {
+    final int dims = in.readInt();
+    if(dims < 0) {
+      return false;
+    }
+    lists = new PostingList[dims];
+    for(int d = 0; d < dims; d++) {
+      final int size = in.readInt();
+      if(size == 0) {
         continue;
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+      final float maxWeight = (float) in.readDouble();
+      final int[] lastDoc = in.readInts(), offsets = in.readInts();
+      final byte[] deltas = in.readBytes();
+      final float[] weights = in.readFloats();
+      if(weights.length != size || lastDoc.length == 0 || lastDoc[lastDoc.length - 1] >= ids.size()) {
+        lists = null;
+        return false;
       }
+      lists[d] = new PostingList(maxWeight, lastDoc, offsets, deltas, weights);
     }
-    return Math.sqrt(len);
+    return true;
   }
 
   /**
-   * Query the most similar objects, dense version.
+   * Document-at-a-time query evaluation with MaxScore pruning.
    * 
    * @param obj Query object
-   * @param scores Score storage
-   * @param cands Non-zero objects set
-   * @return Result
+   * @param collector Candidate collector, also providing the threshold
    */
-  private double naiveQueryDense(NumberVector obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    double len = 0.; // Length of query object, for final normalization
-    for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
-      final double val = obj.doubleValue(dim);
-      if(val == 0. || val != val) {
-        continue;
+  private void search(V obj, Collector collector) {
+    TermBuffer terms = new TermBuffer();
+    terms.load(obj);
+    // Query terms with postings, and the maximum contribution of each.
+    int n = 0;
+    double[] bounds = new double[terms.size];
+    int[] order = new int[terms.size];
+    for(int i = 0; i < terms.size; i++) {
+      final int dim = terms.dims[i];
+      if(dim < lists.length && lists[dim] != null) {
+        bounds[n] = Math.abs(terms.vals[i] / terms.len) * lists[dim].maxWeight;
+        order[n++] = i;
+      }
+    }
+    if(n == 0) {
+      return;
+    }
+    // Sort by ascending bound, to find the non-essential lists quickly.
+    DoubleIntegerArrayQuickSort.sort(bounds, order, n);
+    final double[] weights = new double[n], cumulative = new double[n];
+    final PostingList.Cursor[] cursors = new PostingList.Cursor[n];
+    for(int i = 0; i < n; i++) {
+      weights[i] = terms.vals[order[i]] / terms.len;
+      cursors[i] = lists[terms.dims[order[i]]].cursor();
+      cumulative[i] = (i > 0 ? cumulative[i - 1] : 0.) + bounds[i];
+    }
+    // Bound for the float rounding of the weights.
+    final double slack = cumulative[n - 1] * 0x1p-23 + 0x1p-40;
+    DBIDArrayIter iter = ids.iter();
+    double threshold = collector.threshold() - slack;
+    int essential = 0;
+    while(essential < n && cumulative[essential] < threshold) {
+      essential++;
+    }
+    long postings = 0, candidates = 0;
+    while(essential < n) {
+      // Next document in any of the essential lists.
+      int doc = PostingList.NO_MORE_DOCS;
+      for(int i = essential; i < n; i++) {
+        final int d = cursors[i].doc();
+        doc = d < doc ? d : doc;
+      }
+      if(doc == PostingList.NO_MORE_DOCS) {
+        break;
+      }
+      double score = 0.;
+      for(int i = essential; i < n; i++) {
+        final PostingList.Cursor c = cursors[i];
+        if(c.doc() == doc) {
+          score += weights[i] * c.weight();
+          c.next();
+          ++postings;
+        }
+      }
+      // Probe the non-essential lists, as long as the bound is reached.
+      int i = essential - 1;
+      for(; i >= 0; i--) {
+        if(Math.abs(score) + cumulative[i] < threshold) {
+          break;
+        }
+        final PostingList.Cursor c = cursors[i];
+        c.advance(doc);
+        if(c.doc() == doc) {
+          score += weights[i] * c.weight();
+          ++postings;
+        }
       }
-      len += val * val;
-      // No matching documents in index:
-      if(dim >= index.size()) {
+      if(i >= 0 || Math.abs(score) < threshold) {
         continue;
       }
-      ModifiableDoubleDBIDList column = index.get(dim);
-      for(DoubleDBIDListIter n = column.iter(); n.valid(); n.advance()) {
-        scores.increment(n, n.doubleValue() * val);
-        cands.add(n);
+      iter.seek(doc);
+      collector.collect(iter);
+      ++candidates;
+      threshold = collector.threshold() - slack;
+      while(essential < n && cumulative[essential] < threshold) {
+        essential++;
       }
     }
-    return Math.sqrt(len);
-  }
-
-  /**
-   * Query the most similar objects, abstract version.
-   * 
-   * @param obj Query object
-   * @param scores Score storage (must be initialized with zeros!)
-   * @param cands Non-zero objects set (must be empty)
-   * @return Result
-   */
-  private double naiveQuery(V obj, WritableDoubleDataStore scores, HashSetModifiableDBIDs cands) {
-    if(obj instanceof SparseNumberVector) {
-      return naiveQuerySparse((SparseNumberVector) obj, scores, cands);
-    }
-    else {
-      return naiveQueryDense(obj, scores, cands);
+    if(scored != null) {
+      scored.add(postings);
+      refined.add(candidates);
     }
   }
 
   @Override
   public void logStatistics() {
     long count = 0L;
-    for(ModifiableDoubleDBIDList column : index) {
-      count += column.size();
+    for(PostingList list : lists) {
+      count += list != null ? list.size : 0;
     }
-    double sparsity = count / (index.size() * (double) relation.size());
+    double sparsity = count / (lists.length * (double) relation.size());
     LOG.statistics(new DoubleStatistic(this.getClass().getName() + ".sparsity", sparsity));
+    if(scored != null) {
+      LOG.statistics(scored);
+      LOG.statistics(refined);
+    }
   }
 
   @Override
@@ -290,39 +431,191 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * Non-zero entries of a vector, and its length.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static final class TermBuffer {
+    /**
+     * Dimensions.
+     */
+    int[] dims = new int[16];
+
+    /**
+     * Values.
+     */
+    double[] vals = new double[16];
+
+    /**
+     * Number of entries.
+     */
+    int size;
+
+    /**
+     * Euclidean length of the vector.
+     */
+    double len;
+
+    /**
+     * Load the non-zero entries of a vector.
+     * 
+     * @param obj Vector
+     */
+    void load(NumberVector obj) {
+      size = 0;
+      double sum = 0.;
+      if(obj instanceof SparseNumberVector) {
+        SparseNumberVector sobj = (SparseNumberVector) obj;
+        for(int iter = sobj.iter(); sobj.iterValid(iter); iter = sobj.iterAdvance(iter)) {
+          sum += add(sobj.iterDim(iter), sobj.iterDoubleValue(iter));
+        }
+      }
+      else {
+        for(int dim = 0, max = obj.getDimensionality(); dim < max; dim++) {
+          sum += add(dim, obj.doubleValue(dim));
+        }
+      }
+      len = Math.sqrt(sum);
+    }
+
+    /**
+     * Add an entry, unless it is zero or NaN.
+     * 
+     * @param dim Dimension
+     * @param val Value
+     * @return Squared value added to the length
+     */
+    private double add(int dim, double val) {
+      if(val == 0. || val != val) {
+        return 0.;
+      }
+      if(size == dims.length) {
+        dims = Arrays.copyOf(dims, size << 1);
+        vals = Arrays.copyOf(vals, size << 1);
+      }
+      dims[size] = dim;
+      vals[size++] = val;
+      return val * val;
+    }
+  }
+
+  /**
+   * Receives the candidates of a query.
    * 
    * @author Erich Schubert
    * 
    * @apiviz.exclude
    */
-  protected class CosineKNNQuery extends AbstractDistanceKNNQuery<V> {
+  private interface Collector {
+    /**
+     * Minimum absolute cosine similarity of a result.
+     * 
+     * @return Threshold
+     */
+    double threshold();
+
+    /**
+     * Refine a candidate.
+     * 
+     * @param id Candidate
+     */
+    void collect(DBIDRef id);
+  }
+
+  /**
+   * kNN query evaluated on the inverted lists.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected abstract class AbstractInvertedKNNQuery extends AbstractDistanceKNNQuery<V> {
     /**
      * Constructor.
      * 
      * @param distanceQuery Distance query
      */
-    public CosineKNNQuery(DistanceQuery<V> distanceQuery) {
+    public AbstractInvertedKNNQuery(DistanceQuery<V> distanceQuery) {
       super(distanceQuery);
     }
 
+    /**
+     * Minimum absolute cosine similarity of objects within a distance.
+     * 
+     * @param distance Distance
+     * @return Similarity threshold
+     */
+    protected abstract double similarityThreshold(double distance);
+
     @Override
-    public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = 1. - scores.doubleValue(n) / (length.doubleValue(n) * len);
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
+    public KNNList getKNNForObject(final V obj, final int k) {
+      final KNNHeap heap = DBIDUtil.newHeap(k);
+      search(obj, new Collector() {
+        @Override
+        public double threshold() {
+          return heap.size() < k ? Double.NEGATIVE_INFINITY : similarityThreshold(heap.getKNNDistance());
         }
-      }
 
+        @Override
+        public void collect(DBIDRef id) {
+          final double dist = distanceQuery.distance(obj, id);
+          if(heap.getKNNDistance() >= dist) {
+            heap.insert(dist, id);
+          }
+        }
+      });
       return heap.toKNNList();
     }
+
+    /**
+     * Answers the queries independently, using all available cores.
+     */
+    @Override
+    public List<KNNList> getKNNForBulkDBIDs(final ArrayDBIDs ids, final int k) {
+      final KNNList[] result = new KNNList[ids.size()];
+      final int size = ids.size();
+      final int blocks = Math.max(1, Math.min(ParallelCore.ALL_PROCESSORS << 2, size / MIN_BULK_BLOCK));
+      List<Callable<Void>> tasks = new ArrayList<>(blocks);
+      for(int b = 0; b < blocks; b++) {
+        final int start = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+        tasks.add(new Callable<Void>() {
+          @Override
+          public Void call() {
+            for(DBIDArrayIter iter = ids.iter().seek(start); iter.getOffset() < end; iter.advance()) {
+              result[iter.getOffset()] = getKNNForObject(relation.get(iter), k);
+            }
+            return null;
+          }
+        });
+      }
+      runTasks(tasks);
+      return Arrays.asList(result);
+    }
+  }
+
+  /**
+   * kNN query object, for cosine distance.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class CosineKNNQuery extends AbstractInvertedKNNQuery {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public CosineKNNQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    protected double similarityThreshold(double distance) {
+      return 1. - distance;
+    }
   }
 
   /**
@@ -332,7 +625,7 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
    * 
    * @apiviz.exclude
    */
-  protected class ArcCosineKNNQuery extends AbstractDistanceKNNQuery<V> {
+  protected class ArcCosineKNNQuery extends AbstractInvertedKNNQuery {
     /**
      * Constructor.
      * 
@@ -343,69 +636,90 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public KNNList getKNNForObject(V obj, int k) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // TODO: delay the division by len and acos!
-      KNNHeap heap = DBIDUtil.newHeap(k);
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double dist = Math.acos(scores.doubleValue(n) / (length.doubleValue(n) * len));
-        if(heap.getKNNDistance() >= dist) {
-          heap.insert(dist, n);
-        }
-      }
-
-      return heap.toKNNList();
+    protected double similarityThreshold(double distance) {
+      return distance < MathUtil.HALFPI ? Math.cos(distance) : 0.;
     }
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * Range query evaluated on the inverted lists.
    * 
    * @author Erich Schubert
    * 
    * @apiviz.exclude
    */
-  protected class CosineRangeQuery extends AbstractDistanceRangeQuery<V> {
+  protected abstract class AbstractInvertedRangeQuery extends AbstractDistanceRangeQuery<V> {
     /**
      * Constructor.
      * 
      * @param distanceQuery Distance query
      */
-    public CosineRangeQuery(DistanceQuery<V> distanceQuery) {
+    public AbstractInvertedRangeQuery(DistanceQuery<V> distanceQuery) {
       super(distanceQuery);
     }
 
+    /**
+     * Minimum absolute cosine similarity of objects within a distance.
+     * 
+     * @param distance Distance
+     * @return Similarity threshold
+     */
+    protected abstract double similarityThreshold(double distance);
+
     @Override
-    public DoubleDBIDList getRangeForObject(V obj, double range) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList();
-      // dist = 1 - sim/len <-> sim = len * (1-dist)
-      double simrange = (1. - range) * len;
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          list.add(1. - sim / len, n);
+    public DoubleDBIDList getRangeForObject(final V obj, final double range) {
+      final ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList();
+      final double simrange = similarityThreshold(range);
+      search(obj, new Collector() {
+        @Override
+        public double threshold() {
+          return simrange;
         }
-      }
+
+        @Override
+        public void collect(DBIDRef id) {
+          final double dist = distanceQuery.distance(obj, id);
+          if(dist <= range) {
+            list.add(dist, id);
+          }
+        }
+      });
       list.sort();
       return list;
     }
   }
 
   /**
-   * kNN query object, for cosine distance.
+   * Range query object, for cosine distance.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class CosineRangeQuery extends AbstractInvertedRangeQuery {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public CosineRangeQuery(DistanceQuery<V> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    protected double similarityThreshold(double distance) {
+      return 1. - distance;
+    }
+  }
+
+  /**
+   * Range query object, for arc cosine distance.
    * 
    * @author Erich Schubert
    * 
    * @apiviz.exclude
    */
-  protected class ArcCosineRangeQuery extends AbstractDistanceRangeQuery<V> {
+  protected class ArcCosineRangeQuery extends AbstractInvertedRangeQuery {
     /**
      * Constructor.
      * 
@@ -416,22 +730,8 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
     }
 
     @Override
-    public DoubleDBIDList getRangeForObject(V obj, double range) {
-      HashSetModifiableDBIDs cands = DBIDUtil.newHashSet();
-      WritableDoubleDataStore scores = DataStoreUtil.makeDoubleStorage(cands, //
-          DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
-      double len = naiveQuery(obj, scores, cands);
-      // dist = acos(sim/len) <-> sim = cos(dist)*len
-      double simrange = Math.cos(range) * len;
-      ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList();
-      for(DBIDIter n = cands.iter(); n.valid(); n.advance()) {
-        double sim = scores.doubleValue(n) / length.doubleValue(n);
-        if(sim >= simrange) {
-          list.add(Math.acos(sim / len), n);
-        }
-      }
-      list.sort();
-      return list;
+    protected double similarityThreshold(double distance) {
+      return distance < MathUtil.HALFPI ? Math.cos(distance) : 0.;
     }
   }
 
@@ -445,9 +745,31 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
    * @param <V> Vector type
    */
   public static class Factory<V extends NumberVector> implements IndexFactory<V, InMemoryInvertedIndex<V>> {
+    /**
+     * File to store the index in, may be {@code null}.
+     */
+    File file;
+
+    /**
+     * Constructor.
+     */
+    public Factory() {
+      this(null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param file File to store the index in, may be {@code null}
+     */
+    public Factory(File file) {
+      super();
+      this.file = file;
+    }
+
     @Override
     public InMemoryInvertedIndex<V> instantiate(Relation<V> relation) {
-      return new InMemoryInvertedIndex<>(relation);
+      return new InMemoryInvertedIndex<>(relation, file);
     }
 
     @Override
@@ -465,9 +787,28 @@ public class InMemoryInvertedIndex<V extends NumberVector> extends AbstractIndex
      * @param <V> Vector type
      */
     public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Option to store the index in a file.
+       */
+      public static final OptionID FILE_ID = new OptionID("invertedindex.file", "File to store the index in. If the file exists and matches the data, the index is loaded instead of rebuilt.");
+
+      /**
+       * File to store the index in.
+       */
+      File file;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          file = fileP.getValue();
+        }
+      }
+
       @Override
       protected Factory<V> makeInstance() {
-        return new Factory<>();
+        return new Factory<>(file);
       }
     }
   }
@@ -0,0 +1,257 @@
+package de.lmu.ifi.dbs.elki.index.invertedlist;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+
+/**
+ * Compressed posting list of a single dimension.
+ * 
+ * Postings are sorted by document number, and stored in blocks of
+ * {@link #BLOCK_SIZE} postings. Document numbers are delta encoded as
+ * variable-length integers, weights are stored as floats. The last document
+ * of each block is kept uncompressed, so that cursors can skip whole blocks
+ * without decoding them.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has Cursor
+ */
+class PostingList {
+  /**
+   * Number of postings per block.
+   */
+  static final int BLOCK_SIZE = 128;
+
+  /**
+   * Document number used by exhausted cursors.
+   */
+  static final int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+  /**
+   * Number of postings.
+   */
+  final int size;
+
+  /**
+   * Largest absolute weight in this list.
+   */
+  final float maxWeight;
+
+  /**
+   * Last document number of each block.
+   */
+  final int[] lastDoc;
+
+  /**
+   * Offset of each block in {@link #deltas}, with a final end marker.
+   */
+  final int[] offsets;
+
+  /**
+   * Delta encoded document numbers.
+   */
+  final byte[] deltas;
+
+  /**
+   * Weights of the postings.
+   */
+  final float[] weights;
+
+  /**
+   * Constructor.
+   * 
+   * @param docs Document numbers, ascending
+   * @param weights Weights
+   * @param size Number of postings
+   */
+  PostingList(int[] docs, float[] weights, int size) {
+    final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    this.size = size;
+    this.weights = weights.length == size ? weights : Arrays.copyOf(weights, size);
+    this.lastDoc = new int[blocks];
+    this.offsets = new int[blocks + 1];
+    int bytes = 0;
+    for(int i = 0, prev = 0; i < size; prev = docs[i++]) {
+      bytes += ByteArrayUtil.getUnsignedVarintSize(docs[i] - prev);
+    }
+    ByteBuffer buf = ByteBuffer.allocate(bytes);
+    float max = 0.f;
+    for(int b = 0, i = 0, prev = 0; b < blocks; b++) {
+      offsets[b] = buf.position();
+      for(int end = Math.min(i + BLOCK_SIZE, size); i < end; prev = docs[i++]) {
+        ByteArrayUtil.writeUnsignedVarint(buf, docs[i] - prev);
+        final float w = Math.abs(weights[i]);
+        max = w > max ? w : max;
+      }
+      lastDoc[b] = prev;
+    }
+    offsets[blocks] = buf.position();
+    this.deltas = buf.array();
+    this.maxWeight = max;
+  }
+
+  /**
+   * Constructor for previously encoded data.
+   * 
+   * @param maxWeight Largest absolute weight
+   * @param lastDoc Last document of each block
+   * @param offsets Block offsets
+   * @param deltas Encoded document numbers
+   * @param weights Weights
+   */
+  PostingList(float maxWeight, int[] lastDoc, int[] offsets, byte[] deltas, float[] weights) {
+    if(offsets.length != lastDoc.length + 1 || (weights.length + BLOCK_SIZE - 1) / BLOCK_SIZE != lastDoc.length) {
+      throw new IllegalArgumentException("Inconsistent posting list.");
+    }
+    this.size = weights.length;
+    this.maxWeight = maxWeight;
+    this.lastDoc = lastDoc;
+    this.offsets = offsets;
+    this.deltas = deltas;
+    this.weights = weights;
+  }
+
+  /**
+   * Open a new cursor, positioned at the first posting.
+   * 
+   * @return Cursor
+   */
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Cursor over the postings, decoding one block at a time.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  final class Cursor {
+    /**
+     * Encoded data.
+     */
+    private final ByteBuffer buf = ByteBuffer.wrap(deltas);
+
+    /**
+     * Decoded document numbers of the current block.
+     */
+    private final int[] docs = new int[BLOCK_SIZE];
+
+    /**
+     * Current block, position within the block and block length.
+     */
+    private int block = -1, pos, len;
+
+    /**
+     * Current document, or {@link #NO_MORE_DOCS}.
+     */
+    private int doc;
+
+    /**
+     * Constructor.
+     */
+    Cursor() {
+      load(0);
+    }
+
+    /**
+     * Current document number.
+     * 
+     * @return Document number, {@link #NO_MORE_DOCS} when exhausted
+     */
+    int doc() {
+      return doc;
+    }
+
+    /**
+     * Weight of the current posting.
+     * 
+     * @return Weight
+     */
+    float weight() {
+      return weights[block * BLOCK_SIZE + pos];
+    }
+
+    /**
+     * Advance to the next posting.
+     */
+    void next() {
+      if(++pos < len) {
+        doc = docs[pos];
+        return;
+      }
+      load(block + 1);
+    }
+
+    /**
+     * Advance to the first posting with a document number of at least
+     * {@code target}.
+     * 
+     * @param target Target document
+     */
+    void advance(int target) {
+      if(doc >= target) {
+        return;
+      }
+      if(lastDoc[block] < target) {
+        int b = Arrays.binarySearch(lastDoc, block + 1, lastDoc.length, target);
+        load(b >= 0 ? b : -b - 1);
+        if(doc >= target) {
+          return;
+        }
+      }
+      while(docs[++pos] < target) {
+        // Skip. The block contains the target by construction.
+      }
+      doc = docs[pos];
+    }
+
+    /**
+     * Decode a block.
+     * 
+     * @param b Block number
+     */
+    private void load(int b) {
+      block = b;
+      pos = 0;
+      if(b >= lastDoc.length) {
+        len = 0;
+        doc = NO_MORE_DOCS;
+        return;
+      }
+      len = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+      buf.position(offsets[b]);
+      int prev = b > 0 ? lastDoc[b - 1] : 0;
+      for(int i = 0; i < len; i++) {
+        docs[i] = prev += ByteArrayUtil.readUnsignedVarint(buf);
+      }
+      doc = docs[0];
+    }
+  }
+}
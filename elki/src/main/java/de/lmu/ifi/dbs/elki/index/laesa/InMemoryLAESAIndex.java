@@ -0,0 +1,559 @@
+package de.lmu.ifi.dbs.elki.index.laesa;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.FarthestPointsInitialMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMedoidsInitialization;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * In-memory pivot table index (LAESA), a metric index for expensive distance
+ * functions.
+ * 
+ * The distances of every object to a small set of pivots are stored in a
+ * single, flat float array, one row per object. A query computes its distances
+ * to the pivots, then scans the table using the triangle inequality lower
+ * bound \(\max_p |d(q,p)-d(o,p)|\leq d(q,o)\), and only refines the remaining
+ * candidates with the actual distance function. kNN queries refine the
+ * candidates in ascending order of their lower bound, and stop as soon as the
+ * lower bound exceeds the current kNN distance.
+ * 
+ * The pivot table is computed in parallel. Each query runs in the calling
+ * thread, as starting threads costs more than scanning the table; parallel
+ * algorithms run many queries concurrently instead.
+ * 
+ * Reference:
+ * <p>
+ * M. L. Micó, J. Oncina, E. Vidal<br />
+ * A new version of the nearest-neighbour approximating and eliminating search
+ * algorithm (AESA) with linear preprocessing time and memory requirements<br />
+ * Pattern Recognition Letters 15(1)
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @param <O> Object type
+ */
+@Reference(authors = "M. L. Micó, J. Oncina, E. Vidal", title = "A new version of the nearest-neighbour approximating and eliminating search algorithm (AESA) with linear preprocessing time and memory requirements", booktitle = "Pattern Recognition Letters 15(1)", url = "http://dx.doi.org/10.1016/0167-8655(94)90095-7")
+public class InMemoryLAESAIndex<O> extends AbstractRefiningIndex<O> implements RangeIndex<O>, KNNIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(InMemoryLAESAIndex.class);
+
+  /**
+   * Distance query.
+   */
+  private DistanceQuery<O> distanceQuery;
+
+  /**
+   * Initialization method.
+   */
+  private KMedoidsInitialization<O> initialization;
+
+  /**
+   * Number of pivots requested.
+   */
+  private int numpivots;
+
+  /**
+   * Object ids, in table order. The pivots come first.
+   */
+  private ArrayModifiableDBIDs ids;
+
+  /**
+   * Number of pivots.
+   */
+  private int m;
+
+  /**
+   * Pivot table, m distances per object.
+   */
+  private float[] table;
+
+  /**
+   * Tolerance for the rounding of table entries to float.
+   */
+  private double slack;
+
+  /**
+   * Number of objects scanned.
+   */
+  private final StripedLongCounter scanned;
+
+  /**
+   * Number of objects pruned without refinement.
+   */
+  private final StripedLongCounter pruned;
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Data relation
+   * @param distance Distance
+   * @param initialization Initialization method
+   * @param numpivots Number of pivots
+   */
+  public InMemoryLAESAIndex(Relation<O> relation, DistanceQuery<O> distance, KMedoidsInitialization<O> initialization, int numpivots) {
+    super(relation);
+    this.distanceQuery = distance;
+    this.initialization = initialization;
+    this.numpivots = numpivots;
+    if(!distance.getDistanceFunction().isMetric()) {
+      LOG.warning("LAESA assumes metric distance functions.\n" //
+          + distance.getDistanceFunction().getClass() + " does not report itself as metric.\n" //
+          + "LAESA will run, but may yield approximate results.");
+    }
+    if(LOG.isStatistics()) {
+      final String prefix = InMemoryLAESAIndex.class.getName();
+      scanned = new StripedLongCounter(prefix + ".scanned");
+      pruned = new StripedLongCounter(prefix + ".pruned");
+    }
+    else {
+      scanned = null;
+      pruned = null;
+    }
+  }
+
+  @Override
+  public void initialize() {
+    ArrayDBIDs pivots = DBIDUtil.ensureArray(initialization.chooseInitialMedoids(numpivots, relation.getDBIDs(), distanceQuery));
+    m = pivots.size();
+    final int size = relation.size();
+    if((long) size * m > Integer.MAX_VALUE) {
+      throw new AbortException("Pivot table too large: " + size + " objects times " + m + " pivots.");
+    }
+    DBIDs pset = DBIDUtil.ensureSet(pivots);
+    ids = DBIDUtil.newArray(size);
+    ids.addDBIDs(pivots);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      if(!pset.contains(iter)) {
+        ids.add(iter);
+      }
+    }
+    table = new float[size * m];
+    // Distance computations dominate, so always use all processors.
+    final int blocks = Math.max(1, Math.min(ParallelCore.ALL_PROCESSORS, size));
+    final double[] max = new double[blocks];
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int block = b;
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DBIDArrayIter iter = ids.iter(), piter = ids.iter();
+          double mx = 0.;
+          for(int i = begin, off = begin * m; i < end; i++) {
+            iter.seek(i);
+            for(int p = 0; p < m; p++, off++) {
+              final double d = distanceQuery.distance(iter, piter.seek(p));
+              table[off] = (float) d;
+              mx = d > mx ? d : mx;
+            }
+          }
+          max[block] = mx;
+          return null;
+        }
+      });
+    }
+    runBlocks(tasks);
+    double mx = 0.;
+    for(double d : max) {
+      mx = d > mx ? d : mx;
+    }
+    // Float rounding error is at most half an ulp of the largest entry.
+    slack = Math.ulp((float) mx);
+  }
+
+  /**
+   * Scan the pivot table for candidates, i.e. non-pivot objects whose lower
+   * bound does not exceed the threshold.
+   * 
+   * @param qd Distances of the query object to the pivots
+   * @param threshold Distance threshold
+   * @param lbs Output array for the lower bounds of the candidates
+   * @param rows Output array for the table rows of the candidates
+   * @return Number of candidates
+   */
+  protected int filter(double[] qd, double threshold, double[] lbs, int[] rows) {
+    final int size = ids.size();
+    final double bound = threshold + slack;
+    int cand = 0;
+    for(int i = m, off = m * m; i < size; i++, off += m) {
+      double lb = 0.;
+      for(int p = 0; p < m; p++) {
+        final double d = Math.abs(qd[p] - table[off + p]);
+        lb = d > lb ? d : lb;
+      }
+      if(lb <= bound) {
+        lbs[cand] = lb;
+        rows[cand] = i;
+        ++cand;
+      }
+    }
+    return cand;
+  }
+
+  /**
+   * Run tasks on all processors.
+   * 
+   * @param tasks Tasks to run
+   */
+  private static void runBlocks(List<Callable<Void>> tasks) {
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+  }
+
+  /**
+   * Count scanned and pruned objects, if statistics are enabled.
+   * 
+   * @param s Number of objects scanned
+   * @param p Number of objects pruned
+   */
+  private void countScan(int s, int p) {
+    if(scanned != null) {
+      scanned.add(s);
+      pruned.add(p);
+    }
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.getDistanceFunction().equals(distanceFunction)) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return null;
+    }
+    return new LAESAKNNQuery(distanceQuery);
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.getDistanceFunction().equals(distanceFunction)) {
+      if(LOG.isDebugging()) {
+        LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      }
+      return null;
+    }
+    return new LAESARangeQuery(distanceQuery);
+  }
+
+  /**
+   * Distance function.
+   * 
+   * @return Distance function
+   */
+  private DistanceFunction<? super O> getDistanceFunction() {
+    return distanceQuery.getDistanceFunction();
+  }
+
+  @Override
+  public String getLongName() {
+    return "LAESA pivot table index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "laesa-index";
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    final String prefix = InMemoryLAESAIndex.class.getName();
+    LOG.statistics(new LongStatistic(prefix + ".pivots", m));
+    if(scanned != null) {
+      LOG.statistics(scanned);
+      LOG.statistics(pruned);
+      final long s = scanned.getValue();
+      LOG.statistics(new DoubleStatistic(prefix + ".pruning-ratio", s > 0 ? pruned.getValue() / (double) s : 0.));
+    }
+  }
+
+  /**
+   * kNN query implementation.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class LAESAKNNQuery extends AbstractRefiningIndex<O>.AbstractKNNQuery {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public LAESAKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      final double[] qd = new double[m];
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      DBIDArrayIter iter = ids.iter();
+      for(int p = 0; p < m; p++) {
+        qd[p] = refine(iter.seek(p), obj);
+        heap.insert(qd[p], iter);
+      }
+      final int size = ids.size();
+      final double[] lbs = new double[size];
+      final int[] rows = new int[size];
+      final int cand = filter(qd, heap.getKNNDistance(), lbs, rows);
+      DoubleIntegerArrayQuickSort.sort(lbs, rows, cand);
+      // Refine in ascending order of the lower bounds.
+      double kdist = heap.getKNNDistance();
+      int refined = 0;
+      for(; refined < cand && lbs[refined] <= kdist + slack; refined++) {
+        final double dist = refine(iter.seek(rows[refined]), obj);
+        if(dist <= kdist) {
+          heap.insert(dist, iter);
+          kdist = heap.getKNNDistance();
+        }
+      }
+      countScan(size - m, size - m - refined);
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Exact Range query implementation.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class LAESARangeQuery extends AbstractRefiningIndex<O>.AbstractRangeQuery {
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     */
+    public LAESARangeQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForObject(O obj, double range) {
+      final double[] qd = new double[m];
+      ModifiableDoubleDBIDList result = DBIDUtil.newDistanceDBIDList();
+      DBIDArrayIter iter = ids.iter();
+      for(int p = 0; p < m; p++) {
+        qd[p] = refine(iter.seek(p), obj);
+        if(qd[p] <= range) {
+          result.add(qd[p], iter);
+        }
+      }
+      final int size = ids.size();
+      final double[] lbs = new double[size];
+      final int[] rows = new int[size];
+      final int cand = filter(qd, range, lbs, rows);
+      incRefinements(cand);
+      countScan(size - m, size - m - cand);
+      for(int i = 0; i < cand; i++) {
+        final double dist = distanceQuery.distance(obj, iter.seek(rows[i]));
+        if(dist <= range) {
+          result.add(dist, iter);
+        }
+      }
+      result.sort();
+      return result;
+    }
+  }
+
+  /**
+   * Index factory for LAESA indexes.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.has InMemoryLAESAIndex
+   * 
+   * @param <V> Data type.
+   */
+  public static class Factory<V> implements IndexFactory<V, InMemoryLAESAIndex<V>> {
+    /**
+     * Distance function to use.
+     */
+    DistanceFunction<? super V> distance;
+
+    /**
+     * Initialization method.
+     */
+    KMedoidsInitialization<V> initialization;
+
+    /**
+     * Number of pivots
+     */
+    int m;
+
+    /**
+     * Constructor.
+     * 
+     * @param distance Distance function
+     * @param initialization Initialization method
+     * @param m Number of pivots
+     */
+    public Factory(DistanceFunction<? super V> distance, KMedoidsInitialization<V> initialization, int m) {
+      super();
+      this.distance = distance;
+      this.initialization = initialization;
+      this.m = m;
+    }
+
+    @Override
+    public InMemoryLAESAIndex<V> instantiate(Relation<V> relation) {
+      return new InMemoryLAESAIndex<>(relation, distance.instantiate(relation), initialization, m);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distance.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     * 
+     * @param <V> object type.
+     */
+    public static class Parameterizer<V> extends AbstractParameterizer {
+      /**
+       * Parameter for the distance function
+       */
+      public static final OptionID DISTANCE_ID = new OptionID("laesa.distance", "Distance function to build the index for.");
+
+      /**
+       * Initialization method.
+       */
+      public static final OptionID REFERENCE_ID = new OptionID("laesa.reference", "Method to choose the pivots.");
+
+      /**
+       * Number of pivots.
+       */
+      public static final OptionID M_ID = new OptionID("laesa.m", "Number of pivots to use.");
+
+      /**
+       * Distance function to use.
+       */
+      DistanceFunction<? super V> distance;
+
+      /**
+       * Initialization method.
+       */
+      KMedoidsInitialization<V> initialization;
+
+      /**
+       * Number of pivots
+       */
+      int m;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super V>> distanceP = new ObjectParameter<>(DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distance = distanceP.instantiateClass(config);
+        }
+
+        ObjectParameter<KMedoidsInitialization<V>> initializationP = new ObjectParameter<>(REFERENCE_ID, KMedoidsInitialization.class, FarthestPointsInitialMeans.class);
+        if(config.grab(initializationP)) {
+          initialization = initializationP.instantiateClass(config);
+        }
+
+        IntParameter mP = new IntParameter(M_ID)//
+        .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+      }
+
+      @Override
+      protected InMemoryLAESAIndex.Factory<V> makeInstance() {
+        return new InMemoryLAESAIndex.Factory<>(distance, initialization, m);
+      }
+    }
+  }
+}
@@ -22,20 +22,22 @@ package de.lmu.ifi.dbs.elki.index.lsh;
  You should have received a copy of the GNU Affero General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
-import gnu.trove.iterator.TIntObjectIterator;
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.iterator.TIntIterator;
+import gnu.trove.set.hash.TIntHashSet;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
-import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -47,21 +49,36 @@ import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
  * Locality Sensitive Hashing.
  * 
+ * Each hash table is stored in compressed sparse row layout: an array of
+ * bucket start positions, and a single array of object offsets sorted by
+ * bucket. The hash tables are built in parallel.
+ * 
+ * With multi-probe queries, hash functions implementing
+ * {@link MultiProbeLocalitySensitiveHashFunction} also visit the neighboring
+ * buckets most likely to contain near neighbors, which yields the same recall
+ * with much fewer hash tables.
+ * 
  * @author Erich Schubert
  * 
  * @apiviz.has LocalitySensitiveHashFunctionFamily
@@ -75,6 +92,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    */
   private static final Logging LOG = Logging.getLogger(InMemoryLSHIndex.class);
 
+  /**
+   * Number of objects used to verify the hash functions of a stored index.
+   */
+  private static final int VERIFY_SAMPLE = 8;
+
   /**
    * LSH hash function family to use.
    */
@@ -90,6 +112,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    */
   int numberOfBuckets;
 
+  /**
+   * Number of additional buckets to probe.
+   */
+  int probes;
+
+  /**
+   * File to store the hash tables in, may be {@code null}.
+   */
+  File file;
+
   /**
    * Constructor.
    * 
@@ -98,15 +130,42 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of additional buckets to probe in each table.
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
+    this(family, l, numberOfBuckets, probes, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of additional buckets to probe in each table.
+   * @param file File to store the hash tables in, may be {@code null}
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes, File file) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
+    this.file = file;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -121,32 +180,63 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
    * 
    * @apiviz.has LocalitySensitiveHashFunction
    */
-  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V>, StorableIndex {
     /**
      * Hash functions to use.
      */
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * Indexed objects, for array addressing.
      */
-    ArrayList<TIntObjectMap<DBIDs>> hashtables;
+    ArrayDBIDs ids;
+
+    /**
+     * Start of each bucket in {@link #members}, for each hash table (with an
+     * additional end marker).
+     */
+    int[][] starts;
+
+    /**
+     * Offsets of the objects in {@link #ids}, sorted by bucket, for each hash
+     * table.
+     */
+    int[][] members;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe.
+     */
+    private int probes;
+
     /**
      * Constructor.
      * 
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets
      */
     public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+      this(relation, hashfunctions, numberOfBuckets, 0);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param relation Relation to index.
+     * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets
+     * @param probes Number of additional buckets to probe in each table
+     */
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
     }
 
     @Override
@@ -162,47 +252,32 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
     @Override
     public void initialize() {
       final int numhash = hashfunctions.size();
-      hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new TIntObjectHashMap<DBIDs>(numberOfBuckets));
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      if(IndexFile.load(file, relation, this)) {
+        return;
       }
+      starts = new int[numhash][];
+      members = new int[numhash][];
 
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index.", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
-          }
-        }
-        LOG.incrementProcessed(progress);
+      final FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH hash tables.", numhash, LOG) : null;
+      ArrayList<TableBuilder> tasks = new ArrayList<>(numhash);
+      for(int i = 0; i < numhash; i++) {
+        tasks.add(new TableBuilder(i));
       }
+      BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+        @Override
+        public void handleResult(int i, Void result) {
+          LOG.incrementProcessed(progress);
+        }
+      });
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
         for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          for(TIntObjectIterator<DBIDs> iter = table.iterator(); iter.hasNext();) {
-            iter.advance();
-            int size = iter.value().size();
-            if(size < min) {
+          final int[] start = starts[i];
+          for(int b = 0; b < numberOfBuckets; b++) {
+            final int size = start[b + 1] - start[b];
+            if(size > 0 && size < min) {
               min = size;
             }
             if(size > max) {
@@ -212,8 +287,113 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
         }
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.min", min));
         LOG.statistics(new LongStatistic(this.getClass().getName() + ".fill.max", max));
-        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", hashtables.size()));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".hashtables", numhash));
       }
+      IndexFile.save(file, relation, this);
+    }
+
+    @Override
+    public int getStorageVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(IndexFile.Writer out) throws IOException {
+      final int numhash = hashfunctions.size();
+      out.writeInt(numberOfBuckets);
+      out.writeInt(numhash);
+      // Buckets of a few objects, to verify the hash functions on load.
+      final int sample = Math.min(VERIFY_SAMPLE, ids.size());
+      out.writeInt(sample);
+      for(DBIDArrayIter iter = ids.iter(); iter.getOffset() < sample; iter.advance()) {
+        final V obj = relation.get(iter);
+        for(int i = 0; i < numhash; i++) {
+          out.writeInt(bucket(hashfunctions.get(i).hashObject(obj)));
+        }
+      }
+      for(int i = 0; i < numhash; i++) {
+        out.writeInts(starts[i]);
+        out.writeInts(members[i]);
+      }
+    }
+
+    @Override
+    public boolean read(IndexFile.Reader in) {
+      final int numhash = hashfunctions.size();
+      if(in.readInt() != numberOfBuckets || in.readInt() != numhash) {
+        return false;
+      }
+      // Hash functions are random, and only reproducible with a fixed seed.
+      final int sample = in.readInt();
+      if(sample != Math.min(VERIFY_SAMPLE, ids.size())) {
+        return false;
+      }
+      for(DBIDArrayIter iter = ids.iter(); iter.getOffset() < sample; iter.advance()) {
+        final V obj = relation.get(iter);
+        for(int i = 0; i < numhash; i++) {
+          if(in.readInt() != bucket(hashfunctions.get(i).hashObject(obj))) {
+            LOG.warning("Stored LSH index uses different hash functions, rebuilding. Use a fixed random seed to reuse stored indexes.");
+            return false;
+          }
+        }
+      }
+      starts = new int[numhash][];
+      members = new int[numhash][];
+      for(int i = 0; i < numhash; i++) {
+        starts[i] = in.readInts();
+        members[i] = in.readInts();
+        if(starts[i].length != numberOfBuckets + 1 || members[i].length != ids.size()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Reduce a hash code to the hash table size.
+     * 
+     * @param hash Hash code
+     * @return Bucket number
+     */
+    private int bucket(int hash) {
+      final int b = hash % numberOfBuckets;
+      return b < 0 ? b + numberOfBuckets : b;
+    }
+
+    /**
+     * Get the hash codes of the buckets to visit for a query.
+     * 
+     * @param hashfunc Hash function
+     * @param obj Query object
+     * @return Hash codes
+     */
+    @SuppressWarnings("unchecked")
+    private int[] probe(LocalitySensitiveHashFunction<? super V> hashfunc, V obj) {
+      if(probes > 0 && hashfunc instanceof MultiProbeLocalitySensitiveHashFunction) {
+        return ((MultiProbeLocalitySensitiveHashFunction<? super V>) hashfunc).hashProbes(obj, probes);
+      }
+      return new int[] { hashfunc.hashObject(obj) };
+    }
+
+    /**
+     * Collect the candidates of a query from all hash tables.
+     * 
+     * @param obj Query object
+     * @return Offsets of the candidate objects
+     */
+    protected TIntHashSet getCandidates(V obj) {
+      TIntHashSet candidates = new TIntHashSet();
+      final int numhash = hashfunctions.size();
+      for(int i = 0; i < numhash; i++) {
+        final int[] start = starts[i], mem = members[i];
+        for(int hash : probe(hashfunctions.get(i), obj)) {
+          final int b = bucket(hash);
+          for(int j = start[b], end = start[b + 1]; j < end; j++) {
+            candidates.add(mem[j]);
+          }
+        }
+      }
+      return candidates;
     }
 
     @Override
@@ -249,6 +429,55 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
       return new LSHRangeQuery(distanceQuery);
     }
 
+    /**
+     * Build a single hash table.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class TableBuilder implements Callable<Void> {
+      /**
+       * Hash table number.
+       */
+      private final int table;
+
+      /**
+       * Constructor.
+       * 
+       * @param table Hash table number
+       */
+      TableBuilder(int table) {
+        this.table = table;
+      }
+
+      @Override
+      public Void call() {
+        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(table);
+        final int size = ids.size();
+        // Count the bucket sizes:
+        final int[] bucket = new int[size];
+        final int[] start = new int[numberOfBuckets + 1];
+        for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+          final int b = bucket(hashfunc.hashObject(relation.get(iter)));
+          bucket[iter.getOffset()] = b;
+          ++start[b + 1];
+        }
+        for(int b = 0; b < numberOfBuckets; b++) {
+          start[b + 1] += start[b];
+        }
+        // Fill the buckets:
+        final int[] pos = Arrays.copyOf(start, numberOfBuckets);
+        final int[] mem = new int[size];
+        for(int i = 0; i < size; i++) {
+          mem[pos[bucket[i]]++] = i;
+        }
+        starts[table] = start;
+        members[table] = mem;
+        return null;
+      }
+    }
+
     /**
      * Class for handling kNN queries against the LSH index.
      * 
@@ -268,33 +497,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
 
       @Override
       public KNNList getKNNForObject(V obj, int k) {
-        ModifiableDBIDs candidates = null;
-        final int numhash = hashtables.size();
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur != null) {
-            if(candidates == null) {
-              candidates = DBIDUtil.newHashSet(cur.size() * numhash + k);
-            }
-            candidates.addDBIDs(cur);
-          }
-        }
-        if(candidates == null) {
-          candidates = DBIDUtil.newArray();
-        }
+        TIntHashSet candidates = getCandidates(obj);
 
         // Refine.
         KNNHeap heap = DBIDUtil.newHeap(k);
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
-          final double dist = distanceQuery.distance(obj, iter);
+        DBIDArrayIter it = ids.iter();
+        for(TIntIterator iter = candidates.iterator(); iter.hasNext();) {
+          it.seek(iter.next());
+          final double dist = distanceQuery.distance(obj, it);
           super.incRefinements(1);
-          heap.insert(dist, iter);
+          heap.insert(dist, it);
         }
         return heap.toKNNList();
       }
@@ -319,28 +531,17 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
 
       @Override
       public DoubleDBIDList getRangeForObject(V obj, double range) {
-        ModifiableDBIDs candidates = DBIDUtil.newHashSet();
-        final int numhash = hashtables.size();
-        for(int i = 0; i < numhash; i++) {
-          final TIntObjectMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
-          // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj);
-          // Reduce to hash table size
-          int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur != null) {
-            candidates.addDBIDs(cur);
-          }
-        }
+        TIntHashSet candidates = getCandidates(obj);
 
         // Refine.
         ModifiableDoubleDBIDList result = DBIDUtil.newDistanceDBIDList();
-        for(DBIDIter iter = candidates.iter(); iter.valid(); iter.advance()) {
-          final double dist = distanceQuery.distance(obj, iter);
+        DBIDArrayIter it = ids.iter();
+        for(TIntIterator iter = candidates.iterator(); iter.hasNext();) {
+          it.seek(iter.next());
+          final double dist = distanceQuery.distance(obj, it);
           super.incRefinements(1);
           if(dist <= range) {
-            result.add(dist, iter);
+            result.add(dist, it);
           }
         }
         return result;
@@ -371,6 +572,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of additional buckets to probe (multi-probe LSH).
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of additional neighboring buckets to probe in each hash table (multi-probe LSH).");
+
+    /**
+     * Option to store the hash tables in a file.
+     */
+    public static final OptionID FILE_ID = new OptionID("lsh.file", "File to store the hash tables in. If the file exists and matches the data and hash functions, it is loaded instead of rebuilding the tables.");
+
     /**
      * LSH hash function family to use.
      */
@@ -386,6 +597,16 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
      */
     int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe.
+     */
+    int probes;
+
+    /**
+     * File to store the hash tables in.
+     */
+    File file;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -406,11 +627,22 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V, InMemoryLSHIndex<V>.
       if(config.grab(bucketsP)) {
         numberOfBuckets = bucketsP.intValue();
       }
+
+      IntParameter probesP = new IntParameter(PROBES_ID, 0);
+      probesP.addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(probesP)) {
+        probes = probesP.intValue();
+      }
+
+      FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+      if(config.grab(fileP)) {
+        file = fileP.getValue();
+      }
     }
 
     @Override
     protected InMemoryLSHIndex<V> makeInstance() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes, file);
     }
   }
 }
@@ -23,9 +23,12 @@ package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.randomprojections.RandomProjectionFamily;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.randomprojections.RandomProjectionFamily.Projection;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -38,13 +41,18 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * Proc. 34th ACM Symposium on Theory of computing, STOC'02
  * </p>
  * 
+ * For multi-probe queries, bits are flipped in the order of the absolute
+ * projected value, i.e. the distance to the hyperplane.
+ * 
  * @author Evgeniy Faerman
+ * 
+ * @apiviz.uses ProbingSequence
  */
 @Reference(authors = "M.S. Charikar", //
 title = "Similarity estimation techniques from rounding algorithms", //
 booktitle = "Proc. 34th ACM Symposium on Theory of computing, STOC'02", //
 url = "https://dx.doi.org/10.1145%2F509907.509965")
-public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHashFunction<NumberVector> {
+public class CosineLocalitySensitiveHashFunction implements MultiProbeLocalitySensitiveHashFunction<NumberVector> {
   /**
    * Projection function.
    */
@@ -70,4 +78,33 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     }
     return hashValue;
   }
+
+  @Override
+  public int[] hashProbes(NumberVector obj, int probes) {
+    double[] projectionResult = projection.project(obj);
+    final int num = projectionResult.length;
+    final double[] scores = new double[num];
+    final int[] coord = new int[num];
+    int hashValue = 0;
+    for(int i = 0; i < num; i++) {
+      final double v = projectionResult[i];
+      if(v > 0) {
+        hashValue = hashValue + (1 << i);
+      }
+      scores[i] = v * v;
+      coord[i] = i;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, coord, num);
+    List<int[]> sets = ProbingSequence.generate(scores, coord, probes);
+    int[] hashes = new int[sets.size() + 1];
+    hashes[0] = hashValue;
+    for(int j = 0; j < sets.size(); j++) {
+      int h = hashValue;
+      for(int p : sets.get(j)) {
+        h ^= 1 << coord[p];
+      }
+      hashes[j + 1] = h;
+    }
+    return hashes;
+  }
 }
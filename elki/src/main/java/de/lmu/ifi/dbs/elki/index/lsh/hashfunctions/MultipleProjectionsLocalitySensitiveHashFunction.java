@@ -22,10 +22,12 @@ package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
  You should have received a copy of the GNU Affero General Public License
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
+import java.util.List;
 import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.math.linearalgebra.randomprojections.RandomProjectionFamily;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
 /**
@@ -39,13 +41,19 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * Proc. 20th annual symposium on Computational geometry<br />
  * </p>
  * 
+ * For multi-probe queries, the neighboring bins are scored by the squared
+ * distance of the projected query to the bin boundary, see
+ * {@link ProbingSequence}.
+ * 
  * @author Erich Schubert
+ * 
+ * @apiviz.uses ProbingSequence
  */
 @Reference(authors = "M. Datar and N. Immorlica and P. Indyk and V. S. Mirrokni", //
 title = "Locality-sensitive hashing scheme based on p-stable distributions", //
 booktitle = "Proc. 20th annual symposium on Computational geometry", //
 url = "http://dx.doi.org/10.1145/997817.997857")
-public class MultipleProjectionsLocalitySensitiveHashFunction implements LocalitySensitiveHashFunction<NumberVector> {
+public class MultipleProjectionsLocalitySensitiveHashFunction implements MultiProbeLocalitySensitiveHashFunction<NumberVector> {
   /**
    * Projection matrix.
    */
@@ -107,6 +115,42 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  @Override
+  public int[] hashProbes(NumberVector vec, int probes) {
+    final int num = shift.length;
+    long t1sum = 0L;
+    // Scores for moving each projection to the left / right neighbor bin.
+    final double[] scores = new double[num << 1];
+    final int[] perturb = new int[num << 1];
+    final double[] proj = projection.project(vec);
+    for(int i = 0; i < num; i++) {
+      final double f = (proj[i] + shift[i]) * iwidth;
+      final double ai = Math.floor(f), delta = f - ai;
+      t1sum += (randoms1[i] & MASK32) * (int) ai; // unsigned math!
+      scores[i << 1] = delta * delta;
+      scores[(i << 1) + 1] = (1. - delta) * (1. - delta);
+      perturb[i << 1] = i << 1;
+      perturb[(i << 1) + 1] = (i << 1) + 1;
+    }
+    DoubleIntegerArrayQuickSort.sort(scores, perturb, num << 1);
+    final int[] coord = new int[num << 1];
+    for(int i = 0; i < coord.length; i++) {
+      coord[i] = perturb[i] >>> 1;
+    }
+    List<int[]> sets = ProbingSequence.generate(scores, coord, probes);
+    int[] hashes = new int[sets.size() + 1];
+    hashes[0] = fastModPrime(t1sum);
+    for(int j = 0; j < sets.size(); j++) {
+      long sum = t1sum;
+      for(int p : sets.get(j)) {
+        final long r = randoms1[coord[p]] & MASK32;
+        sum += ((perturb[p] & 1) == 0) ? -r : r;
+      }
+      hashes[j + 1] = fastModPrime(sum);
+    }
+    return hashes;
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    * 
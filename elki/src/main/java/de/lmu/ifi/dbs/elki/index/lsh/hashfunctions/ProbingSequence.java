@@ -0,0 +1,119 @@
+package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Query-directed probing sequence for multi-probe LSH.
+ * 
+ * Each candidate perturbation (e.g. moving one projection to the left or right
+ * neighbor bin) has a score, the expected squared distance to the bin
+ * boundary. Sets of perturbations are enumerated in increasing order of their
+ * total score with a heap, using the "shift" and "expand" operations of Lv et
+ * al.; sets that perturb the same projection twice are skipped.
+ * 
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br />
+ * Multi-probe LSH: efficient indexing for high-dimensional similarity search<br />
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)
+ * </p>
+ * 
+ * @author Erich Schubert
+ */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+title = "Multi-probe LSH: efficient indexing for high-dimensional similarity search", //
+booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB'07)", //
+url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf")
+public final class ProbingSequence {
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private ProbingSequence() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Enumerate the best perturbation sets.
+   * 
+   * @param scores Scores of the single perturbations, sorted ascending
+   * @param coord Projection affected by each perturbation
+   * @param probes Maximum number of perturbation sets
+   * @return Perturbation sets, as positions in the sorted score array
+   */
+  public static List<int[]> generate(double[] scores, int[] coord, int probes) {
+    final int n = scores.length;
+    List<int[]> sets = new ArrayList<>(probes);
+    if(n == 0 || probes <= 0) {
+      return sets;
+    }
+    DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>(probes << 1);
+    heap.add(scores[0], new int[] { 0 });
+    while(!heap.isEmpty() && sets.size() < probes) {
+      final double score = heap.peekKey();
+      final int[] set = heap.peekValue();
+      heap.poll();
+      final int last = set[set.length - 1];
+      if(last + 1 < n) {
+        // Shift: replace the last element by the next.
+        int[] shifted = set.clone();
+        shifted[set.length - 1] = last + 1;
+        heap.add(score - scores[last] + scores[last + 1], shifted);
+        // Expand: add the next element.
+        int[] expanded = Arrays.copyOf(set, set.length + 1);
+        expanded[set.length] = last + 1;
+        heap.add(score + scores[last + 1], expanded);
+      }
+      if(isValid(set, coord)) {
+        sets.add(set);
+      }
+    }
+    return sets;
+  }
+
+  /**
+   * Test that a perturbation set modifies every projection at most once.
+   * 
+   * @param set Perturbation set
+   * @param coord Projection affected by each perturbation
+   * @return {@code true} when valid
+   */
+  private static boolean isValid(int[] set, int[] coord) {
+    for(int i = 1; i < set.length; i++) {
+      final int c = coord[set[i]];
+      for(int j = 0; j < i; j++) {
+        if(coord[set[j]] == c) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,862 @@
+package de.lmu.ifi.dbs.elki.index.pq;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansLloyd;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.RandomlyChosenInitialMeans;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.data.projection.NumericalFeatureSelection;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.ProjectedView;
+import de.lmu.ifi.dbs.elki.database.relation.ProxyView;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.LessEqualConstraint;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+
+/**
+ * Product quantization index for approximate kNN queries.
+ * 
+ * The vector space is split into {@code m} subspaces of (almost) equal
+ * dimensionality, and each subspace is quantized separately with a codebook of
+ * at most 256 centroids, trained with {@link KMeansLloyd} on a sample. Each
+ * vector is then stored as {@code m} bytes, the numbers of its nearest
+ * centroids.
+ * 
+ * Queries use asymmetric distance computation: for each query, a lookup table
+ * of the squared distances of the (uncompressed) query to all centroids is
+ * computed, and the approximate distance to a vector is the sum of {@code m}
+ * table entries. The best candidates are then refined with exact distances
+ * on the relation.
+ * 
+ * Optionally, the vectors are additionally partitioned by a coarse k-means
+ * quantizer (inverted file), and only the lists of the coarse centroids
+ * nearest to the query are scanned. The codes encode the vectors themselves,
+ * not the residuals to the coarse centroids, so a single lookup table serves
+ * all lists probed by a query.
+ * 
+ * Reference:
+ * <p>
+ * H. Jégou, M. Douze, C. Schmid<br />
+ * Product Quantization for Nearest Neighbor Search<br />
+ * IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses KMeansLloyd
+ * @apiviz.has Instance
+ * 
+ * @param <V> Vector type to index
+ */
+@Reference(authors = "H. Jégou, M. Douze, C. Schmid", //
+title = "Product Quantization for Nearest Neighbor Search", //
+booktitle = "IEEE Transactions on Pattern Analysis and Machine Intelligence 33(1)", //
+url = "http://dx.doi.org/10.1109/TPAMI.2010.57")
+public class ProductQuantizationIndex<V extends NumberVector> implements IndexFactory<V, ProductQuantizationIndex<V>.Instance> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(ProductQuantizationIndex.class);
+
+  /**
+   * Maximum number of centroids per subspace, to fit codes into a byte.
+   */
+  public static final int MAX_CENTROIDS = 256;
+
+  /**
+   * Number of vectors encoded by a single task.
+   */
+  private static final int ENCODE_BLOCK = 1 << 14;
+
+  /**
+   * Number of subspaces.
+   */
+  int m;
+
+  /**
+   * Number of centroids per subspace.
+   */
+  int centroids;
+
+  /**
+   * Maximum number of k-means iterations.
+   */
+  int maxiter;
+
+  /**
+   * Sample size for training the quantizers.
+   */
+  int samplesize;
+
+  /**
+   * Number of coarse clusters (inverted lists), 0 to scan all codes.
+   */
+  int lists;
+
+  /**
+   * Number of inverted lists to scan for each query.
+   */
+  int probe;
+
+  /**
+   * Number of candidates to refine with exact distances.
+   */
+  int rerank;
+
+  /**
+   * Random generator for sampling and k-means initialization.
+   */
+  RandomFactory rnd;
+
+  /**
+   * File to store the index in, may be {@code null}.
+   */
+  File file;
+
+  /**
+   * Constructor.
+   * 
+   * @param m Number of subspaces
+   * @param centroids Number of centroids per subspace (at most 256)
+   * @param maxiter Maximum number of k-means iterations
+   * @param samplesize Sample size for training the quantizers
+   * @param lists Number of coarse clusters, 0 to disable the inverted file
+   * @param probe Number of inverted lists to scan for each query
+   * @param rerank Number of candidates to refine with exact distances
+   * @param rnd Random generator
+   * @param file File to store the index in, may be {@code null}
+   */
+  public ProductQuantizationIndex(int m, int centroids, int maxiter, int samplesize, int lists, int probe, int rerank, RandomFactory rnd, File file) {
+    super();
+    this.m = m;
+    this.centroids = centroids;
+    this.maxiter = maxiter;
+    this.samplesize = samplesize;
+    this.lists = lists;
+    this.probe = probe;
+    this.rerank = rerank;
+    this.rnd = rnd;
+    this.file = file;
+  }
+
+  @Override
+  public Instance instantiate(Relation<V> relation) {
+    return new Instance(relation);
+  }
+
+  @Override
+  public TypeInformation getInputTypeRestriction() {
+    return TypeUtil.NUMBER_VECTOR_FIELD;
+  }
+
+  /**
+   * Instance of a product quantization index for a single relation.
+   * 
+   * @author Erich Schubert
+   */
+  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, StorableIndex {
+    /**
+     * Indexed objects, for array addressing.
+     */
+    ArrayDBIDs ids;
+
+    /**
+     * Dimensionality of the data.
+     */
+    int dim;
+
+    /**
+     * Number of subspaces, at most the dimensionality.
+     */
+    int subspaces;
+
+    /**
+     * First dimension of each subspace, with an additional end marker.
+     */
+    int[] bounds;
+
+    /**
+     * Centroids of each subspace, packed row-wise.
+     */
+    double[][] codebooks;
+
+    /**
+     * Codes of all objects, {@link #subspaces} bytes per object in the order
+     * of {@link #ids}.
+     */
+    byte[] codes;
+
+    /**
+     * Coarse centroids, packed row-wise; {@code null} without inverted file.
+     */
+    double[] coarse;
+
+    /**
+     * Start of each inverted list in {@link #members}, with an additional end
+     * marker.
+     */
+    int[] start;
+
+    /**
+     * Offsets of the objects in {@link #ids}, sorted by inverted list.
+     */
+    int[] members;
+
+    /**
+     * Constructor.
+     * 
+     * @param relation Relation to index
+     */
+    public Instance(Relation<V> relation) {
+      super(relation);
+    }
+
+    @Override
+    public String getLongName() {
+      return "product quantization index";
+    }
+
+    @Override
+    public String getShortName() {
+      return "pq-index";
+    }
+
+    @Override
+    public void initialize() {
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      dim = RelationUtil.dimensionality(relation);
+      subspaces = Math.max(1, Math.min(m, dim));
+      bounds = new int[subspaces + 1];
+      for(int j = 0; j <= subspaces; j++) {
+        bounds[j] = (int) ((long) j * dim / subspaces);
+      }
+      if(IndexFile.load(file, relation, this)) {
+        return;
+      }
+      final Random random = rnd.getSingleThreadedRandom();
+      final DBIDs sample = DBIDUtil.randomSample(ids, Math.min(samplesize, ids.size()), random);
+      coarse = lists > 0 ? train(ProxyView.wrap(relation.getDatabase(), sample, relation), lists, random.nextLong()) : null;
+
+      // Train the subspace codebooks in parallel.
+      codebooks = new double[subspaces][];
+      ArrayList<CodebookTrainer> trainers = new ArrayList<>(subspaces);
+      for(int j = 0; j < subspaces; j++) {
+        trainers.add(new CodebookTrainer(sample, j, random.nextLong()));
+      }
+      final FiniteProgress tprog = LOG.isVerbose() ? new FiniteProgress("Training subspace codebooks.", subspaces, LOG) : null;
+      BoundedTaskExecutor.run(trainers, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+        @Override
+        public void handleResult(int i, Void result) {
+          LOG.incrementProcessed(tprog);
+        }
+      });
+      LOG.ensureCompleted(tprog);
+
+      // Encode all vectors in parallel.
+      final int size = ids.size();
+      if((long) size * subspaces > Integer.MAX_VALUE) {
+        throw new AbortException("Code array too large: " + size + " objects with " + subspaces + " subspaces exceed the maximum array size.");
+      }
+      codes = new byte[size * subspaces];
+      final int[] assign = coarse != null ? new int[size] : null;
+      ArrayList<Encoder> encoders = new ArrayList<>(size / ENCODE_BLOCK + 1);
+      for(int begin = 0; begin < size; begin += ENCODE_BLOCK) {
+        encoders.add(new Encoder(begin, Math.min(begin + ENCODE_BLOCK, size), assign));
+      }
+      final FiniteProgress eprog = LOG.isVerbose() ? new FiniteProgress("Encoding vectors.", encoders.size(), LOG) : null;
+      BoundedTaskExecutor.run(encoders, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+        @Override
+        public void handleResult(int i, Void result) {
+          LOG.incrementProcessed(eprog);
+        }
+      });
+      LOG.ensureCompleted(eprog);
+      if(assign != null) {
+        buildLists(assign);
+      }
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".subspaces", subspaces));
+        LOG.statistics(new LongStatistic(this.getClass().getName() + ".code-bytes", codes.length));
+        if(coarse != null) {
+          int max = 0;
+          for(int c = 0; c + 1 < start.length; c++) {
+            max = Math.max(max, start[c + 1] - start[c]);
+          }
+          LOG.statistics(new LongStatistic(this.getClass().getName() + ".lists", start.length - 1));
+          LOG.statistics(new LongStatistic(this.getClass().getName() + ".lists.max", max));
+        }
+      }
+      IndexFile.save(file, relation, this);
+    }
+
+    /**
+     * Train a k-means quantizer.
+     * 
+     * @param rel Training data
+     * @param k Number of centroids
+     * @param seed Random seed for the initial means
+     * @return Centroids, packed row-wise (empty clusters are dropped)
+     */
+    private double[] train(Relation<V> rel, int k, long seed) {
+      KMeansLloyd<V> kmeans = new KMeansLloyd<>(SquaredEuclideanDistanceFunction.STATIC, Math.min(k, rel.size()), maxiter, new RandomlyChosenInitialMeans<V>(RandomFactory.get(seed)));
+      List<Cluster<KMeansModel>> clusters = kmeans.run(rel.getDatabase(), rel).getAllClusters();
+      final int d = RelationUtil.dimensionality(rel);
+      double[] packed = new double[clusters.size() * d];
+      for(int i = 0; i < clusters.size(); i++) {
+        System.arraycopy(clusters.get(i).getModel().getMean().getArrayRef(), 0, packed, i * d, d);
+      }
+      return packed;
+    }
+
+    /**
+     * Build the inverted lists from the coarse cluster assignment.
+     * 
+     * @param assign Coarse cluster of each object
+     */
+    private void buildLists(int[] assign) {
+      final int nlist = coarse.length / dim;
+      start = new int[nlist + 1];
+      for(int a : assign) {
+        ++start[a + 1];
+      }
+      for(int c = 0; c < nlist; c++) {
+        start[c + 1] += start[c];
+      }
+      final int[] pos = Arrays.copyOf(start, nlist);
+      members = new int[assign.length];
+      for(int i = 0; i < assign.length; i++) {
+        members[pos[assign[i]]++] = i;
+      }
+    }
+
+    @Override
+    public int getStorageVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(IndexFile.Writer out) throws IOException {
+      out.writeInt(dim);
+      out.writeInt(subspaces);
+      out.writeInt(centroids);
+      out.writeInt(lists);
+      for(int j = 0; j < subspaces; j++) {
+        out.writeDoubles(codebooks[j]);
+      }
+      out.writeBytes(codes);
+      if(coarse != null) {
+        out.writeDoubles(coarse);
+        out.writeInts(start);
+        out.writeInts(members);
+      }
+    }
+
+    @Override
+    public boolean read(IndexFile.Reader in) {
+      if(in.readInt() != dim || in.readInt() != subspaces || in.readInt() != centroids || in.readInt() != lists) {
+        return false;
+      }
+      codebooks = new double[subspaces][];
+      final int[] rows = new int[subspaces];
+      for(int j = 0; j < subspaces; j++) {
+        final double[] cb = codebooks[j] = in.readDoubles();
+        final int d = bounds[j + 1] - bounds[j];
+        rows[j] = cb.length / d;
+        if(cb.length == 0 || cb.length % d != 0 || rows[j] > centroids) {
+          return false;
+        }
+      }
+      codes = in.readBytes();
+      if(codes.length != (long) ids.size() * subspaces) {
+        return false;
+      }
+      for(int p = 0; p < codes.length;) {
+        for(int j = 0; j < subspaces; j++, p++) {
+          if((codes[p] & 0xFF) >= rows[j]) {
+            return false;
+          }
+        }
+      }
+      if(lists > 0) {
+        coarse = in.readDoubles();
+        start = in.readInts();
+        members = in.readInts();
+        if(coarse.length == 0 || coarse.length % dim != 0 || start.length != coarse.length / dim + 1 || members.length != ids.size()) {
+          return false;
+        }
+        return checkLists();
+      }
+      return true;
+    }
+
+    /**
+     * Check the consistency of the inverted lists read from a file.
+     * 
+     * @return {@code true} if the list offsets and members are valid
+     */
+    private boolean checkLists() {
+      if(start[0] != 0 || start[start.length - 1] != members.length) {
+        return false;
+      }
+      for(int c = 1; c < start.length; c++) {
+        if(start[c] < start[c - 1]) {
+          return false;
+        }
+      }
+      final int size = ids.size();
+      for(int i : members) {
+        if(i < 0 || i >= size) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Find the nearest centroid.
+     * 
+     * @param x Vector
+     * @param xoff Offset of the (sub-)vector in x
+     * @param centers Centroids, packed row-wise
+     * @param d Dimensionality of the centroids
+     * @return Number of the nearest centroid
+     */
+    private int nearest(double[] x, int xoff, double[] centers, int d) {
+      int best = 0;
+      double mindist = Double.POSITIVE_INFINITY;
+      for(int c = 0, off = 0; off < centers.length; c++, off += d) {
+        final double dist = BlockDistances.squaredEuclidean(x, xoff, centers, off, d);
+        if(dist < mindist) {
+          mindist = dist;
+          best = c;
+        }
+      }
+      return best;
+    }
+
+    @Override
+    public Logging getLogger() {
+      return LOG;
+    }
+
+    @Override
+    public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+      for(Object hint : hints) {
+        if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+          return null;
+        }
+      }
+      DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+      // Codes approximate squared Euclidean distances, which preserve the
+      // ranking of Euclidean distances, too.
+      if(!(df instanceof EuclideanDistanceFunction) && !(df instanceof SquaredEuclideanDistanceFunction)) {
+        return null;
+      }
+      return new PQKNNQuery(distanceQuery);
+    }
+
+    /**
+     * Train the codebook of a single subspace.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class CodebookTrainer implements Callable<Void> {
+      /**
+       * Training sample.
+       */
+      private final DBIDs sample;
+
+      /**
+       * Subspace number.
+       */
+      private final int subspace;
+
+      /**
+       * Random seed for k-means.
+       */
+      private final long seed;
+
+      /**
+       * Constructor.
+       * 
+       * @param sample Training sample
+       * @param subspace Subspace number
+       * @param seed Random seed for k-means
+       */
+      CodebookTrainer(DBIDs sample, int subspace, long seed) {
+        this.sample = sample;
+        this.subspace = subspace;
+        this.seed = seed;
+      }
+
+      @Override
+      public Void call() {
+        BitSet dims = new BitSet();
+        dims.set(bounds[subspace], bounds[subspace + 1]);
+        Relation<V> proj = new ProjectedView<>(relation, new NumericalFeatureSelection<V>(dims));
+        codebooks[subspace] = train(ProxyView.wrap(relation.getDatabase(), sample, proj), centroids, seed);
+        return null;
+      }
+    }
+
+    /**
+     * Encode a block of vectors.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class Encoder implements Callable<Void> {
+      /**
+       * Offset range to encode.
+       */
+      private final int begin, end;
+
+      /**
+       * Output array for the coarse cluster assignment, may be {@code null}.
+       */
+      private final int[] assign;
+
+      /**
+       * Constructor.
+       * 
+       * @param begin First offset
+       * @param end Offset after the last vector
+       * @param assign Output array for the coarse cluster assignment
+       */
+      Encoder(int begin, int end, int[] assign) {
+        this.begin = begin;
+        this.end = end;
+        this.assign = assign;
+      }
+
+      @Override
+      public Void call() {
+        final double[] x = new double[dim];
+        final DBIDArrayIter iter = ids.iter();
+        iter.seek(begin);
+        for(int i = begin; i < end; i++, iter.advance()) {
+          BlockDistances.pack(relation.get(iter), x, 0, dim);
+          if(assign != null) {
+            assign[i] = nearest(x, 0, coarse, dim);
+          }
+          for(int j = 0, p = i * subspaces; j < subspaces; j++, p++) {
+            codes[p] = (byte) nearest(x, bounds[j], codebooks[j], bounds[j + 1] - bounds[j]);
+          }
+        }
+        return null;
+      }
+    }
+
+    /**
+     * kNN query using asymmetric distance computation and exact refinement.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    protected class PQKNNQuery extends AbstractKNNQuery {
+      /**
+       * Constructor.
+       * 
+       * @param distanceQuery Distance query
+       */
+      public PQKNNQuery(DistanceQuery<V> distanceQuery) {
+        super(distanceQuery);
+      }
+
+      @Override
+      public KNNList getKNNForObject(V obj, int k) {
+        final double[] q = new double[dim];
+        BlockDistances.pack(obj, q, 0, dim);
+        // Lookup table of the squared distances to all centroids.
+        final double[] table = new double[subspaces * centroids];
+        for(int j = 0; j < subspaces; j++) {
+          final double[] cb = codebooks[j];
+          final int d = bounds[j + 1] - bounds[j];
+          for(int c = 0, off = 0; off < cb.length; c++, off += d) {
+            table[j * centroids + c] = BlockDistances.squaredEuclidean(q, bounds[j], cb, off, d);
+          }
+        }
+        // Approximate candidates.
+        final int r = Math.max(k, rerank);
+        final DoubleIntegerMaxHeap candidates = new DoubleIntegerMaxHeap(r);
+        if(coarse == null) {
+          for(int i = 0, size = ids.size(); i < size; i++) {
+            candidates.add(approximateDistance(table, i), i, r);
+          }
+        }
+        else {
+          final DoubleIntegerMaxHeap nearest = new DoubleIntegerMaxHeap(probe);
+          for(int c = 0, off = 0; off < coarse.length; c++, off += dim) {
+            nearest.add(BlockDistances.squaredEuclidean(q, 0, coarse, off, dim), c, probe);
+          }
+          for(DoubleIntegerHeap.UnsortedIter it = nearest.unsortedIter(); it.valid(); it.advance()) {
+            final int c = it.getValue();
+            for(int p = start[c], end = start[c + 1]; p < end; p++) {
+              final int i = members[p];
+              candidates.add(approximateDistance(table, i), i, r);
+            }
+          }
+        }
+        // Refine.
+        KNNHeap heap = DBIDUtil.newHeap(k);
+        DBIDArrayIter iter = ids.iter();
+        for(DoubleIntegerHeap.UnsortedIter it = candidates.unsortedIter(); it.valid(); it.advance()) {
+          iter.seek(it.getValue());
+          heap.insert(distanceQuery.distance(obj, iter), iter);
+        }
+        super.incRefinements(candidates.size());
+        return heap.toKNNList();
+      }
+
+      /**
+       * Approximate squared distance of the query to an encoded vector.
+       * 
+       * @param table Distance lookup table of the query
+       * @param i Offset of the vector
+       * @return Approximate squared distance
+       */
+      private double approximateDistance(double[] table, int i) {
+        double sum = 0.;
+        for(int j = 0, p = i * subspaces, t = 0; j < subspaces; j++, p++, t += centroids) {
+          sum += table[t + (codes[p] & 0xFF)];
+        }
+        return sum;
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector> extends AbstractParameterizer {
+    /**
+     * Number of subspaces.
+     */
+    public static final OptionID SUBSPACES_ID = new OptionID("pq.subspaces", "Number of subspaces to quantize separately. Each vector is stored as one byte per subspace.");
+
+    /**
+     * Number of centroids per subspace.
+     */
+    public static final OptionID CENTROIDS_ID = new OptionID("pq.centroids", "Number of k-means centroids in each subspace, at most 256.");
+
+    /**
+     * Maximum number of k-means iterations.
+     */
+    public static final OptionID MAXITER_ID = new OptionID("pq.maxiter", "Maximum number of k-means iterations for training the quantizers.");
+
+    /**
+     * Sample size for training.
+     */
+    public static final OptionID SAMPLE_ID = new OptionID("pq.sample", "Number of vectors to sample for training the quantizers.");
+
+    /**
+     * Number of inverted lists.
+     */
+    public static final OptionID LISTS_ID = new OptionID("pq.ivf.lists", "Number of coarse k-means clusters for an inverted file. 0 scans all codes for each query.");
+
+    /**
+     * Number of inverted lists to scan.
+     */
+    public static final OptionID PROBE_ID = new OptionID("pq.ivf.probe", "Number of inverted lists nearest to the query to scan.");
+
+    /**
+     * Number of candidates to refine.
+     */
+    public static final OptionID RERANK_ID = new OptionID("pq.rerank", "Number of candidates with the smallest approximate distance to refine with exact distances (at least k).");
+
+    /**
+     * Random seed.
+     */
+    public static final OptionID SEED_ID = new OptionID("pq.seed", "Random generator for sampling and k-means initialization.");
+
+    /**
+     * Option to store the index in a file.
+     */
+    public static final OptionID FILE_ID = new OptionID("pq.file", "File to store the codebooks and codes in. If the file exists and matches the data and parameters, it is loaded instead of training the quantizers.");
+
+    /**
+     * Number of subspaces.
+     */
+    int m;
+
+    /**
+     * Number of centroids per subspace.
+     */
+    int centroids;
+
+    /**
+     * Maximum number of k-means iterations.
+     */
+    int maxiter;
+
+    /**
+     * Sample size for training the quantizers.
+     */
+    int samplesize;
+
+    /**
+     * Number of coarse clusters.
+     */
+    int lists;
+
+    /**
+     * Number of inverted lists to scan.
+     */
+    int probe;
+
+    /**
+     * Number of candidates to refine.
+     */
+    int rerank;
+
+    /**
+     * Random generator.
+     */
+    RandomFactory rnd;
+
+    /**
+     * File to store the index in.
+     */
+    File file;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      IntParameter mP = new IntParameter(SUBSPACES_ID);
+      mP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(mP)) {
+        m = mP.intValue();
+      }
+
+      IntParameter centroidsP = new IntParameter(CENTROIDS_ID, MAX_CENTROIDS);
+      centroidsP.addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+      centroidsP.addConstraint(new LessEqualConstraint(MAX_CENTROIDS));
+      if(config.grab(centroidsP)) {
+        centroids = centroidsP.intValue();
+      }
+
+      IntParameter maxiterP = new IntParameter(MAXITER_ID, 20);
+      maxiterP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(maxiterP)) {
+        maxiter = maxiterP.intValue();
+      }
+
+      IntParameter sampleP = new IntParameter(SAMPLE_ID, 20000);
+      sampleP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(sampleP)) {
+        samplesize = sampleP.intValue();
+      }
+
+      IntParameter listsP = new IntParameter(LISTS_ID, 0);
+      listsP.addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(listsP)) {
+        lists = listsP.intValue();
+      }
+
+      if(lists > 0) {
+        IntParameter probeP = new IntParameter(PROBE_ID, 8);
+        probeP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(probeP)) {
+          probe = probeP.intValue();
+        }
+      }
+
+      IntParameter rerankP = new IntParameter(RERANK_ID, 100);
+      rerankP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(rerankP)) {
+        rerank = rerankP.intValue();
+      }
+
+      RandomParameter rndP = new RandomParameter(SEED_ID);
+      if(config.grab(rndP)) {
+        rnd = rndP.getValue();
+      }
+
+      FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+      if(config.grab(fileP)) {
+        file = fileP.getValue();
+      }
+    }
+
+    @Override
+    protected ProductQuantizationIndex<V> makeInstance() {
+      return new ProductQuantizationIndex<>(m, centroids, maxiter, samplesize, lists, probe, rerank, rnd, file);
+    }
+  }
+}
@@ -86,6 +86,7 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
         throw new AbortException("Cache magic number does not match.");
       }
       MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 4, file.length() - 4);
+      KNNHeap knn = DBIDUtil.newHeap(k);
       for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
         int dbid = ByteArrayUtil.readUnsignedVarint(buffer);
         int nnsize = ByteArrayUtil.readUnsignedVarint(buffer);
@@ -94,7 +95,6 @@ public class CachedDoubleDistanceKNNPreprocessor<O> extends AbstractMaterializeK
         }
         // FIXME: avoid the KNNHeap to KNNList roundtrip.
         // FIXME: use a DBIDVar instead of importInteger.
-        KNNHeap knn = DBIDUtil.newHeap(k);
         for(int i = 0; i < nnsize; i++) {
           int nid = ByteArrayUtil.readUnsignedVarint(buffer);
           double dist = buffer.getDouble();
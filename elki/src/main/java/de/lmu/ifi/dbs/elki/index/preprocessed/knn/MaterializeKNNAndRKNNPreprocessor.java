@@ -24,24 +24,22 @@ package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
  */
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
-import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDPair;
 import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
@@ -56,6 +54,7 @@ import de.lmu.ifi.dbs.elki.index.RKNNIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.StepProgress;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 
@@ -78,9 +77,36 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
   private static final Logging LOG = Logging.getLogger(MaterializeKNNAndRKNNPreprocessor.class);
 
   /**
-   * Additional data storage for RkNN.
+   * Objects of the initial build, indexed by row.
    */
-  private WritableDataStore<TreeSet<DoubleDBIDPair>> materialized_RkNN;
+  private ArrayDBIDs rows;
+
+  /**
+   * Row of each object in the reverse neighbor table, {@code -1} if none.
+   */
+  private WritableIntegerDataStore rowmap;
+
+  /**
+   * Start of each row in {@link #rknnSources}; row {@code i} ends at
+   * {@code rknnStart[i + 1]}.
+   */
+  private int[] rknnStart;
+
+  /**
+   * Reverse neighbors, as rows of the source object.
+   */
+  private int[] rknnSources;
+
+  /**
+   * Distances of the reverse neighbors.
+   */
+  private double[] rknnDists;
+
+  /**
+   * Reverse neighbor lists of objects changed after the initial build. These
+   * take precedence over the table.
+   */
+  private WritableDataStore<ModifiableDoubleDBIDList> modified;
 
   /**
    * Constructor.
@@ -90,48 +116,145 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    * @param k query k
    */
   public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
-    super(relation, distanceFunction, k);
+    this(relation, distanceFunction, k, false);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to process
+   * @param distanceFunction the distance function to use
+   * @param k query k
+   * @param compact Store the neighbor lists packed, with single precision
+   *        distances
+   */
+  public MaterializeKNNAndRKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean compact) {
+    super(relation, distanceFunction, k, compact);
   }
 
   @Override
   protected void preprocess() {
     createStorage();
-    materialized_RkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, TreeSet.class);
-    FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors and reverse k nearest neighbors (k=" + k + ")", relation.size(), getLogger()) : null;
-    materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
+    rows = DBIDUtil.ensureArray(relation.getDBIDs());
+    FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors and reverse k nearest neighbors (k=" + k + ")", rows.size(), getLogger()) : null;
+    materializeKNNs(rows, progress);
+    getLogger().ensureCompleted(progress);
+    invertKNNs();
+    modified = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, ModifiableDoubleDBIDList.class);
+  }
+
+  /**
+   * Build the reverse neighbor table from the materialized kNN lists, in two
+   * passes: count the reverse neighbors of each object, then fill the rows.
+   */
+  private void invertKNNs() {
+    final int size = rows.size();
+    rowmap = DataStoreUtil.makeIntegerStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, -1);
+    DBIDArrayIter iter = rows.iter();
+    for(int i = 0; i < size; i++, iter.advance()) {
+      rowmap.putInt(iter, i);
+    }
+    // Count, with an offset of two, such that the prefix sums below yield the
+    // insertion position of each row shifted by one.
+    int[] start = new int[size + 2];
+    for(iter.seek(0); iter.valid(); iter.advance()) {
+      for(DBIDIter nn = storage.get(iter).iter(); nn.valid(); nn.advance()) {
+        ++start[rowmap.intValue(nn) + 2];
+      }
+    }
+    for(int i = 2; i < start.length; i++) {
+      start[i] += start[i - 1];
+    }
+    final int total = start[size + 1];
+    int[] sources = new int[total];
+    double[] dists = new double[total];
+    for(iter.seek(0); iter.valid(); iter.advance()) {
+      final int src = iter.getOffset();
+      for(DoubleDBIDListIter nn = storage.get(iter).iter(); nn.valid(); nn.advance()) {
+        final int p = start[rowmap.intValue(nn) + 1]++;
+        sources[p] = src;
+        dists[p] = nn.doubleValue();
+      }
+    }
+    // The fill pass advanced each start to the start of the next row.
+    for(int i = 0; i < size; i++) {
+      DoubleIntegerArrayQuickSort.sort(dists, sources, start[i], start[i + 1]);
+    }
+    rknnStart = start;
+    rknnSources = sources;
+    rknnDists = dists;
   }
 
   /**
-   * Materializes the kNNs and RkNNs of the specified object IDs.
+   * Get the reverse neighbors of an object for modification, copying them
+   * from the table on first use.
+   * 
+   * @param id Object
+   * @return Modifiable reverse neighbor list
+   */
+  private ModifiableDoubleDBIDList modifiableRKNN(DBIDRef id) {
+    ModifiableDoubleDBIDList list = modified.get(id);
+    if(list == null) {
+      list = tableRKNN(rowmap.intValue(id));
+      modified.put(id, list);
+    }
+    return list;
+  }
+
+  /**
+   * Copy a row of the reverse neighbor table.
+   * 
+   * @param row Row, may be {@code -1} for an empty list
+   * @return Reverse neighbors, sorted by distance
+   */
+  private ModifiableDoubleDBIDList tableRKNN(int row) {
+    if(row < 0) {
+      return DBIDUtil.newDistanceDBIDList();
+    }
+    final int begin = rknnStart[row], end = rknnStart[row + 1];
+    ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList(end - begin);
+    DBIDArrayIter src = rows.iter();
+    for(int p = begin; p < end; p++) {
+      list.add(rknnDists[p], src.seek(rknnSources[p]));
+    }
+    return list;
+  }
+
+  /**
+   * Remove objects from a reverse neighbor list.
+   * 
+   * @param id Object whose reverse neighbors change
+   * @param remove Objects to remove
+   */
+  private void removeRKNN(DBIDRef id, DBIDs remove) {
+    ModifiableDoubleDBIDList list = modifiableRKNN(id);
+    ModifiableDoubleDBIDList keep = DBIDUtil.newDistanceDBIDList(list.size());
+    for(DoubleDBIDListIter it = list.iter(); it.valid(); it.advance()) {
+      if(!remove.contains(it)) {
+        keep.add(it.doubleValue(), it);
+      }
+    }
+    modified.put(id, keep);
+  }
+
+  /**
+   * Materializes the kNNs and RkNNs of newly inserted objects.
    * 
    * @param ids the IDs of the objects
    */
-  private void materializeKNNAndRKNNs(ArrayDBIDs ids, FiniteProgress progress) {
+  private void materializeKNNAndRKNNs(ArrayDBIDs ids) {
     // add an empty list to each rknn
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      if(materialized_RkNN.get(iter) == null) {
-        materialized_RkNN.put(iter, new TreeSet<DoubleDBIDPair>());
+      if(modified.get(iter) == null) {
+        modified.put(iter, DBIDUtil.newDistanceDBIDList());
       }
     }
-
-    // knn query
-    List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(ids, k);
-    int i = 0;
-    for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-      KNNList kNNs = kNNList.get(i);
-      storage.put(id, kNNs);
-      for(DoubleDBIDListIter iter = kNNs.iter(); iter.valid(); iter.advance()) {
-        TreeSet<DoubleDBIDPair> rknns = materialized_RkNN.get(iter);
-        rknns.add(makePair(iter, id));
+    materializeKNNs(ids, null);
+    for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
+      for(DoubleDBIDListIter iter = storage.get(id).iter(); iter.valid(); iter.advance()) {
+        modifiableRKNN(iter).add(iter.doubleValue(), id);
       }
-      getLogger().incrementProcessed(progress);
     }
-
-    getLogger().ensureCompleted(progress);
-  }
-
-  private DoubleDBIDPair makePair(DoubleDBIDListIter iter, DBIDIter id) {
-    return DBIDUtil.newPair(iter.getPair().doubleValue(), id);
   }
 
   @Override
@@ -141,7 +264,7 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
     // materialize the new kNNs and RkNNs
     getLogger().beginStep(stepprog, 1, "New insertions ocurred, materialize their new kNNs and RkNNs.");
-    materializeKNNAndRKNNs(aids, null);
+    materializeKNNAndRKNNs(aids);
 
     // update the old kNNs and RkNNs
     getLogger().beginStep(stepprog, 2, "New insertions ocurred, update the affected kNNs and RkNNs.");
@@ -185,42 +308,20 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
         KNNList newkNNs = heap.toKNNList();
         storage.put(id, newkNNs);
 
-        // get the difference
-        int i = 0;
-        int j = 0;
-        ModifiableDoubleDBIDList added = DBIDUtil.newDistanceDBIDList();
-        ModifiableDoubleDBIDList removed = DBIDUtil.newDistanceDBIDList();
-        // TODO: use iterators.
-        while(i < oldkNNs.size() && j < newkNNs.size()) {
-          DoubleDBIDPair drp1 = oldkNNs.get(i);
-          DoubleDBIDPair drp2 = newkNNs.get(j);
-          // NOTE: we assume that on ties they are ordered the same way!
-          if(!DBIDUtil.equal(drp1, drp2)) {
-            added.add(drp2);
-            j++;
-          }
-          else {
-            i++;
-            j++;
-          }
-        }
-        if(i != j) {
-          for(; i < oldkNNs.size(); i++) {
-            removed.add(oldkNNs.get(i));
-          }
-          for(; j < newkNNs.size(); i++) {
-            added.add(newkNNs.get(i));
-          }
-        }
+        SetDBIDs oldset = DBIDUtil.ensureSet(oldkNNs);
+        SetDBIDs newset = DBIDUtil.ensureSet(newkNNs);
         // add new RkNN
-        for(DoubleDBIDListIter newnn = added.iter(); newnn.valid(); newnn.advance()) {
-          TreeSet<DoubleDBIDPair> rknns = materialized_RkNN.get(newnn);
-          rknns.add(makePair(newnn, id));
+        for(DoubleDBIDListIter newnn = newkNNs.iter(); newnn.valid(); newnn.advance()) {
+          if(!oldset.contains(newnn)) {
+            modifiableRKNN(newnn).add(newnn.doubleValue(), id);
+          }
         }
         // remove old RkNN
-        for(DoubleDBIDListIter oldnn = removed.iter(); oldnn.valid(); oldnn.advance()) {
-          TreeSet<DoubleDBIDPair> rknns = materialized_RkNN.get(oldnn);
-          rknns.remove(makePair(oldnn, id));
+        DBIDs self = DBIDUtil.deref(id);
+        for(DBIDIter oldnn = oldkNNs.iter(); oldnn.valid(); oldnn.advance()) {
+          if(!newset.contains(oldnn)) {
+            removeRKNN(oldnn, self);
+          }
         }
 
         rkNN_ids.add(id);
@@ -238,12 +339,13 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     getLogger().beginStep(stepprog, 1, "New deletions ocurred, remove their materialized kNNs and RkNNs.");
     // Temporary storage of removed lists
     List<KNNList> kNNs = new ArrayList<>(ids.size());
-    List<TreeSet<DoubleDBIDPair>> rkNNs = new ArrayList<>(ids.size());
+    List<DoubleDBIDList> rkNNs = new ArrayList<>(ids.size());
     for(DBIDIter iter = aids.iter(); iter.valid(); iter.advance()) {
       kNNs.add(storage.get(iter));
       storage.delete(iter);
-      rkNNs.add(materialized_RkNN.get(iter));
-      materialized_RkNN.delete(iter);
+      rkNNs.add(modifiableRKNN(iter));
+      modified.delete(iter);
+      rowmap.putInt(iter, -1);
     }
     // Keep only those IDs not also removed
     ArrayDBIDs kNN_ids = affectedkNN(kNNs, aids);
@@ -251,29 +353,29 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
 
     // update the affected kNNs and RkNNs
     getLogger().beginStep(stepprog, 2, "New deletions ocurred, update the affected kNNs and RkNNs.");
+    SetDBIDs idsSet = DBIDUtil.ensureSet(ids);
     // Recompute the kNN for affected objects (in rkNN lists)
     {
-      List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(rkNN_ids, k);
-      int i = 0;
-      for(DBIDIter reknn = rkNN_ids.iter(); reknn.valid(); reknn.advance(), i++) {
-        storage.put(reknn, kNNList.get(i));
-        for(DoubleDBIDListIter it = kNNList.get(i).iter(); it.valid(); it.advance()) {
-          materialized_RkNN.get(it).add(makePair(it, reknn));
+      // Unlink them from the remaining old neighbors first.
+      for(DBIDIter reknn = rkNN_ids.iter(); reknn.valid(); reknn.advance()) {
+        DBIDs self = DBIDUtil.deref(reknn);
+        for(DBIDIter it = storage.get(reknn).iter(); it.valid(); it.advance()) {
+          if(!idsSet.contains(it)) {
+            removeRKNN(it, self);
+          }
         }
       }
-    }
-    // remove objects from RkNNs of obejcts (in kNN lists)
-    {
-      SetDBIDs idsSet = DBIDUtil.ensureSet(ids);
-      for(DBIDIter nn = kNN_ids.iter(); nn.valid(); nn.advance()) {
-        TreeSet<DoubleDBIDPair> rkNN = materialized_RkNN.get(nn);
-        for(Iterator<DoubleDBIDPair> it = rkNN.iterator(); it.hasNext();) {
-          if(idsSet.contains(it.next())) {
-            it.remove();
-          }
+      materializeKNNs(rkNN_ids, null);
+      for(DBIDIter reknn = rkNN_ids.iter(); reknn.valid(); reknn.advance()) {
+        for(DoubleDBIDListIter it = storage.get(reknn).iter(); it.valid(); it.advance()) {
+          modifiableRKNN(it).add(it.doubleValue(), reknn);
         }
       }
     }
+    // remove objects from RkNNs of obejcts (in kNN lists)
+    for(DBIDIter nn = kNN_ids.iter(); nn.valid(); nn.advance()) {
+      removeRKNN(nn, idsSet);
+    }
 
     // inform listener
     getLogger().beginStep(stepprog, 3, "New deletions ocurred, inform listeners.");
@@ -308,11 +410,11 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    * @param remove the ids to remove
    * @return the DBIDs in the given collection
    */
-  protected ArrayDBIDs affectedRkNN(List<? extends Collection<DoubleDBIDPair>> extraxt, DBIDs remove) {
+  protected ArrayDBIDs affectedRkNN(List<? extends DoubleDBIDList> extraxt, DBIDs remove) {
     HashSetModifiableDBIDs ids = DBIDUtil.newHashSet();
-    for(Collection<DoubleDBIDPair> drps : extraxt) {
-      for(DoubleDBIDPair drp : drps) {
-        ids.add(drp);
+    for(DoubleDBIDList drps : extraxt) {
+      for(DBIDIter iter = drps.iter(); iter.valid(); iter.advance()) {
+        ids.add(iter);
       }
     }
     ids.removeDBIDs(remove);
@@ -337,13 +439,18 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
    * @return the RkNNs
    */
   public DoubleDBIDList getRKNN(DBIDRef id) {
-    TreeSet<DoubleDBIDPair> rKNN = materialized_RkNN.get(id);
-    if(rKNN == null) {
+    if(rowmap == null) {
       return null;
     }
+    ModifiableDoubleDBIDList rKNN = modified.get(id);
+    if(rKNN == null) {
+      final int row = rowmap.intValue(id);
+      // Table rows are sorted already.
+      return row < 0 ? null : tableRKNN(row);
+    }
     ModifiableDoubleDBIDList ret = DBIDUtil.newDistanceDBIDList(rKNN.size());
-    for(DoubleDBIDPair pair : rKNN) {
-      ret.add(pair);
+    for(DoubleDBIDListIter it = rKNN.iter(); it.valid(); it.advance()) {
+      ret.add(it.doubleValue(), it);
     }
     ret.sort();
     return ret;
@@ -397,12 +504,24 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
      * @param distanceFunction distance function
      */
     public Factory(int k, DistanceFunction<? super O> distanceFunction) {
-      super(k, distanceFunction);
+      this(k, distanceFunction, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param k k
+     * @param distanceFunction distance function
+     * @param compact Store the neighbor lists packed, with single precision
+     *        distances
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, boolean compact) {
+      super(k, distanceFunction, compact);
     }
 
     @Override
     public MaterializeKNNAndRKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNAndRKNNPreprocessor<O> instance = new MaterializeKNNAndRKNNPreprocessor<>(relation, distanceFunction, k);
+      MaterializeKNNAndRKNNPreprocessor<O> instance = new MaterializeKNNAndRKNNPreprocessor<>(relation, distanceFunction, k, compact);
       return instance;
     }
 
@@ -416,7 +535,7 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     public static class Parameterizer<O> extends MaterializeKNNPreprocessor.Factory.Parameterizer<O> {
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(k, distanceFunction);
+        return new Factory<>(k, distanceFunction, compact);
       }
     }
   }
@@ -23,12 +23,17 @@ package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.swing.event.EventListenerList;
 
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -37,6 +42,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.SetDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
@@ -46,8 +52,13 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.progress.StepProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * A preprocessor for annotation of the k nearest neighbors (and their
@@ -78,6 +89,11 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   private static final boolean usebulk = false;
 
+  /**
+   * Minimum number of objects per parallel block.
+   */
+  private static final int MIN_BLOCK = 64;
+
   /**
    * KNNQuery instance to use.
    */
@@ -88,6 +104,17 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    */
   protected final EventListenerList listenerList = new EventListenerList();
 
+  /**
+   * Store the neighbor lists packed, with single precision distances.
+   */
+  protected final boolean compact;
+
+  /**
+   * Set while the neighbors are being computed, so that the worker threads do
+   * not obtain a query backed by this (incomplete) preprocessor.
+   */
+  private boolean materializing = false;
+
   /**
    * Constructor with preprocessing step.
    * 
@@ -96,10 +123,33 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param k query k
    */
   public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k) {
+    this(relation, distanceFunction, k, false);
+  }
+
+  /**
+   * Constructor with preprocessing step.
+   * 
+   * @param relation Relation to preprocess
+   * @param distanceFunction the distance function to use
+   * @param k query k
+   * @param compact Store the neighbor lists packed, with single precision
+   *        distances
+   */
+  public MaterializeKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, boolean compact) {
     super(relation, distanceFunction, k);
+    this.compact = compact;
     this.knnQuery = relation.getDatabase().getKNNQuery(distanceQuery, k, DatabaseQuery.HINT_BULK, DatabaseQuery.HINT_HEAVY_USE, DatabaseQuery.HINT_NO_CACHE);
   }
 
+  @Override
+  void createStorage() {
+    if(compact) {
+      storage = DataStoreUtil.makeKNNStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, k);
+      return;
+    }
+    super.createStorage();
+  }
+
   /**
    * The actual preprocessing step.
    */
@@ -114,31 +164,82 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
-    List<? extends KNNList> kNNList = null;
-    if(usebulk) {
-      kNNList = knnQuery.getKNNForBulkDBIDs(ids, k);
-      if(kNNList != null) {
-        int i = 0;
-        for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
-          storage.put(id, kNNList.get(i));
-          getLogger().incrementProcessed(progress);
-        }
-      }
-    }
-    else {
-      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-        KNNList knn = knnQuery.getKNNForDBID(iter, k);
-        storage.put(iter, knn);
-        getLogger().incrementProcessed(progress);
-      }
-    }
+    materializeKNNs(ids, progress);
     getLogger().ensureCompleted(progress);
     if(duration != null) {
       LOG.statistics(duration.end());
     }
   }
 
+  /**
+   * Compute and store the k nearest neighbors of the given objects.
+   * 
+   * The objects are split into blocks that are processed in parallel, each
+   * with its own query object; the results are stored by the calling thread.
+   * 
+   * @param ids Objects to process
+   * @param progress Progress to increment (may be {@code null})
+   */
+  protected void materializeKNNs(final ArrayDBIDs ids, final FiniteProgress progress) {
+    final int size = ids.size();
+    final int threads = ParallelCore.ALL_PROCESSORS;
+    final int blocks = Math.max(1, Math.min(threads << 2, size / MIN_BLOCK));
+    final int[] begins = new int[blocks];
+    List<Callable<List<? extends KNNList>>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      final boolean shared = b == 0 || threads == 1;
+      begins[b] = begin;
+      tasks.add(new Callable<List<? extends KNNList>>() {
+        @Override
+        public List<? extends KNNList> call() {
+          final KNNQuery<O> q = shared ? knnQuery : newKNNQuery();
+          final ArrayDBIDs block = ids.slice(begin, end);
+          if(usebulk) {
+            return q.getKNNForBulkDBIDs(block, k);
+          }
+          List<KNNList> res = new ArrayList<>(end - begin);
+          for(DBIDIter iter = block.iter(); iter.valid(); iter.advance()) {
+            res.add(q.getKNNForDBID(iter, k));
+          }
+          return res;
+        }
+      });
+    }
+    materializing = true;
+    try {
+      BoundedTaskExecutor.run(tasks, threads, new BoundedTaskExecutor.ResultHandler<List<? extends KNNList>>() {
+        @Override
+        public void handleResult(int i, List<? extends KNNList> result) {
+          DBIDArrayIter iter = ids.iter().seek(begins[i]);
+          for(KNNList knn : result) {
+            storage.put(iter, knn);
+            iter.advance();
+            getLogger().incrementProcessed(progress);
+          }
+        }
+      });
+    }
+    finally {
+      materializing = false;
+    }
+  }
+
+  /**
+   * Obtain a new kNN query from the database, for use by a worker thread.
+   * 
+   * @return kNN query
+   */
+  private KNNQuery<O> newKNNQuery() {
+    KNNQuery<O> q = relation.getDatabase().getKNNQuery(distanceQuery, k, DatabaseQuery.HINT_BULK, DatabaseQuery.HINT_HEAVY_USE, DatabaseQuery.HINT_NO_CACHE);
+    return q != null ? q : knnQuery;
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distQ, Object... hints) {
+    return materializing ? null : super.getKNNQuery(distQ, hints);
+  }
+
   @Override
   public final void insert(DBIDRef id) {
     objectsInserted(DBIDUtil.deref(id));
@@ -177,13 +278,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
     // materialize the new kNNs
     getLogger().beginStep(stepprog, 1, "New insertions ocurred, materialize their new kNNs.");
-    // Bulk-query kNNs
-    List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(aids, k);
-    // Store in storage
-    DBIDIter iter = aids.iter();
-    for(int i = 0; i < aids.size(); i++, iter.advance()) {
-      storage.put(iter, kNNList.get(i));
-    }
+    materializeKNNs(aids, null);
 
     // update the affected kNNs
     getLogger().beginStep(stepprog, 2, "New insertions ocurred, update the affected kNNs.");
@@ -251,11 +346,7 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
 
     // update the kNNs of the RkNNs
-    List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(rkNN_ids, k);
-    DBIDIter iter = rkNN_ids.iter();
-    for(int i = 0; i < rkNN_ids.size(); i++, iter.advance()) {
-      storage.put(iter, kNNList.get(i));
-    }
+    materializeKNNs(rkNN_ids, null);
 
     return rkNN_ids;
   }
@@ -379,6 +470,20 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
    * @param <O> The object type
    */
   public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Flag to store the neighbor lists packed, with single precision
+     * distances.
+     * <p>
+     * Key: {@code -materialize.compact}
+     * </p>
+     */
+    public static final OptionID COMPACT_ID = new OptionID("materialize.compact", "Store the neighbor lists packed into flat arrays, with single precision distances. This halves the memory needed, but distances lose precision.");
+
+    /**
+     * Store the neighbor lists packed, with single precision distances.
+     */
+    protected boolean compact;
+
     /**
      * Index factory.
      * 
@@ -386,12 +491,25 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @param distanceFunction distance function
      */
     public Factory(int k, DistanceFunction<? super O> distanceFunction) {
+      this(k, distanceFunction, false);
+    }
+
+    /**
+     * Index factory.
+     * 
+     * @param k k parameter
+     * @param distanceFunction distance function
+     * @param compact Store the neighbor lists packed, with single precision
+     *        distances
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, boolean compact) {
       super(k, distanceFunction);
+      this.compact = compact;
     }
 
     @Override
     public MaterializeKNNPreprocessor<O> instantiate(Relation<O> relation) {
-      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k);
+      MaterializeKNNPreprocessor<O> instance = new MaterializeKNNPreprocessor<>(relation, distanceFunction, k, compact);
       return instance;
     }
 
@@ -403,9 +521,23 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
      * @apiviz.exclude
      */
     public static class Parameterizer<O> extends AbstractMaterializeKNNPreprocessor.Factory.Parameterizer<O> {
+      /**
+       * Store the neighbor lists packed, with single precision distances.
+       */
+      protected boolean compact;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        final Flag compactF = new Flag(COMPACT_ID);
+        if(config.grab(compactF)) {
+          compact = compactF.isTrue();
+        }
+      }
+
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(k, distanceFunction);
+        return new Factory<>(k, distanceFunction, compact);
       }
     }
   }
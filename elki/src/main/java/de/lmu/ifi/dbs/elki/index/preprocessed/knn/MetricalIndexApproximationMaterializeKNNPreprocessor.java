@@ -100,6 +100,7 @@ public class MetricalIndexApproximationMaterializeKNNPreprocessor<O extends Numb
 
     List<E> leaves = index.getLeaves();
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Processing leaf nodes.", leaves.size(), getLogger()) : null;
+    KNNHeap kNN = DBIDUtil.newHeap(k);
     for(E leaf : leaves) {
       N node = index.getNode(leaf);
       int size = node.getNumEntries();
@@ -114,7 +115,6 @@ public class MetricalIndexApproximationMaterializeKNNPreprocessor<O extends Numb
       }
       TObjectDoubleHashMap<DBIDPair> cache = new TObjectDoubleHashMap<>((size * size * 3) >> 2, Constants.DEFAULT_LOAD_FACTOR, Double.NaN);
       for(DBIDIter id = ids.iter(); id.valid(); id.advance()) {
-        KNNHeap kNN = DBIDUtil.newHeap(k);
         for(DBIDIter id2 = ids.iter(); id2.valid(); id2.advance()) {
           DBIDPair key = DBIDUtil.newPair(id, id2);
           double d = cache.remove(key);
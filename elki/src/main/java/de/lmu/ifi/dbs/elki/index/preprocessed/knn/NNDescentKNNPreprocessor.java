@@ -0,0 +1,928 @@
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+import java.util.Random;
+
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.IntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+
+/**
+ * Approximate kNN graph construction using NN-Descent.
+ * 
+ * Starting with an initial graph - random neighbors, or the results of another
+ * (approximate) kNN index such as
+ * {@link de.lmu.ifi.dbs.elki.index.lsh.InMemoryLSHIndex} - the graph is refined
+ * by comparing each object to the neighbors of its neighbors ("local join"),
+ * following the principle that a neighbor of a neighbor is likely to be a
+ * neighbor, too.
+ * 
+ * Each iteration runs in parallel: every object only updates its own neighbor
+ * list, using a snapshot of the neighbor lists (and their reverse lists) taken
+ * at the beginning of the iteration. Only a sample of the neighbors that were
+ * not yet joined is used in each iteration. The process stops when the number
+ * of updates falls below a fraction of the graph size, or when the recall -
+ * estimated on a small random sample using exact queries - reaches the target
+ * value.
+ * 
+ * The query object itself is always included in the materialized lists, at
+ * distance 0, consistent with the exact kNN preprocessors.
+ * 
+ * Reference:
+ * <p>
+ * W. Dong and C. Moses and K. Li<br />
+ * Efficient k-nearest neighbor graph construction for generic similarity
+ * measures<br />
+ * In: Proc. 20th International Conference on World Wide Web (WWW '11)
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf JoinProcessor
+ * @apiviz.uses KNNIndex
+ * 
+ * @param <O> Object type
+ */
+@Reference(authors = "W. Dong and C. Moses and K. Li", title = "Efficient k-nearest neighbor graph construction for generic similarity measures", booktitle = "Proc. 20th International Conference on World Wide Web (WWW '11)", url = "http://dx.doi.org/10.1145/1963405.1963487")
+public class NNDescentKNNPreprocessor<O> extends AbstractMaterializeKNNPreprocessor<O> {
+  /**
+   * Logger
+   */
+  private static final Logging LOG = Logging.getLogger(NNDescentKNNPreprocessor.class);
+
+  /**
+   * Statistics key prefix.
+   */
+  private static final String KEY = NNDescentKNNPreprocessor.class.getName();
+
+  /**
+   * Number of exact queries used to estimate the recall.
+   */
+  private static final int RECALL_SAMPLE_SIZE = 100;
+
+  /**
+   * Index used for the initial graph, may be {@code null}.
+   */
+  private final IndexFactory<O, ? extends KNNIndex<O>> initial;
+
+  /**
+   * Random generator
+   */
+  private final RandomFactory rnd;
+
+  /**
+   * Sampling rate for the local join.
+   */
+  private final double sample;
+
+  /**
+   * Maximum number of iterations.
+   */
+  private final int maxiter;
+
+  /**
+   * Early termination threshold (relative number of updates).
+   */
+  private final double delta;
+
+  /**
+   * Recall target.
+   */
+  private final double recall;
+
+  /**
+   * Number of iterations performed.
+   */
+  private int iterations = 0;
+
+  /**
+   * Number of distance computations performed.
+   */
+  private long distcalc = 0L;
+
+  /**
+   * Last recall estimate.
+   */
+  private double estimatedRecall = Double.NaN;
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to index
+   * @param distanceFunction distance function
+   * @param k k
+   * @param initial Index for the initial graph, may be {@code null}
+   * @param rnd Random generator
+   * @param sample Sampling rate for the local join
+   * @param maxiter Maximum number of iterations
+   * @param delta Early termination threshold
+   * @param recall Recall target
+   */
+  public NNDescentKNNPreprocessor(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, IndexFactory<O, ? extends KNNIndex<O>> initial, RandomFactory rnd, double sample, int maxiter, double delta, double recall) {
+    super(relation, distanceFunction, k);
+    this.initial = initial;
+    this.rnd = rnd;
+    this.sample = sample;
+    this.maxiter = maxiter;
+    this.delta = delta;
+    this.recall = recall;
+  }
+
+  @Override
+  protected void preprocess() {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final int size = ids.size();
+    // Number of neighbors in the graph, excluding the object itself.
+    final int kk = Math.min(k, size - 1);
+
+    WritableIntegerDataStore offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, -1);
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      offsets.putInt(iter, iter.getOffset());
+    }
+    final Random random = rnd.getSingleThreadedRandom();
+    Graph graph = new Graph(size, kk);
+    if(kk > 0) {
+      initializeGraph(ids, offsets, graph, random);
+      int[] rsample = null;
+      int[][] truth = null;
+      if(recall < 1.) {
+        rsample = new int[Math.min(RECALL_SAMPLE_SIZE, size)];
+        truth = computeTruth(ids, offsets, rsample, kk, random);
+      }
+
+      IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("NN-Descent iteration", LOG) : null;
+      final int samplesize = Math.max(1, (int) Math.ceil(sample * kk));
+      JoinProcessor proc = new JoinProcessor(distanceQuery, ids, offsets, graph);
+      while(iterations < maxiter) {
+        if(graph.snapshot(samplesize, random) == 0) {
+          break; // Nothing new to join.
+        }
+        ParallelExecutor.run(ids, proc);
+        ++iterations;
+        distcalc += proc.distcalc;
+        LOG.incrementProcessed(prog);
+        if(LOG.isDebuggingFine()) {
+          LOG.debugFine("Iteration " + iterations + ": " + proc.updates + " updates.");
+        }
+        if(proc.updates <= delta * size * kk) {
+          break;
+        }
+        if(truth != null) {
+          estimatedRecall = estimateRecall(graph, rsample, truth);
+          if(estimatedRecall >= recall) {
+            break;
+          }
+        }
+        proc.updates = 0;
+        proc.distcalc = 0L;
+      }
+      LOG.setCompleted(prog);
+      if(truth != null) {
+        estimatedRecall = estimateRecall(graph, rsample, truth);
+      }
+    }
+
+    // Materialize the kNN lists, including the query object itself.
+    createStorage();
+    DBIDArrayIter iter = ids.iter(), iter2 = ids.iter();
+    for(; iter.valid(); iter.advance()) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      heap.insert(0., iter);
+      final int base = iter.getOffset() * kk, end = base + graph.cnt[iter.getOffset()];
+      for(int i = base; i < end; i++) {
+        heap.insert(graph.dst[i], iter2.seek(graph.nbr[i]));
+      }
+      storage.put(iter, heap.toKNNList());
+    }
+    offsets.destroy();
+  }
+
+  /**
+   * Build the initial graph, from the initialization index (if available) and
+   * random neighbors.
+   * 
+   * @param ids Object ids
+   * @param offsets Map from ids to offsets
+   * @param graph Graph to initialize
+   * @param random Random generator
+   */
+  private void initializeGraph(ArrayDBIDs ids, IntegerDataStore offsets, Graph graph, Random random) {
+    final int size = ids.size(), kk = graph.kk;
+    KNNQuery<O> knnq = null;
+    if(initial != null) {
+      KNNIndex<O> idx = initial.instantiate(relation);
+      idx.initialize();
+      knnq = idx.getKNNQuery(distanceQuery, kk + 1);
+      if(knnq == null) {
+        LOG.warning("Initialization index does not support the distance function - using random initialization.");
+      }
+    }
+    DBIDArrayIter iter2 = ids.iter();
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      final int u = iter.getOffset();
+      if(knnq != null) {
+        for(DoubleDBIDListIter n = knnq.getKNNForDBID(iter, kk + 1).iter(); n.valid(); n.advance()) {
+          final int v = offsets.intValue(n);
+          if(v != u && !graph.contains(u, v)) {
+            graph.insert(u, v, n.doubleValue());
+          }
+        }
+      }
+      if(kk << 1 >= size) {
+        // Small data set: use all objects.
+        for(int v = 0; v < size; v++) {
+          if(v != u && !graph.contains(u, v)) {
+            graph.insert(u, v, distanceQuery.distance(iter, iter2.seek(v)));
+            ++distcalc;
+          }
+        }
+        continue;
+      }
+      while(graph.cnt[u] < kk) {
+        final int v = random.nextInt(size);
+        if(v != u && !graph.contains(u, v)) {
+          graph.insert(u, v, distanceQuery.distance(iter, iter2.seek(v)));
+          ++distcalc;
+        }
+      }
+    }
+  }
+
+  /**
+   * Compute the exact neighbors of a random sample, for estimating the recall.
+   * 
+   * @param ids Object ids
+   * @param offsets Map from ids to offsets
+   * @param sample Output array for the sample offsets
+   * @param kk Number of neighbors, excluding the query object
+   * @param random Random generator
+   * @return Sorted offsets of the true neighbors of each sample object
+   */
+  private int[][] computeTruth(ArrayDBIDs ids, IntegerDataStore offsets, int[] sample, int kk, Random random) {
+    KNNQuery<O> exact = QueryUtil.getLinearScanKNNQuery(distanceQuery);
+    int[][] truth = new int[sample.length][];
+    int i = 0;
+    for(DBIDIter iter = DBIDUtil.randomSample(ids, sample.length, random).iter(); iter.valid(); iter.advance(), i++) {
+      final int u = offsets.intValue(iter);
+      sample[i] = u;
+      int[] t = new int[kk];
+      int c = 0;
+      for(DoubleDBIDListIter n = exact.getKNNForDBID(iter, kk + 1).iter(); n.valid() && c < kk; n.advance()) {
+        final int v = offsets.intValue(n);
+        if(v != u) {
+          t[c++] = v;
+        }
+      }
+      truth[i] = t;
+      Arrays.sort(t, 0, c);
+    }
+    return truth;
+  }
+
+  /**
+   * Estimate the recall of the current graph.
+   * 
+   * @param graph Current graph
+   * @param sample Sample offsets
+   * @param truth True neighbors (sorted offsets)
+   * @return Estimated recall
+   */
+  private static double estimateRecall(Graph graph, int[] sample, int[][] truth) {
+    long hits = 0, total = 0;
+    for(int i = 0; i < sample.length; i++) {
+      final int base = sample[i] * graph.kk, end = base + graph.cnt[sample[i]];
+      for(int j = base; j < end; j++) {
+        if(Arrays.binarySearch(truth[i], graph.nbr[j]) >= 0) {
+          ++hits;
+        }
+      }
+      total += truth[i].length;
+    }
+    return total > 0 ? hits / (double) total : 1.;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public String getLongName() {
+    return "NN-descent kNN";
+  }
+
+  @Override
+  public String getShortName() {
+    return "nn-descent-knn";
+  }
+
+  @Override
+  public void logStatistics() {
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(KEY + ".iterations", iterations));
+      LOG.statistics(new LongStatistic(KEY + ".distance-computations", distcalc));
+      if(estimatedRecall == estimatedRecall) {
+        LOG.statistics(new DoubleStatistic(KEY + ".estimated-recall", estimatedRecall));
+      }
+    }
+  }
+
+  /**
+   * Processor performing the local join for each object, updating only the
+   * neighbors of this object.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class JoinProcessor implements Processor {
+    /**
+     * Distance query.
+     */
+    final DistanceQuery<?> distanceQuery;
+
+    /**
+     * Object ids, in offset order.
+     */
+    final ArrayDBIDs ids;
+
+    /**
+     * Map from ids to offsets.
+     */
+    final IntegerDataStore offsets;
+
+    /**
+     * Neighbor graph.
+     */
+    final Graph graph;
+
+    /**
+     * Number of updates in the current iteration.
+     */
+    int updates = 0;
+
+    /**
+     * Number of distance computations in the current iteration.
+     */
+    long distcalc = 0L;
+
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     * @param ids Object ids
+     * @param offsets Map from ids to offsets
+     * @param graph Neighbor graph
+     */
+    JoinProcessor(DistanceQuery<?> distanceQuery, ArrayDBIDs ids, IntegerDataStore offsets, Graph graph) {
+      super();
+      this.distanceQuery = distanceQuery;
+      this.ids = ids;
+      this.offsets = offsets;
+      this.graph = graph;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance();
+    }
+
+    @Override
+    public synchronized void cleanup(Processor.Instance inst) {
+      Instance instance = (Instance) inst;
+      updates += instance.updates;
+      distcalc += instance.distcalc;
+    }
+
+    /**
+     * Instance for a single thread.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * Last object that considered each candidate.
+       */
+      int[] seen = new int[ids.size()];
+
+      /**
+       * Iterator, for converting offsets to DBIDs.
+       */
+      DBIDArrayIter iter = ids.iter();
+
+      /**
+       * Number of updates.
+       */
+      int updates = 0;
+
+      /**
+       * Number of distance computations.
+       */
+      long distcalc = 0L;
+
+      @Override
+      public void map(DBIDRef id) {
+        final int u = offsets.intValue(id), stamp = u + 1;
+        // Skip the object itself, and the current neighbors.
+        seen[u] = stamp;
+        for(int i = u * graph.kk, end = i + graph.cnt[u]; i < end; i++) {
+          seen[graph.nbr[i]] = stamp;
+        }
+        // New neighbors are joined with all neighbors of the neighbor,
+        for(int v : graph.newl[u]) {
+          consider(id, u, v, stamp);
+          for(int w : graph.newl[v]) {
+            consider(id, u, w, stamp);
+          }
+          for(int w : graph.oldl[v]) {
+            consider(id, u, w, stamp);
+          }
+        }
+        // old neighbors only with the new neighbors of the neighbor.
+        for(int v : graph.oldl[u]) {
+          for(int w : graph.newl[v]) {
+            consider(id, u, w, stamp);
+          }
+        }
+      }
+
+      /**
+       * Consider a candidate neighbor.
+       * 
+       * @param id Object id
+       * @param u Object offset
+       * @param w Candidate offset
+       * @param stamp Stamp for the current object
+       */
+      private void consider(DBIDRef id, int u, int w, int stamp) {
+        if(seen[w] == stamp) {
+          return;
+        }
+        seen[w] = stamp;
+        ++distcalc;
+        if(graph.insert(u, w, distanceQuery.distance(id, iter.seek(w)))) {
+          ++updates;
+        }
+      }
+    }
+  }
+
+  /**
+   * The kNN graph, as sorted arrays of offsets and distances.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class Graph {
+    /**
+     * Number of neighbors per object.
+     */
+    final int kk;
+
+    /**
+     * Neighbor offsets, {@code kk} per object.
+     */
+    final int[] nbr;
+
+    /**
+     * Neighbor distances, ascending for each object.
+     */
+    final double[] dst;
+
+    /**
+     * Flag for neighbors that have not yet been joined.
+     */
+    final boolean[] isnew;
+
+    /**
+     * Number of neighbors of each object.
+     */
+    final int[] cnt;
+
+    /**
+     * Snapshot: new and old neighbors, including (sampled) reverse neighbors.
+     */
+    int[][] newl, oldl;
+
+    /**
+     * Constructor.
+     * 
+     * @param size Number of objects
+     * @param kk Number of neighbors
+     */
+    Graph(int size, int kk) {
+      if((long) size * kk > Integer.MAX_VALUE) {
+        throw new AbortException("kNN graph too large: " + size + " objects with " + kk + " neighbors each exceed " + Integer.MAX_VALUE + " entries.");
+      }
+      this.kk = kk;
+      this.nbr = new int[size * kk];
+      this.dst = new double[size * kk];
+      this.isnew = new boolean[size * kk];
+      this.cnt = new int[size];
+    }
+
+    /**
+     * Test whether v is a neighbor of u.
+     * 
+     * @param u Object offset
+     * @param v Neighbor offset
+     * @return {@code true} when contained
+     */
+    boolean contains(int u, int v) {
+      for(int i = u * kk, end = i + cnt[u]; i < end; i++) {
+        if(nbr[i] == v) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Insert a new neighbor, unless it is not better than the current k
+     * nearest neighbors. The caller must ensure that v is not yet contained.
+     * 
+     * @param u Object offset
+     * @param v Neighbor offset
+     * @param d Distance
+     * @return {@code true} when the neighbors were modified
+     */
+    boolean insert(int u, int v, double d) {
+      final int base = u * kk;
+      int i = cnt[u];
+      if(i == kk) {
+        if(!(d < dst[base + kk - 1])) {
+          return false;
+        }
+        --i; // Replace the last neighbor.
+      }
+      else {
+        cnt[u] = i + 1;
+      }
+      i += base;
+      for(; i > base && dst[i - 1] > d; i--) {
+        nbr[i] = nbr[i - 1];
+        dst[i] = dst[i - 1];
+        isnew[i] = isnew[i - 1];
+      }
+      nbr[i] = v;
+      dst[i] = d;
+      isnew[i] = true;
+      return true;
+    }
+
+    /**
+     * Take a snapshot of the new and old neighbors, and their reverse
+     * neighbors. New neighbors and all reverse lists are sampled down to
+     * {@code samplesize} entries. The sampled new neighbors are marked as old
+     * afterwards.
+     * 
+     * @param samplesize Sample size
+     * @param random Random generator
+     * @return Number of new neighbors before sampling
+     */
+    int snapshot(int samplesize, Random random) {
+      final int size = cnt.length;
+      boolean[] sampled = new boolean[isnew.length];
+      int[] fn = new int[size], fo = new int[size], rn = new int[size], ro = new int[size];
+      int numnew = 0;
+      for(int u = 0; u < size; u++) {
+        final int base = u * kk, end = base + cnt[u];
+        int newc = 0;
+        for(int i = base; i < end; i++) {
+          newc += isnew[i] ? 1 : 0;
+        }
+        numnew += newc;
+        // Selection sampling of the new neighbors.
+        int need = Math.min(newc, samplesize);
+        for(int i = base; i < end; i++) {
+          if(!isnew[i]) {
+            ++fo[u];
+            ++ro[nbr[i]];
+          }
+          else if(random.nextInt(newc--) < need) {
+            sampled[i] = true;
+            --need;
+            ++fn[u];
+            ++rn[nbr[i]];
+          }
+        }
+      }
+      newl = new int[size][];
+      oldl = new int[size][];
+      for(int u = 0; u < size; u++) {
+        newl[u] = new int[fn[u] + rn[u]];
+        oldl[u] = new int[fo[u] + ro[u]];
+      }
+      // Forward lists, followed by the reverse lists.
+      int[] pn = new int[size], po = new int[size], prn = new int[size], pro = new int[size];
+      for(int u = 0, i = 0; u < size; u++, i = u * kk) {
+        for(int end = i + cnt[u]; i < end; i++) {
+          final int v = nbr[i];
+          if(sampled[i]) {
+            newl[u][pn[u]++] = v;
+            newl[v][fn[v] + prn[v]++] = u;
+            isnew[i] = false;
+          }
+          else if(!isnew[i]) {
+            oldl[u][po[u]++] = v;
+            oldl[v][fo[v] + pro[v]++] = u;
+          }
+        }
+      }
+      for(int u = 0; u < size; u++) {
+        if(rn[u] > samplesize) {
+          newl[u] = sampleTail(newl[u], fn[u], samplesize, random);
+        }
+        if(ro[u] > samplesize) {
+          oldl[u] = sampleTail(oldl[u], fo[u], samplesize, random);
+        }
+      }
+      return numnew;
+    }
+
+    /**
+     * Randomly sample the tail of an array, keeping the head.
+     * 
+     * @param a Array
+     * @param start Start of the tail
+     * @param keep Number of tail elements to keep
+     * @param random Random generator
+     * @return Truncated array
+     */
+    private static int[] sampleTail(int[] a, int start, int keep, Random random) {
+      for(int i = start, end = start + keep; i < end; i++) {
+        final int j = i + random.nextInt(a.length - i);
+        final int tmp = a[i];
+        a[i] = a[j];
+        a[j] = tmp;
+      }
+      return Arrays.copyOf(a, start + keep);
+    }
+  }
+
+  /**
+   * The parameterizable factory.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.landmark
+   * @apiviz.stereotype factory
+   * @apiviz.uses NNDescentKNNPreprocessor oneway - - «create»
+   * 
+   * @param <O> The object type
+   */
+  public static class Factory<O> extends AbstractMaterializeKNNPreprocessor.Factory<O> {
+    /**
+     * Index used for the initial graph, may be {@code null}.
+     */
+    private final IndexFactory<O, ? extends KNNIndex<O>> initial;
+
+    /**
+     * Random generator
+     */
+    private final RandomFactory rnd;
+
+    /**
+     * Sampling rate for the local join.
+     */
+    private final double sample;
+
+    /**
+     * Maximum number of iterations.
+     */
+    private final int maxiter;
+
+    /**
+     * Early termination threshold.
+     */
+    private final double delta;
+
+    /**
+     * Recall target.
+     */
+    private final double recall;
+
+    /**
+     * Constructor.
+     * 
+     * @param k K
+     * @param distanceFunction distance function
+     * @param initial Index for the initial graph, may be {@code null}
+     * @param rnd Random generator
+     * @param sample Sampling rate for the local join
+     * @param maxiter Maximum number of iterations
+     * @param delta Early termination threshold
+     * @param recall Recall target
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, IndexFactory<O, ? extends KNNIndex<O>> initial, RandomFactory rnd, double sample, int maxiter, double delta, double recall) {
+      super(k, distanceFunction);
+      this.initial = initial;
+      this.rnd = rnd;
+      this.sample = sample;
+      this.maxiter = maxiter;
+      this.delta = delta;
+      this.recall = recall;
+    }
+
+    @Override
+    public NNDescentKNNPreprocessor<O> instantiate(Relation<O> relation) {
+      return new NNDescentKNNPreprocessor<>(relation, distanceFunction, k, initial, rnd, sample, maxiter, delta, recall);
+    }
+
+    /**
+     * Parameterization class
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     * 
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractMaterializeKNNPreprocessor.Factory.Parameterizer<O> {
+      /**
+       * Index to use for the initial graph.
+       * 
+       * <p>
+       * Key: {@code -nndescent.initialization}
+       * </p>
+       */
+      public static final OptionID INITIAL_ID = new OptionID("nndescent.initialization", "Index used to compute the initial kNN graph, e.g. locality sensitive hashing. If not set, random neighbors are used.");
+
+      /**
+       * Random number generator seed.
+       * 
+       * <p>
+       * Key: {@code -nndescent.seed}
+       * </p>
+       */
+      public static final OptionID SEED_ID = new OptionID("nndescent.seed", "The random number seed.");
+
+      /**
+       * Sampling rate for the local join.
+       * 
+       * <p>
+       * Key: {@code -nndescent.sample}
+       * </p>
+       */
+      public static final OptionID SAMPLE_ID = new OptionID("nndescent.sample", "Sampling rate: share of the new neighbors (and reverse neighbors) used in each local join.");
+
+      /**
+       * Maximum number of iterations.
+       * 
+       * <p>
+       * Key: {@code -nndescent.iterations}
+       * </p>
+       */
+      public static final OptionID ITER_ID = new OptionID("nndescent.iterations", "Maximum number of iterations.");
+
+      /**
+       * Early termination threshold.
+       * 
+       * <p>
+       * Key: {@code -nndescent.delta}
+       * </p>
+       */
+      public static final OptionID DELTA_ID = new OptionID("nndescent.delta", "Stop when less than this share of the kNN graph was updated in an iteration.");
+
+      /**
+       * Recall target.
+       * 
+       * <p>
+       * Key: {@code -nndescent.recall}
+       * </p>
+       */
+      public static final OptionID RECALL_ID = new OptionID("nndescent.recall", "Stop when the recall, estimated using exact queries for a small sample, reaches this value. 1 disables the estimation.");
+
+      /**
+       * Index used for the initial graph.
+       */
+      private IndexFactory<O, ? extends KNNIndex<O>> initial;
+
+      /**
+       * Random generator
+       */
+      private RandomFactory rnd;
+
+      /**
+       * Sampling rate for the local join.
+       */
+      private double sample;
+
+      /**
+       * Maximum number of iterations.
+       */
+      private int maxiter;
+
+      /**
+       * Early termination threshold.
+       */
+      private double delta;
+
+      /**
+       * Recall target.
+       */
+      private double recall;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<IndexFactory<O, ? extends KNNIndex<O>>> initialP = new ObjectParameter<>(INITIAL_ID, IndexFactory.class);
+        initialP.setOptional(true);
+        if(config.grab(initialP)) {
+          initial = initialP.instantiateClass(config);
+        }
+        RandomParameter rndP = new RandomParameter(SEED_ID);
+        if(config.grab(rndP)) {
+          rnd = rndP.getValue();
+        }
+        DoubleParameter sampleP = new DoubleParameter(SAMPLE_ID, 0.5);
+        sampleP.addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE);
+        sampleP.addConstraint(CommonConstraints.LESS_EQUAL_ONE_DOUBLE);
+        if(config.grab(sampleP)) {
+          sample = sampleP.doubleValue();
+        }
+        IntParameter iterP = new IntParameter(ITER_ID, 20);
+        iterP.addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(iterP)) {
+          maxiter = iterP.intValue();
+        }
+        DoubleParameter deltaP = new DoubleParameter(DELTA_ID, 0.001);
+        deltaP.addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_DOUBLE);
+        deltaP.addConstraint(CommonConstraints.LESS_THAN_ONE_DOUBLE);
+        if(config.grab(deltaP)) {
+          delta = deltaP.doubleValue();
+        }
+        DoubleParameter recallP = new DoubleParameter(RECALL_ID, 1.);
+        recallP.addConstraint(CommonConstraints.GREATER_THAN_ZERO_DOUBLE);
+        recallP.addConstraint(CommonConstraints.LESS_EQUAL_ONE_DOUBLE);
+        if(config.grab(recallP)) {
+          recall = recallP.doubleValue();
+        }
+      }
+
+      @Override
+      protected NNDescentKNNPreprocessor.Factory<O> makeInstance() {
+        return new NNDescentKNNPreprocessor.Factory<>(k, distanceFunction, initial, rnd, sample, maxiter, delta, recall);
+      }
+    }
+  }
+}
@@ -104,12 +104,12 @@ public class PartitionApproximationMaterializeKNNPreprocessor<O> extends Abstrac
     ArrayDBIDs[] parts = DBIDUtil.randomSplit(relation.getDBIDs(), partitions, rnd);
 
     FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Processing partitions.", partitions, LOG) : null;
+    KNNHeap kNN = DBIDUtil.newHeap(k);
     for(int part = 0; part < partitions; part++) {
       final ArrayDBIDs ids = parts[part];
       final int size = ids.size();
       TObjectDoubleHashMap<DBIDPair> cache = new TObjectDoubleHashMap<>((size * size * 3) >> 3, Constants.DEFAULT_LOAD_FACTOR, Double.NaN);
       for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-        KNNHeap kNN = DBIDUtil.newHeap(k);
         for(DBIDIter iter2 = ids.iter(); iter2.valid(); iter2.advance()) {
           DBIDPair key = DBIDUtil.newPair(iter, iter2);
           double d = cache.remove(key);
@@ -101,9 +101,9 @@ public class RandomSampleKNNPreprocessor<O> extends AbstractMaterializeKNNPrepro
     final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
     final int samplesize = (int) (ids.size() * share);
 
+    // The heap is reused, as toKNNList() empties it.
+    KNNHeap kNN = DBIDUtil.newHeap(k);
     for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      KNNHeap kNN = DBIDUtil.newHeap(k);
-
       DBIDs rsamp = DBIDUtil.randomSample(ids, samplesize, rnd);
       for(DBIDIter iter2 = rsamp.iter(); iter2.valid(); iter2.advance()) {
         double dist = distanceQuery.distance(iter, iter2);
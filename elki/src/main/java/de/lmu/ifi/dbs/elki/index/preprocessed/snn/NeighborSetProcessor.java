@@ -0,0 +1,134 @@
+package de.lmu.ifi.dbs.elki.index.preprocessed.snn;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+
+/**
+ * Processor to store the sorted nearest neighbor set of each object, used by
+ * {@link SharedNearestNeighborPreprocessor}.
+ * 
+ * Needs the k nearest neighbors as input, for example from {@link KNNProcessor}
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has Instance
+ * @apiviz.uses KNNList
+ */
+public class NeighborSetProcessor implements Processor {
+  /**
+   * Number of neighbors to keep.
+   */
+  int k;
+
+  /**
+   * Output storage.
+   */
+  WritableDataStore<ArrayDBIDs> storage;
+
+  /**
+   * KNN input channel
+   */
+  SharedObject<? extends KNNList> input;
+
+  /**
+   * Constructor.
+   * 
+   * @param k Number of neighbors to keep
+   * @param storage Storage to write to
+   */
+  public NeighborSetProcessor(int k, WritableDataStore<ArrayDBIDs> storage) {
+    super();
+    this.k = k;
+    this.storage = storage;
+  }
+
+  /**
+   * Connect the input channel.
+   * 
+   * @param input Input channel
+   */
+  public void connectKNNInput(SharedObject<? extends KNNList> input) {
+    this.input = input;
+  }
+
+  @Override
+  public Instance instantiate(Executor executor) {
+    return new Instance(executor.getInstance(input));
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance for a single thread.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private class Instance implements Processor.Instance {
+    /**
+     * kNN input
+     */
+    SharedObject.Instance<? extends KNNList> input;
+
+    /**
+     * Constructor.
+     * 
+     * @param input kNN list input
+     */
+    protected Instance(SharedObject.Instance<? extends KNNList> input) {
+      super();
+      this.input = input;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      final KNNList list = input.get();
+      ArrayModifiableDBIDs neighbors = DBIDUtil.newArray(k);
+      // Size limitation to exactly k
+      for(DBIDIter iter = list.iter(); iter.valid() && neighbors.size() < k; iter.advance()) {
+        neighbors.add(iter);
+      }
+      neighbors.sort();
+      // The storage may be hash based, and is then not thread safe.
+      synchronized(storage) {
+        storage.put(id, neighbors);
+      }
+    }
+  }
+}
@@ -28,11 +28,8 @@ import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
@@ -40,7 +37,9 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistance
 import de.lmu.ifi.dbs.elki.index.preprocessed.AbstractPreprocessorIndex;
 import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
 import de.lmu.ifi.dbs.elki.logging.Logging;
-import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -59,12 +58,15 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * This functionality is similar but not identical to
  * {@link MaterializeKNNPreprocessor}: While it also computes the k nearest
  * neighbors, it does not keep the actual distances, but organizes the NN set in
- * a TreeSet for fast set operations.
+ * a sorted array for fast set operations.
+ * 
+ * The neighbor sets are computed in parallel, on all available cores.
  * 
  * @author Arthur Zimek
  * @author Erich Schubert
  * 
  * @apiviz.has DistanceFunction
+ * @apiviz.uses NeighborSetProcessor
  * 
  * @param <O> the type of database objects the preprocessor can be applied to
  */
@@ -107,24 +109,14 @@ public class SharedNearestNeighborPreprocessor<O> extends AbstractPreprocessorIn
     storage = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, ArrayDBIDs.class);
     KNNQuery<O> knnquery = QueryUtil.getKNNQuery(relation, distanceFunction, numberOfNeighbors);
 
-    FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("assigning nearest neighbor lists", relation.size(), getLogger()) : null;
-    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      ArrayModifiableDBIDs neighbors = DBIDUtil.newArray(numberOfNeighbors);
-      DBIDs kNN = knnquery.getKNNForDBID(iditer, numberOfNeighbors);
-      for(DBIDIter iter = kNN.iter(); iter.valid(); iter.advance()) {
-        // if(!id.equals(nid)) {
-        neighbors.add(iter);
-        // }
-        // Size limitation to exactly numberOfNeighbors
-        if(neighbors.size() >= numberOfNeighbors) {
-          break;
-        }
-      }
-      neighbors.sort();
-      storage.put(iditer, neighbors);
-      getLogger().incrementProcessed(progress);
-    }
-    getLogger().ensureCompleted(progress);
+    // Compute the kNN, and store the sorted neighbor sets, in parallel.
+    KNNProcessor<O> knnm = new KNNProcessor<>(numberOfNeighbors, knnquery);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    NeighborSetProcessor storem = new NeighborSetProcessor(numberOfNeighbors, storage);
+    storem.connectKNNInput(knnv);
+
+    ParallelExecutor.run(relation.getDBIDs(), knnm, storem);
   }
 
   @Override
@@ -190,6 +190,16 @@ public abstract class IndexTree<N extends Node<E>, E extends Entry> {
     file.writePage(node);
   }
 
+  /**
+   * Assign a page id to a new node, without writing it yet.
+   * 
+   * @param node New node
+   * @return Page ID
+   */
+  protected int assignPageID(N node) {
+    return file.setPageID(node);
+  }
+
   /**
    * Delete a node from the backing storage.
    * 
@@ -26,6 +26,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
@@ -39,6 +40,9 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.Di
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
 
@@ -63,6 +67,11 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
    */
   protected static final boolean EXTRA_INTEGRITY_CHECKS = false;
 
+  /**
+   * Minimum number of entries, to partition and build nodes in parallel.
+   */
+  private static final int BULK_PARALLEL_THRESHOLD = 1 << 14;
+
   /**
    * Tree settings.
    */
@@ -205,11 +214,291 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     if(!initialized && entries.size() > 0) {
       initialize(entries.get(0));
     }
+    if(entries.size() > 0 && canBulkLoad()) {
+      bulkLoad(entries);
+      return;
+    }
     for(E entry : entries) {
       insert(entry, false);
     }
   }
 
+  /**
+   * Test whether a bulk load is possible, i.e. bulk loading is enabled and the
+   * (initialized) tree is still empty.
+   * 
+   * @return Success code
+   */
+  public boolean canBulkLoad() {
+    return settings.bulk && getRoot().getNumEntries() == 0;
+  }
+
+  /**
+   * Bulk load the empty tree with the given entries.
+   * 
+   * The entries are partitioned recursively around pivots (sampled evenly from
+   * each partition, for reproducible results) until each partition fits into a
+   * leaf; the pivot of each partition becomes the routing object of its node.
+   * The directory entries of each level are partitioned the same way, until
+   * they fit into the root, so the tree is built bottom-up and balanced. Large
+   * partitions and levels are processed in parallel.
+   * 
+   * @param entries Entries to bulk load
+   */
+  protected void bulkLoad(List<E> entries) {
+    final int leafMax = leafCapacity - 1, dirMax = dirCapacity - 1;
+    List<E> level = entries;
+    boolean leaf = true;
+    while(level.size() > (leaf ? leafMax : dirMax)) {
+      List<BulkPartition<E>> partitions = bulkPartition(level, leaf ? leafMax : dirMax, dirMax, true);
+      level = createBulkNodes(partitions, leaf);
+      leaf = false;
+    }
+    // Fill the root node.
+    N root = getRoot();
+    if(!leaf) {
+      root = createNewDirectoryNode();
+      root.setPageID(getRootID());
+    }
+    for(E entry : level) {
+      if(leaf) {
+        root.addLeafEntry(entry);
+      }
+      else {
+        root.addDirectoryEntry(entry);
+      }
+    }
+    E rootEntry = getRootEntry();
+    root.adjustEntry(rootEntry, rootEntry.getRoutingObjectID(), rootEntry.getParentDistance(), this);
+    writeNode(root);
+    if(getLogger().isDebugging()) {
+      getLogger().debugFine("Bulk loaded " + entries.size() + " entries, height = " + getHeight());
+    }
+    if(EXTRA_INTEGRITY_CHECKS) {
+      getRoot().integrityCheck(this, getRootEntry());
+    }
+  }
+
+  /**
+   * Recursively partition the entries around pivots, until each partition has
+   * at most {@code capacity} entries.
+   * 
+   * @param entries Entries to partition
+   * @param capacity Maximum partition size
+   * @param fanout Maximum number of pivots per step
+   * @param parallel Process large inputs in parallel
+   * @return Partitions, in a deterministic order
+   */
+  private List<BulkPartition<E>> bulkPartition(final List<E> entries, final int capacity, int fanout, boolean parallel) {
+    final int size = entries.size();
+    final int k = Math.max(2, Math.min(fanout, (size + capacity - 1) / capacity));
+    final List<E> pivots = new ArrayList<>(k);
+    for(int i = 0; i < k; i++) {
+      pivots.add(entries.get((int) (i * (long) size / k)));
+    }
+    // Assign each entry to the nearest pivot, the first one on ties.
+    final int[] assignment = new int[size];
+    final double[] dists = new double[size];
+    final int blocks = parallel && size >= BULK_PARALLEL_THRESHOLD ? ParallelCore.ALL_PROCESSORS : 1;
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(int i = begin; i < end; i++) {
+            final E entry = entries.get(i);
+            int best = 0;
+            double bestd = distance(pivots.get(0), entry);
+            for(int j = 1; j < k; j++) {
+              final double d = distance(pivots.get(j), entry);
+              if(d < bestd) {
+                best = j;
+                bestd = d;
+              }
+            }
+            assignment[i] = best;
+            dists[i] = bestd;
+          }
+          return null;
+        }
+      });
+    }
+    runBulkTasks(tasks);
+    // Collect the groups.
+    final int[] sizes = new int[k];
+    for(int i = 0; i < size; i++) {
+      ++sizes[assignment[i]];
+    }
+    List<BulkPartition<E>> groups = new ArrayList<>(k);
+    for(int j = 0; j < k; j++) {
+      if(sizes[j] == 0) {
+        continue;
+      }
+      if(sizes[j] == size) {
+        // Degenerate case (e.g. duplicates): split in order.
+        return chunkPartition(entries, capacity);
+      }
+      List<E> members = new ArrayList<>(sizes[j]);
+      double[] mdists = new double[sizes[j]];
+      for(int i = 0; i < size; i++) {
+        if(assignment[i] == j) {
+          mdists[members.size()] = dists[i];
+          members.add(entries.get(i));
+        }
+      }
+      groups.add(new BulkPartition<>(pivots.get(j).getRoutingObjectID(), members, mdists));
+    }
+    // Partition large groups further, in parallel, keeping the group order.
+    final List<List<BulkPartition<E>>> results = new ArrayList<>(Collections.nCopies(groups.size(), (List<BulkPartition<E>>) null));
+    List<Callable<Void>> subtasks = new ArrayList<>();
+    for(int j = 0; j < groups.size(); j++) {
+      final BulkPartition<E> group = groups.get(j);
+      if(group.members.size() <= capacity) {
+        results.set(j, Collections.singletonList(centerPartition(group.members)));
+        continue;
+      }
+      if(!parallel || group.members.size() < BULK_PARALLEL_THRESHOLD) {
+        results.set(j, bulkPartition(group.members, capacity, fanout, false));
+        continue;
+      }
+      final int fk = fanout, fj = j;
+      subtasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          results.set(fj, bulkPartition(group.members, capacity, fk, false));
+          return null;
+        }
+      });
+    }
+    runBulkTasks(subtasks);
+    List<BulkPartition<E>> ret = new ArrayList<>();
+    for(List<BulkPartition<E>> result : results) {
+      ret.addAll(result);
+    }
+    return ret;
+  }
+
+  /**
+   * Split the entries in order into partitions of at most {@code capacity}
+   * entries.
+   * 
+   * @param entries Entries to partition
+   * @param capacity Maximum partition size
+   * @return Partitions
+   */
+  private List<BulkPartition<E>> chunkPartition(List<E> entries, int capacity) {
+    final int size = entries.size();
+    List<BulkPartition<E>> ret = new ArrayList<>((size + capacity - 1) / capacity);
+    for(int begin = 0; begin < size; begin += capacity) {
+      ret.add(centerPartition(entries.subList(begin, Math.min(begin + capacity, size))));
+    }
+    return ret;
+  }
+
+  /**
+   * Choose the routing object of a node, as the member that minimizes the
+   * covering radius.
+   * 
+   * @param members Members of the node
+   * @return Partition
+   */
+  private BulkPartition<E> centerPartition(List<E> members) {
+    final int m = members.size();
+    double[][] dists = new double[m][m];
+    for(int i = 0; i < m; i++) {
+      final E ei = members.get(i);
+      for(int j = 0; j < i; j++) {
+        dists[i][j] = dists[j][i] = distance(ei, members.get(j));
+      }
+    }
+    int best = 0;
+    double bestr = Double.POSITIVE_INFINITY;
+    for(int i = 0; i < m; i++) {
+      double r = 0.;
+      for(int j = 0; j < m && r < bestr; j++) {
+        r = Math.max(r, dists[i][j] + members.get(j).getCoveringRadius());
+      }
+      if(r < bestr) {
+        best = i;
+        bestr = r;
+      }
+    }
+    return new BulkPartition<>(members.get(best).getRoutingObjectID(), members, dists[best]);
+  }
+
+  /**
+   * Create the nodes for the partitions of a bulk load.
+   * 
+   * Page ids are assigned in partition order, then the nodes are filled and
+   * their directory entries are computed in parallel, and finally the pages
+   * are written sequentially.
+   * 
+   * @param partitions Partitions, one per node
+   * @param leaf Create leaf nodes (otherwise, directory nodes)
+   * @return Directory entries of the new nodes
+   */
+  private List<E> createBulkNodes(final List<BulkPartition<E>> partitions, final boolean leaf) {
+    final int num = partitions.size();
+    final List<N> nodes = new ArrayList<>(num);
+    int size = 0;
+    for(BulkPartition<E> partition : partitions) {
+      N node = leaf ? createNewLeafNode() : createNewDirectoryNode();
+      assignPageID(node);
+      nodes.add(node);
+      size += partition.members.size();
+    }
+    final List<E> result = new ArrayList<>(Collections.nCopies(num, (E) null));
+    final int blocks = size < BULK_PARALLEL_THRESHOLD ? 1 : Math.min(num, ParallelCore.ALL_PROCESSORS);
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) num / blocks), end = (int) ((b + 1) * (long) num / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(int i = begin; i < end; i++) {
+            final BulkPartition<E> partition = partitions.get(i);
+            final N node = nodes.get(i);
+            for(int j = 0; j < partition.dists.length; j++) {
+              final E entry = partition.members.get(j);
+              entry.setParentDistance(partition.dists[j]);
+              if(leaf) {
+                node.addLeafEntry(entry);
+              }
+              else {
+                node.addDirectoryEntry(entry);
+              }
+            }
+            result.set(i, createNewDirectoryEntry(node, partition.pivot, Double.NaN));
+          }
+          return null;
+        }
+      });
+    }
+    runBulkTasks(tasks);
+    for(N node : nodes) {
+      writeNode(node);
+    }
+    return result;
+  }
+
+  /**
+   * Run bulk loading tasks.
+   * 
+   * @param tasks Tasks
+   */
+  private static void runBulkTasks(List<Callable<Void>> tasks) {
+    if(tasks.isEmpty()) {
+      return;
+    }
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+  }
+
   @Override
   protected final void createEmptyRoot(E exampleLeaf) {
     N root = createNewLeafNode();
@@ -485,6 +774,46 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     }
   }
 
+  /**
+   * Partition of a bulk load: the entries of one node, and their distances to
+   * the routing object.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   * 
+   * @param <E> Entry type
+   */
+  private static class BulkPartition<E> {
+    /**
+     * Routing object (pivot).
+     */
+    final DBID pivot;
+
+    /**
+     * Member entries.
+     */
+    final List<E> members;
+
+    /**
+     * Distances of the members to the pivot.
+     */
+    final double[] dists;
+
+    /**
+     * Constructor.
+     * 
+     * @param pivot Routing object
+     * @param members Member entries
+     * @param dists Distances of the members to the pivot
+     */
+    BulkPartition(DBID pivot, List<E> members, double[] dists) {
+      this.pivot = pivot;
+      this.members = members;
+      this.dists = dists;
+    }
+  }
+
   /**
    * Class for tracking some statistics.
    * 
@@ -514,9 +843,10 @@ public abstract class AbstractMTree<O, N extends AbstractMTreeNode<O, N, E>, E e
     public Statistics() {
       super();
       Logging log = getLogger();
-      distanceCalcs = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".distancecalcs") : null;
-      knnQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".knnqueries") : null;
-      rangeQueries = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".rangequeries") : null;
+      // Striped counters, as queries may run concurrently.
+      distanceCalcs = log.isStatistics() ? new StripedLongCounter(this.getClass().getName() + ".distancecalcs") : null;
+      knnQueries = log.isStatistics() ? new StripedLongCounter(this.getClass().getName() + ".knnqueries") : null;
+      rangeQueries = log.isStatistics() ? new StripedLongCounter(this.getClass().getName() + ".rangequeries") : null;
     }
 
     /**
@@ -35,6 +35,7 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.strategies.split.MT
 import de.lmu.ifi.dbs.elki.persistent.PageFileFactory;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -111,6 +112,14 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
      */
     public static final OptionID INSERT_STRATEGY_ID = new OptionID("mtree.insert", "Insertion strategy to use for constructing the M-tree.");
 
+    /**
+     * Flag to bulk load the tree, instead of inserting one object at a time.
+     * <p>
+     * Key: {@code -mtree.bulk}
+     * </p>
+     */
+    public static final OptionID BULK_LOAD_ID = new OptionID("mtree.bulk", "Bulk load the M-tree by recursive partitioning around pivots, instead of inserting one object at a time.");
+
     /**
      * Tree settings.
      */
@@ -132,6 +141,10 @@ public abstract class AbstractMTreeFactory<O, N extends AbstractMTreeNode<O, N,
       if (config.grab(insertStrategyP)) {
         settings.insertStrategy = insertStrategyP.instantiateClass(config);
       }
+      Flag bulkF = new Flag(BULK_LOAD_ID);
+      if (config.grab(bulkF)) {
+        settings.bulk = bulkF.isTrue();
+      }
     }
 
     abstract protected S makeSettings();
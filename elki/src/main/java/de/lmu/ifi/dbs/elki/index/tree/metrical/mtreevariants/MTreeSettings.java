@@ -51,4 +51,9 @@ public class MTreeSettings<O, N extends AbstractMTreeNode<O, N, E>, E extends MT
    * Insertion strategy.
    */
   protected MTreeInsert<O, N, E> insertStrategy;
+
+  /**
+   * Bulk load the tree, instead of inserting one object at a time.
+   */
+  protected boolean bulk = false;
 }
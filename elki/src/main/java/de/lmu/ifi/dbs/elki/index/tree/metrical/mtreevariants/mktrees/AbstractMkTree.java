@@ -23,11 +23,15 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -41,6 +45,8 @@ import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.AbstractMTreeNode;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.MTreeEntry;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.MTreeSettings;
 import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.query.MTreeQueryUtil;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 
 /**
@@ -105,15 +111,41 @@ public abstract class AbstractMkTree<O, N extends AbstractMTreeNode<O, N, E>, E
    *        performed
    * @param ids the ids of the query objects
    * @param kmax Maximum k value
+   * @return kNN lists of the query objects
    * 
    * @deprecated Change to use by-object NN lookups instead.
    */
   @Deprecated
-  protected final Map<DBID, KNNList> batchNN(N node, DBIDs ids, int kmax) {
-    Map<DBID, KNNList> res = new HashMap<>(ids.size());
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      res.put(id, knnq.getKNNForDBID(id, kmax));
+  protected final Map<DBID, KNNList> batchNN(N node, DBIDs ids, final int kmax) {
+    final ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    final int size = aids.size();
+    final KNNList[] knns = new KNNList[size];
+    // The queries only read the tree, and can run concurrently.
+    final int blocks = Math.max(1, Math.min(size, ParallelCore.ALL_PROCESSORS << 2));
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DBIDArrayIter iter = aids.iter();
+          for(int i = begin; i < end; i++) {
+            knns[i] = knnq.getKNNForDBID(iter.seek(i), kmax);
+          }
+          return null;
+        }
+      });
+    }
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+    Map<DBID, KNNList> res = new HashMap<>(size);
+    DBIDArrayIter iter = aids.iter();
+    for(int i = 0; i < size; i++) {
+      res.put(DBIDUtil.deref(iter.seek(i)), knns[i]);
     }
     return res;
   }
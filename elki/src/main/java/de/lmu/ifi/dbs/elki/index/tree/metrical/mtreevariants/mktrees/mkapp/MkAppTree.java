@@ -113,12 +113,18 @@ public class MkAppTree<O> extends AbstractMkTree<O, MkAppTreeNode<O>, MkAppEntry
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-
-    // insert
     for(MkAppEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
+    }
+
+    if(canBulkLoad()) {
+      bulkLoad(entries);
+    }
+    else {
+      // insert sequentially
+      for(MkAppEntry entry : entries) {
+        super.insert(entry, false);
+      }
     }
 
     // do batch nn
@@ -116,12 +116,18 @@ public class MkCoPTree<O> extends AbstractMkTree<O, MkCoPTreeNode<O>, MkCoPEntry
     }
 
     ModifiableDBIDs ids = DBIDUtil.newArray(entries.size());
-
-    // insert
     for(MkCoPEntry entry : entries) {
       ids.add(entry.getRoutingObjectID());
-      // insert the object
-      super.insert(entry, false);
+    }
+
+    if(canBulkLoad()) {
+      bulkLoad(entries);
+    }
+    else {
+      // insert sequentially
+      for(MkCoPEntry entry : entries) {
+        super.insert(entry, false);
+      }
     }
 
     // perform nearest neighbor queries
@@ -99,9 +99,8 @@ public class MkMaxTreeIndex<O> extends MkMaxTree<O> implements RangeIndex<O>, KN
   public void insertAll(DBIDs ids) {
     List<MkMaxEntry> objs = new ArrayList<>(ids.size());
     for (DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      final O object = relation.get(id);
-      objs.add(createNewLeafEntry(id, object, Double.NaN));
+      // The kNN distances are computed in a single batch after insertion.
+      objs.add(new MkMaxLeafEntry(DBIDUtil.deref(iter), Double.NaN, Double.NaN));
     }
     insertAll(objs);
   }
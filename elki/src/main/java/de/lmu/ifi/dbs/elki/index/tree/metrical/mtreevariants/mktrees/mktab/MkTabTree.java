@@ -141,7 +141,7 @@ public class MkTabTree<O> extends AbstractMkTreeUnified<O, MkTabTreeNode<O>, MkT
     if(node.isLeaf()) {
       for(int i = 0; i < node.getNumEntries(); i++) {
         MkTabEntry leafEntry = node.getEntry(i);
-        KNNList knns = knnLists.get(getPageID(leafEntry));
+        KNNList knns = knnLists.get(leafEntry.getRoutingObjectID());
         double[] distances = new double[knns.size()];
         int j = 0;
         for(DoubleDBIDListIter iter = knns.iter(); iter.valid(); iter.advance(), j++) {
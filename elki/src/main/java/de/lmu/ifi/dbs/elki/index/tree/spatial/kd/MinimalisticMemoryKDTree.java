@@ -23,6 +23,9 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
@@ -51,11 +54,17 @@ import de.lmu.ifi.dbs.elki.index.AbstractIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.persistent.IndexFile;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
 
 /**
  * Simple implementation of a static in-memory K-D-tree. Does not support
@@ -71,7 +80,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * @param <O> Vector type
  */
 @Reference(authors = "J. L. Bentley", title = "Multidimensional binary search trees used for associative searching", booktitle = "Communications of the ACM, Vol. 18 Issue 9, Sept. 1975", url = "http://dx.doi.org/10.1145/361002.361007")
-public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O>, StorableIndex {
   /**
    * Class logger
    */
@@ -87,6 +96,11 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
    */
   int dims = -1;
 
+  /**
+   * File to store the index in, may be {@code null}.
+   */
+  File file;
+
   /**
    * Counter for comparisons.
    */
@@ -103,7 +117,18 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
    * @param relation Relation to index
    */
   public MinimalisticMemoryKDTree(Relation<O> relation) {
+    this(relation, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to index
+   * @param file File to store the index in, may be {@code null}
+   */
+  public MinimalisticMemoryKDTree(Relation<O> relation, File file) {
     super(relation);
+    this.file = file;
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
       this.objaccess = LOG.newCounter(prefix + ".objaccess");
@@ -117,10 +142,34 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
 
   @Override
   public void initialize() {
-    sorted = DBIDUtil.newArray(relation.getDBIDs());
     dims = RelationUtil.dimensionality(relation);
+    if(IndexFile.load(file, relation, this)) {
+      return;
+    }
+    sorted = DBIDUtil.newArray(relation.getDBIDs());
     SortDBIDsBySingleDimension comp = new VectorUtil.SortDBIDsBySingleDimension(relation);
     buildTree(0, sorted.size(), 0, comp);
+    IndexFile.save(file, relation, this);
+  }
+
+  @Override
+  public int getStorageVersion() {
+    return 1;
+  }
+
+  @Override
+  public void write(IndexFile.Writer out) throws IOException {
+    out.writeInt(dims);
+    out.writeDBIDs(sorted);
+  }
+
+  @Override
+  public boolean read(IndexFile.Reader in) {
+    if(in.readInt() != dims) {
+      return false;
+    }
+    sorted = in.readDBIDs();
+    return sorted.size() == relation.size();
   }
 
   /**
@@ -419,21 +468,72 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
    */
   @Alias({ "minikd", "kd" })
   public static class Factory<O extends NumberVector> implements IndexFactory<O, MinimalisticMemoryKDTree<O>> {
+    /**
+     * File to store the index in, may be {@code null}.
+     */
+    File file;
+
     /**
      * Constructor. Trivial parameterizable.
      */
     public Factory() {
+      this(null);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param file File to store the index in, may be {@code null}
+     */
+    public Factory(File file) {
       super();
+      this.file = file;
     }
 
     @Override
     public MinimalisticMemoryKDTree<O> instantiate(Relation<O> relation) {
-      return new MinimalisticMemoryKDTree<>(relation);
+      return new MinimalisticMemoryKDTree<>(relation, file);
     }
 
     @Override
     public TypeInformation getInputTypeRestriction() {
       return TypeUtil.NUMBER_VECTOR_FIELD;
     }
+
+    /**
+     * Parameterization class.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     * 
+     * @param <O> Vector type
+     */
+    public static class Parameterizer<O extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Option to store the index in a file, and load it from there if the data
+       * is unchanged.
+       */
+      public static final OptionID FILE_ID = new OptionID("kd.file", "File to store the index in. If the file exists and matches the data, the index is loaded instead of rebuilt.");
+
+      /**
+       * File to store the index in.
+       */
+      File file;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE, true);
+        if(config.grab(fileP)) {
+          file = fileP.getValue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(file);
+      }
+    }
   }
 }
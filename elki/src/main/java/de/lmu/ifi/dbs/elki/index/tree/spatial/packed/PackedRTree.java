@@ -0,0 +1,689 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.packed;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.BulkSplit;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SortTileRecursiveBulkSplit;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleLongMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Static, bulk-loaded in-memory R-tree with a packed memory layout.
+ * 
+ * Instead of node and entry objects, each level of the tree is stored as one
+ * flat {@code double[]} of bounding boxes (minima, then maxima of each node)
+ * and one {@code int[]} of child ranges in the level below. The coordinates of
+ * the data points are copied into a single array in leaf order, so that
+ * queries only scan contiguous memory and never access the relation.
+ * 
+ * The tree is built bottom-up with a {@link BulkSplit} strategy such as
+ * {@link SortTileRecursiveBulkSplit}, and cannot be modified afterwards. It
+ * may be queried by many threads concurrently.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses BulkSplit
+ * @apiviz.has PackedRTreeKNNQuery
+ * @apiviz.has PackedRTreeRangeQuery
+ * 
+ * @param <O> Vector type
+ */
+public class PackedRTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(PackedRTree.class);
+
+  /**
+   * Bulk split strategy.
+   */
+  private final BulkSplit bulkSplitter;
+
+  /**
+   * Maximum number of entries per node.
+   */
+  private final int fanout;
+
+  /**
+   * Dimensionality.
+   */
+  int dims = -1;
+
+  /**
+   * Object ids, in leaf order.
+   */
+  ArrayModifiableDBIDs sorted;
+
+  /**
+   * Coordinates of the points, in leaf order.
+   */
+  double[] points;
+
+  /**
+   * Bounding boxes of each level, starting with the leaves.
+   */
+  double[][] boxes;
+
+  /**
+   * Child ranges (begin, end) of each level, starting with the leaves.
+   */
+  int[][] children;
+
+  /**
+   * Counter for node accesses.
+   */
+  final StripedLongCounter nodeaccess;
+
+  /**
+   * Counter for distance computations.
+   */
+  final StripedLongCounter distcalc;
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to index
+   * @param bulkSplitter Bulk split strategy
+   * @param fanout Maximum number of entries per node
+   */
+  public PackedRTree(Relation<O> relation, BulkSplit bulkSplitter, int fanout) {
+    super(relation);
+    this.bulkSplitter = bulkSplitter;
+    this.fanout = fanout;
+    if(LOG.isStatistics()) {
+      String prefix = this.getClass().getName();
+      this.nodeaccess = new StripedLongCounter(prefix + ".nodeaccess");
+      this.distcalc = new StripedLongCounter(prefix + ".distancecalcs");
+    }
+    else {
+      this.nodeaccess = null;
+      this.distcalc = null;
+    }
+  }
+
+  @Override
+  public void initialize() {
+    final int size = relation.size();
+    dims = RelationUtil.dimensionality(relation);
+    if((long) size * dims > Integer.MAX_VALUE) {
+      throw new AbortException("Point array too large: " + size + " objects with " + dims + " dimensions exceed the maximum array size.");
+    }
+    sorted = DBIDUtil.newArray(size);
+    points = new double[size * dims];
+    ArrayList<double[]> boxl = new ArrayList<>();
+    ArrayList<int[]> childl = new ArrayList<>();
+    if(size > 0) {
+      // Leaf level:
+      ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      List<PointEntry> entries = new ArrayList<>(size);
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        entries.add(new PointEntry(iter.getOffset(), relation.get(iter)));
+      }
+      List<List<PointEntry>> parts = bulkSplitter.partition(entries, 1, fanout);
+      double[] box = new double[parts.size() * dims << 1];
+      int[] child = new int[parts.size() << 1];
+      DBIDArrayIter it = ids.iter();
+      int pos = 0;
+      for(int i = 0; i < parts.size(); i++) {
+        final int off = i * dims << 1;
+        Arrays.fill(box, off, off + dims, Double.POSITIVE_INFINITY);
+        Arrays.fill(box, off + dims, off + (dims << 1), Double.NEGATIVE_INFINITY);
+        child[i << 1] = pos;
+        for(PointEntry e : parts.get(i)) {
+          sorted.add(it.seek(e.offset));
+          for(int d = 0, p = pos * dims; d < dims; d++, p++) {
+            final double v = e.vec.doubleValue(d);
+            points[p] = v;
+            box[off + d] = Math.min(box[off + d], v);
+            box[off + dims + d] = Math.max(box[off + dims + d], v);
+          }
+          pos++;
+        }
+        child[(i << 1) + 1] = pos;
+      }
+      boxl.add(box);
+      childl.add(child);
+      // Directory levels, until there is a single root:
+      while(child.length > 2) {
+        final int lower = boxl.size() - 1, num = child.length >> 1;
+        List<NodeEntry> nodes = new ArrayList<>(num);
+        for(int i = 0; i < num; i++) {
+          nodes.add(new NodeEntry(i, box, dims));
+        }
+        List<List<NodeEntry>> nparts = bulkSplitter.partition(nodes, 1, fanout);
+        // Reorder the level below, so that children are contiguous.
+        final double[] lbox = new double[box.length];
+        final int[] lchild = new int[child.length];
+        box = new double[nparts.size() * dims << 1];
+        int[] nchild = new int[nparts.size() << 1];
+        pos = 0;
+        for(int i = 0; i < nparts.size(); i++) {
+          final int off = i * dims << 1;
+          Arrays.fill(box, off, off + dims, Double.POSITIVE_INFINITY);
+          Arrays.fill(box, off + dims, off + (dims << 1), Double.NEGATIVE_INFINITY);
+          nchild[i << 1] = pos;
+          for(NodeEntry e : nparts.get(i)) {
+            final int src = e.index * dims << 1, dst = pos * dims << 1;
+            System.arraycopy(e.box, src, lbox, dst, dims << 1);
+            lchild[pos << 1] = child[e.index << 1];
+            lchild[(pos << 1) + 1] = child[(e.index << 1) + 1];
+            for(int d = 0; d < dims; d++) {
+              box[off + d] = Math.min(box[off + d], lbox[dst + d]);
+              box[off + dims + d] = Math.max(box[off + dims + d], lbox[dst + dims + d]);
+            }
+            pos++;
+          }
+          nchild[(i << 1) + 1] = pos;
+        }
+        boxl.set(lower, lbox);
+        childl.set(lower, lchild);
+        boxl.add(box);
+        childl.add(child = nchild);
+      }
+    }
+    boxes = boxl.toArray(new double[boxl.size()][]);
+    children = childl.toArray(new int[childl.size()][]);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".height", boxes.length));
+    }
+  }
+
+  @Override
+  public String getLongName() {
+    return "packed R-tree";
+  }
+
+  @Override
+  public String getShortName() {
+    return "packed-rtree";
+  }
+
+  @Override
+  public void logStatistics() {
+    if(nodeaccess != null) {
+      LOG.statistics(nodeaccess);
+    }
+    if(distcalc != null) {
+      LOG.statistics(distcalc);
+    }
+  }
+
+  /**
+   * Count a node access, and the distance computations to its entries.
+   * 
+   * @param entries Number of entries
+   */
+  protected void countNodeAccess(int entries) {
+    if(nodeaccess != null) {
+      nodeaccess.add(1L);
+      distcalc.add(entries);
+    }
+  }
+
+  /**
+   * Squared Euclidean minimum distance of the query to a bounding box.
+   * 
+   * @param q Query coordinates
+   * @param box Bounding boxes
+   * @param off Offset of the box
+   * @return Squared minimum distance
+   */
+  private static double minDist(double[] q, double[] box, int off) {
+    final int dims = q.length;
+    double agg = 0.;
+    for(int d = 0; d < dims; d++) {
+      final double v = q[d], min = box[off + d], max = box[off + dims + d];
+      final double delta = v < min ? min - v : v > max ? v - max : 0.;
+      agg += delta * delta;
+    }
+    return agg;
+  }
+
+  /**
+   * Squared Euclidean distance of the query to a point.
+   * 
+   * @param q Query coordinates
+   * @param points Point coordinates
+   * @param off Offset of the point
+   * @return Squared distance
+   */
+  private static double distance(double[] q, double[] points, int off) {
+    double agg = 0.;
+    for(int d = 0; d < q.length; d++) {
+      final double delta = q[d] - points[off + d];
+      agg += delta * delta;
+    }
+    return agg;
+  }
+
+  /**
+   * Get the coordinates of a query object.
+   * 
+   * @param obj Query object
+   * @return Coordinates
+   */
+  private double[] coordinates(O obj) {
+    final double[] q = new double[dims];
+    for(int d = 0; d < dims; d++) {
+      q[d] = obj.doubleValue(d);
+    }
+    return q;
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
+    if(df instanceof EuclideanDistanceFunction) {
+      return new PackedRTreeKNNQuery(distanceQuery, true);
+    }
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new PackedRTreeKNNQuery(distanceQuery, false);
+    }
+    return null;
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    DistanceFunction<? super O> df = distanceQuery.getDistanceFunction();
+    if(df instanceof EuclideanDistanceFunction) {
+      return new PackedRTreeRangeQuery(distanceQuery, true);
+    }
+    if(df instanceof SquaredEuclideanDistanceFunction) {
+      return new PackedRTreeRangeQuery(distanceQuery, false);
+    }
+    return null;
+  }
+
+  /**
+   * kNN query for the packed R-tree, using best-first search.
+   * 
+   * @author Erich Schubert
+   */
+  public class PackedRTreeKNNQuery extends AbstractDistanceKNNQuery<O> {
+    /**
+     * Take the square root of the distances (Euclidean distance).
+     */
+    private final boolean sqrt;
+
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     * @param sqrt Take the square root of squared Euclidean distances
+     */
+    public PackedRTreeKNNQuery(DistanceQuery<O> distanceQuery, boolean sqrt) {
+      super(distanceQuery);
+      this.sqrt = sqrt;
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      if(k < 1) {
+        throw new IllegalArgumentException("At least one neighbor has to be requested!");
+      }
+      final KNNHeap knns = DBIDUtil.newHeap(k);
+      if(boxes.length == 0) {
+        return knns.toKNNList();
+      }
+      final double[] q = coordinates(obj);
+      final DBIDArrayIter iter = sorted.iter();
+      // Queue entries: level in the high bits, node in the low bits.
+      final DoubleLongMinHeap pq = new DoubleLongMinHeap(Math.min(k << 1, 21));
+      final int top = boxes.length - 1;
+      pq.add(minDist(q, boxes[top], 0), ((long) top) << 32);
+      double maxdist = Double.POSITIVE_INFINITY;
+      while(!pq.isEmpty()) {
+        if(pq.peekKey() > maxdist) {
+          break;
+        }
+        final long cand = pq.peekValue();
+        pq.poll();
+        final int level = (int) (cand >>> 32), node = (int) cand;
+        final int[] child = children[level];
+        final int begin = child[node << 1], end = child[(node << 1) + 1];
+        countNodeAccess(end - begin);
+        if(level == 0) {
+          for(int i = begin; i < end; i++) {
+            final double dist = distance(q, points, i * dims);
+            if(dist <= maxdist) {
+              maxdist = knns.insert(dist, iter.seek(i));
+            }
+          }
+        }
+        else {
+          final double[] box = boxes[level - 1];
+          final long lower = ((long) (level - 1)) << 32;
+          for(int i = begin; i < end; i++) {
+            final double mindist = minDist(q, box, i * dims << 1);
+            if(mindist <= maxdist) {
+              pq.add(mindist, lower | i);
+            }
+          }
+        }
+      }
+      return sqrt ? QueryUtil.applySqrt(knns.toKNNList()) : knns.toKNNList();
+    }
+  }
+
+  /**
+   * Range query for the packed R-tree.
+   * 
+   * @author Erich Schubert
+   */
+  public class PackedRTreeRangeQuery extends AbstractDistanceRangeQuery<O> {
+    /**
+     * Take the square root of the distances (Euclidean distance).
+     */
+    private final boolean sqrt;
+
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query
+     * @param sqrt Take the square root of squared Euclidean distances
+     */
+    public PackedRTreeRangeQuery(DistanceQuery<O> distanceQuery, boolean sqrt) {
+      super(distanceQuery);
+      this.sqrt = sqrt;
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForObject(O obj, double range) {
+      final ModifiableDoubleDBIDList res = DBIDUtil.newDistanceDBIDList();
+      if(boxes.length == 0) {
+        return res;
+      }
+      final double[] q = coordinates(obj);
+      final double radius = sqrt ? range * range : range;
+      final DBIDArrayIter iter = sorted.iter();
+      // Stack of nodes to visit: level in the high bits, node in the low bits.
+      long[] stack = new long[21];
+      int sp = 0;
+      final int top = boxes.length - 1;
+      if(minDist(q, boxes[top], 0) <= radius) {
+        stack[sp++] = ((long) top) << 32;
+      }
+      while(sp > 0) {
+        final long cand = stack[--sp];
+        final int level = (int) (cand >>> 32), node = (int) cand;
+        final int[] child = children[level];
+        final int begin = child[node << 1], end = child[(node << 1) + 1];
+        countNodeAccess(end - begin);
+        if(level == 0) {
+          for(int i = begin; i < end; i++) {
+            final double dist = distance(q, points, i * dims);
+            if(dist <= radius) {
+              res.add(sqrt ? Math.sqrt(dist) : dist, iter.seek(i));
+            }
+          }
+        }
+        else {
+          final double[] box = boxes[level - 1];
+          final long lower = ((long) (level - 1)) << 32;
+          for(int i = begin; i < end; i++) {
+            if(minDist(q, box, i * dims << 1) <= radius) {
+              if(sp == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length << 1);
+              }
+              stack[sp++] = lower | i;
+            }
+          }
+        }
+      }
+      res.sort();
+      return res;
+    }
+  }
+
+  /**
+   * Data point, for bulk loading.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class PointEntry implements SpatialComparable {
+    /**
+     * Offset in the relation ids.
+     */
+    final int offset;
+
+    /**
+     * Vector.
+     */
+    final NumberVector vec;
+
+    /**
+     * Constructor.
+     * 
+     * @param offset Offset in the relation ids
+     * @param vec Vector
+     */
+    PointEntry(int offset, NumberVector vec) {
+      this.offset = offset;
+      this.vec = vec;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return vec.getDimensionality();
+    }
+
+    @Override
+    public double getMin(int dimension) {
+      return vec.doubleValue(dimension);
+    }
+
+    @Override
+    public double getMax(int dimension) {
+      return vec.doubleValue(dimension);
+    }
+  }
+
+  /**
+   * Node of the level below, for bulk loading.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  private static class NodeEntry implements SpatialComparable {
+    /**
+     * Node index.
+     */
+    final int index;
+
+    /**
+     * Bounding boxes of the level.
+     */
+    final double[] box;
+
+    /**
+     * Dimensionality.
+     */
+    final int dims;
+
+    /**
+     * Constructor.
+     * 
+     * @param index Node index
+     * @param box Bounding boxes of the level
+     * @param dims Dimensionality
+     */
+    NodeEntry(int index, double[] box, int dims) {
+      this.index = index;
+      this.box = box;
+      this.dims = dims;
+    }
+
+    @Override
+    public int getDimensionality() {
+      return dims;
+    }
+
+    @Override
+    public double getMin(int dimension) {
+      return box[index * dims * 2 + dimension];
+    }
+
+    @Override
+    public double getMax(int dimension) {
+      return box[index * dims * 2 + dims + dimension];
+    }
+  }
+
+  /**
+   * Factory class
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.stereotype factory
+   * @apiviz.has PackedRTree
+   * 
+   * @param <O> Vector type
+   */
+  public static class Factory<O extends NumberVector> implements IndexFactory<O, PackedRTree<O>> {
+    /**
+     * Bulk split strategy.
+     */
+    BulkSplit bulkSplitter;
+
+    /**
+     * Maximum number of entries per node.
+     */
+    int fanout;
+
+    /**
+     * Constructor.
+     * 
+     * @param bulkSplitter Bulk split strategy
+     * @param fanout Maximum number of entries per node
+     */
+    public Factory(BulkSplit bulkSplitter, int fanout) {
+      super();
+      this.bulkSplitter = bulkSplitter;
+      this.fanout = fanout;
+    }
+
+    @Override
+    public PackedRTree<O> instantiate(Relation<O> relation) {
+      return new PackedRTree<>(relation, bulkSplitter, fanout);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     * 
+     * @param <O> Vector type
+     */
+    public static class Parameterizer<O extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Bulk split strategy.
+       */
+      public static final OptionID BULK_SPLIT_ID = new OptionID("packedrtree.bulkstrategy", "The class to perform the bulk split with.");
+
+      /**
+       * Maximum number of entries per node.
+       */
+      public static final OptionID FANOUT_ID = new OptionID("packedrtree.fanout", "Maximum number of entries in each node of the tree.");
+
+      /**
+       * Bulk split strategy.
+       */
+      BulkSplit bulkSplitter;
+
+      /**
+       * Maximum number of entries per node.
+       */
+      int fanout;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<BulkSplit> bulkSplitP = new ObjectParameter<>(BULK_SPLIT_ID, BulkSplit.class, SortTileRecursiveBulkSplit.class);
+        if(config.grab(bulkSplitP)) {
+          bulkSplitter = bulkSplitP.instantiateClass(config);
+        }
+        IntParameter fanoutP = new IntParameter(FANOUT_ID, 64);
+        fanoutP.addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(fanoutP)) {
+          fanout = fanoutP.intValue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(bulkSplitter, fanout);
+      }
+    }
+  }
+}
@@ -28,8 +28,10 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.HyperBoundingBox;
 import de.lmu.ifi.dbs.elki.data.ModifiableHyperBoundingBox;
@@ -48,8 +50,10 @@ import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialIndexTree;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialPointLeafEntry;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.util.NodeArrayAdapter;
 import de.lmu.ifi.dbs.elki.logging.Logging;
-import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.persistent.PageFile;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 
@@ -75,6 +79,11 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
    */
   protected static final boolean EXTRA_INTEGRITY_CHECKS = false;
 
+  /**
+   * Minimum number of entries, to build the nodes of a bulk load in parallel.
+   */
+  private static final int BULK_PARALLEL_THRESHOLD = 1 << 15;
+
   /**
    * The height of this R*-Tree.
    */
@@ -340,30 +349,74 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
     int minEntries = leafMinimum;
     int maxEntries = leafCapacity;
 
-    ArrayList<E> result = new ArrayList<>();
     List<List<E>> partitions = settings.bulkSplitter.partition(objects, minEntries, maxEntries);
+    List<E> result = createBulkNodes(partitions, true);
 
-    for (List<E> partition : partitions) {
-      // create leaf node
-      N leafNode = createNewLeafNode();
+    if (getLogger().isDebugging()) {
+      getLogger().debugFine("numDataPages = " + result.size());
+    }
+    return result;
+  }
 
-      // insert data
-      for (E o : partition) {
-        leafNode.addLeafEntry(o);
+  /**
+   * Creates the nodes for the partitions of a bulk load.
+   * 
+   * Page ids are assigned in partition order, then the nodes are filled and
+   * their directory entries are computed in parallel, and finally the pages
+   * are written sequentially. The resulting tree is the same as when building
+   * the nodes one after another.
+   * 
+   * @param partitions the partitions, one per node
+   * @param leaf create leaf nodes (otherwise, directory nodes)
+   * @return the directory entries of the new nodes
+   */
+  protected List<E> createBulkNodes(final List<List<E>> partitions, final boolean leaf) {
+    final int num = partitions.size();
+    final List<N> nodes = new ArrayList<>(num);
+    int size = 0;
+    for (List<E> partition : partitions) {
+      N node = leaf ? createNewLeafNode() : createNewDirectoryNode();
+      assignPageID(node);
+      nodes.add(node);
+      size += partition.size();
+    }
+    final List<E> result = new ArrayList<>(Collections.nCopies(num, (E) null));
+    // Small loads are not worth the thread overhead.
+    final int blocks = size < BULK_PARALLEL_THRESHOLD ? 1 : Math.min(num, ParallelCore.ALL_PROCESSORS);
+    List<Callable<Void>> tasks = new ArrayList<>(blocks);
+    for (int b = 0; b < blocks; b++) {
+      final int begin = (int) ((long) b * num / blocks), end = (int) ((long) (b + 1) * num / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for (int i = begin; i < end; i++) {
+            N node = nodes.get(i);
+            for (E o : partitions.get(i)) {
+              if (leaf) {
+                node.addLeafEntry(o);
+              } else {
+                node.addDirectoryEntry(o);
+              }
+            }
+            result.set(i, createNewDirectoryEntry(node));
+          }
+          return null;
+        }
+      });
+    }
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
       }
-      // write to file
-      writeNode(leafNode);
-
-      result.add(createNewDirectoryEntry(leafNode));
-
-      if (getLogger().isDebugging()) {
-        getLogger().debugFine("Created leaf page " + leafNode.getPageID());
+    });
+    // write to file
+    for (N node : nodes) {
+      writeNode(node);
+      if (getLogger().isDebuggingFiner()) {
+        getLogger().debugFiner((leaf ? "Created leaf page " : "Created directory page ") + node.getPageID());
       }
     }
-
-    if (getLogger().isDebugging()) {
-      getLogger().debugFine("numDataPages = " + result.size());
-    }
     return result;
   }
 
@@ -839,25 +892,28 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
   /**
    * Class for tracking some statistics.
    * 
+   * The counters are striped, so that concurrent queries can update them
+   * safely without contending for a single memory location.
+   * 
    * @author Erich Schubert
    * 
-   * @apiviz.composedOf Counter
+   * @apiviz.composedOf StripedLongCounter
    */
   public class Statistics {
     /**
      * For counting the number of distance computations.
      */
-    protected final Counter distanceCalcs;
+    protected final StripedLongCounter distanceCalcs;
 
     /**
      * For counting the number of knn queries answered.
      */
-    protected final Counter knnQueries;
+    protected final StripedLongCounter knnQueries;
 
     /**
      * For counting the number of range queries answered.
      */
-    protected final Counter rangeQueries;
+    protected final StripedLongCounter rangeQueries;
 
     /**
      * Constructor.
@@ -866,9 +922,9 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
       super();
       Logging log = getLogger();
       final String prefix = AbstractRStarTree.this.getClass().getName();
-      distanceCalcs = log.isStatistics() ? log.newCounter(prefix + ".distancecalcs") : null;
-      knnQueries = log.isStatistics() ? log.newCounter(prefix + ".knnqueries") : null;
-      rangeQueries = log.isStatistics() ? log.newCounter(prefix + ".rangequeries") : null;
+      distanceCalcs = log.isStatistics() ? new StripedLongCounter(prefix + ".distancecalcs") : null;
+      knnQueries = log.isStatistics() ? new StripedLongCounter(prefix + ".knnqueries") : null;
+      rangeQueries = log.isStatistics() ? new StripedLongCounter(prefix + ".rangequeries") : null;
     }
 
     /**
@@ -876,7 +932,18 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
      */
     public void countDistanceCalculation() {
       if (distanceCalcs != null) {
-        distanceCalcs.increment();
+        distanceCalcs.add(1L);
+      }
+    }
+
+    /**
+     * Count several distance computations at once.
+     * 
+     * @param n Number of distance computations
+     */
+    public void countDistanceCalculations(int n) {
+      if (distanceCalcs != null) {
+        distanceCalcs.add(n);
       }
     }
 
@@ -885,7 +952,7 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
      */
     public void countKNNQuery() {
       if (knnQueries != null) {
-        knnQueries.increment();
+        knnQueries.add(1L);
       }
     }
 
@@ -894,7 +961,7 @@ public abstract class AbstractRStarTree<N extends AbstractRStarTreeNode<N, E>, E
      */
     public void countRangeQuery() {
       if (rangeQueries != null) {
-        rangeQueries.increment();
+        rangeQueries.add(1L);
       }
     }
 
@@ -23,7 +23,6 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.ArrayList;
 import java.util.List;
 
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialDirectoryEntry;
@@ -181,26 +180,8 @@ public abstract class NonFlatRStarTree<N extends AbstractRStarTreeNode<N, E>, E
     int minEntries = dirMinimum;
     int maxEntries = dirCapacity - 1;
 
-    ArrayList<E> result = new ArrayList<>();
     List<List<E>> partitions = settings.bulkSplitter.partition(nodes, minEntries, maxEntries);
-
-    for(List<E> partition : partitions) {
-      // create node
-      N dirNode = createNewDirectoryNode();
-      // insert nodes
-      for(E o : partition) {
-        dirNode.addDirectoryEntry(o);
-      }
-      // write to file
-      writeNode(dirNode);
-
-      result.add(createNewDirectoryEntry(dirNode));
-      if(getLogger().isDebuggingFiner()) {
-        getLogger().debugFiner("Directory page no: "+dirNode.getPageID());
-      }
-    }
-
-    return result;
+    return createBulkNodes(partitions, false);
   }
 
   /**
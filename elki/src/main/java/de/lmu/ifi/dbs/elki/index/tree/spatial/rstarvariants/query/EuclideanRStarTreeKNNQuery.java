@@ -23,16 +23,8 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.QueryUtil;
-import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.DBID;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
@@ -110,11 +102,11 @@ public class EuclideanRStarTreeKNNQuery<O extends NumberVector> extends RStarTre
   private double expandNode(O object, KNNHeap knnList, final ComparableMinHeap<DoubleDistanceSearchCandidate> pq, double maxDist, final int nodeID) {
     AbstractRStarTreeNode<?, ?> node = tree.getNode(nodeID);
     // data node
+    tree.statistics.countDistanceCalculations(node.getNumEntries());
     if(node.isLeaf()) {
       for(int i = 0; i < node.getNumEntries(); i++) {
         SpatialPointLeafEntry entry = (SpatialPointLeafEntry) node.getEntry(i);
         double distance = SQUARED.minDist(entry, object);
-        tree.statistics.countDistanceCalculation();
         if(distance <= maxDist) {
           maxDist = knnList.insert(distance, entry.getDBID());
         }
@@ -125,7 +117,6 @@ public class EuclideanRStarTreeKNNQuery<O extends NumberVector> extends RStarTre
       for(int i = 0; i < node.getNumEntries(); i++) {
         SpatialDirectoryEntry entry = (SpatialDirectoryEntry) node.getEntry(i);
         double distance = SQUARED.minDist(entry, object);
-        tree.statistics.countDistanceCalculation();
         // Greedy expand, bypassing the queue
         if(distance <= 0) {
           expandNode(object, knnList, pq, maxDist, entry.getPageID());
@@ -139,29 +130,4 @@ public class EuclideanRStarTreeKNNQuery<O extends NumberVector> extends RStarTre
     }
     return maxDist;
   }
-
-  @Override
-  public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
-    if(k < 1) {
-      throw new IllegalArgumentException("At least one enumeration has to be requested!");
-    }
-
-    // While this works, it seems to be slow at least for large sets!
-    // TODO: use a DataStore instead of a map.
-    final Map<DBID, KNNHeap> knnLists = new HashMap<>(ids.size());
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      knnLists.put(id, DBIDUtil.newHeap(k));
-    }
-
-    batchNN(tree.getRoot(), knnLists);
-
-    List<KNNList> result = new ArrayList<>();
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      tree.statistics.countKNNQuery();
-      result.add(QueryUtil.applySqrt(knnLists.get(id).toKNNList()));
-    }
-    return result;
-  }
-}
\ No newline at end of file
+}
@@ -90,10 +90,10 @@ public class EuclideanRStarTreeRangeQuery<O extends NumberVector> extends RStarT
       final int numEntries = node.getNumEntries();
 
       if(node.isLeaf()) {
+        tree.statistics.countDistanceCalculations(numEntries);
         for(int i = 0; i < numEntries; i++) {
           SpatialPointLeafEntry entry = (SpatialPointLeafEntry) node.getEntry(i);
           double distance = SQUARED.minDist(object, entry);
-          tree.statistics.countDistanceCalculation();
           if(distance <= sqepsilon) {
             result.add(Math.sqrt(distance), entry.getDBID());
           }
@@ -24,33 +24,29 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query;
  */
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
-import de.lmu.ifi.dbs.elki.database.ids.DBID;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
-import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
-import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
-import de.lmu.ifi.dbs.elki.index.tree.DirectoryEntry;
-import de.lmu.ifi.dbs.elki.index.tree.LeafEntry;
 import de.lmu.ifi.dbs.elki.index.tree.query.DoubleDistanceSearchCandidate;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialDirectoryEntry;
-import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialEntry;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialPointLeafEntry;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.AbstractRStarTree;
 import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.AbstractRStarTreeNode;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.ComparableMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
@@ -137,11 +133,11 @@ public class RStarTreeKNNQuery<O extends SpatialComparable> implements KNNQuery<
   private double expandNode(O object, KNNHeap knnList, final ComparableMinHeap<DoubleDistanceSearchCandidate> pq, double maxDist, final int nodeID) {
     AbstractRStarTreeNode<?, ?> node = tree.getNode(nodeID);
     // data node
+    tree.statistics.countDistanceCalculations(node.getNumEntries());
     if(node.isLeaf()) {
       for(int i = 0; i < node.getNumEntries(); i++) {
         SpatialPointLeafEntry entry = (SpatialPointLeafEntry) node.getEntry(i);
         double distance = distanceFunction.minDist(entry, object);
-        tree.statistics.countDistanceCalculation();
         if(distance <= maxDist) {
           maxDist = knnList.insert(distance, entry.getDBID());
         }
@@ -152,7 +148,6 @@ public class RStarTreeKNNQuery<O extends SpatialComparable> implements KNNQuery<
       for(int i = 0; i < node.getNumEntries(); i++) {
         SpatialDirectoryEntry entry = (SpatialDirectoryEntry) node.getEntry(i);
         double distance = distanceFunction.minDist(entry, object);
-        tree.statistics.countDistanceCalculation();
         // Greedy expand, bypassing the queue
         if(distance <= 0) {
           expandNode(object, knnList, pq, maxDist, entry.getPageID());
@@ -168,137 +163,94 @@ public class RStarTreeKNNQuery<O extends SpatialComparable> implements KNNQuery<
   }
 
   /**
-   * Performs a batch knn query.
-   * 
-   * @param node the node for which the query should be performed
-   * @param knnLists a map containing the knn lists for each query objects
+   * Answers the queries independently, using all available cores. The tree is
+   * only read, and all query state is local to each query.
    */
-  protected void batchNN(AbstractRStarTreeNode<?, ?> node, Map<DBID, KNNHeap> knnLists) {
-    if(node.isLeaf()) {
-      for(int i = 0; i < node.getNumEntries(); i++) {
-        SpatialEntry p = node.getEntry(i);
-        for(Entry<DBID, KNNHeap> ent : knnLists.entrySet()) {
-          final DBID q = ent.getKey();
-          final KNNHeap knns_q = ent.getValue();
-          double knn_q_maxDist = knns_q.getKNNDistance();
-
-          DBID pid = ((LeafEntry) p).getDBID();
-          // FIXME: objects are NOT accessible by DBID in a plain R-tree
-          // context!
-          double dist_pq = distanceFunction.distance(relation.get(pid), relation.get(q));
-          tree.statistics.countDistanceCalculation();
-          if(dist_pq <= knn_q_maxDist) {
-            knns_q.insert(dist_pq, pid);
-          }
-        }
-      }
+  @Override
+  public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
+    if(k < 1) {
+      throw new IllegalArgumentException("At least one enumeration has to be requested!");
     }
-    else {
-      ModifiableDBIDs ids = DBIDUtil.newArray(knnLists.size());
-      for(DBID id : knnLists.keySet()) {
-        ids.add(id);
+    final KNNList[] result = new KNNList[ids.size()];
+    if(result.length == 0) {
+      return Arrays.asList(result);
+    }
+    ParallelCore core = ParallelCore.getCore();
+    try {
+      core.connect();
+      final int size = ids.size(), numparts = Math.min(core.getParallelism() << 2, size);
+      List<Future<Void>> parts = new ArrayList<>(numparts);
+      for(int i = 0; i < numparts; i++) {
+        parts.add(core.submit(new BulkKNNTask(ids, (int) (i * (long) size / numparts), (int) ((i + 1) * (long) size / numparts), k, result)));
       }
-      List<DoubleDistanceEntry> entries = getSortedEntries(node, ids);
-      for(DoubleDistanceEntry distEntry : entries) {
-        double minDist = distEntry.distance;
-        for(Entry<DBID, KNNHeap> ent : knnLists.entrySet()) {
-          final KNNHeap knns_q = ent.getValue();
-          double knn_q_maxDist = knns_q.getKNNDistance();
-
-          if(minDist <= knn_q_maxDist) {
-            SpatialEntry entry = distEntry.entry;
-            AbstractRStarTreeNode<?, ?> child = tree.getNode(((DirectoryEntry) entry).getPageID().intValue());
-            batchNN(child, knnLists);
-            break;
-          }
-        }
+      for(Future<Void> fut : parts) {
+        fut.get();
       }
     }
-  }
-
-  /**
-   * Sorts the entries of the specified node according to their minimum distance
-   * to the specified objects.
-   * 
-   * @param node the node
-   * @param ids the id of the objects
-   * @return a list of the sorted entries
-   */
-  protected List<DoubleDistanceEntry> getSortedEntries(AbstractRStarTreeNode<?, ?> node, DBIDs ids) {
-    List<DoubleDistanceEntry> result = new ArrayList<>();
-
-    for(int i = 0; i < node.getNumEntries(); i++) {
-      SpatialEntry entry = node.getEntry(i);
-      double minMinDist = Double.MAX_VALUE;
-      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-        double minDist = distanceFunction.minDist(entry, relation.get(iter));
-        tree.statistics.countDistanceCalculation();
-        minMinDist = Math.min(minDist, minMinDist);
-      }
-      result.add(new DoubleDistanceEntry(entry, minMinDist));
+    catch(ExecutionException e) {
+      throw new RuntimeException("kNN query execution failed.", e);
     }
-
-    Collections.sort(result);
-    return result;
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    finally {
+      core.disconnect();
+    }
+    return Arrays.asList(result);
   }
 
   /**
-   * Optimized double distance entry implementation.
+   * Task to answer a range of the bulk queries.
    * 
    * @author Erich Schubert
    * 
-   * @apiviz.hidden
+   * @apiviz.exclude
    */
-  static class DoubleDistanceEntry implements Comparable<DoubleDistanceEntry> {
+  private class BulkKNNTask implements Callable<Void> {
+    /**
+     * Query ids.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Range to process.
+     */
+    private final int start, end;
+
     /**
-     * Referenced entry
+     * Number of neighbors.
      */
-    SpatialEntry entry;
+    private final int k;
 
     /**
-     * Distance value
+     * Output array.
      */
-    double distance;
+    private final KNNList[] result;
 
     /**
      * Constructor.
      * 
-     * @param entry Entry
-     * @param distance Distance
+     * @param ids Query ids
+     * @param start First offset
+     * @param end End offset (exclusive)
+     * @param k Number of neighbors
+     * @param result Output array
      */
-    public DoubleDistanceEntry(SpatialEntry entry, double distance) {
-      this.entry = entry;
-      this.distance = distance;
+    BulkKNNTask(ArrayDBIDs ids, int start, int end, int k, KNNList[] result) {
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.k = k;
+      this.result = result;
     }
 
     @Override
-    public int compareTo(DoubleDistanceEntry o) {
-      return Double.compare(this.distance, o.distance);
-    }
-  }
-
-  @Override
-  public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
-    if(k < 1) {
-      throw new IllegalArgumentException("At least one enumeration has to be requested!");
-    }
-
-    // While this works, it seems to be slow at least for large sets!
-    // TODO: use a DataStore instead of a map.
-    final Map<DBID, KNNHeap> knnLists = new HashMap<>(ids.size());
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      knnLists.put(id, DBIDUtil.newHeap(k));
-    }
-
-    batchNN(tree.getRoot(), knnLists);
-
-    List<KNNList> result = new ArrayList<>();
-    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
-      DBID id = DBIDUtil.deref(iter);
-      tree.statistics.countKNNQuery();
-      result.add(knnLists.get(id).toKNNList());
+    public Void call() {
+      DBIDArrayIter iter = ids.iter().seek(start);
+      for(int i = start; i < end; i++, iter.advance()) {
+        result[i] = getKNNForDBID(iter, k);
+      }
+      return null;
     }
-    return result;
   }
-}
\ No newline at end of file
+}
@@ -108,10 +108,10 @@ public class RStarTreeRangeQuery<O extends SpatialComparable> implements RangeQu
       final int numEntries = node.getNumEntries();
 
       if(node.isLeaf()) {
+        tree.statistics.countDistanceCalculations(numEntries);
         for(int i = 0; i < numEntries; i++) {
           SpatialPointLeafEntry entry = (SpatialPointLeafEntry) node.getEntry(i);
           double distance = distanceFunction.minDist(obj, entry);
-          tree.statistics.countDistanceCalculation();
           if(distance <= range) {
             result.add(distance, entry.getDBID());
           }
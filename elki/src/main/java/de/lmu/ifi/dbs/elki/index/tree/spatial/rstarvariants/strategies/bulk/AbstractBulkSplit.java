@@ -1,7 +1,12 @@
 package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 
 /*
  This file is part of ELKI:
@@ -32,6 +37,11 @@ import java.util.List;
  * @author Elke Achtert
  */
 public abstract class AbstractBulkSplit implements BulkSplit {
+  /**
+   * Minimum number of objects, to partition the top-level slabs in parallel.
+   */
+  protected static final int PARALLEL_THRESHOLD = 1 << 15;
+
   /**
    * Constructor
    */
@@ -88,4 +98,41 @@ public abstract class AbstractBulkSplit implements BulkSplit {
     }
     return partitions;
   }
-}
\ No newline at end of file
+
+  /**
+   * Get a list to collect the top-level slab tasks in, if the data set is large
+   * enough to be partitioned in parallel.
+   * 
+   * @param size Number of objects
+   * @param dims Dimensionality
+   * @param <T> Object type
+   * @return Task list, or {@code null} to partition sequentially.
+   */
+  protected static <T> List<Callable<List<List<T>>>> slabTasks(int size, int dims) {
+    return (dims > 1 && size >= PARALLEL_THRESHOLD) ? new ArrayList<Callable<List<List<T>>>>() : null;
+  }
+
+  /**
+   * Partition the slabs in parallel, and append their partitions to the output.
+   * 
+   * The slabs are disjoint ranges of the object list and are partitioned
+   * independently; the partitions are appended in slab order, so the result is
+   * the same as when processing the slabs sequentially.
+   * 
+   * @param tasks Slab tasks
+   * @param ret Output list
+   * @param <T> Object type
+   */
+  protected static <T> void runSlabTasks(List<Callable<List<List<T>>>> tasks, List<List<T>> ret) {
+    final List<List<List<T>>> results = new ArrayList<>(Collections.nCopies(tasks.size(), (List<List<T>>) null));
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<List<List<T>>>() {
+      @Override
+      public void handleResult(int i, List<List<T>> result) {
+        results.set(i, result);
+      }
+    });
+    for(List<List<T>> result : results) {
+      ret.addAll(result);
+    }
+  }
+}
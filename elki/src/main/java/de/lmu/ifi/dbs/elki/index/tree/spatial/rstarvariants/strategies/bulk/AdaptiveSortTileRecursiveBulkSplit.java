@@ -25,6 +25,7 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialSingleMeanComparator;
@@ -57,7 +58,11 @@ public class AdaptiveSortTileRecursiveBulkSplit extends AbstractBulkSplit {
     final int dims = spatialObjects.get(0).getDimensionality();
     final int p = (int) Math.ceil(spatialObjects.size() / (double) maxEntries);
     List<List<T>> ret = new ArrayList<>(p);
-    strPartition(spatialObjects, 0, spatialObjects.size(), 0, dims, maxEntries, new SpatialSingleMeanComparator(0), ret);
+    List<Callable<List<List<T>>>> tasks = slabTasks(spatialObjects.size(), dims);
+    strPartition(spatialObjects, 0, spatialObjects.size(), 0, dims, maxEntries, new SpatialSingleMeanComparator(0), ret, tasks);
+    if(tasks != null) {
+      runSlabTasks(tasks, ret);
+    }
     return ret;
   }
 
@@ -72,9 +77,11 @@ public class AdaptiveSortTileRecursiveBulkSplit extends AbstractBulkSplit {
    * @param maxEntries Maximum page size
    * @param c Comparison helper
    * @param ret Output list
+   * @param tasks Collect the slabs as tasks here, instead of descending (may
+   *        be {@code null})
    * @param <T> data type
    */
-  protected <T extends SpatialComparable> void strPartition(List<T> objs, int start, int end, int depth, int dims, int maxEntries, SpatialSingleMeanComparator c, List<List<T>> ret) {
+  protected <T extends SpatialComparable> void strPartition(final List<T> objs, int start, int end, final int depth, final int dims, final int maxEntries, SpatialSingleMeanComparator c, List<List<T>> ret, List<Callable<List<List<T>>>> tasks) {
     final int p = (int) Math.ceil((end - start) / (double) maxEntries);
 
     // Compute min and max:
@@ -128,9 +135,20 @@ public class AdaptiveSortTileRecursiveBulkSplit extends AbstractBulkSplit {
       }
       if (depth + 1 == dims) {
         ret.add(objs.subList(s2, e2));
+      } else if (tasks != null) {
+        // Descend later, in parallel, with a separate comparator.
+        final int start2 = s2, end2 = e2;
+        tasks.add(new Callable<List<List<T>>>() {
+          @Override
+          public List<List<T>> call() {
+            List<List<T>> part = new ArrayList<>();
+            strPartition(objs, start2, end2, depth + 1, dims, maxEntries, new SpatialSingleMeanComparator(0), part, null);
+            return part;
+          }
+        });
       } else {
         // Descend
-        strPartition(objs, s2, e2, depth + 1, dims, maxEntries, c, ret);
+        strPartition(objs, s2, e2, depth + 1, dims, maxEntries, c, ret, null);
       }
     }
   }
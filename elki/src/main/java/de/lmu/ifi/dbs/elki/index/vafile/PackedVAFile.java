@@ -0,0 +1,693 @@
+package de.lmu.ifi.dbs.elki.index.vafile;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.BlockDistances;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.WeightedNumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.LessEqualConstraint;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+
+/**
+ * Vector-approximation file (VA-file) with a packed memory layout.
+ * 
+ * In contrast to {@link VAFile}, the cell numbers of all objects are
+ * bit-packed into a single {@code long[]} array, without any per-object
+ * objects. For each query, lookup tables with the lower and upper bound
+ * contribution of every cell are computed once, so that the filter step only
+ * needs to sum table entries, and only the remaining candidates are fetched
+ * from the relation for refinement. The index is built in parallel, but each
+ * query runs in the calling thread; parallel algorithms run many queries
+ * concurrently instead.
+ * 
+ * Bounds are compared in the p-th power, i.e. without computing roots.
+ * 
+ * On a {@link PackedFloatVectorRelation}, the grid is built from the packed
+ * rows, and candidates of float vector queries are refined with the float
+ * block distance directly on the packed rows, without fetching vectors.
+ * 
+ * Reference:
+ * <p>
+ * Weber, R. and Blott, S.<br>
+ * An approximation based data structure for similarity search<br />
+ * in: Report TR1997b, ETH Zentrum, Zurich, Switzerland
+ * </p>
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has PackedVAFileRangeQuery
+ * @apiviz.has PackedVAFileKNNQuery
+ * 
+ * @param <V> Vector type
+ */
+@Title("An approximation based data structure for similarity search")
+@Reference(authors = "Weber, R. and Blott, S.", title = "An approximation based data structure for similarity search", booktitle = "Report TR1997b, ETH Zentrum, Zurich, Switzerland", url = "http://citeseerx.ist.psu.edu/viewdoc/download?doi=10.1.1.40.480&rep=rep1&type=pdf")
+public class PackedVAFile<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(PackedVAFile.class);
+
+  /**
+   * Relative slack when comparing bounds, to tolerate rounding errors.
+   */
+  private static final double SLACK = 1. + 1e-10;
+
+  /**
+   * Number of partitions.
+   */
+  private int partitions;
+
+  /**
+   * Bits per cell number.
+   */
+  private int bits;
+
+  /**
+   * Cell numbers per long.
+   */
+  private int perword;
+
+  /**
+   * Longs per object.
+   */
+  private int words;
+
+  /**
+   * Dimensionality.
+   */
+  private int dim;
+
+  /**
+   * Quantile grid we use.
+   */
+  private double[][] splitPositions;
+
+  /**
+   * Objects, in approximation order.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Packed approximations, {@link #words} longs per object.
+   */
+  private long[] approx;
+
+  /**
+   * Packed float rows of the relation, in approximation order, or
+   * {@code null}.
+   */
+  private float[] data;
+
+  /**
+   * Number of scans performed.
+   */
+  private final StripedLongCounter scans;
+
+  /**
+   * Number of candidates after filtering.
+   */
+  private final StripedLongCounter candidates;
+
+  /**
+   * Constructor.
+   * 
+   * @param relation Relation to index
+   * @param partitions Number of partitions for each dimension.
+   */
+  public PackedVAFile(Relation<V> relation, int partitions) {
+    super(relation);
+    this.partitions = partitions;
+    if(LOG.isStatistics()) {
+      final String prefix = PackedVAFile.class.getName();
+      scans = new StripedLongCounter(prefix + ".scans");
+      candidates = new StripedLongCounter(prefix + ".candidates");
+    }
+    else {
+      scans = null;
+      candidates = null;
+    }
+  }
+
+  @Override
+  public void initialize() {
+    if(relation instanceof PackedFloatVectorRelation) {
+      // The ids are a range, so object i is row i.
+      PackedFloatVectorRelation packed = (PackedFloatVectorRelation) relation;
+      ids = packed.getDBIDs();
+      dim = packed.getDimensionality();
+      data = packed.getDataRef();
+    }
+    else {
+      ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      dim = RelationUtil.dimensionality(relation);
+    }
+    final int size = ids.size();
+    bits = 32 - Integer.numberOfLeadingZeros(partitions - 1);
+    perword = Long.SIZE / bits;
+    words = (dim + perword - 1) / perword;
+    if((long) size * words > Integer.MAX_VALUE) {
+      throw new AbortException("VA-file too large: " + size + " objects with " + dim + " dimensions.");
+    }
+    // Quantile grid, one dimension per task.
+    splitPositions = new double[dim][];
+    List<Callable<Void>> tasks = new ArrayList<>(dim);
+    for(int d = 0; d < dim; d++) {
+      final int dd = d;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          double[] tempdata = new double[size];
+          if(data != null) {
+            for(int i = 0, off = dd; i < size; i++, off += dim) {
+              tempdata[i] = data[off];
+            }
+          }
+          else {
+            for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+              tempdata[iter.getOffset()] = relation.get(iter).doubleValue(dd);
+            }
+          }
+          Arrays.sort(tempdata);
+          double[] split = new double[partitions + 1];
+          for(int b = 0; b < partitions; b++) {
+            split[b] = tempdata[(int) (b * (long) size / partitions)];
+          }
+          split[partitions] = tempdata[size - 1];
+          splitPositions[dd] = split;
+          return null;
+        }
+      });
+    }
+    runTasks(tasks);
+    // Encode the approximations, in parallel blocks.
+    approx = new long[size * words];
+    final int blocks = Math.max(1, Math.min(ParallelCore.ALL_PROCESSORS, size));
+    tasks = new ArrayList<>(blocks);
+    for(int b = 0; b < blocks; b++) {
+      final int begin = (int) (b * (long) size / blocks), end = (int) ((b + 1) * (long) size / blocks);
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          DBIDArrayIter iter = ids.iter();
+          for(int i = begin; i < end; i++) {
+            encode(relation.get(iter.seek(i)), i * words);
+          }
+          return null;
+        }
+      });
+    }
+    runTasks(tasks);
+  }
+
+  /**
+   * Store the approximation of a vector.
+   * 
+   * @param vec Vector
+   * @param off Offset in the approximation array
+   */
+  private void encode(NumberVector vec, int off) {
+    for(int d = 0, shift = 0; d < dim; d++) {
+      final double[] split = splitPositions[d];
+      int pos = Arrays.binarySearch(split, vec.doubleValue(d));
+      pos = (pos >= 0) ? pos : ((-pos) - 2);
+      pos = pos < 0 ? 0 : pos < partitions ? pos : partitions - 1;
+      approx[off] |= ((long) pos) << shift;
+      shift += bits;
+      if(shift + bits > Long.SIZE) {
+        shift = 0;
+        ++off;
+      }
+    }
+  }
+
+  /**
+   * Compute the lookup tables of a query, with the lower and upper bound
+   * contribution of each cell, in the p-th power.
+   * 
+   * @param query Query vector
+   * @param p LP norm p
+   * @param lo Output lower bound table
+   * @param hi Output upper bound table, may be {@code null}
+   */
+  private void lookupTables(NumberVector query, double p, double[] lo, double[] hi) {
+    for(int d = 0, base = 0; d < dim; d++, base += partitions) {
+      final double val = query.doubleValue(d);
+      final double[] split = splitPositions[d];
+      for(int c = 0; c < partitions; c++) {
+        final double below = split[c] - val, above = val - split[c + 1];
+        lo[base + c] = below > 0 ? pow(below, p) : above > 0 ? pow(above, p) : 0.;
+        if(hi != null) {
+          hi[base + c] = pow(Math.max(Math.abs(below), Math.abs(above)), p);
+        }
+      }
+    }
+  }
+
+  /**
+   * Power function, with fast paths for p=1 and p=2.
+   * 
+   * @param x Value
+   * @param p Exponent
+   * @return x to the power of p
+   */
+  private static double pow(double x, double p) {
+    return p == 2. ? x * x : p == 1. ? x : Math.pow(x, p);
+  }
+
+  /**
+   * Sum the table entries of an object's approximation.
+   * 
+   * Because all entries are non-negative, the summation is aborted once the
+   * sum exceeds the given threshold (checked after every long).
+   * 
+   * @param off Offset of the object in the approximation array
+   * @param table Lookup table
+   * @param threshold Threshold for early abort
+   * @return Bound, in the p-th power, or a value larger than the threshold
+   */
+  private double aggregate(int off, double[] table, double threshold) {
+    final long mask = (1L << bits) - 1;
+    final int tablesize = dim * partitions;
+    double sum = 0.;
+    for(int base = 0, end = off + words; off < end && sum <= threshold; off++) {
+      long word = approx[off];
+      for(int j = 0; j < perword && base < tablesize; j++, base += partitions) {
+        sum += table[base + (int) (word & mask)];
+        word >>>= bits;
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Run tasks on all processors.
+   * 
+   * @param tasks Tasks to run
+   */
+  private static void runTasks(List<Callable<Void>> tasks) {
+    BoundedTaskExecutor.run(tasks, ParallelCore.ALL_PROCESSORS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+  }
+
+  /**
+   * Move the candidates with a lower bound of at most {@code bound} to the
+   * front of the arrays.
+   * 
+   * @param lbs Lower bounds
+   * @param rows Candidate rows
+   * @param n Number of scanned candidates
+   * @param bound Bound
+   * @return Number of candidates
+   */
+  private int prune(double[] lbs, int[] rows, int n, double bound) {
+    int cand = 0;
+    for(int i = 0; i < n; i++) {
+      if(lbs[i] <= bound) {
+        lbs[cand] = lbs[i];
+        rows[cand] = rows[i];
+        ++cand;
+      }
+    }
+    if(scans != null) {
+      scans.increment();
+      candidates.add(cand);
+    }
+    return cand;
+  }
+
+  /**
+   * Get the block distance function for refining a query on the packed float
+   * rows, if possible.
+   * 
+   * @param distanceQuery Distance query
+   * @param query Query object
+   * @return Block distance function, or {@code null}
+   */
+  private BlockDistanceFunction getBlockDistance(DistanceQuery<V> distanceQuery, V query) {
+    if(data == null || !((PackedFloatVectorRelation) relation).isCompatible(query)) {
+      return null;
+    }
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    return df instanceof BlockDistanceFunction ? (BlockDistanceFunction) df : null;
+  }
+
+  /**
+   * Copy a float query vector, for refinement on the packed rows.
+   * 
+   * @param query Query vector
+   * @return Query values
+   */
+  private float[] packQuery(V query) {
+    float[] q = new float[dim];
+    BlockDistances.pack(query, q, 0, dim);
+    return q;
+  }
+
+  /**
+   * Refine a candidate on the packed float rows (and count the refinement).
+   * 
+   * @param df Block distance function
+   * @param q Query values
+   * @param row Candidate row
+   * @return Distance
+   */
+  private double refineRow(BlockDistanceFunction df, float[] q, int row) {
+    countRefinements(1);
+    return df.distance(q, 0, data, row * dim, dim);
+  }
+
+  /**
+   * Get the p of the LP norm, if supported.
+   * 
+   * @param distanceQuery Distance query
+   * @return p, or NaN if not supported.
+   */
+  private double getP(DistanceQuery<V> distanceQuery) {
+    if(distanceQuery.getRelation() != relation) {
+      return Double.NaN;
+    }
+    DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+    // Weighted norms would need weighted lookup tables.
+    if(!(df instanceof LPNormDistanceFunction) || df instanceof WeightedNumberVectorDistanceFunction) {
+      return Double.NaN;
+    }
+    final double p = ((LPNormDistanceFunction) df).getP();
+    return p < Double.POSITIVE_INFINITY ? p : Double.NaN;
+  }
+
+  @Override
+  public Logging getLogger() {
+    return LOG;
+  }
+
+  @Override
+  public void logStatistics() {
+    super.logStatistics();
+    LOG.statistics(new LongStatistic(PackedVAFile.class.getName() + ".size.bytes", approx.length * (long) (Long.SIZE >>> 3)));
+    if(scans != null) {
+      LOG.statistics(scans);
+      LOG.statistics(candidates);
+    }
+  }
+
+  @Override
+  public String getLongName() {
+    return "packed VA-file index";
+  }
+
+  @Override
+  public String getShortName() {
+    return "packed-va-file";
+  }
+
+  @Override
+  public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    final double p = getP(distanceQuery);
+    // Not supported.
+    if(p != p) {
+      return null;
+    }
+    return new PackedVAFileKNNQuery(distanceQuery, p);
+  }
+
+  @Override
+  public RangeQuery<V> getRangeQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+    final double p = getP(distanceQuery);
+    // Not supported.
+    if(p != p) {
+      return null;
+    }
+    return new PackedVAFileRangeQuery(distanceQuery, p);
+  }
+
+  /**
+   * Range query for this index.
+   * 
+   * @author Erich Schubert
+   */
+  public class PackedVAFileRangeQuery extends AbstractRefiningIndex<V>.AbstractRangeQuery {
+    /**
+     * LP Norm p parameter.
+     */
+    final double p;
+
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query object
+     * @param p LP norm p
+     */
+    public PackedVAFileRangeQuery(DistanceQuery<V> distanceQuery, double p) {
+      super(distanceQuery);
+      this.p = p;
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForObject(V query, double eps) {
+      final double[] lo = new double[dim * partitions];
+      lookupTables(query, p, lo, null);
+      final double bound = pow(eps, p) * SLACK;
+      final int size = ids.size();
+      final double[] lbs = new double[size];
+      final int[] rows = new int[size];
+      int n = 0;
+      for(int i = 0; i < size; i++) {
+        final double lb = aggregate(i * words, lo, bound);
+        if(lb <= bound) {
+          lbs[n] = lb;
+          rows[n] = i;
+          ++n;
+        }
+      }
+      final int cand = prune(lbs, rows, n, bound);
+
+      // Refinement step
+      final BlockDistanceFunction bdf = getBlockDistance(distanceQuery, query);
+      final float[] q = bdf != null ? packQuery(query) : null;
+      ModifiableDoubleDBIDList result = DBIDUtil.newDistanceDBIDList();
+      DBIDArrayIter iter = ids.iter();
+      for(int i = 0; i < cand; i++) {
+        iter.seek(rows[i]);
+        final double dist = bdf != null ? refineRow(bdf, q, rows[i]) : refine(iter, query);
+        if(dist <= eps) {
+          result.add(dist, iter);
+        }
+      }
+      result.sort();
+      return result;
+    }
+  }
+
+  /**
+   * KNN query for this index.
+   * 
+   * @author Erich Schubert
+   */
+  public class PackedVAFileKNNQuery extends AbstractRefiningIndex<V>.AbstractKNNQuery {
+    /**
+     * LP Norm p parameter.
+     */
+    final double p;
+
+    /**
+     * Constructor.
+     * 
+     * @param distanceQuery Distance query object
+     * @param p LP norm p
+     */
+    public PackedVAFileKNNQuery(DistanceQuery<V> distanceQuery, double p) {
+      super(distanceQuery);
+      this.p = p;
+    }
+
+    @Override
+    public KNNList getKNNForObject(V query, int k) {
+      final double[] lo = new double[dim * partitions], hi = new double[dim * partitions];
+      lookupTables(query, p, lo, hi);
+      final int size = ids.size();
+      final double[] lbs = new double[size];
+      final int[] rows = new int[size];
+      // Heap for the kth smallest upper bound (yes, we need a max heap!)
+      DoubleMaxHeap heap = new DoubleMaxHeap(k + 1);
+      double bound = Double.POSITIVE_INFINITY;
+      int n = 0;
+      for(int i = 0; i < size; i++) {
+        final double lb = aggregate(i * words, lo, bound);
+        // Skip excess candidate generation:
+        if(lb > bound) {
+          continue;
+        }
+        lbs[n] = lb;
+        rows[n] = i;
+        ++n;
+        heap.add(aggregate(i * words, hi, Double.POSITIVE_INFINITY), k);
+        if(heap.size() >= k) {
+          bound = heap.peek() * SLACK;
+        }
+      }
+      // The bound decreased during the scan, prune early candidates.
+      final int cand = prune(lbs, rows, n, bound);
+      // Sort candidates by lower bound
+      DoubleIntegerArrayQuickSort.sort(lbs, rows, cand);
+
+      // Refinement step
+      final BlockDistanceFunction bdf = getBlockDistance(distanceQuery, query);
+      final float[] q = bdf != null ? packQuery(query) : null;
+      KNNHeap result = DBIDUtil.newHeap(k);
+      DBIDArrayIter iter = ids.iter();
+      for(int i = 0; i < cand; i++) {
+        // Stop when we are sure to have all elements
+        if(result.size() >= k && lbs[i] > pow(result.getKNNDistance(), p) * SLACK) {
+          break;
+        }
+        iter.seek(rows[i]);
+        final double dist = bdf != null ? refineRow(bdf, q, rows[i]) : refine(iter, query);
+        result.insert(dist, iter);
+      }
+      return result.toKNNList();
+    }
+  }
+
+  /**
+   * Index factory class.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.stereotype factory
+   * @apiviz.has PackedVAFile
+   * 
+   * @param <V> Vector type
+   */
+  public static class Factory<V extends NumberVector> implements IndexFactory<V, PackedVAFile<V>> {
+    /**
+     * Number of partitions to use in each dimension.
+     * 
+     * <pre>
+     * -packedvafile.partitions 16
+     * </pre>
+     */
+    public static final OptionID PARTITIONS_ID = new OptionID("packedvafile.partitions", "Number of partitions to use in each dimension.");
+
+    /**
+     * Number of partitions.
+     */
+    int numpart = 2;
+
+    /**
+     * Constructor.
+     * 
+     * @param numpart Number of partitions
+     */
+    public Factory(int numpart) {
+      super();
+      this.numpart = numpart;
+    }
+
+    @Override
+    public PackedVAFile<V> instantiate(Relation<V> relation) {
+      return new PackedVAFile<>(relation, numpart);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return TypeUtil.NUMBER_VECTOR_FIELD;
+    }
+
+    /**
+     * Parameterization class.
+     * 
+     * @author Erich Schubert
+     * 
+     * @apiviz.exclude
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      /**
+       * Number of partitions.
+       */
+      int numpart = 2;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        IntParameter partitionsP = new IntParameter(Factory.PARTITIONS_ID, 16);
+        partitionsP.addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        partitionsP.addConstraint(new LessEqualConstraint(1 << 16));
+        if(config.grab(partitionsP)) {
+          numpart = partitionsP.getValue();
+        }
+      }
+
+      @Override
+      protected Factory<?> makeInstance() {
+        return new Factory<>(numpart);
+      }
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package de.lmu.ifi.dbs.elki.logging.statistics;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe counter for frequent increments from many threads.
+ * 
+ * The count is spread over several cells (each on its own cache line), chosen
+ * by the thread id, so concurrent threads rarely contend for the same cell.
+ * Reading the value sums all cells, and thus is more expensive than
+ * incrementing; use {@link #add} when the current value is not needed.
+ * 
+ * @author Erich Schubert
+ */
+public class StripedLongCounter extends AbstractStatistic implements Counter {
+  /**
+   * Padding: cells are 8 longs apart, to be on separate cache lines.
+   */
+  private static final int PADDING_SHIFT = 3;
+
+  /**
+   * Number of stripes: a power of two, at least twice the number of cores.
+   */
+  private static final int STRIPES = Math.min(64, Integer.highestOneBit((Math.max(1, Runtime.getRuntime().availableProcessors()) << 1) - 1) << 1);
+
+  /**
+   * The counter cells.
+   */
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES << PADDING_SHIFT);
+
+  /**
+   * Constructor.
+   * 
+   * @param key Key to report.
+   */
+  public StripedLongCounter(String key) {
+    super(key);
+  }
+
+  /**
+   * Add to the counter, without computing the current value.
+   * 
+   * @param i Increment (may be negative)
+   */
+  public void add(long i) {
+    cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) << PADDING_SHIFT, i);
+  }
+
+  @Override
+  public long increment() {
+    add(1L);
+    return getValue();
+  }
+
+  @Override
+  public long decrement() {
+    add(-1L);
+    return getValue();
+  }
+
+  @Override
+  public long increment(long i) {
+    add(i);
+    return getValue();
+  }
+
+  @Override
+  public long getValue() {
+    long sum = 0L;
+    for(int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i << PADDING_SHIFT);
+    }
+    return sum;
+  }
+
+  @Override
+  public String formatValue() {
+    return Long.toString(getValue());
+  }
+}
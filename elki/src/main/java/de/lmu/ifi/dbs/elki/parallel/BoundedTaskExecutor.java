@@ -0,0 +1,137 @@
+package de.lmu.ifi.dbs.elki.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Run a list of independent (coarse-grained) tasks, such as the members of an
+ * ensemble, with a bounded number of threads.
+ * 
+ * Results are handed to a {@link ResultHandler} in the calling thread, in the
+ * order the tasks complete. New tasks are only submitted when a result has been
+ * consumed, so at most {@code threads} task results are alive at any time; this
+ * allows the caller to fold the results into a compact representation and
+ * discard them early.
+ * 
+ * This uses a private thread pool instead of {@link ParallelCore}, because the
+ * tasks themselves may use {@link ParallelExecutor}, and waiting for those in a
+ * shared, bounded pool could deadlock.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.uses ResultHandler
+ */
+public class BoundedTaskExecutor {
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private BoundedTaskExecutor() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Run the tasks, with at most {@code threads} tasks running concurrently.
+   * 
+   * @param tasks Tasks to run
+   * @param threads Maximum number of concurrent tasks
+   * @param handler Handler to process the results (in the calling thread)
+   * @param <T> Result type
+   */
+  public static <T> void run(List<? extends Callable<T>> tasks, int threads, ResultHandler<? super T> handler) {
+    final int size = tasks.size();
+    threads = Math.max(1, Math.min(threads, size));
+    // Single-threaded: avoid any overhead.
+    if(threads == 1) {
+      for(int i = 0; i < size; i++) {
+        final T result;
+        try {
+          result = tasks.get(i).call();
+        }
+        catch(RuntimeException e) {
+          throw e;
+        }
+        catch(Exception e) {
+          throw new RuntimeException("Task execution failed.", e);
+        }
+        handler.handleResult(i, result);
+      }
+      return;
+    }
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      ExecutorCompletionService<T> service = new ExecutorCompletionService<>(pool);
+      HashMap<Future<T>, Integer> index = new HashMap<>(size);
+      int next = 0;
+      for(; next < threads; next++) {
+        index.put(service.submit(tasks.get(next)), next);
+      }
+      for(int done = 0; done < size; done++) {
+        Future<T> fut = service.take();
+        final int i = index.remove(fut);
+        final T result = fut.get();
+        // Submit the next task before processing the result.
+        if(next < size) {
+          index.put(service.submit(tasks.get(next)), next);
+          next++;
+        }
+        handler.handleResult(i, result);
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Task execution failed.", e);
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Parallel execution interrupted.", e);
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Handler for task results.
+   * 
+   * @author Erich Schubert
+   * 
+   * @param <T> Result type
+   */
+  public interface ResultHandler<T> {
+    /**
+     * Process the result of a task.
+     * 
+     * @param i Task number (position in the task list)
+     * @param result Task result
+     */
+    void handleResult(int i, T result);
+  }
+}
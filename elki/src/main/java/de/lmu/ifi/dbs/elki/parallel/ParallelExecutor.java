@@ -64,7 +64,7 @@ public class ParallelExecutor {
       core.connect();
       int numparts = core.getParallelism();
       // TODO: are there better heuristics for choosing this?
-      numparts = (size > numparts * numparts * 16) ? numparts * numparts - 1 : numparts;
+      numparts = (numparts > 1 && size > numparts * numparts * 16) ? numparts * numparts - 1 : numparts;
 
       final int blocksize = (size + (numparts - 1)) / numparts;
       List<Future<ArrayDBIDs>> parts = new ArrayList<>(numparts);
@@ -148,7 +148,7 @@ public class ParallelExecutor {
 
       DBIDArrayIter iter = ids.iter();
       iter.seek(start);
-      for(int c = end - start; iter.valid() && c >= 0; iter.advance(), c--) {
+      for(int c = end - start; iter.valid() && c > 0; iter.advance(), c--) {
         for(int i = 0; i < instances.length; i++) {
           instances[i].map(iter);
         }
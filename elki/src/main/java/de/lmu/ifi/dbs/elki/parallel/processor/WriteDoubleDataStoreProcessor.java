@@ -31,6 +31,10 @@ import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
 /**
  * Write double values into a {@link WritableDoubleDataStore}.
  * 
+ * Each object is written only by the thread processing it. Algorithms that
+ * update the values of other objects (e.g. neighbors) need a
+ * {@link de.lmu.ifi.dbs.elki.database.datastore.ConcurrentDoubleDataStore}.
+ * 
  * @author Erich Schubert
  *
  * @apiviz.has Instance
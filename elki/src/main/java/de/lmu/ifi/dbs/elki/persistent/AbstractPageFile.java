@@ -1,7 +1,7 @@
 package de.lmu.ifi.dbs.elki.persistent;
 
 import de.lmu.ifi.dbs.elki.logging.Logging;
-import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.logging.statistics.StripedLongCounter;
 
 /*
  This file is part of ELKI:
@@ -38,12 +38,12 @@ public abstract class AbstractPageFile<P extends Page> implements PageFile<P> {
   /**
    * The read I/O-Access of this file.
    */
-  private Counter readAccess;
+  private StripedLongCounter readAccess;
 
   /**
    * The write I/O-Access of this file.
    */
-  private Counter writeAccess;
+  private StripedLongCounter writeAccess;
 
   /**
    * Constructor.
@@ -51,8 +51,8 @@ public abstract class AbstractPageFile<P extends Page> implements PageFile<P> {
   public AbstractPageFile() {
     super();
     Logging log = getLogger();
-    this.readAccess = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".reads") : null;
-    this.writeAccess = log.isStatistics() ? log.newCounter(this.getClass().getName() + ".writes") : null;
+    this.readAccess = log.isStatistics() ? new StripedLongCounter(this.getClass().getName() + ".reads") : null;
+    this.writeAccess = log.isStatistics() ? new StripedLongCounter(this.getClass().getName() + ".writes") : null;
   }
 
   /**
@@ -104,7 +104,7 @@ public abstract class AbstractPageFile<P extends Page> implements PageFile<P> {
    */
   protected void countRead() {
     if (readAccess != null) {
-      readAccess.increment();
+      readAccess.add(1L);
     }
   }
 
@@ -113,7 +113,7 @@ public abstract class AbstractPageFile<P extends Page> implements PageFile<P> {
    */
   protected void countWrite() {
     if (writeAccess != null) {
-      writeAccess.increment();
+      writeAccess.add(1L);
     }
   }
 }
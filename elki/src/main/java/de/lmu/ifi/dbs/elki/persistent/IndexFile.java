@@ -0,0 +1,564 @@
+package de.lmu.ifi.dbs.elki.persistent;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.index.StorableIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+
+/**
+ * Versioned binary file format to store in-memory indexes, so they can be
+ * loaded instead of rebuilt when the data did not change.
+ * 
+ * The file starts with a header containing a magic number, the format
+ * version, the index class and its storage version, and a fingerprint of the
+ * indexed relation. If any of these does not match, the file is considered
+ * stale and the index is rebuilt (and the file replaced). Files are loaded via
+ * memory mapping; objects are stored as offsets into the relation's DBIDs.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.composedOf Writer
+ * @apiviz.composedOf Reader
+ */
+public final class IndexFile {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(IndexFile.class);
+
+  /**
+   * Magic number, "ELKI" in ASCII.
+   */
+  public static final int MAGIC = 0x454C4B49;
+
+  /**
+   * Version of the file format (header).
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private IndexFile() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Try to restore an index from a file.
+   * 
+   * @param file File, may be {@code null}
+   * @param relation Indexed relation
+   * @param index Index to restore
+   * @return {@code true} when the index was loaded and does not need to be
+   *         built.
+   */
+  public static boolean load(File file, Relation<?> relation, StorableIndex index) {
+    if(file == null || !file.exists()) {
+      return false;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+        LOG.warning("Not an index file, or unsupported version: " + file);
+        return false;
+      }
+      Reader in = new Reader(buffer, DBIDUtil.ensureArray(relation.getDBIDs()));
+      if(!index.getClass().getName().equals(in.readString()) || in.readInt() != index.getStorageVersion()) {
+        LOG.verbose("Index file " + file + " was written by a different index, rebuilding.");
+        return false;
+      }
+      if(in.readLong() != fingerprint(relation)) {
+        LOG.verbose("Data set has changed since " + file + " was written, rebuilding.");
+        return false;
+      }
+      if(!index.read(in)) {
+        LOG.verbose("Index file " + file + " was written with different parameters, rebuilding.");
+        return false;
+      }
+      if(LOG.isVerbose()) {
+        LOG.verbose("Loaded index from " + file);
+      }
+      return true;
+    }
+    catch(IOException | BufferUnderflowException | IllegalArgumentException e) {
+      LOG.warning("Could not load index from " + file + ": " + e);
+      return false;
+    }
+  }
+
+  /**
+   * Store an index in a file. The file is written under a temporary name, and
+   * then moved into place.
+   * 
+   * @param file File, may be {@code null}
+   * @param relation Indexed relation
+   * @param index Index to store
+   */
+  public static void save(File file, Relation<?> relation, StorableIndex index) {
+    if(file == null) {
+      return;
+    }
+    File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      Writer w = new Writer(out, DBIDUtil.ensureArray(relation.getDBIDs()));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      w.writeString(index.getClass().getName());
+      out.writeInt(index.getStorageVersion());
+      out.writeLong(fingerprint(relation));
+      index.write(w);
+    }
+    catch(IOException e) {
+      LOG.warning("Could not save index to " + file + ": " + e);
+      tmp.delete();
+      return;
+    }
+    try {
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch(IOException e) {
+      LOG.warning("Could not save index to " + file + ": " + e);
+      tmp.delete();
+    }
+  }
+
+  /**
+   * Compute a fingerprint of a relation's contents, to detect stale index
+   * files.
+   * 
+   * Vectors are hashed by their values; for other objects, their
+   * {@code hashCode()} is used.
+   * 
+   * @param relation Relation
+   * @return Fingerprint
+   */
+  public static long fingerprint(Relation<?> relation) {
+    long h = mix(0x9E3779B97F4A7C15L, relation.size());
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      final Object obj = relation.get(iter);
+      if(obj instanceof SparseNumberVector) {
+        final SparseNumberVector vec = (SparseNumberVector) obj;
+        for(int it = vec.iter(); vec.iterValid(it); it = vec.iterAdvance(it)) {
+          h = mix(h, vec.iterDim(it));
+          h = mix(h, Double.doubleToLongBits(vec.iterDoubleValue(it)));
+        }
+      }
+      else if(obj instanceof NumberVector) {
+        final NumberVector vec = (NumberVector) obj;
+        for(int d = 0, dim = vec.getDimensionality(); d < dim; d++) {
+          h = mix(h, Double.doubleToLongBits(vec.doubleValue(d)));
+        }
+      }
+      else {
+        h = mix(h, obj != null ? obj.hashCode() : 0);
+      }
+      // Object separator
+      h = mix(h, -1L);
+    }
+    return h;
+  }
+
+  /**
+   * Mix a value into a hash.
+   * 
+   * @param h Hash
+   * @param v Value
+   * @return New hash
+   */
+  private static long mix(long h, long v) {
+    h ^= v;
+    h *= 0xFF51AFD7ED558CCDL;
+    return h ^ (h >>> 32);
+  }
+
+  /**
+   * Output for storing an index.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static class Writer {
+    /**
+     * Output stream.
+     */
+    private final DataOutputStream out;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Offsets of the DBIDs, if not a range.
+     */
+    private WritableIntegerDataStore offsets;
+
+    /**
+     * Constructor.
+     * 
+     * @param out Output stream
+     * @param ids DBIDs of the relation
+     */
+    protected Writer(DataOutputStream out, ArrayDBIDs ids) {
+      this.out = out;
+      this.ids = ids;
+    }
+
+    /**
+     * Write an integer.
+     * 
+     * @param v Value
+     * @throws IOException on write errors
+     */
+    public void writeInt(int v) throws IOException {
+      out.writeInt(v);
+    }
+
+    /**
+     * Write a long.
+     * 
+     * @param v Value
+     * @throws IOException on write errors
+     */
+    public void writeLong(long v) throws IOException {
+      out.writeLong(v);
+    }
+
+    /**
+     * Write a double.
+     * 
+     * @param v Value
+     * @throws IOException on write errors
+     */
+    public void writeDouble(double v) throws IOException {
+      out.writeDouble(v);
+    }
+
+    /**
+     * Write a string.
+     * 
+     * @param s String
+     * @throws IOException on write errors
+     */
+    public void writeString(String s) throws IOException {
+      final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    /**
+     * Write an array of integers, including its length.
+     * 
+     * @param a Array
+     * @throws IOException on write errors
+     */
+    public void writeInts(int[] a) throws IOException {
+      out.writeInt(a.length);
+      for(int v : a) {
+        out.writeInt(v);
+      }
+    }
+
+    /**
+     * Write an array of floats, including its length.
+     * 
+     * @param a Array
+     * @throws IOException on write errors
+     */
+    public void writeFloats(float[] a) throws IOException {
+      out.writeInt(a.length);
+      for(float v : a) {
+        out.writeFloat(v);
+      }
+    }
+
+    /**
+     * Write an array of doubles, including its length.
+     * 
+     * @param a Array
+     * @throws IOException on write errors
+     */
+    public void writeDoubles(double[] a) throws IOException {
+      out.writeInt(a.length);
+      for(double v : a) {
+        out.writeDouble(v);
+      }
+    }
+
+    /**
+     * Write an array of bytes, including its length.
+     * 
+     * @param a Array
+     * @throws IOException on write errors
+     */
+    public void writeBytes(byte[] a) throws IOException {
+      out.writeInt(a.length);
+      out.write(a);
+    }
+
+    /**
+     * Write an object reference, as offset into the relation.
+     * 
+     * @param ref Object reference
+     * @throws IOException on write errors
+     */
+    public void writeDBID(DBIDRef ref) throws IOException {
+      out.writeInt(offset(ref));
+    }
+
+    /**
+     * Write a set of objects, as offsets into the relation, including the
+     * size.
+     * 
+     * @param dbids Objects
+     * @throws IOException on write errors
+     */
+    public void writeDBIDs(DBIDs dbids) throws IOException {
+      out.writeInt(dbids.size());
+      for(DBIDIter iter = dbids.iter(); iter.valid(); iter.advance()) {
+        out.writeInt(offset(iter));
+      }
+    }
+
+    /**
+     * Get the offset of an object in the relation.
+     * 
+     * @param ref Object reference
+     * @return Offset
+     */
+    private int offset(DBIDRef ref) {
+      if(ids instanceof DBIDRange) {
+        return ((DBIDRange) ids).getOffset(ref);
+      }
+      if(offsets == null) {
+        offsets = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+        for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+          offsets.putInt(iter, iter.getOffset());
+        }
+      }
+      return offsets.intValue(ref);
+    }
+  }
+
+  /**
+   * Input for restoring an index, reading from a memory mapped buffer.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public static class Reader {
+    /**
+     * Input buffer.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * DBIDs of the relation.
+     */
+    private final ArrayDBIDs ids;
+
+    /**
+     * Iterator for resolving offsets.
+     */
+    private final DBIDArrayIter iter;
+
+    /**
+     * Constructor.
+     * 
+     * @param buffer Input buffer
+     * @param ids DBIDs of the relation
+     */
+    protected Reader(ByteBuffer buffer, ArrayDBIDs ids) {
+      this.buffer = buffer;
+      this.ids = ids;
+      this.iter = ids.iter();
+    }
+
+    /**
+     * Read an integer.
+     * 
+     * @return Value
+     */
+    public int readInt() {
+      return buffer.getInt();
+    }
+
+    /**
+     * Read a long.
+     * 
+     * @return Value
+     */
+    public long readLong() {
+      return buffer.getLong();
+    }
+
+    /**
+     * Read a double.
+     * 
+     * @return Value
+     */
+    public double readDouble() {
+      return buffer.getDouble();
+    }
+
+    /**
+     * Read a string.
+     * 
+     * @return String
+     */
+    public String readString() {
+      byte[] bytes = new byte[checkLength(buffer.getInt(), 1)];
+      buffer.get(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read an array of integers.
+     * 
+     * @return Array
+     */
+    public int[] readInts() {
+      int[] a = new int[checkLength(buffer.getInt(), 4)];
+      buffer.asIntBuffer().get(a);
+      buffer.position(buffer.position() + (a.length << 2));
+      return a;
+    }
+
+    /**
+     * Read an array of floats.
+     * 
+     * @return Array
+     */
+    public float[] readFloats() {
+      float[] a = new float[checkLength(buffer.getInt(), 4)];
+      buffer.asFloatBuffer().get(a);
+      buffer.position(buffer.position() + (a.length << 2));
+      return a;
+    }
+
+    /**
+     * Read an array of doubles.
+     * 
+     * @return Array
+     */
+    public double[] readDoubles() {
+      double[] a = new double[checkLength(buffer.getInt(), 8)];
+      buffer.asDoubleBuffer().get(a);
+      buffer.position(buffer.position() + (a.length << 3));
+      return a;
+    }
+
+    /**
+     * Read an array of bytes.
+     * 
+     * @return Array
+     */
+    public byte[] readBytes() {
+      byte[] a = new byte[checkLength(buffer.getInt(), 1)];
+      buffer.get(a);
+      return a;
+    }
+
+    /**
+     * Read an object reference.
+     * 
+     * Note: the returned iterator is reused by the next call.
+     * 
+     * @return Object reference
+     */
+    public DBIDRef readDBID() {
+      return iter.seek(checkOffset(buffer.getInt()));
+    }
+
+    /**
+     * Read a set of objects.
+     * 
+     * @return Objects, in the stored order
+     */
+    public ArrayModifiableDBIDs readDBIDs() {
+      final int size = checkLength(buffer.getInt(), 4);
+      ArrayModifiableDBIDs dbids = DBIDUtil.newArray(size);
+      for(int i = 0; i < size; i++) {
+        dbids.add(iter.seek(checkOffset(buffer.getInt())));
+      }
+      return dbids;
+    }
+
+    /**
+     * Validate an array length against the remaining buffer.
+     * 
+     * @param len Length
+     * @param width Element width
+     * @return Length
+     */
+    private int checkLength(int len, int width) {
+      if(len < 0 || len * (long) width > buffer.remaining()) {
+        throw new IllegalArgumentException("Corrupt index file: invalid length " + len);
+      }
+      return len;
+    }
+
+    /**
+     * Validate an object offset.
+     * 
+     * @param off Offset
+     * @return Offset
+     */
+    private int checkOffset(int off) {
+      if(off < 0 || off >= ids.size()) {
+        throw new IllegalArgumentException("Corrupt index file: invalid object " + off);
+      }
+      return off;
+    }
+  }
+}
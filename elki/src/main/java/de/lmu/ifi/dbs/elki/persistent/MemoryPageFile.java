@@ -23,13 +23,16 @@ package de.lmu.ifi.dbs.elki.persistent;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
-import gnu.trove.map.TIntObjectMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import de.lmu.ifi.dbs.elki.logging.Logging;
 
 /**
  * A memory based implementation of a PageFile that simulates I/O-access.<br>
- * Implemented as a Map with keys representing the ids of the saved pages.
+ * Implemented as an array indexed by the (dense) page ids.
+ * 
+ * Reading pages does not lock, so a fully built index can be queried by many
+ * threads concurrently. Modifications are synchronized.
  * 
  * @author Elke Achtert
  * 
@@ -42,9 +45,14 @@ public class MemoryPageFile<P extends Page> extends AbstractStoringPageFile<P> {
   private static final Logging LOG = Logging.getLogger(MemoryPageFile.class);
 
   /**
-   * Holds the pages.
+   * Initial capacity of the page array.
+   */
+  private static final int INITIAL_CAPACITY = 16;
+
+  /**
+   * Holds the pages. Replaced by a larger copy when full.
    */
-  private final TIntObjectMap<P> file;
+  private volatile AtomicReferenceArray<P> file;
 
   /**
    * Creates a new MemoryPageFile that is supported by a cache with the
@@ -54,19 +62,29 @@ public class MemoryPageFile<P extends Page> extends AbstractStoringPageFile<P> {
    */
   public MemoryPageFile(int pageSize) {
     super(pageSize);
-    this.file = new TIntObjectHashMap<>();
+    this.file = new AtomicReferenceArray<>(INITIAL_CAPACITY);
   }
 
   @Override
-  public synchronized P readPage(int pageID) {
+  public P readPage(int pageID) {
     countRead();
-    return file.get(pageID);
+    final AtomicReferenceArray<P> pages = file;
+    return (pageID >= 0 && pageID < pages.length()) ? pages.get(pageID) : null;
   }
 
   @Override
-  protected void writePage(int pageID, P page) {
+  protected synchronized void writePage(int pageID, P page) {
     countWrite();
-    file.put(pageID, page);
+    AtomicReferenceArray<P> pages = file;
+    if(pageID >= pages.length()) {
+      // Grow, and publish the copy.
+      AtomicReferenceArray<P> grown = new AtomicReferenceArray<>(Math.max(pageID + 1, pages.length() << 1));
+      for(int i = 0; i < pages.length(); i++) {
+        grown.lazySet(i, pages.get(i));
+      }
+      file = pages = grown;
+    }
+    pages.set(pageID, page);
     page.setDirty(false);
   }
 
@@ -78,12 +96,15 @@ public class MemoryPageFile<P extends Page> extends AbstractStoringPageFile<P> {
 
     // delete from file
     countWrite();
-    file.remove(pageID);
+    final AtomicReferenceArray<P> pages = file;
+    if(pageID >= 0 && pageID < pages.length()) {
+      pages.set(pageID, null);
+    }
   }
 
   @Override
-  public void clear() {
-    file.clear();
+  public synchronized void clear() {
+    file = new AtomicReferenceArray<>(INITIAL_CAPACITY);
   }
 
   @Override
@@ -0,0 +1,444 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.hash;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table core for primitive {@code int} keys, with linear
+ * probing and a power-of-two capacity.
+ * 
+ * Deletion shifts the following entries of the probe sequence backwards, so
+ * there are no tombstones, and lookups never slow down after removals. The key
+ * {@code 0} marks free slots; it is stored in the extra slot at the end of the
+ * table. Values of subclasses are kept in parallel arrays, indexed by slot.
+ * 
+ * Lookups do not modify the table, so they may run concurrently as long as
+ * there are no concurrent modifications.
+ * 
+ * @author Erich Schubert
+ */
+public abstract class AbstractIntOpenHash {
+  /**
+   * Maximum fill factor.
+   */
+  private static final double LOAD_FACTOR = .75;
+
+  /**
+   * Minimum table size.
+   */
+  private static final int MIN_SIZE = 4;
+
+  /**
+   * Keys; {@code keys.length - 1} is a power of two, the last slot is reserved
+   * for the key {@code 0}.
+   */
+  protected int[] keys;
+
+  /**
+   * Bit mask for the table positions.
+   */
+  protected int mask;
+
+  /**
+   * Whether the key {@code 0} is present.
+   */
+  protected boolean containsZero;
+
+  /**
+   * Number of keys.
+   */
+  protected int size;
+
+  /**
+   * Number of keys at which the table grows.
+   */
+  private int maxFill;
+
+  /**
+   * Constructor.
+   * 
+   * @param expected Expected number of keys
+   */
+  protected AbstractIntOpenHash(int expected) {
+    super();
+    final int n = tableSize(expected);
+    keys = new int[n + 1];
+    mask = n - 1;
+    maxFill = maxFill(n);
+  }
+
+  /**
+   * Table size for the expected number of keys.
+   * 
+   * @param expected Expected number of keys
+   * @return Power of two
+   */
+  private static int tableSize(int expected) {
+    final long need = (long) Math.ceil(Math.max(expected, 1) / LOAD_FACTOR) + 1;
+    int n = MIN_SIZE;
+    while(n < need && n < (1 << 30)) {
+      n <<= 1;
+    }
+    return n;
+  }
+
+  /**
+   * Maximum fill for a table size.
+   * 
+   * @param n Table size
+   * @return Maximum number of keys
+   */
+  private static int maxFill(int n) {
+    return Math.min((int) Math.ceil(n * LOAD_FACTOR), n - 1);
+  }
+
+  /**
+   * Hash mixing function (multiplication with the golden ratio), such that
+   * consecutive keys are spread over the table.
+   * 
+   * @param k Key
+   * @return Mixed hash code
+   */
+  protected static int mix(int k) {
+    final int h = k * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Find the slot of a key.
+   * 
+   * @param k Key
+   * @return Slot, or {@code -1} if not found
+   */
+  protected final int find(int k) {
+    if(k == 0) {
+      return containsZero ? keys.length - 1 : -1;
+    }
+    int pos = mix(k) & mask;
+    for(int cur; (cur = keys[pos]) != 0; pos = (pos + 1) & mask) {
+      if(cur == k) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Find or insert a key.
+   * 
+   * @param k Key
+   * @return Slot if already present, or {@code -slot - 1} for a new key
+   */
+  protected final int insert(int k) {
+    if(k == 0) {
+      if(containsZero) {
+        return keys.length - 1;
+      }
+      if(size >= maxFill) {
+        resize(tableSize(size + 1));
+      }
+      containsZero = true;
+      ++size;
+      return -keys.length;
+    }
+    int pos = mix(k) & mask;
+    for(int cur; (cur = keys[pos]) != 0; pos = (pos + 1) & mask) {
+      if(cur == k) {
+        return pos;
+      }
+    }
+    if(size >= maxFill) {
+      resize(tableSize(size + 1));
+      pos = mix(k) & mask;
+      while(keys[pos] != 0) {
+        pos = (pos + 1) & mask;
+      }
+    }
+    keys[pos] = k;
+    ++size;
+    return -pos - 1;
+  }
+
+  /**
+   * Remove a key.
+   * 
+   * @param k Key
+   * @return {@code true} if the key was present
+   */
+  protected final boolean removeKey(int k) {
+    final int pos = find(k);
+    if(pos < 0) {
+      return false;
+    }
+    removeAt(pos, null);
+    return true;
+  }
+
+  /**
+   * Remove the key at the given slot.
+   * 
+   * @param pos Slot
+   * @param wrapped Iterator to notify of entries moved across the table end,
+   *        may be {@code null}
+   */
+  protected final void removeAt(int pos, Itr wrapped) {
+    --size;
+    if(pos == keys.length - 1) {
+      containsZero = false;
+      clearValue(pos);
+      return;
+    }
+    // Shift entries backwards, until a free slot is found.
+    while(true) {
+      final int last = pos;
+      int cur;
+      while(true) {
+        pos = (pos + 1) & mask;
+        if((cur = keys[pos]) == 0) {
+          keys[last] = 0;
+          clearValue(last);
+          return;
+        }
+        final int slot = mix(cur) & mask;
+        // Move the entry, unless its home slot lies cyclically in (last, pos].
+        if(last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos)) {
+          break;
+        }
+      }
+      if(wrapped != null && pos < last) {
+        wrapped.addWrapped(cur);
+      }
+      keys[last] = cur;
+      moveValue(pos, last);
+    }
+  }
+
+  /**
+   * Ensure capacity for the given number of keys.
+   * 
+   * @param expected Expected number of keys
+   */
+  public void ensureCapacity(int expected) {
+    if(expected > maxFill) {
+      resize(tableSize(expected));
+    }
+  }
+
+  /**
+   * Rebuild the table with a new size.
+   * 
+   * @param n New table size (power of two)
+   */
+  private void resize(int n) {
+    final int[] oldkeys = keys;
+    final int oldzero = oldkeys.length - 1;
+    final int[] newpos = new int[oldkeys.length];
+    final int[] newkeys = new int[n + 1];
+    final int newmask = n - 1;
+    for(int i = 0; i < oldzero; i++) {
+      final int k = oldkeys[i];
+      if(k == 0) {
+        newpos[i] = -1;
+        continue;
+      }
+      int pos = mix(k) & newmask;
+      while(newkeys[pos] != 0) {
+        pos = (pos + 1) & newmask;
+      }
+      newkeys[pos] = k;
+      newpos[i] = pos;
+    }
+    newpos[oldzero] = containsZero ? n : -1;
+    keys = newkeys;
+    mask = newmask;
+    maxFill = maxFill(n);
+    remapValues(newpos, n + 1);
+  }
+
+  /**
+   * Number of keys.
+   * 
+   * @return Size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Test for emptiness.
+   * 
+   * @return {@code true} if empty
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Remove all keys.
+   */
+  public void clear() {
+    Arrays.fill(keys, 0);
+    containsZero = false;
+    size = 0;
+    clearValues();
+  }
+
+  /**
+   * Move a value to another slot.
+   * 
+   * @param from Source slot
+   * @param to Destination slot
+   */
+  protected abstract void moveValue(int from, int to);
+
+  /**
+   * Release the value of a slot.
+   * 
+   * @param pos Slot
+   */
+  protected abstract void clearValue(int pos);
+
+  /**
+   * Release all values.
+   */
+  protected abstract void clearValues();
+
+  /**
+   * Move all values into a new array after the table was resized.
+   * 
+   * @param newpos New slot for each old slot, {@code -1} for free slots
+   * @param length New array length
+   */
+  protected abstract void remapValues(int[] newpos, int length);
+
+  /**
+   * Iterator over the slots of the table, supporting removal.
+   * 
+   * The table is scanned backwards. When a removal shifts an entry from the
+   * beginning of the table to its end (which was already scanned), the entry
+   * is remembered, and visited after the scan.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  protected class Itr {
+    /**
+     * Current slot of the scan.
+     */
+    private int pos;
+
+    /**
+     * Keys moved across the table end by removals.
+     */
+    private int[] wrapped;
+
+    /**
+     * Number of wrapped keys remaining.
+     */
+    private int numwrapped = 0;
+
+    /**
+     * Whether the scan is complete, and the wrapped keys are visited.
+     */
+    private boolean inWrapped = false;
+
+    /**
+     * Current key.
+     */
+    private int key;
+
+    /**
+     * Constructor.
+     */
+    protected Itr() {
+      pos = keys.length;
+      step();
+    }
+
+    /**
+     * Check whether the iterator points to a key.
+     * 
+     * @return Validity
+     */
+    public boolean valid() {
+      return inWrapped ? numwrapped >= 0 : pos >= 0;
+    }
+
+    /**
+     * Move to the next key.
+     */
+    protected void step() {
+      if(!inWrapped) {
+        final int zero = keys.length - 1;
+        while(--pos >= 0) {
+          if(pos == zero ? containsZero : keys[pos] != 0) {
+            key = pos == zero ? 0 : keys[pos];
+            return;
+          }
+        }
+        inWrapped = true;
+      }
+      if(--numwrapped >= 0) {
+        key = wrapped[numwrapped];
+      }
+    }
+
+    /**
+     * Current key.
+     * 
+     * @return Key
+     */
+    public int getKey() {
+      return key;
+    }
+
+    /**
+     * Remove the current key.
+     */
+    public void removeCurrent() {
+      if(inWrapped) {
+        removeKey(key);
+        return;
+      }
+      removeAt(pos, this);
+    }
+
+    /**
+     * Remember a key moved across the table end.
+     * 
+     * @param k Key
+     */
+    private void addWrapped(int k) {
+      if(wrapped == null) {
+        wrapped = new int[4];
+      }
+      else if(numwrapped == wrapped.length) {
+        wrapped = Arrays.copyOf(wrapped, numwrapped << 1);
+      }
+      wrapped[numwrapped++] = k;
+    }
+  }
+}
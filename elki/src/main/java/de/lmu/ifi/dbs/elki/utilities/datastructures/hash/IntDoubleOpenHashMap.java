@@ -0,0 +1,158 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.hash;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Open-addressing hash map from {@code int} keys to {@code double} values.
+ * 
+ * @author Erich Schubert
+ */
+public class IntDoubleOpenHashMap extends AbstractIntOpenHash {
+  /**
+   * Values, by slot.
+   */
+  private double[] values;
+
+  /**
+   * Value returned for missing keys.
+   */
+  private final double def;
+
+  /**
+   * Constructor.
+   * 
+   * @param expected Expected number of keys
+   * @param def Value returned for missing keys
+   */
+  public IntDoubleOpenHashMap(int expected, double def) {
+    super(expected);
+    this.values = new double[keys.length];
+    this.def = def;
+  }
+
+  /**
+   * Get the value for a key.
+   * 
+   * @param k Key
+   * @return Value, or the default value
+   */
+  public double get(int k) {
+    final int pos = find(k);
+    return pos < 0 ? def : values[pos];
+  }
+
+  /**
+   * Test whether the key is present.
+   * 
+   * @param k Key
+   * @return {@code true} if present
+   */
+  public boolean containsKey(int k) {
+    return find(k) >= 0;
+  }
+
+  /**
+   * Store a value.
+   * 
+   * @param k Key
+   * @param v Value
+   * @return Previous value, or the default value
+   */
+  public double put(int k, double v) {
+    int pos = insert(k);
+    if(pos < 0) {
+      values[-pos - 1] = v;
+      return def;
+    }
+    final double prev = values[pos];
+    values[pos] = v;
+    return prev;
+  }
+
+  /**
+   * Add to a value; missing keys start with the default value.
+   * 
+   * @param k Key
+   * @param delta Value to add
+   * @return New value
+   */
+  public double add(int k, double delta) {
+    int pos = insert(k);
+    if(pos < 0) {
+      return values[-pos - 1] = def + delta;
+    }
+    return values[pos] += delta;
+  }
+
+  /**
+   * Remove a key.
+   * 
+   * @param k Key
+   * @return Previous value, or the default value
+   */
+  public double remove(int k) {
+    final int pos = find(k);
+    if(pos < 0) {
+      return def;
+    }
+    final double prev = values[pos];
+    removeAt(pos, null);
+    return prev;
+  }
+
+  /**
+   * Get the default value.
+   * 
+   * @return Value returned for missing keys
+   */
+  public double getDefaultValue() {
+    return def;
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    values[to] = values[from];
+  }
+
+  @Override
+  protected void clearValue(int pos) {
+    // Primitive values need no cleanup.
+  }
+
+  @Override
+  protected void clearValues() {
+    // Primitive values need no cleanup.
+  }
+
+  @Override
+  protected void remapValues(int[] newpos, int length) {
+    final double[] nvalues = new double[length];
+    for(int i = 0; i < newpos.length; i++) {
+      if(newpos[i] >= 0) {
+        nvalues[newpos[i]] = values[i];
+      }
+    }
+    values = nvalues;
+  }
+}
@@ -0,0 +1,134 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.hash;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from {@code int} keys to objects.
+ * 
+ * @author Erich Schubert
+ * 
+ * @param <V> Value type
+ */
+public class IntObjectOpenHashMap<V> extends AbstractIntOpenHash {
+  /**
+   * Values, by slot.
+   */
+  private Object[] values;
+
+  /**
+   * Constructor.
+   * 
+   * @param expected Expected number of keys
+   */
+  public IntObjectOpenHashMap(int expected) {
+    super(expected);
+    this.values = new Object[keys.length];
+  }
+
+  /**
+   * Get the value for a key.
+   * 
+   * @param k Key
+   * @return Value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V get(int k) {
+    final int pos = find(k);
+    return pos < 0 ? null : (V) values[pos];
+  }
+
+  /**
+   * Test whether the key is present.
+   * 
+   * @param k Key
+   * @return {@code true} if present
+   */
+  public boolean containsKey(int k) {
+    return find(k) >= 0;
+  }
+
+  /**
+   * Store a value.
+   * 
+   * @param k Key
+   * @param v Value
+   * @return Previous value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V put(int k, V v) {
+    int pos = insert(k);
+    if(pos < 0) {
+      values[-pos - 1] = v;
+      return null;
+    }
+    final V prev = (V) values[pos];
+    values[pos] = v;
+    return prev;
+  }
+
+  /**
+   * Remove a key.
+   * 
+   * @param k Key
+   * @return Previous value, or {@code null}
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(int k) {
+    final int pos = find(k);
+    if(pos < 0) {
+      return null;
+    }
+    final V prev = (V) values[pos];
+    removeAt(pos, null);
+    return prev;
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    values[to] = values[from];
+  }
+
+  @Override
+  protected void clearValue(int pos) {
+    values[pos] = null;
+  }
+
+  @Override
+  protected void clearValues() {
+    Arrays.fill(values, null);
+  }
+
+  @Override
+  protected void remapValues(int[] newpos, int length) {
+    final Object[] nvalues = new Object[length];
+    for(int i = 0; i < newpos.length; i++) {
+      if(newpos[i] >= 0) {
+        nvalues[newpos[i]] = values[i];
+      }
+    }
+    values = nvalues;
+  }
+}
@@ -0,0 +1,120 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.hash;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Open-addressing hash set of {@code int} keys.
+ * 
+ * @author Erich Schubert
+ * 
+ * @apiviz.has Iter
+ */
+public class IntOpenHashSet extends AbstractIntOpenHash {
+  /**
+   * Constructor.
+   * 
+   * @param expected Expected number of keys
+   */
+  public IntOpenHashSet(int expected) {
+    super(expected);
+  }
+
+  /**
+   * Add a key.
+   * 
+   * @param k Key
+   * @return {@code true} if the key was not yet present
+   */
+  public boolean add(int k) {
+    return insert(k) < 0;
+  }
+
+  /**
+   * Test whether the key is present.
+   * 
+   * @param k Key
+   * @return {@code true} if present
+   */
+  public boolean contains(int k) {
+    return find(k) >= 0;
+  }
+
+  /**
+   * Remove a key.
+   * 
+   * @param k Key
+   * @return {@code true} if the key was present
+   */
+  public boolean remove(int k) {
+    return removeKey(k);
+  }
+
+  /**
+   * Iterate over the keys.
+   * 
+   * @return Iterator
+   */
+  public Iter iter() {
+    return new Iter();
+  }
+
+  @Override
+  protected void moveValue(int from, int to) {
+    // No values.
+  }
+
+  @Override
+  protected void clearValue(int pos) {
+    // No values.
+  }
+
+  @Override
+  protected void clearValues() {
+    // No values.
+  }
+
+  @Override
+  protected void remapValues(int[] newpos, int length) {
+    // No values.
+  }
+
+  /**
+   * Iterator over the keys of the set.
+   * 
+   * @author Erich Schubert
+   * 
+   * @apiviz.exclude
+   */
+  public class Iter extends AbstractIntOpenHash.Itr {
+    /**
+     * Move to the next key.
+     * 
+     * @return {@code this}
+     */
+    public Iter advance() {
+      step();
+      return this;
+    }
+  }
+}
@@ -32,7 +32,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
  * 
  * @author Erich Schubert
  */
-public class EnsembleVotingInverseMultiplicative implements EnsembleVoting {
+public class EnsembleVotingInverseMultiplicative implements IncrementalEnsembleVoting {
   /**
    * Static instance.
    */
@@ -59,6 +59,21 @@ public class EnsembleVotingInverseMultiplicative implements EnsembleVoting {
     return 1 - prod;
   }
 
+  @Override
+  public double initial() {
+    return 1.;
+  }
+
+  @Override
+  public double update(double acc, double score) {
+    return acc * (1 - score);
+  }
+
+  @Override
+  public double finish(double acc, int count) {
+    return 1 - acc;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -28,7 +28,7 @@ package de.lmu.ifi.dbs.elki.utilities.ensemble;
  * 
  * @author Erich Schubert
  */
-public class EnsembleVotingMax implements EnsembleVoting {
+public class EnsembleVotingMax implements IncrementalEnsembleVoting {
   /**
    * Constructor.
    */
@@ -51,4 +51,19 @@ public class EnsembleVotingMax implements EnsembleVoting {
     }
     return max;
   }
+
+  @Override
+  public double initial() {
+    return Double.NEGATIVE_INFINITY;
+  }
+
+  @Override
+  public double update(double acc, double score) {
+    return score > acc ? score : acc;
+  }
+
+  @Override
+  public double finish(double acc, int count) {
+    return acc;
+  }
 }
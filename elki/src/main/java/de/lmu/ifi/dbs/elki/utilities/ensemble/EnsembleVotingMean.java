@@ -28,7 +28,7 @@ package de.lmu.ifi.dbs.elki.utilities.ensemble;
  * 
  * @author Erich Schubert
  */
-public class EnsembleVotingMean implements EnsembleVoting {
+public class EnsembleVotingMean implements IncrementalEnsembleVoting {
   /**
    * Constructor.
    */
@@ -49,4 +49,19 @@ public class EnsembleVotingMean implements EnsembleVoting {
     }
     return sum / count;
   }
+
+  @Override
+  public double initial() {
+    return 0.;
+  }
+
+  @Override
+  public double update(double acc, double score) {
+    return acc + score;
+  }
+
+  @Override
+  public double finish(double acc, int count) {
+    return acc / count;
+  }
 }
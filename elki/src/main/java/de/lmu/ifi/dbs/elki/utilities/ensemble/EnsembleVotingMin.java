@@ -29,7 +29,7 @@ package de.lmu.ifi.dbs.elki.utilities.ensemble;
  * 
  * @author Erich Schubert
  */
-public class EnsembleVotingMin implements EnsembleVoting {
+public class EnsembleVotingMin implements IncrementalEnsembleVoting {
   /**
    * Constructor.
    */
@@ -52,4 +52,19 @@ public class EnsembleVotingMin implements EnsembleVoting {
     }
     return min;
   }
+
+  @Override
+  public double initial() {
+    return Double.POSITIVE_INFINITY;
+  }
+
+  @Override
+  public double update(double acc, double score) {
+    return score < acc ? score : acc;
+  }
+
+  @Override
+  public double finish(double acc, int count) {
+    return acc;
+  }
 }
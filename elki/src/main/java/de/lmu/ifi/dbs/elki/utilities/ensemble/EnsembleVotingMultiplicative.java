@@ -32,7 +32,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
  * 
  * @author Erich Schubert
  */
-public class EnsembleVotingMultiplicative implements EnsembleVoting {
+public class EnsembleVotingMultiplicative implements IncrementalEnsembleVoting {
   /**
    * Static instance.
    */
@@ -59,6 +59,21 @@ public class EnsembleVotingMultiplicative implements EnsembleVoting {
     return prod;
   }
 
+  @Override
+  public double initial() {
+    return 1.;
+  }
+
+  @Override
+  public double update(double acc, double score) {
+    return acc * score;
+  }
+
+  @Override
+  public double finish(double acc, int count) {
+    return acc;
+  }
+
   /**
    * Parameterization class.
    * 
@@ -0,0 +1,60 @@
+package de.lmu.ifi.dbs.elki.utilities.ensemble;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/**
+ * Ensemble voting rules that can be computed incrementally, one score at a
+ * time, using a single accumulator value.
+ * 
+ * This allows combining ensemble members as they become available, without
+ * keeping all member scores in memory.
+ * 
+ * @author Erich Schubert
+ */
+public interface IncrementalEnsembleVoting extends EnsembleVoting {
+  /**
+   * Initial accumulator value (before any score was seen).
+   * 
+   * @return Initial value
+   */
+  public double initial();
+
+  /**
+   * Add a single score to the accumulator.
+   * 
+   * @param acc Accumulator value
+   * @param score Score to add
+   * @return New accumulator value
+   */
+  public double update(double acc, double score);
+
+  /**
+   * Produce the final combined score.
+   * 
+   * @param acc Accumulator value
+   * @param count Number of scores added
+   * @return Combined score
+   */
+  public double finish(double acc, int count);
+}
@@ -0,0 +1,181 @@
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.AbstractHDBSCAN;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.HDBSCANLinearMemory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.PointerHierarchyRepresentationResult;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.ExtractFlatClusteringFromHierarchy;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.MinimalisticMemoryKDTree;
+import de.lmu.ifi.dbs.elki.result.Result;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+import de.lmu.ifi.dbs.elki.workflow.AlgorithmStep;
+
+/**
+ * Test the Boruvka variant of HDBSCAN* against the linear memory version.
+ * 
+ * @author Erich Schubert
+ */
+public class TestParallelBoruvkaHDBSCAN extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  /**
+   * Both algorithms must produce a spanning tree of the same weights.
+   */
+  @Test
+  public void testSpanningTree() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(AbstractHDBSCAN.Parameterizer.MIN_PTS_ID, 20);
+    HDBSCANLinearMemory<DoubleVector> ref = ClassGenericsUtil.parameterizeOrAbort(HDBSCANLinearMemory.class, params);
+    testParameterizationOk(params);
+
+    params = new ListParameterization();
+    params.addParameter(AbstractHDBSCAN.Parameterizer.MIN_PTS_ID, 20);
+    ParallelBoruvkaHDBSCAN<DoubleVector> boruvka = ClassGenericsUtil.parameterizeOrAbort(ParallelBoruvkaHDBSCAN.class, params);
+    testParameterizationOk(params);
+
+    assertArrayEquals(sortedWeights(ref.run(db, rel)), sortedWeights(boruvka.run(db, rel)), 1e-15);
+  }
+
+  /**
+   * The spanning tree must not depend on a kNN preprocessor that only stores
+   * the minPts nearest neighbors.
+   */
+  @Test
+  public void testSpanningTreeKNNPreprocessor() {
+    ListParameterization dbparams = new ListParameterization();
+    dbparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MaterializeKNNPreprocessor.Factory.class);
+    dbparams.addParameter(MaterializeKNNPreprocessor.Factory.K_ID, 20);
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638, dbparams, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(AbstractHDBSCAN.Parameterizer.MIN_PTS_ID, 20);
+    HDBSCANLinearMemory<DoubleVector> ref = ClassGenericsUtil.parameterizeOrAbort(HDBSCANLinearMemory.class, params);
+    testParameterizationOk(params);
+
+    params = new ListParameterization();
+    params.addParameter(AbstractHDBSCAN.Parameterizer.MIN_PTS_ID, 20);
+    ParallelBoruvkaHDBSCAN<DoubleVector> boruvka = ClassGenericsUtil.parameterizeOrAbort(ParallelBoruvkaHDBSCAN.class, params);
+    testParameterizationOk(params);
+
+    assertArrayEquals(sortedWeights(ref.run(db, rel)), sortedWeights(boruvka.run(db, rel)), 1e-15);
+  }
+
+  /**
+   * Without the fallback to Prim's algorithm, growing the kNN lists of an
+   * index must yield the same spanning tree.
+   */
+  @Test
+  public void testSpanningTreeBoruvkaOnly() {
+    ListParameterization dbparams = new ListParameterization();
+    dbparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MinimalisticMemoryKDTree.Factory.class);
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638, dbparams, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    HDBSCANLinearMemory<DoubleVector> ref = new HDBSCANLinearMemory<>(EuclideanDistanceFunction.STATIC, 20);
+    ParallelBoruvkaHDBSCAN<DoubleVector> boruvka = new ParallelBoruvkaHDBSCAN<>(EuclideanDistanceFunction.STATIC, 20, 638);
+    assertArrayEquals(sortedWeights(ref.run(db, rel)), sortedWeights(boruvka.run(db, rel)), 1e-15);
+  }
+
+  /**
+   * Falling back to Prim's algorithm early must yield the same spanning
+   * tree.
+   */
+  @Test
+  public void testSpanningTreePrimFallback() {
+    ListParameterization dbparams = new ListParameterization();
+    dbparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MinimalisticMemoryKDTree.Factory.class);
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638, dbparams, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    HDBSCANLinearMemory<DoubleVector> ref = new HDBSCANLinearMemory<>(EuclideanDistanceFunction.STATIC, 20);
+    ParallelBoruvkaHDBSCAN<DoubleVector> boruvka = new ParallelBoruvkaHDBSCAN<>(EuclideanDistanceFunction.STATIC, 20, 20);
+    assertArrayEquals(sortedWeights(ref.run(db, rel)), sortedWeights(boruvka.run(db, rel)), 1e-15);
+  }
+
+  /**
+   * Run HDBSCAN* with fixed parameters and compare the result to a golden
+   * standard.
+   */
+  @Test
+  public void testHDBSCANResults() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(ExtractFlatClusteringFromHierarchy.Parameterizer.OUTPUTMODE_ID, ExtractFlatClusteringFromHierarchy.OutputMode.STRICT_PARTITIONS);
+    params.addParameter(ExtractFlatClusteringFromHierarchy.Parameterizer.MINCLUSTERS_ID, 3);
+    params.addParameter(AbstractHDBSCAN.Parameterizer.MIN_PTS_ID, 20);
+    params.addParameter(AlgorithmStep.Parameterizer.ALGORITHM_ID, ParallelBoruvkaHDBSCAN.class);
+    ExtractFlatClusteringFromHierarchy extract = ClassGenericsUtil.parameterizeOrAbort(ExtractFlatClusteringFromHierarchy.class, params);
+    testParameterizationOk(params);
+
+    Result result = extract.run(db);
+    Clustering<?> clustering = findSingleClustering(result);
+    testFMeasure(db, clustering, 0.686953412);
+    testClusterSizes(clustering, new int[] { 1, 200, 437 });
+  }
+
+  /**
+   * Collect the sorted edge weights of a pointer hierarchy.
+   * 
+   * @param pointer Pointer representation
+   * @return Sorted weights, excluding the root
+   */
+  private static double[] sortedWeights(PointerHierarchyRepresentationResult pointer) {
+    DBIDs ids = pointer.getDBIDs();
+    DoubleDataStore lambda = pointer.getParentDistanceStore();
+    double[] w = new double[ids.size() - 1];
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+      double l = lambda.doubleValue(it);
+      if(l < Double.POSITIVE_INFINITY) {
+        w[i++] = l;
+      }
+    }
+    Arrays.sort(w);
+    return w;
+  }
+}
@@ -68,8 +68,8 @@ public class TestPROCLUSResults extends AbstractSimpleAlgorithmTest implements J
     // run PROCLUS on database
     Clustering<?> result = proclus.run(db);
 
-    testFMeasure(db, result, 0.775218);
-    testClusterSizes(result, new int[] { 30, 90, 201, 279 });
+    testFMeasure(db, result, 0.709919);
+    testClusterSizes(result, new int[] { 33, 155, 200, 212 });
   }
 
   /**
@@ -93,7 +93,7 @@ public class TestPROCLUSResults extends AbstractSimpleAlgorithmTest implements J
 
     // run PROCLUS on database
     Clustering<?> result = proclus.run(db);
-    testFMeasure(db, result, 0.965731);
-    testClusterSizes(result, new int[] { 151, 290, 409 });
+    testFMeasure(db, result, 0.966574);
+    testClusterSizes(result, new int[] { 152, 290, 408 });
   }
 }
\ No newline at end of file
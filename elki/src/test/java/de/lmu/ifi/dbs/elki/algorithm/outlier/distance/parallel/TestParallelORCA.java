@@ -0,0 +1,92 @@
+package de.lmu.ifi.dbs.elki.algorithm.outlier.distance.parallel;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.outlier.distance.KNNOutlier;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Tests the top-n ORCA outlier detection: the top scores must agree with
+ * KNNOutlier and KNNWeightOutlier.
+ * 
+ * @author Erich Schubert
+ */
+public class TestParallelORCA extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  @Test
+  public void testKNNDistance() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+
+    // Parameterization
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KNNOutlier.Parameterizer.K_ID, 1);
+    params.addParameter(ParallelORCA.Parameterizer.N_ID, 20);
+    params.addParameter(ParallelORCA.Parameterizer.BLOCKSIZE_ID, 50);
+    params.addParameter(ParallelORCA.Parameterizer.SEED_ID, 0);
+    params.addParameter(ParallelORCA.Parameterizer.THREADS_ID, 4);
+
+    // setup Algorithm
+    ParallelORCA<DoubleVector> orca = ClassGenericsUtil.parameterizeOrAbort(ParallelORCA.class, params);
+    testParameterizationOk(params);
+
+    // run ORCA on database
+    OutlierResult result = orca.run(db);
+
+    // Top-n scores must be exact.
+    testSingleScore(result, 940, 3.9899079206158907);
+    testSingleScore(result, 921, 1.9740368052302053);
+  }
+
+  @Test
+  public void testKNNWeight() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-3d-3clusters.ascii", 960);
+
+    // Parameterization
+    ListParameterization params = new ListParameterization();
+    params.addParameter(KNNOutlier.Parameterizer.K_ID, 4);
+    params.addParameter(ParallelORCA.Parameterizer.N_ID, 20);
+    params.addParameter(ParallelORCA.Parameterizer.TYPE_ID, ParallelORCA.ScoreType.KNN_WEIGHT);
+    params.addParameter(ParallelORCA.Parameterizer.BLOCKSIZE_ID, 50);
+    params.addParameter(ParallelORCA.Parameterizer.SEED_ID, 0);
+    params.addParameter(ParallelORCA.Parameterizer.THREADS_ID, 4);
+
+    // setup Algorithm
+    ParallelORCA<DoubleVector> orca = ClassGenericsUtil.parameterizeOrAbort(ParallelORCA.class, params);
+    testParameterizationOk(params);
+
+    // run ORCA on database
+    OutlierResult result = orca.run(db);
+
+    // Top-n scores must be exact.
+    testSingleScore(result, 940, 18.72766618816623);
+    testSingleScore(result, 934, 11.566828071007961);
+  }
+}
@@ -81,4 +81,27 @@ public class TestFeatureBagging extends AbstractSimpleAlgorithmTest implements J
     testSingleScore(result, 1293, 1.321709879);
     testAUC(db, "Noise", result, 0.884212);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testFeatureBaggingParallel() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-axis-subspaces-6d.ascii", 1345);
+
+    // Parameterization
+    ListParameterization params = new ListParameterization();
+    params.addParameter(LOF.Parameterizer.K_ID, 10);
+    params.addParameter(FeatureBagging.Parameterizer.NUM_ID, 10);
+    params.addParameter(FeatureBagging.Parameterizer.SEED_ID, 5);
+    params.addParameter(FeatureBagging.Parameterizer.THREADS_ID, 4);
+    params.addFlag(FeatureBagging.Parameterizer.BREADTH_ID);
+
+    // setup Algorithm
+    FeatureBagging fb = ClassGenericsUtil.parameterizeOrAbort(FeatureBagging.class, params);
+    testParameterizationOk(params);
+
+    // Must give the same result as the serial version.
+    OutlierResult result = fb.run(db);
+
+    testSingleScore(result, 1293, 1.321709879);
+    testAUC(db, "Noise", result, 0.884212);
+  }
+}
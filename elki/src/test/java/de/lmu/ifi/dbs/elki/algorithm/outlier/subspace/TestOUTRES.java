@@ -0,0 +1,120 @@
+package de.lmu.ifi.dbs.elki.algorithm.outlier.subspace;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.result.outlier.OutlierResult;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Tests the OUTRES algorithm.
+ * 
+ * @author Erich Schubert
+ */
+public class TestOUTRES extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  @Test
+  public void testOUTRES() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-parabolic.ascii", 530);
+
+    // Parameterization
+    ListParameterization params = new ListParameterization();
+    params.addParameter(OUTRES.Parameterizer.D_ID, 0.1);
+
+    // setup Algorithm
+    OUTRES<DoubleVector> outres = ClassGenericsUtil.parameterizeOrAbort(OUTRES.class, params);
+    testParameterizationOk(params);
+
+    // run OUTRES on database
+    OutlierResult result = outres.run(db);
+
+    testSingleScore(result, 516, 0.1375234);
+    testAUC(db, "Noise", result, 0.5333333);
+  }
+
+  /**
+   * Caching the densities must not change the scores, except for rounding: a
+   * cached density may have been summed in a different neighbor order.
+   */
+  @Test
+  public void testCache() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-parabolic.ascii", 530);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(OUTRES.Parameterizer.D_ID, 0.1);
+    OUTRES<DoubleVector> uncached = ClassGenericsUtil.parameterizeOrAbort(OUTRES.class, params);
+    testParameterizationOk(params);
+
+    params = new ListParameterization();
+    params.addParameter(OUTRES.Parameterizer.D_ID, 0.1);
+    params.addParameter(OUTRES.Parameterizer.CACHE_ID, 16);
+    OUTRES<DoubleVector> cached = ClassGenericsUtil.parameterizeOrAbort(OUTRES.class, params);
+    testParameterizationOk(params);
+
+    assertSameScores(uncached.run(db), cached.run(db));
+  }
+
+  /**
+   * OUTRES changes the dimensions of its distance function for each subspace,
+   * so the database query result cache must not return neighbors of another
+   * subspace.
+   */
+  @Test
+  public void testDatabaseCache() {
+    Database db = makeSimpleDatabase(UNITTEST + "outlier-parabolic.ascii", 530);
+    ListParameterization dbparams = new ListParameterization();
+    dbparams.addParameter(StaticArrayDatabase.Parameterizer.CACHE_ID, 1000000);
+    Database cachedb = makeSimpleDatabase(UNITTEST + "outlier-parabolic.ascii", 530, dbparams, null);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(OUTRES.Parameterizer.D_ID, 0.1);
+    OUTRES<DoubleVector> outres = ClassGenericsUtil.parameterizeOrAbort(OUTRES.class, params);
+    testParameterizationOk(params);
+
+    assertSameScores(outres.run(db), outres.run(cachedb));
+  }
+
+  /**
+   * Assert that two outlier results have the same scores.
+   * 
+   * @param expected Expected result
+   * @param actual Actual result
+   */
+  protected static void assertSameScores(OutlierResult expected, OutlierResult actual) {
+    Relation<Double> exp = expected.getScores(), act = actual.getScores();
+    for(DBIDIter iter = exp.iterDBIDs(); iter.valid(); iter.advance()) {
+      assertEquals(exp.get(iter).doubleValue(), act.get(iter).doubleValue(), 1e-12);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package de.lmu.ifi.dbs.elki.database.datastore;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.parallel.BoundedTaskExecutor;
+
+/**
+ * Test the data stores for concurrent updates.
+ * 
+ * @author Erich Schubert
+ */
+public class TestConcurrentDataStores implements JUnit4Test {
+  /**
+   * Number of objects.
+   */
+  private static final int SIZE = 100;
+
+  /**
+   * Number of threads.
+   */
+  private static final int THREADS = 4;
+
+  /**
+   * Number of rounds per thread.
+   */
+  private static final int ROUNDS = 1000;
+
+  /**
+   * Test on a DBID range.
+   */
+  @Test
+  public void testRange() {
+    runTest(DBIDUtil.generateStaticDBIDRange(SIZE));
+  }
+
+  /**
+   * Test on arbitrary DBIDs.
+   */
+  @Test
+  public void testArbitrary() {
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(SIZE);
+    for(int i = 0; i < SIZE; i++) {
+      ids.add(DBIDUtil.generateSingleDBID());
+    }
+    DBIDUtil.randomShuffle(ids, new Random(0L));
+    runTest(ids);
+  }
+
+  /**
+   * Run concurrent updates on both store types.
+   * 
+   * @param dbids Object IDs
+   */
+  private void runTest(DBIDs dbids) {
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(dbids);
+    final ConcurrentIntegerDataStore counts = DataStoreUtil.makeConcurrentIntegerStorage(ids, DataStoreFactory.HINT_TEMP, 0);
+    final ConcurrentIntegerDataStore maxs = DataStoreUtil.makeConcurrentIntegerStorage(ids, DataStoreFactory.HINT_TEMP, Integer.MIN_VALUE);
+    final ConcurrentDoubleDataStore sums = DataStoreUtil.makeConcurrentDoubleStorage(ids, DataStoreFactory.HINT_TEMP, 0.);
+    final ConcurrentDoubleDataStore mins = DataStoreUtil.makeConcurrentDoubleStorage(ids, DataStoreFactory.HINT_TEMP, Double.POSITIVE_INFINITY);
+    List<Callable<Void>> tasks = new ArrayList<>(THREADS);
+    for(int t = 0; t < THREADS; t++) {
+      final int thread = t;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          for(int r = 0; r < ROUNDS; r++) {
+            for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+              counts.increment(iter, 1);
+              sums.addAndGet(iter, .5);
+              maxs.updateMax(iter, r * THREADS + thread);
+              mins.updateMin(iter, r * THREADS + thread);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    BoundedTaskExecutor.run(tasks, THREADS, new BoundedTaskExecutor.ResultHandler<Void>() {
+      @Override
+      public void handleResult(int i, Void result) {
+        // Nothing to do.
+      }
+    });
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      assertEquals("Lost increments.", THREADS * ROUNDS, counts.intValue(iter));
+      assertEquals("Lost additions.", THREADS * ROUNDS * .5, sums.doubleValue(iter), 0.);
+      assertEquals("Maximum not found.", THREADS * ROUNDS - 1, maxs.intValue(iter));
+      assertEquals("Minimum not found.", 0., mins.doubleValue(iter), 0.);
+      assertFalse("Stale compare-and-set succeeded.", counts.compareAndSet(iter, 0, 1));
+      assertTrue("Compare-and-set failed.", counts.compareAndSet(iter, THREADS * ROUNDS, -1));
+      assertTrue("Compare-and-set failed.", sums.compareAndSet(iter, THREADS * ROUNDS * .5, -1.));
+      assertEquals(-1, counts.intValue(iter));
+      assertEquals(-1., sums.doubleValue(iter), 0.);
+    }
+    // The hint selects the concurrent stores, too.
+    assertTrue(DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_CONCURRENT) instanceof ConcurrentDoubleDataStore);
+    assertTrue(DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_CONCURRENT, 0) instanceof ConcurrentIntegerDataStore);
+  }
+}
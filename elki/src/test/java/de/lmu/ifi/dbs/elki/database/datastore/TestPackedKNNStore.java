@@ -0,0 +1,176 @@
+package de.lmu.ifi.dbs.elki.database.datastore;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.database.datastore.memory.PackedKNNStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.integer.DoubleIntegerDBIDKNNList;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Test the packed storage of kNN lists.
+ * 
+ * @author Erich Schubert
+ */
+public class TestPackedKNNStore implements JUnit4Test {
+  /**
+   * Number of objects.
+   */
+  private static final int SIZE = 1000;
+
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 10;
+
+  /**
+   * Test storing, replacing and deleting lists.
+   */
+  @Test
+  public void testStore() {
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(SIZE);
+    double[] pos = new double[SIZE];
+    Random r = new Random(0L);
+    for(int i = 0; i < SIZE; i++) {
+      pos[i] = r.nextDouble();
+    }
+    WritableDataStore<KNNList> store = DataStoreUtil.makeKNNStorage(ids, DataStoreFactory.HINT_HOT, K);
+    assertTrue("Packed storage not used.", store instanceof PackedKNNStore);
+    KNNList[] expect = new KNNList[SIZE];
+    KNNHeap heap = DBIDUtil.newHeap(K);
+    // Several rounds, to replace lists and trigger compaction.
+    for(int round = 0; round < 5; round++) {
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final int i = ids.getOffset(iter);
+        if(round > 0 && (i + round) % 3 != 0) {
+          continue;
+        }
+        for(DBIDIter iter2 = ids.iter(); iter2.valid(); iter2.advance()) {
+          heap.insert(Math.abs(pos[i] - pos[ids.getOffset(iter2)]) * (round + 1), iter2);
+        }
+        expect[i] = heap.toKNNList();
+        assertTrue("Heap not emptied.", heap.isEmpty());
+        store.put(iter, expect[i]);
+      }
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        assertSameList(expect[ids.getOffset(iter)], store.get(iter));
+      }
+    }
+    // Views must stay valid after compaction.
+    KNNList old = store.get(ids.iter());
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      store.put(iter, expect[ids.getOffset(iter)]);
+    }
+    assertSameList(expect[0], old);
+    store.delete(ids.iter());
+    assertNull("List not deleted.", store.get(ids.iter()));
+  }
+
+  /**
+   * Test that ties do not carry over when a heap is reused.
+   */
+  @Test
+  public void testHeapReuse() {
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(3 * K);
+    KNNHeap heap = DBIDUtil.newHeap(K);
+    // 2k objects tied at distance 0.
+    DBIDIter iter = ids.iter();
+    for(int i = 0; i < 2 * K; i++, iter.advance()) {
+      heap.insert(0., iter);
+    }
+    assertEquals("Ties not kept.", 2 * K, heap.toKNNList().size());
+    assertTrue("Heap not emptied.", heap.isEmpty());
+    // k objects at distance 1.
+    for(; iter.valid(); iter.advance()) {
+      heap.insert(1., iter);
+    }
+    KNNList knn = heap.toKNNList();
+    assertEquals("Heap not reset.", K, knn.size());
+    assertEquals("Heap not reset.", 1., knn.getKNNDistance(), 0.);
+    heap.insert(2., ids.iter());
+    heap.clear();
+    assertEquals("Heap not cleared.", Double.POSITIVE_INFINITY, heap.getKNNDistance(), 0.);
+  }
+
+  /**
+   * Test that exceeding the maximum array size is reported, and does not
+   * modify the store.
+   */
+  @Test
+  public void testTooLarge() {
+    DBIDRange ids = DBIDUtil.generateStaticDBIDRange(SIZE);
+    WritableDataStore<KNNList> store = DataStoreUtil.makeKNNStorage(ids, DataStoreFactory.HINT_HOT, K);
+    KNNHeap heap = DBIDUtil.newHeap(K);
+    heap.insert(0., ids.iter());
+    KNNList small = heap.toKNNList();
+    store.put(ids.iter(), small);
+    // Claims more neighbors than an array can hold.
+    KNNList huge = new DoubleIntegerDBIDKNNList(K, 0) {
+      @Override
+      public int size() {
+        return Integer.MAX_VALUE;
+      }
+    };
+    try {
+      store.put(ids.iter(), huge);
+      fail("Oversized list was accepted.");
+    }
+    catch(AbortException e) {
+      // Expected.
+    }
+    assertSameList(small, store.get(ids.iter()));
+  }
+
+  /**
+   * Compare a kNN list to its compact version.
+   * 
+   * @param expect Expected list
+   * @param actual Compact list
+   */
+  private static void assertSameList(KNNList expect, KNNList actual) {
+    assertEquals("Size does not match.", expect.size(), actual.size());
+    assertEquals("k does not match.", expect.getK(), actual.getK());
+    assertEquals("kNN distance does not match.", (float) expect.getKNNDistance(), actual.getKNNDistance(), 0.);
+    DoubleDBIDListIter a = actual.iter();
+    for(DoubleDBIDListIter e = expect.iter(); e.valid(); e.advance(), a.advance()) {
+      assertTrue("Object does not match.", DBIDUtil.equal(e, a));
+      assertEquals("Distance does not match.", (float) e.doubleValue(), a.doubleValue(), 0.);
+    }
+  }
+}
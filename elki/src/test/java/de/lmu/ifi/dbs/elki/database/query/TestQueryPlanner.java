@@ -0,0 +1,117 @@
+package de.lmu.ifi.dbs.elki.database.query;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.query.knn.PlannedKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.PlannedRangeQuery;
+import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the {@link QueryPlanner}.
+ * 
+ * @author Erich Schubert
+ */
+public class TestQueryPlanner extends AbstractTestIndexStructures {
+  /**
+   * Test that the cheapest plan is chosen, and that cost drift triggers
+   * re-planning.
+   */
+  @Test
+  public void testChoosePlan() {
+    QueryPlanner<String> planner = new QueryPlanner<>("test", Arrays.asList("slow", "fast", "medium"), Arrays.asList("slow", "fast", "medium"));
+    final long[] cost = { 1000L, 10L, 100L };
+    for(int i = 0; i < 100 && planner.getPlan() == null; i++) {
+      int p = planner.choose();
+      planner.record(p, cost[p], 1);
+    }
+    assertEquals("Cheapest plan not chosen.", "fast", planner.getPlan());
+    // Stable cost: keep the plan.
+    for(int i = 0; i < 1000; i++) {
+      assertEquals("Plan changed.", 1, planner.choose());
+      planner.record(1, 10L, 1);
+    }
+    // Cost of the chosen plan increases beyond the runner-up.
+    for(int i = 0; i < 1000 && planner.getPlan() != null; i++) {
+      planner.record(planner.choose(), 1000L, 1);
+    }
+    assertNull("No re-planning on cost increase.", planner.getPlan());
+    cost[1] = 1000L;
+    for(int i = 0; i < 100 && planner.getPlan() == null; i++) {
+      int p = planner.choose();
+      planner.record(p, cost[p], 1);
+    }
+    assertEquals("Cheapest plan not chosen after re-planning.", "medium", planner.getPlan());
+  }
+
+  /**
+   * Test that concurrent threads agree on the cheapest plan.
+   * 
+   * @throws InterruptedException when interrupted
+   */
+  @Test
+  public void testConcurrent() throws InterruptedException {
+    final QueryPlanner<String> planner = new QueryPlanner<>("test", Arrays.asList("slow", "fast"), Arrays.asList("slow", "fast"));
+    final long[] cost = { 1000L, 10L };
+    Thread[] threads = new Thread[4];
+    for(int t = 0; t < threads.length; t++) {
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for(int i = 0; i < 10000; i++) {
+            int p = planner.choose();
+            planner.record(p, cost[p], 1);
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for(Thread t : threads) {
+      t.join();
+    }
+    assertEquals("Cheapest plan not chosen.", "fast", planner.getPlan());
+  }
+
+  /**
+   * Test that planned queries give the exact results.
+   */
+  @Test
+  public void testPlannedQueries() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, RStarTreeFactory.class);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    spatparams.addFlag(StaticArrayDatabase.Parameterizer.PLANNER_ID);
+    testExactEuclidean(spatparams, PlannedKNNQuery.class, PlannedRangeQuery.class);
+  }
+}
@@ -0,0 +1,167 @@
+package de.lmu.ifi.dbs.elki.database.query;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.HashmapDatabase;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.UpdatableDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the query result cache.
+ * 
+ * @author Erich Schubert
+ */
+public class TestQueryResultCache extends AbstractTestIndexStructures {
+  /**
+   * Data set used for the cache test.
+   */
+  private static final String DATASET = "data/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  /**
+   * Number of neighbors to query.
+   */
+  private static final int K = 10;
+
+  /**
+   * Query radius.
+   */
+  private static final double EPS = 0.1;
+
+  /**
+   * Test that cached queries are used, and give the exact results.
+   */
+  @Test
+  public void testCachedQueries() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, RStarTreeFactory.class);
+    spatparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.CACHE_ID, 10000);
+    testExactEuclidean(spatparams, QueryResultCache.CachedKNNQuery.class, QueryResultCache.CachedRangeQuery.class);
+  }
+
+  /**
+   * Test that smaller queries are answered from the cache, and that changes to
+   * the database invalidate the cache.
+   */
+  @Test
+  public void testReuseAndInvalidation() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, DATASET);
+    params.addParameter(HashmapDatabase.Parameterizer.CACHE_ID, 1000);
+    UpdatableDatabase db = ClassGenericsUtil.parameterizeOrAbort(HashmapDatabase.class, params);
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dist = db.getDistanceQuery(rep, EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dist, K);
+    RangeQuery<DoubleVector> rangeq = db.getRangeQuery(dist, EPS);
+    assertTrue("Query not cached.", knnq instanceof QueryResultCache.CachedKNNQuery);
+    assertTrue("Query not cached.", rangeq instanceof QueryResultCache.CachedRangeQuery);
+    KNNQuery<DoubleVector> linknn = new LinearScanDistanceKNNQuery<>(dist);
+    RangeQuery<DoubleVector> linrange = new LinearScanDistanceRangeQuery<>(dist);
+
+    // The capacity allows only part of the data to stay cached.
+    ArrayDBIDs sample = DBIDUtil.ensureArray(rep.getDBIDs());
+    for(int round = 0; round < 2; round++) {
+      for(DBIDIter iter = sample.iter(); iter.valid(); iter.advance()) {
+        assertSameResult(linknn.getKNNForDBID(iter, K), knnq.getKNNForDBID(iter, K));
+        assertSameResult(linknn.getKNNForDBID(iter, K / 2), knnq.getKNNForDBID(iter, K / 2));
+        assertSameResult(linrange.getRangeForDBID(iter, EPS * .5), rangeq.getRangeForDBID(iter, EPS * .5));
+        assertSameResult(linrange.getRangeForDBID(iter, EPS), rangeq.getRangeForDBID(iter, EPS));
+        assertSameResult(linrange.getRangeForDBID(iter, EPS * .5), rangeq.getRangeForDBID(iter, EPS * .5));
+      }
+    }
+    List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(sample, K);
+    int i = 0;
+    for(DBIDIter iter = sample.iter(); iter.valid(); iter.advance(), i++) {
+      assertSameResult(linknn.getKNNForDBID(iter, K), bulk.get(i));
+    }
+
+    // Insert a duplicate of the last object; cached results must not be used.
+    DBIDIter last = sample.iter().seek(sample.size() - 1);
+    assertSameResult(linknn.getKNNForDBID(last, K), knnq.getKNNForDBID(last, K));
+    DBIDs inserted = db.insert(MultipleObjectsBundle.makeSimple(rep.getDataTypeInformation(), Arrays.asList(rep.get(last))));
+    KNNList knn = knnq.getKNNForDBID(last, K);
+    assertSameResult(linknn.getKNNForDBID(last, K), knn);
+    assertTrue("Inserted object not found.", inserted.contains(knn.iter().seek(1)) || inserted.contains(knn.iter()));
+    db.delete(inserted);
+    assertSameResult(linknn.getKNNForDBID(last, K), knnq.getKNNForDBID(last, K));
+    assertSameResult(linrange.getRangeForDBID(last, EPS), rangeq.getRangeForDBID(last, EPS));
+  }
+
+  /**
+   * Compare two kNN query results.
+   * 
+   * @param expect Expected result
+   * @param actual Actual result
+   */
+  private void assertSameResult(KNNList expect, KNNList actual) {
+    assertEquals("kNN distance does not match.", expect.getKNNDistance(), actual.getKNNDistance(), 0.);
+    assertSameResult((DoubleDBIDList) expect, (DoubleDBIDList) actual);
+  }
+
+  /**
+   * Compare two query results.
+   * 
+   * @param expect Expected result
+   * @param actual Actual result
+   */
+  private void assertSameResult(DoubleDBIDList expect, DoubleDBIDList actual) {
+    assertEquals("Result size does not match.", expect.size(), actual.size());
+    DoubleDBIDListIter a = actual.iter();
+    for(DoubleDBIDListIter e = expect.iter(); e.valid(); e.advance(), a.advance()) {
+      assertEquals("Distance does not match.", e.doubleValue(), a.doubleValue(), 0.);
+    }
+  }
+}
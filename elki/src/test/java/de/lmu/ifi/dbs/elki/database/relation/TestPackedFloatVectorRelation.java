@@ -0,0 +1,219 @@
+package de.lmu.ifi.dbs.elki.database.relation;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+
+/**
+ * Test the packed float vector storage and the linear scan queries on it.
+ * 
+ * @author Erich Schubert
+ */
+public class TestPackedFloatVectorRelation implements JUnit4Test {
+  /**
+   * Test data size.
+   */
+  private static final int SIZE = 500, DIM = 7, K = 10;
+
+  /**
+   * Generate the test data.
+   * 
+   * @return Vectors
+   */
+  private static List<FloatVector> makeData() {
+    Random rnd = new Random(0L);
+    List<FloatVector> data = new ArrayList<>(SIZE);
+    float[] buf = new float[DIM];
+    for(int i = 0; i < SIZE; i++) {
+      for(int d = 0; d < DIM; d++) {
+        buf[d] = (float) rnd.nextGaussian();
+      }
+      data.add(new FloatVector(buf));
+    }
+    return data;
+  }
+
+  /**
+   * Build a database on the test data.
+   * 
+   * @param data Data vectors
+   * @param pack Enable packed storage
+   * @return Database
+   */
+  private static Database makeDatabase(List<FloatVector> data, boolean pack) {
+    MultipleObjectsBundle bundle = MultipleObjectsBundle.makeSimple(new VectorFieldTypeInformation<>(FloatVector.FACTORY, DIM), data);
+    Database db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(bundle), null, false, 0, pack);
+    db.initialize();
+    return db;
+  }
+
+  @Test
+  public void testStorage() throws IOException {
+    List<FloatVector> data = makeData();
+    Relation<FloatVector> rel = makeDatabase(data, true).getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    assertTrue("Float vectors not packed: " + rel.getClass(), rel instanceof PackedFloatVectorRelation);
+    int i = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance(), i++) {
+      FloatVector v = rel.get(iter), exp = data.get(i);
+      assertEquals(DIM, v.getDimensionality());
+      for(int d = 0; d < DIM; d++) {
+        assertEquals(exp.floatValue(d), v.floatValue(d), 0.);
+      }
+      assertEquals(exp.toString(), v.toString());
+      // Serialization must only write the viewed row.
+      ByteBuffer buf = ByteBuffer.allocate(FloatVector.VARIABLE_SERIALIZER.getByteSize(v));
+      FloatVector.VARIABLE_SERIALIZER.toByteBuffer(buf, v);
+      buf.flip();
+      assertEquals(exp.toString(), FloatVector.VARIABLE_SERIALIZER.fromByteBuffer(buf).toString());
+    }
+  }
+
+  @Test
+  public void testNotPackedByDefault() {
+    Relation<FloatVector> rel = makeDatabase(makeData(), false).getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    assertFalse("Float vectors packed without being enabled.", rel instanceof PackedFloatVectorRelation);
+  }
+
+  @Test
+  public void testSetOverwritesView() {
+    List<FloatVector> data = makeData();
+    Relation<FloatVector> rel = makeDatabase(data, true).getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    DBIDIter first = rel.iterDBIDs();
+    FloatVector view = rel.get(first);
+    rel.set(first, data.get(1));
+    // Documented aliasing: views see the updated row.
+    assertEquals(data.get(1).toString(), view.toString());
+  }
+
+  @Test
+  public void testLinearScans() {
+    List<FloatVector> data = makeData();
+    Database db = makeDatabase(data, true);
+    Relation<FloatVector> rel = db.getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    List<PrimitiveDistanceFunction<? super FloatVector>> dists = new ArrayList<>();
+    dists.add(EuclideanDistanceFunction.STATIC);
+    dists.add(ManhattanDistanceFunction.STATIC);
+    dists.add(CosineDistanceFunction.STATIC);
+    ArrayModifiableDBIDs qids = DBIDUtil.newArray();
+    DBIDIter it = rel.iterDBIDs();
+    for(int i = 0; i < 5; i++, it.advance()) {
+      qids.add(it);
+    }
+    for(PrimitiveDistanceFunction<? super FloatVector> df : dists) {
+      DistanceQuery<FloatVector> dq = db.getDistanceQuery(rel, df);
+      KNNQuery<FloatVector> knnq = db.getKNNQuery(dq, K);
+      RangeQuery<FloatVector> rangeq = db.getRangeQuery(dq);
+      List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(qids, K);
+      int q = 0;
+      for(DBIDIter qid = qids.iter(); qid.valid(); qid.advance(), q++) {
+        final FloatVector obj = data.get(q);
+        double[] exp = new double[SIZE];
+        for(int i = 0; i < SIZE; i++) {
+          exp[i] = df.distance(obj, data.get(i));
+        }
+        double[] sorted = exp.clone();
+        Arrays.sort(sorted);
+        KNNList knn = knnq.getKNNForObject(obj, K);
+        assertKNN(df.toString(), sorted, knn);
+        assertKNN(df.toString() + " bulk", sorted, bulk.get(q));
+        // Radius half way to the next neighbor, to be robust against rounding.
+        DoubleDBIDList range = rangeq.getRangeForDBID(qid, .5 * (sorted[K - 1] + sorted[K]));
+        assertEquals(df.toString() + " range size", K, range.size());
+        for(DoubleDBIDListIter r = range.iter(); r.valid(); r.advance()) {
+          assertEquals(df.toString() + " range", exp[((PackedFloatVectorRelation) rel).getDBIDs().getOffset(r)], r.doubleValue(), 1e-12);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBulkTiles() {
+    List<FloatVector> data = makeData();
+    for(boolean pack : new boolean[] { false, true }) {
+      Database db = makeDatabase(data, pack);
+      Relation<FloatVector> rel = db.getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+      DistanceQuery<FloatVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+      KNNQuery<FloatVector> knnq = db.getKNNQuery(dq, K);
+      // More queries than fit into a single tile.
+      List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(DBIDUtil.ensureArray(rel.getDBIDs()), K);
+      int q = 0;
+      for(DBIDIter qid = rel.iterDBIDs(); qid.valid(); qid.advance(), q++) {
+        KNNList knn = knnq.getKNNForDBID(qid, K), b = bulk.get(q);
+        assertEquals(K, b.size());
+        DoubleDBIDListIter r2 = b.iter();
+        for(DoubleDBIDListIter r = knn.iter(); r.valid(); r.advance(), r2.advance()) {
+          assertEquals("Query " + q, r.doubleValue(), r2.doubleValue(), 1e-12);
+        }
+      }
+    }
+  }
+
+  /**
+   * Verify the distances of a kNN result.
+   * 
+   * @param msg Message
+   * @param sorted Expected sorted distances
+   * @param knn kNN result
+   */
+  private static void assertKNN(String msg, double[] sorted, KNNList knn) {
+    assertEquals(msg, K, knn.size());
+    int i = 0;
+    for(DoubleDBIDListIter r = knn.iter(); r.valid(); r.advance(), i++) {
+      assertEquals(msg, sorted[i], r.doubleValue(), 1e-12);
+    }
+  }
+}
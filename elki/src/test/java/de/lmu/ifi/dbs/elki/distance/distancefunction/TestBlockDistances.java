@@ -0,0 +1,148 @@
+package de.lmu.ifi.dbs.elki.distance.distancefunction;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPIntegerNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.MaximumDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedMaximumDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.WeightedSquaredEuclideanDistanceFunction;
+
+/**
+ * Validate the block distance kernels against the regular distance functions.
+ * 
+ * @author Erich Schubert
+ */
+public class TestBlockDistances implements JUnit4Test {
+  /**
+   * Build the list of distance functions to test.
+   * 
+   * @param rnd Random generator for the weights
+   * @param dim Dimensionality of the weight vectors
+   * @return Distance functions
+   */
+  private static List<BlockDistanceFunction> distances(Random rnd, int dim) {
+    double[] weights = new double[dim];
+    for(int d = 0; d < dim; d++) {
+      weights[d] = rnd.nextDouble() * 2.;
+    }
+    List<BlockDistanceFunction> dists = new ArrayList<>();
+    dists.add(SquaredEuclideanDistanceFunction.STATIC);
+    dists.add(EuclideanDistanceFunction.STATIC);
+    dists.add(ManhattanDistanceFunction.STATIC);
+    dists.add(MaximumDistanceFunction.STATIC);
+    dists.add(new LPIntegerNormDistanceFunction(3));
+    dists.add(new LPNormDistanceFunction(.5));
+    dists.add(new WeightedSquaredEuclideanDistanceFunction(weights));
+    dists.add(new WeightedEuclideanDistanceFunction(weights));
+    dists.add(new WeightedManhattanDistanceFunction(weights));
+    dists.add(new WeightedMaximumDistanceFunction(weights));
+    dists.add(new WeightedLPNormDistanceFunction(3., weights));
+    dists.add(CosineDistanceFunction.STATIC);
+    return dists;
+  }
+
+  @Test
+  public void testRowKernels() {
+    final Random rnd = new Random(0L);
+    for(int dim = 1; dim <= 40; dim++) {
+      List<BlockDistanceFunction> dists = distances(rnd, dim);
+      double[] a = new double[dim + 3], b = new double[dim + 1];
+      float[] fa = new float[dim + 3], fb = new float[dim + 1];
+      for(int iter = 0; iter < 20; iter++) {
+        for(int d = 0; d < dim; d++) {
+          fa[d + 3] = (float) (a[d + 3] = (rnd.nextDouble() - .5) * 2E3);
+          fb[d + 1] = (float) (b[d + 1] = (rnd.nextDouble() - .5) * 2E3);
+        }
+        NumberVector va = new DoubleVector(Arrays.copyOfRange(a, 3, dim + 3));
+        NumberVector vb = new DoubleVector(Arrays.copyOfRange(b, 1, dim + 1));
+        NumberVector fva = new FloatVector(Arrays.copyOfRange(fa, 3, dim + 3));
+        NumberVector fvb = new FloatVector(Arrays.copyOfRange(fb, 1, dim + 1));
+        for(BlockDistanceFunction df : dists) {
+          final double exp = df.distance(va, vb);
+          assertEquals(df.toString() + " dim " + dim, exp, df.distance(a, 3, b, 1, dim), 1e-12 * Math.max(1., exp));
+          final double fexp = df.distance(fva, fvb);
+          assertEquals(df.toString() + " float dim " + dim, fexp, df.distance(fa, 3, fb, 1, dim), 1e-12 * Math.max(1., fexp));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testBlocks() {
+    final Random rnd = new Random(1L);
+    final int dim = 100, acount = 7, bcount = 150;
+    List<NumberVector> as = new ArrayList<>(), bs = new ArrayList<>();
+    for(int i = 0; i < acount + bcount; i++) {
+      double[] v = new double[dim];
+      for(int d = 0; d < dim; d++) {
+        v[d] = rnd.nextGaussian();
+      }
+      (i < acount ? as : bs).add(new DoubleVector(v));
+    }
+    assertEquals(dim, BlockDistances.dimensionality(bs));
+    double[] a = BlockDistances.pack(as, dim), b = BlockDistances.pack(bs, dim);
+    float[] fa = new float[a.length], fb = new float[b.length];
+    for(int i = 0; i < acount; i++) {
+      BlockDistances.pack(as.get(i), fa, i * dim, dim);
+    }
+    for(int i = 0; i < bcount; i++) {
+      BlockDistances.pack(bs.get(i), fb, i * dim, dim);
+    }
+    double[] out = new double[acount * bcount], fout = new double[acount * bcount];
+    double[] row = new double[bcount];
+    for(BlockDistanceFunction df : distances(rnd, dim)) {
+      BlockDistances.crossDistances(df, a, acount, b, bcount, dim, out);
+      BlockDistances.crossDistances(df, fa, acount, fb, bcount, dim, fout);
+      for(int i = 0; i < acount; i++) {
+        BlockDistances.distances(df, a, i * dim, b, bcount, dim, row);
+        for(int j = 0; j < bcount; j++) {
+          final double exp = df.distance(as.get(i), bs.get(j));
+          assertEquals(df.toString(), exp, out[i * bcount + j], 1e-12 * Math.max(1., exp));
+          assertEquals(df.toString(), exp, row[j], 1e-12 * Math.max(1., exp));
+          assertEquals(df.toString(), exp, fout[i * bcount + j], 1e-5 * Math.max(1., exp));
+        }
+      }
+    }
+  }
+}
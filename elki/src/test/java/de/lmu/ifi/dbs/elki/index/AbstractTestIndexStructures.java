@@ -25,11 +25,18 @@ package de.lmu.ifi.dbs.elki.index;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
 import de.lmu.ifi.dbs.elki.JUnit4Test;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
@@ -39,6 +46,7 @@ import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
@@ -223,4 +231,46 @@ public abstract class AbstractTestIndexStructures implements JUnit4Test {
       }
     }
   }
+
+  /**
+   * Test that bulk kNN queries agree with single queries on a linear scan.
+   * 
+   * @param inputparams Parameters
+   * @param expectKNNQuery Expected query class
+   */
+  protected void testBulkKNN(ListParameterization inputparams, Class<?> expectKNNQuery) {
+    testBulkKNN(inputparams, expectKNNQuery, EuclideanDistanceFunction.STATIC);
+  }
+
+  /**
+   * Test that bulk kNN queries agree with single queries on a linear scan.
+   * 
+   * @param inputparams Parameters
+   * @param expectKNNQuery Expected query class
+   * @param distf Distance function
+   */
+  protected void testBulkKNN(ListParameterization inputparams, Class<?> expectKNNQuery, DistanceFunction<? super DoubleVector> distf) {
+    inputparams.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, dataset);
+
+    // get database
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, inputparams);
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dist = db.getDistanceQuery(rep, distf);
+
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dist, k);
+    assertTrue("Returned knn query is not of expected class: expected " + expectKNNQuery + " got " + knnq.getClass(), expectKNNQuery.isAssignableFrom(knnq.getClass()));
+    KNNQuery<DoubleVector> linq = QueryUtil.getLinearScanKNNQuery(dist);
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rep.getDBIDs());
+    List<? extends KNNList> bulk = knnq.getKNNForBulkDBIDs(ids, k);
+    assertEquals("Bulk result size does not match.", ids.size(), bulk.size());
+    int i = 0;
+    for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance(), i++) {
+      KNNList exp = linq.getKNNForDBID(iter, k), got = bulk.get(i);
+      assertEquals("Result size does not match expectation!", exp.size(), got.size());
+      for(DoubleDBIDListIter e = exp.iter(), g = got.iter(); e.valid(); e.advance(), g.advance()) {
+        assertEquals("Expected distance doesn't match.", e.doubleValue(), g.doubleValue(), 1e-15);
+      }
+    }
+  }
 }
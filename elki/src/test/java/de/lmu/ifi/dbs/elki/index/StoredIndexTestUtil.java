@@ -0,0 +1,97 @@
+package de.lmu.ifi.dbs.elki.index;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Helper for testing indexes that are stored in a file.
+ * 
+ * @author Erich Schubert
+ */
+public final class StoredIndexTestUtil {
+  /**
+   * Modification time to mark the stored index file with.
+   */
+  public static final long STORED_TIME = 1000000000000L;
+
+  /**
+   * Fake constructor: do not instantiate.
+   */
+  private StoredIndexTestUtil() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Build an index twice, with the same temporary file. The first build must
+   * write the file. The file is then back-dated, so that the second build must
+   * load it instead of writing it again.
+   * 
+   * @param prefix Prefix of the temporary file name
+   * @param build Index build
+   * @throws IOException on errors creating the temporary file
+   */
+  public static void testStoredIndex(String prefix, Build build) throws IOException {
+    File file = File.createTempFile(prefix, ".idx");
+    assertTrue(file.delete());
+    try {
+      build.build(file);
+      assertTrue("Index file was not written.", file.exists());
+      assertTrue(file.setLastModified(STORED_TIME));
+      build.build(file);
+      assertEquals("Index was rebuilt instead of loaded.", STORED_TIME, file.lastModified());
+      build.afterLoad(file);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Index build (and test) using a file.
+   * 
+   * @author Erich Schubert
+   */
+  public abstract static class Build {
+    /**
+     * Build and test the index.
+     * 
+     * @param file Index file
+     */
+    public abstract void build(File file);
+
+    /**
+     * Additional tests, after the index was loaded from the file.
+     * 
+     * @param file Index file
+     */
+    public void afterLoad(File file) {
+      // Nothing by default.
+    }
+  }
+}
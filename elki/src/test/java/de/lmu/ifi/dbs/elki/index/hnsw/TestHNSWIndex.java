@@ -0,0 +1,154 @@
+package de.lmu.ifi.dbs.elki.index.hnsw;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the recall of the HNSW graph index, including updates.
+ * 
+ * @author Erich Schubert
+ */
+public class TestHNSWIndex extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  // the following values depend on the data set used!
+  static String dataset = "data/testdata/unittests/axis-parallel-subspace-clusters-6d.csv.gz";
+
+  // size of the data set
+  int shoulds = 2500;
+
+  // number of kNN to query
+  int k = 10;
+
+  @Test
+  public void testRecall() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, HNSWIndex.Factory.class);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.DISTANCE_ID, ManhattanDistanceFunction.class);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.M_ID, 8);
+    params.addParameter(HNSWIndex.Factory.Parameterizer.SEED_ID, 0L);
+    Database db = makeSimpleDatabase(dataset, shoulds, params, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, ManhattanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dq, k);
+    assertTrue("Index not used: " + knnq.getClass(), knnq instanceof HNSWIndex.HNSWKNNQuery);
+    double recall = recall(rel, dq, knnq, rel.getDBIDs());
+    assertTrue("Recall too low: " + recall, recall > .97);
+  }
+
+  @Test
+  public void testUpdates() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    HNSWIndex<DoubleVector> index = new HNSWIndex.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, 8, 100, 50, RandomFactory.get(0L), null).instantiate(rel);
+    index.initialize();
+    KNNQuery<DoubleVector> knnq = index.getKNNQuery(dq, k);
+    DBIDs removed = DBIDUtil.randomSample(rel.getDBIDs(), shoulds / 2, 0L);
+    index.deleteAll(removed);
+    DBIDs remaining = DBIDUtil.difference(rel.getDBIDs(), removed);
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList knn = knnq.getKNNForDBID(iter, k);
+      assertEquals("Deleted objects returned.", k, DBIDUtil.intersectionSize(knn, remaining));
+    }
+    double afterDelete = recall(rel, dq, knnq, remaining);
+    index.insertAll(removed);
+    double afterInsert = recall(rel, dq, knnq, rel.getDBIDs());
+    assertTrue("Recall after deletions too low: " + afterDelete, afterDelete > .97);
+    assertTrue("Recall after insertions too low: " + afterInsert, afterInsert > .97);
+  }
+
+  @Test
+  public void testStorage() throws IOException {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    File file = File.createTempFile("elki-hnsw", ".idx");
+    try {
+      file.delete();
+      HNSWIndex<DoubleVector> built = new HNSWIndex.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, 8, 100, 50, RandomFactory.get(0L), file).instantiate(rel);
+      built.initialize();
+      assertTrue("Index was not stored.", file.exists());
+      // A different seed would build a different graph.
+      HNSWIndex<DoubleVector> loaded = new HNSWIndex.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, 8, 100, 50, RandomFactory.get(1L), file).instantiate(rel);
+      loaded.initialize();
+      KNNQuery<DoubleVector> q1 = built.getKNNQuery(dq, k), q2 = loaded.getKNNQuery(dq, k);
+      for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+        KNNList a = q1.getKNNForDBID(iter, k), b = q2.getKNNForDBID(iter, k);
+        assertEquals("Loaded graph differs.", k, DBIDUtil.intersectionSize(a, b));
+      }
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Compute the kNN recall of an approximate kNN query.
+   * 
+   * @param rel Relation
+   * @param dq Distance query
+   * @param knnq Approximate kNN query
+   * @param ids Indexed objects
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, DistanceQuery<DoubleVector> dq, KNNQuery<DoubleVector> knnq, DBIDs ids) {
+    int hits = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList approx = knnq.getKNNForDBID(iter, k);
+      assertEquals("Wrong number of results.", k, approx.size());
+      // Exact kNN among the indexed objects.
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+        heap.insert(dq.distance(iter, it), it);
+      }
+      hits += DBIDUtil.intersectionSize(heap.toKNNList(), approx);
+    }
+    return hits / (double) (k * rel.size());
+  }
+}
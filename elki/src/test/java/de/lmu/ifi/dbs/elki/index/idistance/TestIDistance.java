@@ -23,12 +23,16 @@ package de.lmu.ifi.dbs.elki.index.idistance;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import java.io.File;
+import java.io.IOException;
+
 import org.junit.Test;
 
 import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.FarthestPointsInitialMeans;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.index.StoredIndexTestUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
@@ -49,4 +53,29 @@ public class TestIDistance extends AbstractTestIndexStructures {
     spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.REFERENCE_ID, FarthestPointsInitialMeans.class);
     testExactEuclidean(spatparams, InMemoryIDistanceIndex.IDistanceKNNQuery.class, InMemoryIDistanceIndex.IDistanceRangeQuery.class);
   }
+
+  /**
+   * Test {@link InMemoryIDistanceIndex} stored to, and loaded from, a file.
+   * 
+   * The file is backdated after the first run; as a rebuilt index is saved
+   * again, an unchanged modification time shows that the second run loaded
+   * the file.
+   * 
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testStoredIDistance() throws IOException {
+    StoredIndexTestUtil.testStoredIndex("elki-idistance", new StoredIndexTestUtil.Build() {
+      @Override
+      public void build(File file) {
+        ListParameterization spatparams = new ListParameterization();
+        spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, InMemoryIDistanceIndex.Factory.class);
+        spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.K_ID, 4);
+        spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.DISTANCE_ID, EuclideanDistanceFunction.class);
+        spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.REFERENCE_ID, FarthestPointsInitialMeans.class);
+        spatparams.addParameter(InMemoryIDistanceIndex.Factory.Parameterizer.FILE_ID, file);
+        testExactEuclidean(spatparams, InMemoryIDistanceIndex.IDistanceKNNQuery.class, InMemoryIDistanceIndex.IDistanceRangeQuery.class);
+      }
+    });
+  }
 }
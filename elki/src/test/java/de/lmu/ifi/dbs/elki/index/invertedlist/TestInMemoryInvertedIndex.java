@@ -23,14 +23,44 @@ package de.lmu.ifi.dbs.elki.index.invertedlist;
  along with this program.  If not, see <http://www.gnu.org/licenses/>.
  */
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.MultipleObjectsBundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.ArcCosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.StoredIndexTestUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
 
 /**
- * Unit test for the iDistance index.
+ * Unit test for the inverted list index.
  * 
  * @author Erich Schubert
  */
@@ -44,4 +74,89 @@ public class TestInMemoryInvertedIndex extends AbstractTestIndexStructures {
     spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, InMemoryInvertedIndex.Factory.class);
     testExactCosine(spatparams, InMemoryInvertedIndex.CosineKNNQuery.class, InMemoryInvertedIndex.CosineRangeQuery.class);
   }
+
+  /**
+   * Test {@link InMemoryInvertedIndex} stored to, and loaded from, a file.
+   * 
+   * The file is backdated after the first run; as a rebuilt index is saved
+   * again, an unchanged modification time shows that the second run loaded
+   * the file.
+   * 
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testStoredInvertedIndex() throws IOException {
+    StoredIndexTestUtil.testStoredIndex("elki-invertedindex", new StoredIndexTestUtil.Build() {
+      @Override
+      public void build(File file) {
+        ListParameterization spatparams = new ListParameterization();
+        spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, InMemoryInvertedIndex.Factory.class);
+        spatparams.addParameter(InMemoryInvertedIndex.Factory.Parameterizer.FILE_ID, file);
+        testExactCosine(spatparams, InMemoryInvertedIndex.CosineKNNQuery.class, InMemoryInvertedIndex.CosineRangeQuery.class);
+      }
+    });
+  }
+
+  /**
+   * Test bulk queries of {@link InMemoryInvertedIndex}.
+   */
+  @Test
+  public void testBulkKNN() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, InMemoryInvertedIndex.Factory.class);
+    testBulkKNN(spatparams, InMemoryInvertedIndex.CosineKNNQuery.class, CosineDistanceFunction.STATIC);
+  }
+
+  /**
+   * Test {@link InMemoryInvertedIndex} on sparse vectors with negative values.
+   */
+  @Test
+  public void testSparse() {
+    final int size = 2000, dim = 200;
+    Random rnd = new Random(0L);
+    List<SparseDoubleVector> data = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      int nnz = 3 + rnd.nextInt(8);
+      int[] dims = new int[nnz];
+      double[] vals = new double[nnz];
+      for(int j = 0, d = rnd.nextInt(20); j < nnz; j++, d += 1 + rnd.nextInt(20)) {
+        dims[j] = d;
+        vals[j] = rnd.nextDouble() - .2;
+      }
+      data.add(new SparseDoubleVector(dims, vals, dim));
+    }
+    VectorFieldTypeInformation<SparseDoubleVector> type = new VectorFieldTypeInformation<>(SparseDoubleVector.FACTORY, dim, SparseDoubleVector.VARIABLE_SERIALIZER);
+    List<IndexFactory<?, ?>> factories = new ArrayList<>();
+    factories.add(new InMemoryInvertedIndex.Factory<SparseNumberVector>());
+    Database db = new StaticArrayDatabase(new MultipleObjectsBundleDatabaseConnection(MultipleObjectsBundle.makeSimple(type, data)), factories);
+    db.initialize();
+    Relation<SparseNumberVector> rel = db.getRelation(TypeUtil.SPARSE_VECTOR_FIELD);
+    for(DistanceFunction<? super SparseNumberVector> df : Arrays.asList(CosineDistanceFunction.STATIC, ArcCosineDistanceFunction.STATIC)) {
+      DistanceQuery<SparseNumberVector> dq = db.getDistanceQuery(rel, df);
+      KNNQuery<SparseNumberVector> knnq = db.getKNNQuery(dq, 10);
+      RangeQuery<SparseNumberVector> rq = db.getRangeQuery(dq, .5);
+      assertTrue("Index was not used.", knnq instanceof InMemoryInvertedIndex.AbstractInvertedKNNQuery);
+      assertTrue("Index was not used.", rq instanceof InMemoryInvertedIndex.AbstractInvertedRangeQuery);
+      KNNQuery<SparseNumberVector> linknn = QueryUtil.getLinearScanKNNQuery(dq);
+      RangeQuery<SparseNumberVector> linrange = QueryUtil.getLinearScanRangeQuery(dq);
+      int i = 0;
+      for(DBIDIter iter = rel.iterDBIDs(); iter.valid() && i < 50; iter.advance(), i++) {
+        assertSameDistances(linknn.getKNNForDBID(iter, 10), knnq.getKNNForDBID(iter, 10));
+        assertSameDistances(linrange.getRangeForDBID(iter, .5), rq.getRangeForDBID(iter, .5));
+      }
+    }
+  }
+
+  /**
+   * Compare the distances of two result lists.
+   * 
+   * @param exp Expected result
+   * @param got Actual result
+   */
+  private static void assertSameDistances(DoubleDBIDList exp, DoubleDBIDList got) {
+    assertEquals("Result size does not match expectation!", exp.size(), got.size());
+    for(DoubleDBIDListIter e = exp.iter(), g = got.iter(); e.valid(); e.advance(), g.advance()) {
+      assertEquals("Expected distance doesn't match.", e.doubleValue(), g.doubleValue(), 1e-15);
+    }
+  }
 }
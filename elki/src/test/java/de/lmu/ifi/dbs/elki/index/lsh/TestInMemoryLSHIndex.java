@@ -0,0 +1,173 @@
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.StoredIndexTestUtil;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+
+/**
+ * Test the recall of the LSH index, with and without multi-probe queries.
+ * 
+ * @author Erich Schubert
+ */
+public class TestInMemoryLSHIndex extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  // the following values depend on the data set used!
+  static String dataset = "data/testdata/unittests/3clusters-and-noise-2d.csv";
+
+  // number of kNN to query
+  int k = 10;
+
+  // size of the data set
+  int shoulds = 330;
+
+  @Test
+  public void testMultiProbeRecall() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+
+    double single = recall(rel, dq, 4, 0);
+    double many = recall(rel, dq, 40, 0);
+    double multi = recall(rel, dq, 4, 20);
+    assertEquals("Recall of single probe LSH has changed.", 0.6933333333333334, single, 1e-15);
+    assertTrue("Multi-probe recall too low: " + multi, multi > .89);
+    assertTrue("Multi-probe with 4 tables worse than 40 tables: " + multi + " < " + many, multi > many);
+  }
+
+  /**
+   * Store the hash tables to a file, and load them again.
+   * 
+   * The file is backdated after the first run; as rebuilt tables are saved
+   * again, an unchanged modification time shows that the second run loaded
+   * the file. Different hash functions must not use the stored tables.
+   * 
+   * @throws IOException on errors creating the temporary file
+   */
+  @Test
+  public void testStorage() throws IOException {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    final Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    final DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    StoredIndexTestUtil.testStoredIndex("elki-lsh", new StoredIndexTestUtil.Build() {
+      /**
+       * Recall of the built and the loaded index.
+       */
+      double[] recalls = new double[2];
+
+      /**
+       * Number of builds.
+       */
+      int builds = 0;
+
+      @Override
+      public void build(File file) {
+        recalls[builds++] = recall(rel, dq, 4, 0, 0L, file);
+      }
+
+      @Override
+      public void afterLoad(File file) {
+        assertEquals("Recall of the loaded index differs.", recalls[0], recalls[1], 0.);
+        recall(rel, dq, 4, 0, 1L, file);
+        assertTrue("Index with different hash functions was loaded.", file.lastModified() != StoredIndexTestUtil.STORED_TIME);
+      }
+    });
+  }
+
+  @Test
+  public void testProbingSequence() {
+    EuclideanHashFunctionFamily family = new EuclideanHashFunctionFamily(RandomFactory.get(0L), .02, 4);
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    @SuppressWarnings("unchecked")
+    MultiProbeLocalitySensitiveHashFunction<? super NumberVector> hashfunc = (MultiProbeLocalitySensitiveHashFunction<? super NumberVector>) family.generateHashFunctions(rel, 1).get(0);
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      DoubleVector vec = rel.get(iter);
+      int[] hashes = hashfunc.hashProbes(vec, 10);
+      assertEquals("Wrong number of probes.", 11, hashes.length);
+      assertEquals("First probe is not the hash code.", hashfunc.hashObject(vec), hashes[0]);
+    }
+  }
+
+  /**
+   * Compute the kNN recall of an LSH index.
+   * 
+   * @param rel Relation
+   * @param dq Distance query
+   * @param l Number of hash tables
+   * @param probes Number of additional buckets to probe
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, DistanceQuery<DoubleVector> dq, int l, int probes) {
+    return recall(rel, dq, l, probes, 0L, null);
+  }
+
+  /**
+   * Compute the kNN recall of an LSH index.
+   * 
+   * @param rel Relation
+   * @param dq Distance query
+   * @param l Number of hash tables
+   * @param probes Number of additional buckets to probe
+   * @param seed Random seed of the hash functions
+   * @param file File to store the hash tables in, may be {@code null}
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, DistanceQuery<DoubleVector> dq, int l, int probes, long seed, File file) {
+    InMemoryLSHIndex<DoubleVector> factory = new InMemoryLSHIndex<>(new EuclideanHashFunctionFamily(RandomFactory.get(seed), .02, 4), l, 7919, probes, file);
+    InMemoryLSHIndex<DoubleVector>.Instance index = factory.instantiate(rel);
+    index.initialize();
+    KNNQuery<DoubleVector> lin = QueryUtil.getLinearScanKNNQuery(dq);
+    KNNQuery<DoubleVector> lsh = index.getKNNQuery(dq, k);
+    int hits = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList exact = lin.getKNNForDBID(iter, k), approx = lsh.getKNNForDBID(iter, k);
+      hits += DBIDUtil.intersectionSize(exact, approx);
+    }
+    return hits / (double) (k * rel.size());
+  }
+}
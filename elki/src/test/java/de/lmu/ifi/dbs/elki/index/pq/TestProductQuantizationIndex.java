@@ -0,0 +1,154 @@
+package de.lmu.ifi.dbs.elki.index.pq;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the recall of the product quantization index.
+ * 
+ * @author Erich Schubert
+ */
+public class TestProductQuantizationIndex extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  // the following values depend on the data set used!
+  static String dataset = "data/testdata/unittests/axis-parallel-subspace-clusters-6d.csv.gz";
+
+  // size of the data set
+  int shoulds = 2500;
+
+  // number of kNN to query
+  int k = 10;
+
+  /**
+   * Refining all objects must give exact results.
+   */
+  @Test
+  public void testExact() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, ProductQuantizationIndex.class);
+    params.addParameter(ProductQuantizationIndex.Parameterizer.SUBSPACES_ID, 3);
+    params.addParameter(ProductQuantizationIndex.Parameterizer.CENTROIDS_ID, 16);
+    params.addParameter(ProductQuantizationIndex.Parameterizer.RERANK_ID, shoulds);
+    params.addParameter(ProductQuantizationIndex.Parameterizer.SEED_ID, 0L);
+    Database db = makeSimpleDatabase(dataset, shoulds, params, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dq, k);
+    assertTrue("Index not used: " + knnq.getClass(), knnq instanceof ProductQuantizationIndex.Instance.PQKNNQuery);
+    assertEquals("Not exact.", 1., recall(rel, dq, knnq), 0.);
+  }
+
+  @Test
+  public void testRecall() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+
+    double plain = recall(rel, dq, new ProductQuantizationIndex<DoubleVector>(3, 16, 20, 1000, 0, 0, k, RandomFactory.get(0L), null));
+    double rerank = recall(rel, dq, new ProductQuantizationIndex<DoubleVector>(3, 16, 20, 1000, 0, 0, 5 * k, RandomFactory.get(0L), null));
+    double ivf = recall(rel, dq, new ProductQuantizationIndex<DoubleVector>(3, 16, 20, 1000, 20, 5, 5 * k, RandomFactory.get(0L), null));
+    assertEquals("Recall without refinement has changed.", 0.54588, plain, 1e-15);
+    assertTrue("Refinement does not improve recall: " + rerank, rerank > .95);
+    assertTrue("Inverted file recall too low: " + ivf, ivf > .95);
+  }
+
+  @Test
+  public void testStorage() throws IOException {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    File file = File.createTempFile("elki-pq", ".idx");
+    try {
+      file.delete();
+      ProductQuantizationIndex<DoubleVector>.Instance built = new ProductQuantizationIndex<DoubleVector>(2, 64, 10, 500, 8, 2, k, RandomFactory.get(0L), file).instantiate(rel);
+      built.initialize();
+      assertTrue("Index was not stored.", file.exists());
+      // A different seed would train different codebooks.
+      ProductQuantizationIndex<DoubleVector>.Instance loaded = new ProductQuantizationIndex<DoubleVector>(2, 64, 10, 500, 8, 2, k, RandomFactory.get(1L), file).instantiate(rel);
+      loaded.initialize();
+      assertArrayEquals("Codes differ.", built.codes, loaded.codes);
+      assertArrayEquals("Inverted lists differ.", built.members, loaded.members);
+      assertArrayEquals("Codebooks differ.", built.codebooks[1], loaded.codebooks[1], 0.);
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Compute the kNN recall of a product quantization index.
+   * 
+   * @param rel Relation
+   * @param dq Distance query
+   * @param factory Index factory
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, DistanceQuery<DoubleVector> dq, ProductQuantizationIndex<DoubleVector> factory) {
+    ProductQuantizationIndex<DoubleVector>.Instance index = factory.instantiate(rel);
+    index.initialize();
+    return recall(rel, dq, index.getKNNQuery(dq, k));
+  }
+
+  /**
+   * Compute the kNN recall of an approximate kNN query.
+   * 
+   * @param rel Relation
+   * @param dq Distance query
+   * @param knnq Approximate kNN query
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, DistanceQuery<DoubleVector> dq, KNNQuery<DoubleVector> knnq) {
+    KNNQuery<DoubleVector> lin = QueryUtil.getLinearScanKNNQuery(dq);
+    int hits = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList exact = lin.getKNNForDBID(iter, k), approx = knnq.getKNNForDBID(iter, k);
+      assertEquals("Wrong number of results.", k, approx.size());
+      hits += DBIDUtil.intersectionSize(exact, approx);
+    }
+    return hits / (double) (k * rel.size());
+  }
+}
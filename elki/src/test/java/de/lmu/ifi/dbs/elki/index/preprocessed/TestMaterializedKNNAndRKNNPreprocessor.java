@@ -37,9 +37,12 @@ import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
 import de.lmu.ifi.dbs.elki.database.HashmapDatabase;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
 import de.lmu.ifi.dbs.elki.database.UpdatableDatabase;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
@@ -52,6 +55,7 @@ import de.lmu.ifi.dbs.elki.database.query.rknn.LinearScanRKNNQuery;
 import de.lmu.ifi.dbs.elki.database.query.rknn.RKNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.database.relation.RelationUtil;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
@@ -156,6 +160,37 @@ public class TestMaterializedKNNAndRKNNPreprocessor implements JUnit4Test {
     testRKNNQueries(rep, lin_rknn_query, preproc_rknn_query, k);
   }
 
+  /**
+   * Test the reverse neighbors on a grid, where many distances are tied.
+   */
+  @Test
+  public void testTies() {
+    final int side = 8;
+    double[][] data = new double[side * side][];
+    for(int i = 0; i < data.length; i++) {
+      data[i] = new double[] { i / side, i % side };
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> distanceQuery = db.getDistanceQuery(rep, EuclideanDistanceFunction.STATIC);
+    LinearScanDistanceKNNQuery<DoubleVector> lin_knn_query = new LinearScanDistanceKNNQuery<>(distanceQuery);
+    LinearScanRKNNQuery<DoubleVector> lin_rknn_query = new LinearScanRKNNQuery<>(distanceQuery, lin_knn_query, 4);
+    MaterializeKNNAndRKNNPreprocessor<DoubleVector> preproc = new MaterializeKNNAndRKNNPreprocessor<>(rep, distanceQuery.getDistanceFunction(), 4);
+    preproc.initialize();
+    RKNNQuery<DoubleVector> preproc_rknn_query = preproc.getRKNNQuery(distanceQuery);
+    for(DBIDIter iter = rep.iterDBIDs(); iter.valid(); iter.advance()) {
+      DoubleDBIDList lin = lin_rknn_query.getRKNNForDBID(iter, 4);
+      DoubleDBIDList pre = preproc_rknn_query.getRKNNForDBID(iter, 4);
+      assertEquals("rkNN sizes do not agree.", lin.size(), pre.size());
+      DBIDs linset = DBIDUtil.newHashSet(lin);
+      for(DoubleDBIDListIter it = pre.iter(); it.valid(); it.advance()) {
+        assertTrue("rkNNs of linear scan and preprocessor do not match!", linset.contains(it));
+        assertEquals("rkNN distance incorrect.", distanceQuery.distance(iter, it), it.doubleValue(), 0.);
+      }
+    }
+  }
+
   private void testKNNQueries(Relation<DoubleVector> rep, KNNQuery<DoubleVector> lin_knn_query, KNNQuery<DoubleVector> preproc_knn_query, int k) {
     ArrayDBIDs sample = DBIDUtil.ensureArray(rep.getDBIDs());
     List<? extends KNNList> lin_knn_ids = lin_knn_query.getKNNForBulkDBIDs(sample, k);
@@ -0,0 +1,140 @@
+package de.lmu.ifi.dbs.elki.index.preprocessed;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.InMemoryLSHIndex;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.NNDescentKNNPreprocessor;
+import de.lmu.ifi.dbs.elki.math.random.RandomFactory;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the recall of the NN-Descent approximate kNN preprocessor.
+ * 
+ * @author Erich Schubert
+ */
+public class TestNNDescentKNNPreprocessor extends AbstractSimpleAlgorithmTest implements JUnit4Test {
+  // the following values depend on the data set used!
+  static String dataset = "data/testdata/unittests/3clusters-and-noise-2d.csv";
+
+  // number of kNN to query
+  int k = 10;
+
+  // size of the data set
+  int shoulds = 330;
+
+  @Test
+  public void testRecall() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    double recall = recall(rel, new NNDescentKNNPreprocessor<>(rel, EuclideanDistanceFunction.STATIC, k, null, RandomFactory.get(0L), 0.5, 20, 0.001, 1.));
+    assertTrue("Recall too low: " + recall, recall > 0.99);
+  }
+
+  /**
+   * Initialization with locality sensitive hashing: after a single iteration,
+   * the graph must be much better than with random initialization.
+   */
+  @Test
+  public void testLSHInitialization() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(NNDescentKNNPreprocessor.Factory.K_ID, k);
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.INITIAL_ID, new InMemoryLSHIndex<>(new EuclideanHashFunctionFamily(RandomFactory.get(0L), .02, 4), 5, 7919));
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.SEED_ID, 0L);
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.ITER_ID, 1);
+    NNDescentKNNPreprocessor.Factory<DoubleVector> factory = ClassGenericsUtil.parameterizeOrAbort(NNDescentKNNPreprocessor.Factory.class, params);
+    testParameterizationOk(params);
+    double lsh = recall(rel, factory.instantiate(rel));
+    double random = recall(rel, new NNDescentKNNPreprocessor<>(rel, EuclideanDistanceFunction.STATIC, k, null, RandomFactory.get(0L), 0.5, 1, 0.001, 1.));
+    assertTrue("Recall too low: " + lsh, lsh > 0.8);
+    assertTrue("LSH initialization did not help: " + lsh + " vs. " + random, lsh > random + 0.2);
+  }
+
+  /**
+   * With a recall target, NN-Descent must stop early, once the estimated
+   * recall is reached.
+   */
+  @Test
+  public void testRecallEarlyStop() {
+    Database db = makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+
+    ListParameterization params = new ListParameterization();
+    params.addParameter(NNDescentKNNPreprocessor.Factory.K_ID, k);
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.SEED_ID, 0L);
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.DELTA_ID, 0.);
+    params.addParameter(NNDescentKNNPreprocessor.Factory.Parameterizer.RECALL_ID, 0.7);
+    NNDescentKNNPreprocessor.Factory<DoubleVector> factory = ClassGenericsUtil.parameterizeOrAbort(NNDescentKNNPreprocessor.Factory.class, params);
+    testParameterizationOk(params);
+    double recall = recall(rel, factory.instantiate(rel));
+    assertTrue("Recall too low: " + recall, recall > 0.7);
+    // Without early stopping, the graph is exact on this data set.
+    assertTrue("Did not stop early: " + recall, recall < 0.9);
+  }
+
+  /**
+   * Compute the recall of the approximate kNN.
+   * 
+   * @param rel Relation
+   * @param preproc Preprocessor
+   * @return Recall
+   */
+  private double recall(Relation<DoubleVector> rel, NNDescentKNNPreprocessor<DoubleVector> preproc) {
+    DistanceQuery<DoubleVector> dq = rel.getDatabase().getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> lin = QueryUtil.getLinearScanKNNQuery(dq);
+    preproc.initialize();
+    KNNQuery<DoubleVector> pre = preproc.getKNNQuery(dq, k);
+
+    int hits = 0;
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList exact = lin.getKNNForDBID(iter, k), approx = pre.getKNNForDBID(iter, k);
+      assertEquals("kNN sizes do not agree.", exact.size(), approx.size());
+      assertTrue("Query object is not its own nearest neighbor.", DBIDUtil.equal(iter, approx.get(0)));
+      hits += DBIDUtil.intersectionSize(exact, approx);
+    }
+    return hits / (double) (k * rel.size());
+  }
+}
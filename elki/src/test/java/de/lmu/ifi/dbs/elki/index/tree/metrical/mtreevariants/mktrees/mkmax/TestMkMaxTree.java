@@ -0,0 +1,122 @@
+package de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees.mkmax;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.rknn.RKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.AbstractMTreeFactory;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.mktrees.AbstractMkTreeUnifiedFactory;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.mtreevariants.query.MkTreeRKNNQuery;
+import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the MkMax-tree, comparing reverse kNN queries to a linear scan.
+ * 
+ * @author Erich Schubert
+ */
+public class TestMkMaxTree extends AbstractSimpleAlgorithmTest {
+  /**
+   * Number of neighbors.
+   */
+  private static final int K = 5;
+
+  /**
+   * Test the MkMax-tree built by insertion.
+   */
+  @Test
+  public void testMkMaxTree() {
+    testReverseKNN(false);
+  }
+
+  /**
+   * Test the bulk loaded MkMax-tree.
+   */
+  @Test
+  public void testMkMaxTreeBulk() {
+    testReverseKNN(true);
+  }
+
+  /**
+   * Compare the reverse kNN queries to a linear scan.
+   * 
+   * @param bulk Bulk load the tree
+   */
+  private void testReverseKNN(boolean bulk) {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MkMaxTreeFactory.class);
+    params.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    params.addParameter(AbstractMkTreeUnifiedFactory.Parameterizer.K_MAX_ID, K);
+    if(bulk) {
+      params.addFlag(AbstractMTreeFactory.Parameterizer.BULK_LOAD_ID);
+    }
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-3d2d1d.csv", 600, params, null);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    RKNNQuery<DoubleVector> rknnq = db.getRKNNQuery(dq, K);
+    assertTrue("Index was not used.", rknnq instanceof MkTreeRKNNQuery);
+
+    // Linear scan kNN distances.
+    double[] kdist = new double[rel.size()];
+    int i = 0;
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+      KNNHeap heap = DBIDUtil.newHeap(K);
+      for(DBIDIter it2 = rel.iterDBIDs(); it2.valid(); it2.advance()) {
+        heap.insert(dq.distance(it, it2), it2);
+      }
+      kdist[i] = heap.getKNNDistance();
+    }
+    for(DBIDIter q = rel.iterDBIDs(); q.valid(); q.advance()) {
+      HashSetModifiableDBIDs expected = DBIDUtil.newHashSet();
+      i = 0;
+      for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance(), i++) {
+        if(dq.distance(it, q) <= kdist[i]) {
+          expected.add(it);
+        }
+      }
+      DoubleDBIDList rknn = rknnq.getRKNNForDBID(q, K);
+      assertEquals("Reverse kNN size does not match.", expected.size(), rknn.size());
+      for(DBIDIter it = rknn.iter(); it.valid(); it.advance()) {
+        assertTrue("Unexpected reverse kNN.", expected.contains(it));
+      }
+    }
+  }
+}
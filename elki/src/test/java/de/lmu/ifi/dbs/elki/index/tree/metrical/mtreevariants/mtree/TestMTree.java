@@ -48,4 +48,16 @@ public class TestMTree extends AbstractTestIndexStructures {
     metparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
     testExactEuclidean(metparams, MetricalIndexKNNQuery.class, MetricalIndexRangeQuery.class);
   }
+
+  /**
+   * Test the bulk loaded {@link MTree}.
+   */
+  @Test
+  public void testMetricalBulk() {
+    ListParameterization metparams = new ListParameterization();
+    metparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, MTreeFactory.class);
+    metparams.addParameter(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300);
+    metparams.addFlag(MTreeFactory.Parameterizer.BULK_LOAD_ID);
+    testExactEuclidean(metparams, MetricalIndexKNNQuery.class, MetricalIndexRangeQuery.class);
+  }
 }
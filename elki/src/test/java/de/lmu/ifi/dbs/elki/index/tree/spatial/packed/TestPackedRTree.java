@@ -0,0 +1,75 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.packed;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SortTileRecursiveBulkSplit;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk.SpatialSortBulkSplit;
+import de.lmu.ifi.dbs.elki.math.spacefillingcurves.HilbertSpatialSorter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the packed R-tree index.
+ * 
+ * @author Erich Schubert
+ */
+public class TestPackedRTree extends AbstractTestIndexStructures {
+  /**
+   * Test {@link PackedRTree} bulk loaded using
+   * {@link SortTileRecursiveBulkSplit}.
+   */
+  @Test
+  public void testSTRPackedRTree() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedRTree.Factory.class);
+    spatparams.addParameter(PackedRTree.Factory.Parameterizer.FANOUT_ID, 5);
+    testExactEuclidean(spatparams, PackedRTree.PackedRTreeKNNQuery.class, PackedRTree.PackedRTreeRangeQuery.class);
+  }
+
+  /**
+   * Test {@link PackedRTree} bulk loaded using a Hilbert curve.
+   */
+  @Test
+  public void testHilbertPackedRTree() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedRTree.Factory.class);
+    spatparams.addParameter(PackedRTree.Factory.Parameterizer.BULK_SPLIT_ID, SpatialSortBulkSplit.class);
+    spatparams.addParameter(SpatialSortBulkSplit.Parameterizer.SORTER_ID, HilbertSpatialSorter.class);
+    spatparams.addParameter(PackedRTree.Factory.Parameterizer.FANOUT_ID, 7);
+    testExactEuclidean(spatparams, PackedRTree.PackedRTreeKNNQuery.class, PackedRTree.PackedRTreeRangeQuery.class);
+  }
+
+  /**
+   * Test bulk kNN queries of the {@link PackedRTree}.
+   */
+  @Test
+  public void testBulkKNN() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedRTree.Factory.class);
+    testBulkKNN(spatparams, PackedRTree.PackedRTreeKNNQuery.class);
+  }
+}
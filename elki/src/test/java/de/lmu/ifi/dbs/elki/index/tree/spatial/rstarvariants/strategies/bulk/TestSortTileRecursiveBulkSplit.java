@@ -0,0 +1,119 @@
+package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialSingleMeanComparator;
+
+/**
+ * Test that the parallel Sort-Tile-Recursive bulk splits produce the same
+ * partitions as the sequential recursion.
+ * 
+ * @author Erich Schubert
+ */
+public class TestSortTileRecursiveBulkSplit implements JUnit4Test {
+  /**
+   * Number of objects, large enough for parallel partitioning.
+   */
+  private static final int SIZE = AbstractBulkSplit.PARALLEL_THRESHOLD + 1234;
+
+  /**
+   * Maximum page size.
+   */
+  private static final int MAXENTRIES = 50;
+
+  @Test
+  public void testSTR() {
+    List<DoubleVector> data = makeData(), data2 = new ArrayList<>(data);
+    List<List<DoubleVector>> par = SortTileRecursiveBulkSplit.STATIC.partition(data, 1, MAXENTRIES);
+    List<List<DoubleVector>> seq = new ArrayList<>();
+    SortTileRecursiveBulkSplit.STATIC.strPartition(data2, 0, SIZE, 0, 3, MAXENTRIES, new SpatialSingleMeanComparator(0), seq, null);
+    assertSamePartitions(seq, par);
+  }
+
+  @Test
+  public void testAdaptiveSTR() {
+    List<DoubleVector> data = makeData(), data2 = new ArrayList<>(data);
+    List<List<DoubleVector>> par = AdaptiveSortTileRecursiveBulkSplit.STATIC.partition(data, 1, MAXENTRIES);
+    List<List<DoubleVector>> seq = new ArrayList<>();
+    AdaptiveSortTileRecursiveBulkSplit.STATIC.strPartition(data2, 0, SIZE, 0, 3, MAXENTRIES, new SpatialSingleMeanComparator(0), seq, null);
+    assertSamePartitions(seq, par);
+  }
+
+  @Test
+  public void testMaxExtensionSTR() {
+    List<DoubleVector> data = makeData(), data2 = new ArrayList<>(data);
+    MaxExtensionSortTileRecursiveBulkSplit split = new MaxExtensionSortTileRecursiveBulkSplit();
+    List<List<DoubleVector>> par = split.partition(data, 1, MAXENTRIES);
+    List<List<DoubleVector>> seq = new ArrayList<>();
+    split.strPartition(data2, 0, SIZE, 0, 3, MAXENTRIES, new SpatialSingleMeanComparator(0), seq, null);
+    assertSamePartitions(seq, par);
+  }
+
+  /**
+   * Generate a reproducible random data set.
+   * 
+   * @return Data
+   */
+  private static List<DoubleVector> makeData() {
+    Random rnd = new Random(0L);
+    List<DoubleVector> data = new ArrayList<>(SIZE);
+    for(int i = 0; i < SIZE; i++) {
+      data.add(new DoubleVector(new double[] { rnd.nextDouble(), rnd.nextGaussian(), rnd.nextDouble() * 10 }));
+    }
+    return data;
+  }
+
+  /**
+   * Compare two partitionings.
+   * 
+   * @param expected Expected partitions
+   * @param actual Actual partitions
+   */
+  private static void assertSamePartitions(List<List<DoubleVector>> expected, List<List<DoubleVector>> actual) {
+    assertEquals("Number of partitions differs.", expected.size(), actual.size());
+    int total = 0;
+    for(int i = 0; i < expected.size(); i++) {
+      List<DoubleVector> e = expected.get(i), a = actual.get(i);
+      assertEquals("Partition size differs.", e.size(), a.size());
+      assertTrue("Partition too large.", a.size() <= MAXENTRIES);
+      for(int j = 0; j < e.size(); j++) {
+        assertSame("Partition contents differ.", e.get(j), a.get(j));
+      }
+      total += a.size();
+    }
+    assertEquals("Not all objects were partitioned.", SIZE, total);
+  }
+}
@@ -0,0 +1,143 @@
+package de.lmu.ifi.dbs.elki.index.vafile;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.QueryUtil;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.PackedFloatVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.parser.NumberVectorLabelParser;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractTestIndexStructures;
+import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for the packed VA-file index.
+ * 
+ * @author Erich Schubert
+ */
+public class TestPackedVAFile extends AbstractTestIndexStructures {
+  /**
+   * Number of neighbors for the float storage test.
+   */
+  private static final int K = 10;
+
+  /**
+   * Test {@link PackedVAFile} using a file based database connection.
+   */
+  @Test
+  public void testPackedVAFile() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedVAFile.Factory.class);
+    spatparams.addParameter(PackedVAFile.Factory.PARTITIONS_ID, 4);
+    testExactEuclidean(spatparams, PackedVAFile.PackedVAFileKNNQuery.class, PackedVAFile.PackedVAFileRangeQuery.class);
+  }
+
+  /**
+   * Test bulk kNN queries of the {@link PackedVAFile}, with a number of
+   * partitions that is not a power of two.
+   */
+  @Test
+  public void testBulkKNN() {
+    ListParameterization spatparams = new ListParameterization();
+    spatparams.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedVAFile.Factory.class);
+    spatparams.addParameter(PackedVAFile.Factory.PARTITIONS_ID, 5);
+    testBulkKNN(spatparams, PackedVAFile.PackedVAFileKNNQuery.class);
+  }
+
+  /**
+   * Test {@link PackedVAFile} on packed float storage, against a linear scan.
+   */
+  @Test
+  public void testPackedFloat() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(FileBasedDatabaseConnection.Parameterizer.INPUT_ID, "data/testdata/unittests/hierarchical-3d2d1d.csv");
+    params.addParameter(NumberVectorLabelParser.Parameterizer.VECTOR_TYPE_ID, FloatVector.Factory.class);
+    params.addFlag(StaticArrayDatabase.Parameterizer.PACK_FLOAT_ID);
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, PackedVAFile.Factory.class);
+    params.addParameter(PackedVAFile.Factory.PARTITIONS_ID, 4);
+    Database db = ClassGenericsUtil.parameterizeOrAbort(StaticArrayDatabase.class, params);
+    db.initialize();
+    Relation<FloatVector> rel = db.getRelation(TypeUtil.FLOAT_VECTOR_FIELD);
+    assertTrue("Float vectors not packed: " + rel.getClass(), rel instanceof PackedFloatVectorRelation);
+    checkPackedFloat(db, rel, EuclideanDistanceFunction.STATIC);
+    checkPackedFloat(db, rel, ManhattanDistanceFunction.STATIC);
+  }
+
+  /**
+   * Compare the kNN and range queries of the index to a linear scan.
+   * 
+   * @param db Database
+   * @param rel Relation
+   * @param df Distance function
+   */
+  private void checkPackedFloat(Database db, Relation<FloatVector> rel, DistanceFunction<? super FloatVector> df) {
+    DistanceQuery<FloatVector> dq = db.getDistanceQuery(rel, df);
+    KNNQuery<FloatVector> knnq = db.getKNNQuery(dq, K);
+    assertTrue("Index not used: " + knnq.getClass(), knnq instanceof PackedVAFile.PackedVAFileKNNQuery);
+    RangeQuery<FloatVector> rangeq = db.getRangeQuery(dq);
+    assertTrue("Index not used: " + rangeq.getClass(), rangeq instanceof PackedVAFile.PackedVAFileRangeQuery);
+    KNNQuery<FloatVector> linknn = QueryUtil.getLinearScanKNNQuery(dq);
+    RangeQuery<FloatVector> linrange = QueryUtil.getLinearScanRangeQuery(dq);
+    for(DBIDIter iter = rel.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList exp = linknn.getKNNForDBID(iter, K);
+      assertSameDistances(exp, knnq.getKNNForDBID(iter, K));
+      final double r = exp.getKNNDistance();
+      assertSameDistances(linrange.getRangeForDBID(iter, r), rangeq.getRangeForDBID(iter, r));
+    }
+  }
+
+  /**
+   * Compare the distances of two result lists.
+   * 
+   * @param exp Expected result
+   * @param act Actual result
+   */
+  private static void assertSameDistances(DoubleDBIDList exp, DoubleDBIDList act) {
+    assertEquals("Result size does not match.", exp.size(), act.size());
+    DoubleDBIDListIter a = act.iter();
+    for(DoubleDBIDListIter e = exp.iter(); e.valid(); e.advance(), a.advance()) {
+      assertEquals("Distance does not match.", e.doubleValue(), a.doubleValue(), 1e-15);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package de.lmu.ifi.dbs.elki.utilities.datastructures.hash;
+
+/*
+ This file is part of ELKI:
+ Environment for Developing KDD-Applications Supported by Index-Structures
+
+ Copyright (C) 2014
+ Ludwig-Maximilians-Universität München
+ Lehr- und Forschungseinheit für Datenbanksysteme
+ ELKI Development Team
+
+ This program is free software: you can redistribute it and/or modify
+ it under the terms of the GNU Affero General Public License as published by
+ the Free Software Foundation, either version 3 of the License, or
+ (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU Affero General Public License for more details.
+
+ You should have received a copy of the GNU Affero General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.JUnit4Test;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDMIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
+
+/**
+ * Test the open addressing hash tables against the Java collections.
+ * 
+ * @author Erich Schubert
+ */
+public class TestIntOpenHash implements JUnit4Test {
+  /**
+   * Number of operations.
+   */
+  private static final int OPS = 100000;
+
+  /**
+   * Key range; small, to have many collisions and removals.
+   */
+  private static final int RANGE = 2000;
+
+  /**
+   * Random insertions and removals in a map.
+   */
+  @Test
+  public void testMap() {
+    Random r = new Random(0L);
+    IntIntOpenHashMap map = new IntIntOpenHashMap(1, -1);
+    HashMap<Integer, Integer> ref = new HashMap<>();
+    for(int i = 0; i < OPS; i++) {
+      final int k = r.nextInt(RANGE) - (RANGE >> 2);
+      if(r.nextInt(3) == 0) {
+        Integer prev = ref.remove(k);
+        assertEquals(prev == null ? -1 : prev.intValue(), map.remove(k));
+      }
+      else {
+        Integer prev = ref.put(k, i);
+        assertEquals(prev == null ? -1 : prev.intValue(), map.put(k, i));
+      }
+      assertEquals(ref.size(), map.size());
+    }
+    for(int k = -RANGE; k < RANGE; k++) {
+      Integer v = ref.get(k);
+      assertEquals(v != null, map.containsKey(k));
+      assertEquals(v == null ? -1 : v.intValue(), map.get(k));
+    }
+    assertEquals(5, map.add(RANGE, 6));
+  }
+
+  /**
+   * Random insertions and removals in a DBID set, including removal while
+   * iterating.
+   */
+  @Test
+  public void testSetIterator() {
+    Random r = new Random(0L);
+    HashSetModifiableDBIDs set = DBIDUtil.newHashSet();
+    HashSet<Integer> ref = new HashSet<>();
+    for(int round = 0; round < 20; round++) {
+      for(int i = 0; i < RANGE; i++) {
+        final int k = r.nextInt(RANGE << 1) - RANGE;
+        assertEquals(ref.add(k), set.add(DBIDUtil.importInteger(k)));
+      }
+      // Remove about half of the keys while iterating.
+      HashSet<Integer> seen = new HashSet<>();
+      for(DBIDMIter it = set.iter(); it.valid(); it.advance()) {
+        final int k = DBIDUtil.asInteger(it);
+        assertTrue("Key visited twice: " + k, seen.add(k));
+        assertTrue("Unknown key: " + k, ref.contains(k));
+        if(r.nextBoolean()) {
+          it.remove();
+          ref.remove(k);
+        }
+      }
+      for(Integer k : ref) {
+        assertTrue("Key lost: " + k, seen.contains(k));
+      }
+      assertEquals(ref.size(), set.size());
+      for(int k = -RANGE; k < RANGE; k++) {
+        assertEquals(ref.contains(k), set.contains(DBIDUtil.importInteger(k)));
+      }
+    }
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(DBIDUtil.importInteger(0)));
+  }
+
+  /**
+   * Random insertions and removals in an int set, including removal while
+   * iterating.
+   */
+  @Test
+  public void testIntSet() {
+    Random r = new Random(0L);
+    IntOpenHashSet set = new IntOpenHashSet(1);
+    HashSet<Integer> ref = new HashSet<>();
+    for(int round = 0; round < 20; round++) {
+      for(int i = 0; i < RANGE; i++) {
+        final int k = r.nextInt(RANGE << 1) - RANGE;
+        assertEquals(ref.add(k), set.add(k));
+      }
+      HashSet<Integer> seen = new HashSet<>();
+      for(IntOpenHashSet.Iter it = set.iter(); it.valid(); it.advance()) {
+        final int k = it.getKey();
+        assertTrue("Key visited twice: " + k, seen.add(k));
+        assertTrue("Unknown key: " + k, ref.contains(k));
+        if(r.nextBoolean()) {
+          it.removeCurrent();
+          ref.remove(k);
+        }
+      }
+      for(Integer k : ref) {
+        assertTrue("Key lost: " + k, seen.contains(k));
+      }
+      assertEquals(ref.size(), set.size());
+      for(int k = -RANGE; k < RANGE; k++) {
+        assertEquals(ref.contains(k), set.contains(k));
+        if(ref.contains(k) && r.nextInt(4) == 0) {
+          assertTrue(set.remove(k));
+          ref.remove(k);
+        }
+      }
+      assertEquals(ref.size(), set.size());
+    }
+    set.clear();
+    assertTrue(set.isEmpty());
+    assertFalse(set.contains(0));
+  }
+}